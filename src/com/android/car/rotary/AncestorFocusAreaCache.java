@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.car.rotary;
+
+import android.util.LruCache;
+import android.view.accessibility.AccessibilityNodeInfo;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+/**
+ * A cache of the ancestor focus area of recently seen nodes.
+ * <p>
+ * Finding the focus area containing a node means climbing its ancestors, at the cost of one binder
+ * call per level. The same nodes are looked up repeatedly, e.g. once per detent while rotating, so
+ * the result is cached. Nodes are keyed as {@link AccessibilityNodeInfo#equals} defines them, i.e.
+ * by window ID and source node ID.
+ * <p>
+ * Entries are tagged with the {@link LayoutGenerations layout generation} of their window, and
+ * ignored once it has advanced.
+ */
+class AncestorFocusAreaCache {
+
+    /** The maximum number of nodes cached. */
+    private static final int MAX_SIZE = 100;
+
+    @NonNull
+    private NodeCopier mNodeCopier = new NodeCopier();
+
+    @NonNull
+    private final LayoutGenerations mLayoutGenerations;
+
+    @NonNull
+    private final LruCache<AccessibilityNodeInfo, Entry> mCache =
+            new LruCache<AccessibilityNodeInfo, Entry>(MAX_SIZE) {
+                @Override
+                protected void entryRemoved(boolean evicted, AccessibilityNodeInfo key,
+                        Entry oldValue, Entry newValue) {
+                    Utils.recycleNode(key);
+                    Utils.recycleNode(oldValue.mFocusArea);
+                }
+            };
+
+    AncestorFocusAreaCache(@NonNull LayoutGenerations layoutGenerations) {
+        mLayoutGenerations = layoutGenerations;
+    }
+
+    /**
+     * Returns a copy of the focus area cached for the given node, or null if there isn't one for
+     * the current layout generation of the node's window. The caller is responsible for recycling
+     * the result.
+     */
+    @Nullable
+    AccessibilityNodeInfo get(@NonNull AccessibilityNodeInfo node) {
+        Entry entry = mCache.get(node);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.mGeneration != mLayoutGenerations.get(node.getWindowId())) {
+            // Leave the stale entry to be replaced or evicted. Removing it here would recycle
+            // the caller's node, since LruCache passes the given key to entryRemoved().
+            return null;
+        }
+        return mNodeCopier.copy(entry.mFocusArea);
+    }
+
+    /**
+     * Caches the focus area of the given node, found in the given layout {@code generation} of its
+     * window. Copies of the nodes are saved, so the caller still owns them.
+     */
+    void put(@NonNull AccessibilityNodeInfo node, @NonNull AccessibilityNodeInfo focusArea,
+            int generation) {
+        mCache.put(mNodeCopier.copy(node), new Entry(mNodeCopier.copy(focusArea), generation));
+    }
+
+    /** Sets a mock {@link NodeCopier} instance for testing. */
+    @VisibleForTesting
+    void setNodeCopier(@NonNull NodeCopier nodeCopier) {
+        mNodeCopier = nodeCopier;
+    }
+
+    /** A cached focus area and the layout generation it was found in. */
+    private static class Entry {
+        @NonNull
+        final AccessibilityNodeInfo mFocusArea;
+        final int mGeneration;
+
+        Entry(@NonNull AccessibilityNodeInfo focusArea, int generation) {
+            mFocusArea = focusArea;
+            mGeneration = generation;
+        }
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.car.rotary;
+
+import android.util.LruCache;
+import android.view.accessibility.AccessibilityNodeInfo;
+import android.view.accessibility.AccessibilityWindowInfo;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.VisibleForTesting;
+
+import java.util.List;
+
+/**
+ * A cache of the nudges that found no target, so that repeating a nudge towards the edge of the
+ * screen doesn't search the windows again only to fail again.
+ * <p>
+ * A failed nudge is saved by its source focus area and direction, along with the focused view it
+ * was made from, since another view in the same focus area might have a target. It's saved with
+ * a {@link LayoutGenerations.Stamp} of all the windows on the screen, and forgotten once any of
+ * them has been invalidated, or if the windows on the screen aren't the ones it failed with. It
+ * must also be forgotten via {@link #clear} when a nudge succeeds, because the nudge history saved
+ * then may give a target to a nudge that failed before.
+ */
+class FailedNudgeCache {
+
+    /** The maximum number of source focus areas cached. */
+    private static final int MAX_SIZE = 20;
+
+    @NonNull
+    private NodeCopier mNodeCopier = new NodeCopier();
+
+    @NonNull
+    private final LayoutGenerations mLayoutGenerations;
+
+    /**
+     * The failed nudges from each source focus area, indexed by {@link
+     * Utils#getNudgeDirectionIndex}.
+     */
+    @NonNull
+    private final LruCache<AccessibilityNodeInfo, FailedNudge[]> mCache =
+            new LruCache<AccessibilityNodeInfo, FailedNudge[]>(MAX_SIZE) {
+                @Override
+                protected void entryRemoved(boolean evicted, AccessibilityNodeInfo key,
+                        FailedNudge[] oldValue, FailedNudge[] newValue) {
+                    Utils.recycleNode(key);
+                    for (FailedNudge failedNudge : oldValue) {
+                        if (failedNudge != null) {
+                            failedNudge.mSourceNode.recycle();
+                        }
+                    }
+                }
+            };
+
+    FailedNudgeCache(@NonNull LayoutGenerations layoutGenerations) {
+        mLayoutGenerations = layoutGenerations;
+    }
+
+    /**
+     * Returns whether a nudge from {@code sourceNode} in {@code focusArea} in the given {@code
+     * direction} failed, and the given {@code windows} and their layouts haven't changed since.
+     */
+    boolean contains(@NonNull AccessibilityNodeInfo focusArea,
+            @NonNull AccessibilityNodeInfo sourceNode, int direction,
+            @NonNull List<AccessibilityWindowInfo> windows) {
+        FailedNudge[] failedNudges = mCache.get(focusArea);
+        if (failedNudges == null) {
+            return false;
+        }
+        FailedNudge failedNudge = failedNudges[Utils.getNudgeDirectionIndex(direction)];
+        return failedNudge != null
+                && failedNudge.mSourceNode.equals(sourceNode)
+                && mLayoutGenerations.isCurrent(failedNudge.mStamp, windows);
+    }
+
+    /**
+     * Saves that a nudge from {@code sourceNode} in {@code focusArea} in the given {@code
+     * direction} failed. Copies of the nodes are saved, so the caller still owns them.
+     *
+     * @param stamp a stamp of all the windows on the screen, taken before the nudge was searched
+     */
+    void put(@NonNull AccessibilityNodeInfo focusArea, @NonNull AccessibilityNodeInfo sourceNode,
+            int direction, @NonNull LayoutGenerations.Stamp stamp) {
+        FailedNudge failedNudge = new FailedNudge(mNodeCopier.copy(sourceNode), stamp);
+
+        FailedNudge[] failedNudges = mCache.get(focusArea);
+        if (failedNudges == null) {
+            failedNudges = new FailedNudge[Utils.NUDGE_DIRECTION_COUNT];
+            mCache.put(mNodeCopier.copy(focusArea), failedNudges);
+        }
+        int index = Utils.getNudgeDirectionIndex(direction);
+        if (failedNudges[index] != null) {
+            failedNudges[index].mSourceNode.recycle();
+        }
+        failedNudges[index] = failedNudge;
+    }
+
+    /** Forgets all the nudges that failed. */
+    void clear() {
+        mCache.evictAll();
+    }
+
+    /** Sets a mock {@link NodeCopier} instance for testing. */
+    @VisibleForTesting
+    void setNodeCopier(@NonNull NodeCopier nodeCopier) {
+        mNodeCopier = nodeCopier;
+    }
+
+    /** A nudge that found no target. */
+    private static class FailedNudge {
+        /** The focused view the nudge was made from. */
+        @NonNull
+        final AccessibilityNodeInfo mSourceNode;
+
+        /** The windows on the screen and their layout generations when the nudge failed. */
+        @NonNull
+        final LayoutGenerations.Stamp mStamp;
+
+        FailedNudge(@NonNull AccessibilityNodeInfo sourceNode,
+                @NonNull LayoutGenerations.Stamp stamp) {
+            mSourceNode = sourceNode;
+            mStamp = stamp;
+        }
+    }
+}
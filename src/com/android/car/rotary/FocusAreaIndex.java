@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.car.rotary;
+
+import android.util.SparseArray;
+import android.view.accessibility.AccessibilityNodeInfo;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Index of the focus areas in each window, keyed by window ID. Listing the focus areas in a window
+ * requires walking its whole view hierarchy, which costs one binder call per node. This index lets
+ * a window be walked once and reused until the window or its content changes.
+ * <p>
+ * Entries must be invalidated (see {@link #invalidateWindow}) whenever the window is changed,
+ * removed, scrolled or its content changes; otherwise stale focus areas will be returned.
+ */
+class FocusAreaIndex {
+
+    @NonNull
+    private NodeCopier mNodeCopier = new NodeCopier();
+
+    /** Copies of the focus areas (or the root node if none) in each window, by window ID. */
+    @NonNull
+    private final SparseArray<List<AccessibilityNodeInfo>> mFocusAreas = new SparseArray<>();
+
+    /**
+     * Returns copies of the focus areas indexed for the given window, or null if the window hasn't
+     * been indexed. The caller is responsible for recycling the nodes in the result.
+     */
+    @Nullable
+    List<AccessibilityNodeInfo> getFocusAreas(int windowId) {
+        List<AccessibilityNodeInfo> focusAreas = mFocusAreas.get(windowId);
+        if (focusAreas == null) {
+            return null;
+        }
+        List<AccessibilityNodeInfo> results = new ArrayList<>(focusAreas.size());
+        for (AccessibilityNodeInfo focusArea : focusAreas) {
+            results.add(copyNode(focusArea));
+        }
+        return results;
+    }
+
+    /**
+     * Indexes the given {@code focusAreas} for the given window, replacing the existing entry, if
+     * any. Copies of the nodes are saved, so the caller still owns {@code focusAreas}.
+     */
+    void putFocusAreas(int windowId, @NonNull List<AccessibilityNodeInfo> focusAreas) {
+        List<AccessibilityNodeInfo> copies = new ArrayList<>(focusAreas.size());
+        for (AccessibilityNodeInfo focusArea : focusAreas) {
+            copies.add(copyNode(focusArea));
+        }
+        invalidateWindow(windowId);
+        mFocusAreas.put(windowId, copies);
+    }
+
+    /** Removes the entry for the given window, if any. */
+    void invalidateWindow(int windowId) {
+        List<AccessibilityNodeInfo> focusAreas = mFocusAreas.get(windowId);
+        if (focusAreas != null) {
+            Utils.recycleNodes(focusAreas);
+            mFocusAreas.remove(windowId);
+        }
+    }
+
+    /** Removes all the entries. */
+    void invalidateAll() {
+        for (int i = 0; i < mFocusAreas.size(); i++) {
+            Utils.recycleNodes(mFocusAreas.valueAt(i));
+        }
+        mFocusAreas.clear();
+    }
+
+    /** Returns whether the given window has been indexed. */
+    @VisibleForTesting
+    boolean isIndexed(int windowId) {
+        return mFocusAreas.get(windowId) != null;
+    }
+
+    /** Sets a mock {@link NodeCopier} instance for testing. */
+    @VisibleForTesting
+    void setNodeCopier(@NonNull NodeCopier nodeCopier) {
+        mNodeCopier = nodeCopier;
+    }
+
+    private AccessibilityNodeInfo copyNode(@Nullable AccessibilityNodeInfo node) {
+        return mNodeCopier.copy(node);
+    }
+}
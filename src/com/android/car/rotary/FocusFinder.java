@@ -57,6 +57,33 @@ class FocusFinder {
                 + "FOCUS_UP, FOCUS_DOWN, FOCUS_LEFT, or FOCUS_RIGHT.");
     }
 
+    /**
+     * Returns whether {@code containerRect} may contain a rectangle that {@link #isCandidate}
+     * accepts from {@code srcRect} given the {@code direction}. If this returns false, no rectangle
+     * inside {@code containerRect} is a candidate, so the views in a container with these bounds
+     * needn't be searched. For example, for {@link View#FOCUS_LEFT} a candidate's left edge must
+     * be on the left of {@code srcRect.left}, so the container's must be too.
+     *
+     * @param srcRect       the source rectangle we are searching from
+     * @param containerRect the bounds of a window or view containing the candidates
+     * @param direction     must be {@link View#FOCUS_UP},{@link View#FOCUS_DOWN},
+     *                      {@link View#FOCUS_LEFT},or {@link View#FOCUS_RIGHT}
+     */
+    static boolean mayContainCandidate(Rect srcRect, Rect containerRect, int direction) {
+        switch (direction) {
+            case View.FOCUS_LEFT:
+                return srcRect.left > containerRect.left;
+            case View.FOCUS_RIGHT:
+                return srcRect.right < containerRect.right;
+            case View.FOCUS_UP:
+                return srcRect.top > containerRect.top;
+            case View.FOCUS_DOWN:
+                return srcRect.bottom < containerRect.bottom;
+        }
+        throw new IllegalArgumentException("direction must be one of "
+                + "{FOCUS_UP, FOCUS_DOWN, FOCUS_LEFT, FOCUS_RIGHT}.");
+    }
+
     /**
      * Returns whether {@code destRect} is a candidate for the next focus given the {@code
      * direction}.
@@ -0,0 +1,251 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.car.rotary;
+
+import android.graphics.Rect;
+import android.util.SparseArray;
+import android.view.View;
+import android.view.accessibility.AccessibilityNodeInfo;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A cache of the focus order within focus areas, i.e., the order in which {@link
+ * AccessibilityNodeInfo#focusSearch} visits the views that can take focus. With it, rotating by
+ * several detents is an offset into a list rather than a binder call per detent.
+ * <p>
+ * The focus order of a focus area is learned as the user rotates through it: {@link Navigator}
+ * only calls {@link AccessibilityNodeInfo#focusSearch} to extend the order past its known ends.
+ * Once an end is known to lead out of the focus area, it's closed. The bounds of each node, and of
+ * the scrollable container around it, are cached along with it, so that checking whether the next
+ * node is scrolled off the screen doesn't need a binder call either.
+ * <p>
+ * The focus orders of a window must be invalidated via {@link #invalidateWindow} whenever its
+ * content changes or scrolls.
+ */
+class FocusOrderCache {
+
+    /** The focus orders in each window, by window ID. */
+    @NonNull
+    private final SparseArray<List<FocusOrder>> mFocusOrders = new SparseArray<>();
+
+    /** Returns the focus order containing the given node, or null if there isn't one. */
+    @Nullable
+    FocusOrder get(@NonNull AccessibilityNodeInfo node) {
+        List<FocusOrder> focusOrders = mFocusOrders.get(node.getWindowId());
+        if (focusOrders == null) {
+            return null;
+        }
+        for (int i = 0; i < focusOrders.size(); i++) {
+            FocusOrder focusOrder = focusOrders.get(i);
+            if (focusOrder.contains(node)) {
+                return focusOrder;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Creates and caches a focus order for the given focus area, initially containing only the
+     * given node at position 0. The new focus order takes ownership of {@code focusArea} and
+     * {@code entry}.
+     */
+    @NonNull
+    FocusOrder create(@NonNull AccessibilityNodeInfo focusArea, @NonNull Entry entry) {
+        FocusOrder focusOrder = new FocusOrder(focusArea, entry);
+        int windowId = entry.mNode.getWindowId();
+        List<FocusOrder> focusOrders = mFocusOrders.get(windowId);
+        if (focusOrders == null) {
+            focusOrders = new ArrayList<>();
+            mFocusOrders.put(windowId, focusOrders);
+        }
+        focusOrders.add(focusOrder);
+        return focusOrder;
+    }
+
+    /** Discards and recycles the focus orders in the given window. */
+    void invalidateWindow(int windowId) {
+        List<FocusOrder> focusOrders = mFocusOrders.get(windowId);
+        if (focusOrders == null) {
+            return;
+        }
+        for (FocusOrder focusOrder : focusOrders) {
+            focusOrder.recycle();
+        }
+        mFocusOrders.remove(windowId);
+    }
+
+    /** Discards and recycles all the focus orders. */
+    void clear() {
+        for (int i = 0; i < mFocusOrders.size(); i++) {
+            for (FocusOrder focusOrder : mFocusOrders.valueAt(i)) {
+                focusOrder.recycle();
+            }
+        }
+        mFocusOrders.clear();
+    }
+
+    /** A node in a focus order, and the geometry needed to rotate to it. */
+    static class Entry {
+        @NonNull
+        final AccessibilityNodeInfo mNode;
+
+        @NonNull
+        final Rect mBounds;
+
+        /** The bounds of the scrollable container around the node, or null if there isn't one. */
+        @Nullable
+        final Rect mContainerBounds;
+
+        final boolean mContainerScrollsForward;
+        final boolean mContainerScrollsBackward;
+
+        /** Creates an entry, taking ownership of {@code node}. */
+        Entry(@NonNull AccessibilityNodeInfo node, @NonNull Rect bounds,
+                @Nullable Rect containerBounds, boolean containerScrollsForward,
+                boolean containerScrollsBackward) {
+            mNode = node;
+            mBounds = bounds;
+            mContainerBounds = containerBounds;
+            mContainerScrollsForward = containerScrollsForward;
+            mContainerScrollsBackward = containerScrollsBackward;
+        }
+
+        /**
+         * Returns whether rotating from this node to {@code next} in the given direction should
+         * stop, because this node's scrollable container can scroll in that direction and
+         * {@code next} is outside it. The container will be scrolled instead.
+         */
+        boolean isClipped(@NonNull Entry next, int direction) {
+            if (mContainerBounds == null) {
+                return false;
+            }
+            boolean scrolls = direction == View.FOCUS_FORWARD
+                    ? mContainerScrollsForward
+                    : mContainerScrollsBackward;
+            return scrolls && !Rect.intersects(next.mBounds, mContainerBounds);
+        }
+    }
+
+    /**
+     * The known part of the focus order of one focus area. Positions are relative to the node the
+     * order was created with, with {@link View#FOCUS_FORWARD} increasing them.
+     */
+    static class FocusOrder {
+        @NonNull
+        private final AccessibilityNodeInfo mFocusArea;
+
+        /** The entries at positions 0, 1, 2, and so on. */
+        @NonNull
+        private final List<Entry> mForward = new ArrayList<>();
+
+        /** The entries at positions -1, -2, -3, and so on. */
+        @NonNull
+        private final List<Entry> mBackward = new ArrayList<>();
+
+        @NonNull
+        private final Map<AccessibilityNodeInfo, Integer> mPositions = new HashMap<>();
+
+        /** Whether the node after the last one forward is known to be outside the focus area. */
+        private boolean mForwardClosed;
+
+        /** Whether the node before the first one is known to be outside the focus area. */
+        private boolean mBackwardClosed;
+
+        private FocusOrder(@NonNull AccessibilityNodeInfo focusArea, @NonNull Entry entry) {
+            mFocusArea = focusArea;
+            mForward.add(entry);
+            mPositions.put(entry.mNode, 0);
+        }
+
+        /** Returns the focus area this is the focus order of. Don't recycle it. */
+        @NonNull
+        AccessibilityNodeInfo getFocusArea() {
+            return mFocusArea;
+        }
+
+        boolean contains(@NonNull AccessibilityNodeInfo node) {
+            return mPositions.containsKey(node);
+        }
+
+        /** Returns the position of the given node, which must be in this focus order. */
+        int getPosition(@NonNull AccessibilityNodeInfo node) {
+            return mPositions.get(node);
+        }
+
+        /** Returns whether the given position is known. */
+        boolean hasPosition(int position) {
+            return position >= 0 ? position < mForward.size() : -position <= mBackward.size();
+        }
+
+        /** Returns the entry at the given position, which must be known. */
+        @NonNull
+        Entry getEntry(int position) {
+            return position >= 0 ? mForward.get(position) : mBackward.get(-position - 1);
+        }
+
+        /**
+         * Returns the position of the last known node in the given direction, which must be
+         * {@link View#FOCUS_FORWARD} or {@link View#FOCUS_BACKWARD}.
+         */
+        int getEnd(int direction) {
+            return direction == View.FOCUS_FORWARD ? mForward.size() - 1 : -mBackward.size();
+        }
+
+        /** Returns whether the end in the given direction leads out of the focus area. */
+        boolean isClosed(int direction) {
+            return direction == View.FOCUS_FORWARD ? mForwardClosed : mBackwardClosed;
+        }
+
+        /** Marks the end in the given direction as leading out of the focus area. */
+        void close(int direction) {
+            if (direction == View.FOCUS_FORWARD) {
+                mForwardClosed = true;
+            } else {
+                mBackwardClosed = true;
+            }
+        }
+
+        /**
+         * Adds the given entry past the end in the given direction, taking ownership of it. Its
+         * node mustn't be in this focus order already.
+         */
+        void extend(int direction, @NonNull Entry entry) {
+            if (direction == View.FOCUS_FORWARD) {
+                mForward.add(entry);
+            } else {
+                mBackward.add(entry);
+            }
+            mPositions.put(entry.mNode, getEnd(direction));
+        }
+
+        private void recycle() {
+            mFocusArea.recycle();
+            for (Entry entry : mForward) {
+                entry.mNode.recycle();
+            }
+            for (Entry entry : mBackward) {
+                entry.mNode.recycle();
+            }
+        }
+    }
+}
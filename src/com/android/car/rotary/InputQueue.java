@@ -0,0 +1,219 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.car.rotary;
+
+import androidx.annotation.IntDef;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.PrintWriter;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.util.ArrayDeque;
+
+/**
+ * A bounded queue of the rotations and nudges waiting to be handled. When the foreground app is
+ * slow to respond, e.g. to {@code ACTION_FOCUS} or {@code focusSearch}, input events keep arriving
+ * while the main thread is blocked. Queuing them here rather than handling each one as it arrives
+ * lets the ones that pile up be collapsed, so that the focus doesn't keep moving after the user has
+ * stopped.
+ * <p>
+ * With {@link #COLLAPSE_POLICY_MERGE}, a rotation added right after another rotation is summed
+ * with it, and a nudge added right after another nudge replaces it, i.e., only the latest direction
+ * is kept. With either policy, the oldest input is dropped when the queue is full.
+ * <p>
+ * The queueing delay of each input, i.e., the time from when it was added to when it was polled,
+ * is measured and reported by {@link #dump}.
+ */
+class InputQueue {
+
+    /** Inputs are handled one by one, as they arrived. */
+    static final int COLLAPSE_POLICY_NONE = 0;
+    /** Consecutive rotations are summed, and consecutive nudges collapse to the latest one. */
+    static final int COLLAPSE_POLICY_MERGE = 1;
+
+    @IntDef(value = {COLLAPSE_POLICY_NONE, COLLAPSE_POLICY_MERGE})
+    @Retention(RetentionPolicy.SOURCE)
+    @interface CollapsePolicy {
+    }
+
+    private final int mCapacity;
+
+    @CollapsePolicy
+    private final int mCollapsePolicy;
+
+    @NonNull
+    private final ArrayDeque<Input> mInputs = new ArrayDeque<>();
+
+    /** The number of inputs polled. */
+    private long mPolledCount;
+
+    /** The number of inputs added which were merged into, or replaced, the previous input. */
+    private long mCollapsedCount;
+
+    /** The number of inputs dropped because the queue was full. */
+    private long mDroppedCount;
+
+    /** The sum of the queueing delays of the inputs polled, in milliseconds. */
+    private long mTotalDelayMs;
+
+    /** The longest queueing delay of the inputs polled, in milliseconds. */
+    private long mMaxDelayMs;
+
+    /**
+     * Creates an input queue which holds up to {@code capacity} inputs, collapsing them according
+     * to {@code collapsePolicy}.
+     */
+    InputQueue(int capacity, @CollapsePolicy int collapsePolicy) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+        mCapacity = capacity;
+        mCollapsePolicy = collapsePolicy;
+    }
+
+    /**
+     * Adds a rotation of {@code count} "ticks" in the given direction, whose input event occurred
+     * at {@code inputTime}. Both times are {@link android.os.SystemClock#uptimeMillis}.
+     */
+    void addRotation(boolean clockwise, int count, long inputTime, long uptime) {
+        int netCount = clockwise ? count : -count;
+        Input last = mInputs.peekLast();
+        if (mCollapsePolicy == COLLAPSE_POLICY_MERGE && last != null
+                && last.mType == Input.TYPE_ROTATION) {
+            mCollapsedCount++;
+            last.mNetCount += netCount;
+            if (last.mNetCount == 0) {
+                // The rotations cancelled out, so there's nothing left to do.
+                mInputs.pollLast();
+            }
+            return;
+        }
+        add(new Input(Input.TYPE_ROTATION, netCount, /* direction= */ 0, inputTime, uptime));
+    }
+
+    /**
+     * Adds a nudge in the given direction, whose input event occurred at {@code inputTime}. Both
+     * times are {@link android.os.SystemClock#uptimeMillis}.
+     */
+    void addNudge(int direction, long inputTime, long uptime) {
+        Input last = mInputs.peekLast();
+        if (mCollapsePolicy == COLLAPSE_POLICY_MERGE && last != null
+                && last.mType == Input.TYPE_NUDGE) {
+            mCollapsedCount++;
+            last.mDirection = direction;
+            return;
+        }
+        add(new Input(Input.TYPE_NUDGE, /* netCount= */ 0, direction, inputTime, uptime));
+    }
+
+    private void add(@NonNull Input input) {
+        if (mInputs.size() == mCapacity) {
+            mDroppedCount++;
+            mInputs.pollFirst();
+        }
+        mInputs.addLast(input);
+    }
+
+    boolean isEmpty() {
+        return mInputs.isEmpty();
+    }
+
+    /**
+     * Removes and returns the oldest input, or returns null if the queue is empty. {@code uptime}
+     * is the current {@link android.os.SystemClock#uptimeMillis}, used to measure the queueing
+     * delay.
+     */
+    @Nullable
+    Input poll(long uptime) {
+        Input input = mInputs.pollFirst();
+        if (input != null) {
+            long delayMs = Math.max(0, uptime - input.mAddTime);
+            mPolledCount++;
+            mTotalDelayMs += delayMs;
+            mMaxDelayMs = Math.max(mMaxDelayMs, delayMs);
+        }
+        return input;
+    }
+
+    long getCollapsedCount() {
+        return mCollapsedCount;
+    }
+
+    long getDroppedCount() {
+        return mDroppedCount;
+    }
+
+    /** Returns the average queueing delay of the inputs polled, in milliseconds. */
+    long getAverageDelayMs() {
+        return mPolledCount == 0 ? 0 : mTotalDelayMs / mPolledCount;
+    }
+
+    /** Returns the longest queueing delay of the inputs polled, in milliseconds. */
+    long getMaxDelayMs() {
+        return mMaxDelayMs;
+    }
+
+    void dump(@NonNull String prefix, @NonNull PrintWriter writer) {
+        writer.printf("%sInput queue: pending=%d polled=%d collapsed=%d dropped=%d "
+                        + "avgDelayMs=%d maxDelayMs=%d%n",
+                prefix, mInputs.size(), mPolledCount, mCollapsedCount, mDroppedCount,
+                getAverageDelayMs(), mMaxDelayMs);
+    }
+
+    /** A rotation or a nudge in {@link InputQueue}, possibly collapsed from several. */
+    static class Input {
+        static final int TYPE_ROTATION = 0;
+        static final int TYPE_NUDGE = 1;
+
+        final int mType;
+
+        /** For rotations, the net number of "ticks", positive for clockwise. */
+        private int mNetCount;
+
+        /** For nudges, the direction. */
+        private int mDirection;
+
+        /** When the input event of the first input collapsed into this one occurred. */
+        final long mInputTime;
+
+        /** When the first input collapsed into this one was added to the queue. */
+        private final long mAddTime;
+
+        private Input(int type, int netCount, int direction, long inputTime, long addTime) {
+            mType = type;
+            mNetCount = netCount;
+            mDirection = direction;
+            mInputTime = inputTime;
+            mAddTime = addTime;
+        }
+
+        /** For rotations, returns whether the net rotation is clockwise. */
+        boolean isClockwise() {
+            return mNetCount > 0;
+        }
+
+        /** For rotations, returns the net number of "ticks", which is never negative. */
+        int getCount() {
+            return Math.abs(mNetCount);
+        }
+
+        /** For nudges, returns the direction. */
+        int getDirection() {
+            return mDirection;
+        }
+    }
+}
@@ -0,0 +1,340 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.car.rotary;
+
+import android.os.SystemClock;
+
+import androidx.annotation.IntDef;
+import androidx.annotation.NonNull;
+import androidx.annotation.VisibleForTesting;
+
+import java.io.PrintWriter;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Accounting of the binder calls made while handling each type of input event.
+ * <p>
+ * Methods such as {@link android.view.accessibility.AccessibilityNodeInfo#getChild} and {@link
+ * android.view.accessibility.AccessibilityNodeInfo#focusSearch} are binder calls to the app that
+ * owns the view hierarchy. Every such call site reports itself via {@link #record}. The service
+ * brackets the handling of each input event with {@link #beginEvent} and {@link #endEvent}, so
+ * calls are attributed to the event that caused them, along with the wall time spent handling it.
+ * The event being handled is tracked per thread, and work done on another thread for an event,
+ * such as a search run by {@link NavigationPipeline}, is bracketed with {@link #resumeEvent} and
+ * {@link #endEvent}. The totals appear in the service's dump output.
+ * <p>
+ * {@link #record} is called for every binder call, so it doesn't take a lock. Each thread counts
+ * its own calls, and the counts of all the threads are added up when they're read.
+ */
+final class IpcTracker {
+
+    /** {@link android.view.accessibility.AccessibilityNodeInfo#getChild}. */
+    static final int OP_GET_CHILD = 0;
+    /** {@link android.view.accessibility.AccessibilityNodeInfo#getParent}. */
+    static final int OP_GET_PARENT = 1;
+    /** {@link android.view.accessibility.AccessibilityNodeInfo#refresh}. */
+    static final int OP_REFRESH = 2;
+    /** {@link android.view.accessibility.AccessibilityNodeInfo#getWindow}. */
+    static final int OP_GET_WINDOW = 3;
+    /** {@link android.view.accessibility.AccessibilityNodeInfo#focusSearch}. */
+    static final int OP_FOCUS_SEARCH = 4;
+    /** {@link android.view.accessibility.AccessibilityNodeInfo#performAction}. */
+    static final int OP_PERFORM_ACTION = 5;
+    /**
+     * {@link android.view.accessibility.AccessibilityWindowInfo#getRoot} or {@link
+     * android.accessibilityservice.AccessibilityService#getRootInActiveWindow}.
+     */
+    static final int OP_GET_ROOT = 6;
+    /** {@link android.accessibilityservice.AccessibilityService#getWindows}. */
+    static final int OP_GET_WINDOWS = 7;
+    /** {@link android.view.accessibility.AccessibilityRecord#getSource}. */
+    static final int OP_GET_SOURCE = 8;
+
+    private static final String[] OP_NAMES = {"getChild", "getParent", "refresh", "getWindow",
+            "focusSearch", "performAction", "getRoot", "getWindows", "getSource"};
+
+    @IntDef(value = {OP_GET_CHILD, OP_GET_PARENT, OP_REFRESH, OP_GET_WINDOW,
+            OP_FOCUS_SEARCH, OP_PERFORM_ACTION, OP_GET_ROOT, OP_GET_WINDOWS, OP_GET_SOURCE})
+    @Retention(RetentionPolicy.SOURCE)
+    @interface Op {
+    }
+
+    /** Calls made outside the handling of any input event. */
+    static final int EVENT_NONE = 0;
+    /** A controller rotation. */
+    static final int EVENT_ROTATE = 1;
+    /** A controller nudge. */
+    static final int EVENT_NUDGE = 2;
+    /** A center button click. */
+    static final int EVENT_CENTER_BUTTON = 3;
+    /** A back button click. */
+    static final int EVENT_BACK_BUTTON = 4;
+    /** An {@link android.view.accessibility.AccessibilityEvent}. */
+    static final int EVENT_ACCESSIBILITY = 5;
+    /** Work done speculatively while the main thread is idle, ahead of the next input event. */
+    static final int EVENT_SPECULATION = 6;
+
+    private static final String[] EVENT_NAMES = {"none", "rotate", "nudge", "center button",
+            "back button", "accessibility event", "speculation"};
+
+    @IntDef(value = {EVENT_NONE, EVENT_ROTATE, EVENT_NUDGE, EVENT_CENTER_BUTTON,
+            EVENT_BACK_BUTTON, EVENT_ACCESSIBILITY, EVENT_SPECULATION})
+    @Retention(RetentionPolicy.SOURCE)
+    @interface EventType {
+    }
+
+    private static final Object sLock = new Object();
+
+    /** The {@link EventState} of each live thread which has recorded calls. Guarded by sLock. */
+    private static final List<EventState> sThreadStates = new ArrayList<>();
+
+    /**
+     * The number of calls of each op, by event type, made on threads which have since ended.
+     * Guarded by sLock.
+     */
+    private static final long[][] sEndedThreadCounts =
+            new long[EVENT_NAMES.length][OP_NAMES.length];
+
+    /** The number of events of each type handled. */
+    private static final long[] sEventCounts = new long[EVENT_NAMES.length];
+
+    /** The total wall time spent handling events of each type, in nanoseconds. */
+    private static final long[] sEventTimesNs = new long[EVENT_NAMES.length];
+
+    /** The event being handled on each thread, and the calls made on it. */
+    private static final ThreadLocal<EventState> sEventState =
+            ThreadLocal.withInitial(IpcTracker::registerThread);
+
+    private IpcTracker() {
+    }
+
+    /** Records one binder call of the given type. */
+    static void record(@Op int op) {
+        EventState state = sEventState.get();
+        // Only this thread writes its counts, so a lazy set is enough to increment them.
+        int index = getIndex(state.mType, op);
+        state.mCounts.lazySet(index, state.mCounts.get(index) + 1);
+    }
+
+    /**
+     * Attributes the calls recorded on this thread until the matching {@link #endEvent} to an
+     * event of the given type. Calls may nest; the outermost event type wins.
+     */
+    static void beginEvent(@EventType int eventType) {
+        begin(eventType, /* resumed= */ false);
+    }
+
+    /**
+     * Like {@link #beginEvent}, but for more work on an event of the given type which was begun
+     * on another thread, e.g. a search {@link NavigationPipeline} runs for it. The time is added
+     * to the event's, but the event isn't counted again.
+     */
+    static void resumeEvent(@EventType int eventType) {
+        begin(eventType, /* resumed= */ true);
+    }
+
+    private static void begin(@EventType int eventType, boolean resumed) {
+        EventState state = sEventState.get();
+        if (state.mDepth++ == 0) {
+            state.mType = eventType;
+            state.mResumed = resumed;
+            state.mStartTimeNs = SystemClock.elapsedRealtimeNanos();
+        }
+    }
+
+    /** Ends the event started by the matching {@link #beginEvent} or {@link #resumeEvent}. */
+    static void endEvent() {
+        EventState state = sEventState.get();
+        if (state.mDepth == 0) {
+            L.w("IpcTracker.endEvent() called without beginEvent()");
+            return;
+        }
+        if (--state.mDepth > 0) {
+            return;
+        }
+        synchronized (sLock) {
+            if (!state.mResumed) {
+                sEventCounts[state.mType]++;
+            }
+            sEventTimesNs[state.mType] += SystemClock.elapsedRealtimeNanos() - state.mStartTimeNs;
+        }
+        state.mType = EVENT_NONE;
+    }
+
+    /** Returns the type of the event being handled on this thread, or {@link #EVENT_NONE}. */
+    @EventType
+    static int getCurrentEventType() {
+        return sEventState.get().mType;
+    }
+
+    /** Returns the number of calls of the given type recorded for the given event type. */
+    @VisibleForTesting
+    static long getCount(@EventType int eventType, @Op int op) {
+        synchronized (sLock) {
+            collectEndedThreads();
+            long count = sEndedThreadCounts[eventType][op];
+            for (int i = 0; i < sThreadStates.size(); i++) {
+                count += sThreadStates.get(i).mCounts.get(getIndex(eventType, op));
+            }
+            return count;
+        }
+    }
+
+    /** Returns the number of events of the given type handled. */
+    @VisibleForTesting
+    static long getEventCount(@EventType int eventType) {
+        synchronized (sLock) {
+            return sEventCounts[eventType];
+        }
+    }
+
+    /** Clears all the counts, and the event being handled on this thread. */
+    @VisibleForTesting
+    static void reset() {
+        synchronized (sLock) {
+            for (long[] counts : sEndedThreadCounts) {
+                Arrays.fill(counts, 0);
+            }
+            for (int i = 0; i < sThreadStates.size(); i++) {
+                AtomicLongArray counts = sThreadStates.get(i).mCounts;
+                for (int index = 0; index < counts.length(); index++) {
+                    counts.set(index, 0);
+                }
+            }
+            Arrays.fill(sEventCounts, 0);
+            Arrays.fill(sEventTimesNs, 0);
+        }
+        EventState state = sEventState.get();
+        state.mType = EVENT_NONE;
+        state.mDepth = 0;
+    }
+
+    /**
+     * Prints the counts for each event type, along with the average number of calls and the
+     * average wall time per event.
+     */
+    static void dump(@NonNull String prefix, @NonNull PrintWriter writer) {
+        synchronized (sLock) {
+            collectEndedThreads();
+            long[][] counts = new long[EVENT_NAMES.length][];
+            for (int eventType = 0; eventType < EVENT_NAMES.length; eventType++) {
+                counts[eventType] = sEndedThreadCounts[eventType].clone();
+            }
+            for (int i = 0; i < sThreadStates.size(); i++) {
+                addCounts(sThreadStates.get(i), counts);
+            }
+
+            writer.println(prefix + "Binder calls by input event:");
+            for (int eventType = 0; eventType < EVENT_NAMES.length; eventType++) {
+                long eventCount = sEventCounts[eventType];
+                StringBuilder line = new StringBuilder(prefix).append("  ")
+                        .append(EVENT_NAMES[eventType]).append(':');
+                if (eventType != EVENT_NONE) {
+                    line.append(" events=").append(eventCount);
+                    if (eventCount > 0) {
+                        line.append(String.format(" avgTimeMs=%.3f",
+                                sEventTimesNs[eventType] / 1e6 / eventCount));
+                    }
+                }
+                long total = 0;
+                for (int op = 0; op < OP_NAMES.length; op++) {
+                    long count = counts[eventType][op];
+                    total += count;
+                    if (count > 0) {
+                        line.append(' ').append(OP_NAMES[op]).append('=').append(count);
+                    }
+                }
+                line.append(" total=").append(total);
+                if (eventType != EVENT_NONE && eventCount > 0) {
+                    line.append(String.format(" avgCallsPerEvent=%.1f",
+                            (double) total / eventCount));
+                }
+                writer.println(line);
+            }
+        }
+    }
+
+    /** Creates the state of the calling thread, and registers it so its counts can be read. */
+    @NonNull
+    private static EventState registerThread() {
+        EventState state = new EventState(Thread.currentThread());
+        synchronized (sLock) {
+            collectEndedThreads();
+            sThreadStates.add(state);
+        }
+        return state;
+    }
+
+    /**
+     * Moves the counts of the threads which have ended to {@link #sEndedThreadCounts}, so that
+     * {@link #sThreadStates} doesn't grow as threads come and go. Must be called with sLock held.
+     */
+    private static void collectEndedThreads() {
+        for (int i = sThreadStates.size() - 1; i >= 0; i--) {
+            EventState state = sThreadStates.get(i);
+            if (!state.mThread.isAlive()) {
+                addCounts(state, sEndedThreadCounts);
+                sThreadStates.remove(i);
+            }
+        }
+    }
+
+    /** Adds the counts of the given thread to the given counts by event type and op. */
+    private static void addCounts(@NonNull EventState state, @NonNull long[][] counts) {
+        for (int eventType = 0; eventType < EVENT_NAMES.length; eventType++) {
+            for (int op = 0; op < OP_NAMES.length; op++) {
+                counts[eventType][op] += state.mCounts.get(getIndex(eventType, op));
+            }
+        }
+    }
+
+    private static int getIndex(@EventType int eventType, @Op int op) {
+        return eventType * OP_NAMES.length + op;
+    }
+
+    /** The event being handled on a thread, and the calls made on it. */
+    private static class EventState {
+        @NonNull
+        final Thread mThread;
+
+        /**
+         * The number of calls of each op made on the thread, by event type. See {@link
+         * #getIndex}. Only the thread itself writes them.
+         */
+        @NonNull
+        final AtomicLongArray mCounts = new AtomicLongArray(EVENT_NAMES.length * OP_NAMES.length);
+
+        @EventType
+        int mType = EVENT_NONE;
+
+        /** How many begin calls haven't been matched by {@link #endEvent} yet. */
+        int mDepth;
+
+        /** Whether the event was begun on another thread. See {@link #resumeEvent}. */
+        boolean mResumed;
+
+        long mStartTimeNs;
+
+        EventState(@NonNull Thread thread) {
+            mThread = thread;
+        }
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.car.rotary;
+
+import android.os.SystemClock;
+import android.view.accessibility.AccessibilityNodeInfo;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+import java.io.PrintWriter;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Traces the latency of rotary input, from the time of the input event until the app reports that
+ * the view it moved the focus to is focused, and keeps per-app histograms of it.
+ * <p>
+ * The latency of each input is split into three stages:
+ * <ul>
+ *     <li>queueing: from the input event (the first detent of a rotation, or the key down) until
+ *         the service starts handling it
+ *     <li>search: from then until the service asks the app to focus the target view
+ *     <li>app response: from then until the {@link
+ *         android.view.accessibility.AccessibilityEvent#TYPE_VIEW_FOCUSED} event for the target
+ *         view arrives
+ * </ul>
+ * Only one input is traced at a time: a new input abandons the previous one if its focus change
+ * hasn't arrived yet. Inputs that don't move the focus, such as rotations that scroll, are
+ * abandoned after {@link #MAX_TRACE_MS}. All times are {@link SystemClock#uptimeMillis}, and all
+ * methods must be called on the main thread.
+ */
+class LatencyTracer {
+
+    /** The latency which rotary input should stay within, in milliseconds. */
+    static final int BUDGET_MS = 50;
+
+    /** How long to wait for an input to move the focus, in milliseconds. */
+    @VisibleForTesting
+    static final int MAX_TRACE_MS = 1000;
+
+    /** The upper bounds of the histogram buckets, in milliseconds. The last bucket is unbounded. */
+    private static final int[] BUCKET_BOUNDS_MS = {10, 20, 30, BUDGET_MS, 100, 200};
+
+    /** The app name used when the focused node doesn't have a package name. */
+    private static final String UNKNOWN_APP = "unknown";
+
+    @NonNull
+    private NodeCopier mNodeCopier = new NodeCopier();
+
+    /** The stats of each app, by package name, sorted for the dump. */
+    @NonNull
+    private final Map<String, AppStats> mAppStats = new TreeMap<>();
+
+    /** How many traces were abandoned before the focus change arrived. */
+    private long mAbandonedCount;
+
+    /** Whether an input is being traced. */
+    private boolean mTracing;
+
+    private long mInputTime;
+    private long mHandleTime;
+    private long mFocusRequestTime;
+
+    /** The node the traced input asked the app to focus, or null if it hasn't yet. */
+    @Nullable
+    private AccessibilityNodeInfo mTargetNode;
+
+    /**
+     * Starts tracing an input that occurred at {@code inputTime} and started being handled at
+     * {@code handleTime}, abandoning the previous trace if it's unfinished.
+     */
+    void onInputHandled(long inputTime, long handleTime) {
+        if (mTargetNode != null) {
+            mAbandonedCount++;
+        }
+        clearTrace();
+        mTracing = true;
+        mInputTime = inputTime;
+        mHandleTime = handleTime;
+    }
+
+    /**
+     * Records that the traced input, if any, asked the app to focus {@code targetNode} at the given
+     * time. The caller still owns {@code targetNode}.
+     */
+    void onFocusRequested(@NonNull AccessibilityNodeInfo targetNode, long time) {
+        if (!mTracing || mTargetNode != null) {
+            // Not caused by input, or a follow-up focus change of the same input.
+            return;
+        }
+        if (time - mInputTime > MAX_TRACE_MS) {
+            clearTrace();
+            return;
+        }
+        mTargetNode = mNodeCopier.copy(targetNode);
+        mFocusRequestTime = time;
+    }
+
+    /**
+     * Records that the app reported {@code focusedNode} as focused at the given time. If it's the
+     * node the traced input asked the app to focus, the trace is finished. The caller still owns
+     * {@code focusedNode}.
+     */
+    void onViewFocused(@NonNull AccessibilityNodeInfo focusedNode, long time) {
+        if (mTargetNode == null || !mTargetNode.equals(focusedNode)) {
+            return;
+        }
+        if (time - mInputTime > MAX_TRACE_MS) {
+            mAbandonedCount++;
+            clearTrace();
+            return;
+        }
+        CharSequence packageName = focusedNode.getPackageName();
+        String app = packageName == null ? UNKNOWN_APP : packageName.toString();
+        AppStats stats = mAppStats.get(app);
+        if (stats == null) {
+            stats = new AppStats();
+            mAppStats.put(app, stats);
+        }
+        stats.add(mHandleTime - mInputTime, mFocusRequestTime - mHandleTime,
+                time - mFocusRequestTime);
+        clearTrace();
+    }
+
+    /** Returns the number of finished traces whose focus change was in the given app. */
+    @VisibleForTesting
+    long getCount(@NonNull String app) {
+        AppStats stats = mAppStats.get(app);
+        return stats == null ? 0 : stats.mCount;
+    }
+
+    /** Prints the histogram and the average time of each stage for each app. */
+    void dump(@NonNull String prefix, @NonNull PrintWriter writer) {
+        writer.println(prefix + "Rotary input latency by app (budget " + BUDGET_MS + " ms):");
+        for (Map.Entry<String, AppStats> entry : mAppStats.entrySet()) {
+            AppStats stats = entry.getValue();
+            writer.printf("%s  %s: count=%d overBudget=%d avgQueueMs=%.1f avgSearchMs=%.1f "
+                            + "avgAppMs=%.1f%n",
+                    prefix, entry.getKey(), stats.mCount, stats.mOverBudgetCount,
+                    (double) stats.mQueueSumMs / stats.mCount,
+                    (double) stats.mSearchSumMs / stats.mCount,
+                    (double) stats.mAppSumMs / stats.mCount);
+            StringBuilder line = new StringBuilder(prefix).append("   ");
+            for (int i = 0; i < stats.mBuckets.length; i++) {
+                line.append(' ');
+                if (i < BUCKET_BOUNDS_MS.length) {
+                    line.append('<').append(BUCKET_BOUNDS_MS[i]);
+                } else {
+                    line.append(">=").append(BUCKET_BOUNDS_MS[BUCKET_BOUNDS_MS.length - 1]);
+                }
+                line.append("ms=").append(stats.mBuckets[i]);
+            }
+            writer.println(line);
+        }
+        writer.println(prefix + "  abandoned=" + mAbandonedCount);
+    }
+
+    /** Sets a mock {@link NodeCopier} instance for testing. */
+    @VisibleForTesting
+    void setNodeCopier(@NonNull NodeCopier nodeCopier) {
+        mNodeCopier = nodeCopier;
+    }
+
+    private void clearTrace() {
+        Utils.recycleNode(mTargetNode);
+        mTargetNode = null;
+        mTracing = false;
+    }
+
+    /** The latency stats of one app. */
+    private static class AppStats {
+        /** The number of traces in each bucket of {@link #BUCKET_BOUNDS_MS}. */
+        final long[] mBuckets = new long[BUCKET_BOUNDS_MS.length + 1];
+        long mCount;
+        long mOverBudgetCount;
+        long mQueueSumMs;
+        long mSearchSumMs;
+        long mAppSumMs;
+
+        void add(long queueMs, long searchMs, long appMs) {
+            long totalMs = queueMs + searchMs + appMs;
+            int bucket = 0;
+            while (bucket < BUCKET_BOUNDS_MS.length && totalMs >= BUCKET_BOUNDS_MS[bucket]) {
+                bucket++;
+            }
+            mBuckets[bucket]++;
+            mCount++;
+            if (totalMs > BUDGET_MS) {
+                mOverBudgetCount++;
+            }
+            mQueueSumMs += queueMs;
+            mSearchSumMs += searchMs;
+            mAppSumMs += appMs;
+        }
+    }
+}
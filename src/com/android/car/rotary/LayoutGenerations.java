@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.car.rotary;
+
+import android.util.SparseIntArray;
+import android.view.accessibility.AccessibilityWindowInfo;
+
+import androidx.annotation.NonNull;
+
+import java.util.List;
+
+/**
+ * The layout generation of each window, which {@link Navigator#invalidateWindow} advances whenever
+ * the window's layout may have changed. The caches of results that depend on the layout tag them
+ * with the generations they were found in, and ignore them once any of those has advanced.
+ * <p>
+ * A result must be tagged with the generations read <em>before</em> it was searched for, so that
+ * a window invalidated during the search makes it stale. The methods are synchronized, since the
+ * main thread advances the generations while a search may be reading them on a worker thread.
+ */
+class LayoutGenerations {
+
+    /** The current layout generation of each window, by window ID. Absent means 0. */
+    @NonNull
+    private final SparseIntArray mGenerations = new SparseIntArray();
+
+    /** Returns the current layout generation of the given window. */
+    synchronized int get(int windowId) {
+        return mGenerations.get(windowId);
+    }
+
+    /** Advances the layout generation of the given window. */
+    synchronized void advance(int windowId) {
+        mGenerations.put(windowId, mGenerations.get(windowId) + 1);
+    }
+
+    /**
+     * Returns a stamp of the given {@code windows} on the screen and of the current layout
+     * generation of each of them.
+     */
+    @NonNull
+    Stamp stamp(@NonNull List<AccessibilityWindowInfo> windows) {
+        int[] windowIds = new int[windows.size()];
+        for (int i = 0; i < windowIds.length; i++) {
+            windowIds[i] = windows.get(i).getId();
+        }
+        return stamp(windows, windowIds);
+    }
+
+    /**
+     * Returns a stamp of the given {@code windows} on the screen and of the current layout
+     * generation of each of the windows with the given {@code windowIds}, i.e., the ones a result
+     * depends on.
+     */
+    @NonNull
+    synchronized Stamp stamp(@NonNull List<AccessibilityWindowInfo> windows,
+            @NonNull int[] windowIds) {
+        int[] screenWindowIds = new int[windows.size()];
+        for (int i = 0; i < screenWindowIds.length; i++) {
+            screenWindowIds[i] = windows.get(i).getId();
+        }
+        SparseIntArray generations = new SparseIntArray(windowIds.length);
+        for (int windowId : windowIds) {
+            generations.put(windowId, mGenerations.get(windowId));
+        }
+        return new Stamp(screenWindowIds, generations);
+    }
+
+    /**
+     * Returns whether the given {@code windows} are the ones on the screen when {@code stamp} was
+     * taken, in the same order, and none of the windows it depends on has been invalidated since.
+     */
+    synchronized boolean isCurrent(@NonNull Stamp stamp,
+            @NonNull List<AccessibilityWindowInfo> windows) {
+        if (stamp.mWindowIds.length != windows.size()) {
+            return false;
+        }
+        for (int i = 0; i < stamp.mWindowIds.length; i++) {
+            if (stamp.mWindowIds[i] != windows.get(i).getId()) {
+                return false;
+            }
+        }
+        for (int i = 0; i < stamp.mGenerations.size(); i++) {
+            if (stamp.mGenerations.valueAt(i) != mGenerations.get(stamp.mGenerations.keyAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** The windows on the screen and the layout generations a result was found in. */
+    static class Stamp {
+        /** The IDs of the windows on the screen, in order. */
+        @NonNull
+        private final int[] mWindowIds;
+
+        /** The layout generation of each window the result depends on, by window ID. */
+        @NonNull
+        private final SparseIntArray mGenerations;
+
+        private Stamp(@NonNull int[] windowIds, @NonNull SparseIntArray generations) {
+            mWindowIds = windowIds;
+            mGenerations = generations;
+        }
+    }
+}
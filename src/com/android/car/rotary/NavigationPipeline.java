@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.car.rotary;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.view.accessibility.AccessibilityNodeInfo;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+import java.io.PrintWriter;
+import java.util.concurrent.Executor;
+
+/**
+ * Runs {@link Navigator} searches on a dedicated worker thread, so that a slow search doesn't
+ * block the events that arrive after it on the main thread.
+ * <p>
+ * Each search is tagged with a sequence number, which {@link #invalidate} advances whenever the
+ * focus changes or a newer search supersedes the outstanding ones. When a search finishes, its
+ * result is posted back to the main thread and applied only if the sequence number hasn't changed
+ * since it was submitted; otherwise it's discarded. A search that's already stale when the worker
+ * gets to it is skipped.
+ * <p>
+ * {@link #submit} and {@link #invalidate} must be called on the main thread, where results are
+ * applied too. Binder calls made by a search are accounted by {@link IpcTracker} to the event that
+ * submitted it.
+ */
+class NavigationPipeline {
+
+    /** A search, run on the worker thread. */
+    interface Search<T> {
+        @Nullable
+        T run();
+    }
+
+    /** Handles the result of a search on the main thread. */
+    interface ResultHandler<T> {
+        void handle(@Nullable T result);
+    }
+
+    @Nullable
+    private final HandlerThread mWorkerThread;
+
+    @NonNull
+    private final Executor mWorkerExecutor;
+
+    @NonNull
+    private final Executor mMainExecutor;
+
+    /** The current sequence number. Written only on the main thread. */
+    private volatile int mSequence;
+
+    /** Whether {@link #quit} was called. Main thread only. */
+    private boolean mQuit;
+
+    /** How many search results were applied. Main thread only. */
+    private long mAppliedCount;
+
+    /** How many searches were skipped or had their results discarded. Main thread only. */
+    private long mDiscardedCount;
+
+    /** Creates a pipeline with its own worker thread, which applies results on the given looper. */
+    NavigationPipeline(@NonNull Looper mainLooper) {
+        mWorkerThread = new HandlerThread("RotaryNavigation");
+        mWorkerThread.start();
+        mWorkerExecutor = new Handler(mWorkerThread.getLooper())::post;
+        mMainExecutor = new Handler(mainLooper)::post;
+    }
+
+    @VisibleForTesting
+    NavigationPipeline(@NonNull Executor workerExecutor, @NonNull Executor mainExecutor) {
+        mWorkerThread = null;
+        mWorkerExecutor = workerExecutor;
+        mMainExecutor = mainExecutor;
+    }
+
+    /**
+     * Runs {@code search} on the worker thread, then passes its result to {@code onResult} on the
+     * main thread, unless the result is stale by then, in which case it's passed to {@code
+     * onDiscard} to be recycled. The pipeline takes ownership of the {@code inputs}, which are the
+     * nodes the search uses, and recycles them once the search is done, fails or is skipped. After
+     * {@link #quit}, the search is never run and the {@code inputs} are recycled at once.
+     */
+    <T> void submit(@NonNull Search<T> search, @NonNull ResultHandler<T> onResult,
+            @NonNull ResultHandler<T> onDiscard, @Nullable AccessibilityNodeInfo... inputs) {
+        if (mQuit) {
+            mDiscardedCount++;
+            recycleInputs(inputs);
+            return;
+        }
+        int sequence = mSequence;
+        @IpcTracker.EventType int eventType = IpcTracker.getCurrentEventType();
+        mWorkerExecutor.execute(() -> {
+            boolean ran = sequence == mSequence;
+            T result;
+            try {
+                result = ran ? runSearch(search, eventType) : null;
+            } finally {
+                recycleInputs(inputs);
+            }
+            mMainExecutor.execute(() -> {
+                if (ran && sequence == mSequence) {
+                    mAppliedCount++;
+                    onResult.handle(result);
+                    return;
+                }
+                mDiscardedCount++;
+                if (result != null) {
+                    onDiscard.handle(result);
+                }
+            });
+        });
+    }
+
+    private static void recycleInputs(@NonNull AccessibilityNodeInfo[] inputs) {
+        for (AccessibilityNodeInfo input : inputs) {
+            Utils.recycleNode(input);
+        }
+    }
+
+    /** Runs {@code search}, accounting its binder calls to an event of the given type. */
+    @Nullable
+    private static <T> T runSearch(@NonNull Search<T> search, @IpcTracker.EventType int eventType) {
+        IpcTracker.resumeEvent(eventType);
+        try {
+            return search.run();
+        } finally {
+            IpcTracker.endEvent();
+        }
+    }
+
+    /** Makes the results of the outstanding searches stale. */
+    void invalidate() {
+        mSequence++;
+    }
+
+    /**
+     * Stops the worker thread once it has run the searches already submitted. Searches submitted
+     * afterwards are never run.
+     */
+    void quit() {
+        mQuit = true;
+        if (mWorkerThread != null) {
+            mWorkerThread.quitSafely();
+        }
+    }
+
+    void dump(@NonNull String prefix, @NonNull PrintWriter writer) {
+        writer.println(prefix + "Navigation pipeline: applied=" + mAppliedCount + " discarded="
+                + mDiscardedCount);
+    }
+}
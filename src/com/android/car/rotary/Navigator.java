@@ -20,6 +20,7 @@ import static android.view.accessibility.AccessibilityNodeInfo.AccessibilityActi
 
 import android.graphics.Rect;
 import android.os.SystemClock;
+import android.util.SparseBooleanArray;
 import android.view.View;
 import android.view.accessibility.AccessibilityNodeInfo;
 import android.view.accessibility.AccessibilityWindowInfo;
@@ -31,13 +32,29 @@ import androidx.annotation.VisibleForTesting;
 import com.android.car.ui.FocusArea;
 import com.android.car.ui.FocusParkingView;
 
+import java.io.PrintWriter;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 /**
  * A helper class used for finding the next focusable node when the rotary controller is rotated or
  * nudged.
+ * <p>
+ * The searches are synchronized, since {@link NavigationPipeline} may run them on a worker thread.
+ * The main thread mustn't wait for such a search, so the methods it calls directly don't take the
+ * lock: {@link #invalidateWindow}, {@link #saveFocusedNode} and {@link #clearFocusAreaHistory}
+ * queue their updates, which each search applies before it starts, and {@link #isHunWindow},
+ * {@link #findScrollableContainer}, {@link #findFocusParkingView}, {@link
+ * #findFirstFocusableDescendant} and {@link #findLastFocusableDescendant} use no state guarded by
+ * the lock. The other methods, such as {@link #getMostRecentFocus} and {@link
+ * #speculateRotateTargets}, take the lock, so when there's a pipeline, they must be run in it. The
+ * setters and {@link #dump} take the lock too, but aren't called while navigating.
  */
 class Navigator {
 
@@ -49,12 +66,140 @@ class Navigator {
 
     private final RotaryCache mRotaryCache;
 
+    @NonNull
+    private final FocusAreaIndex mFocusAreaIndex = new FocusAreaIndex();
+
+    /** The layout generation of each window, shared by the caches below. */
+    @NonNull
+    private final LayoutGenerations mLayoutGenerations = new LayoutGenerations();
+
+    @NonNull
+    private final AncestorFocusAreaCache mAncestorFocusAreaCache =
+            new AncestorFocusAreaCache(mLayoutGenerations);
+
+    @NonNull
+    private final ScrollableContainerCache mScrollableContainerCache =
+            new ScrollableContainerCache(mLayoutGenerations);
+
+    /**
+     * The focus order learned in each focus area, used by {@link #findRotateTarget} when {@link
+     * #mFocusOrderCacheEnabled} is true.
+     */
+    @NonNull
+    private final FocusOrderCache mFocusOrderCache = new FocusOrderCache();
+
+    private boolean mFocusOrderCacheEnabled;
+
+    /**
+     * The candidate focus areas for nudges from each focus area, used by {@link
+     * #findNudgeTargetFocusArea} when {@link #mNudgeGraphEnabled} is true.
+     */
+    @NonNull
+    private final NudgeGraph mNudgeGraph = new NudgeGraph(mLayoutGenerations);
+
+    private boolean mNudgeGraphEnabled;
+
+    /**
+     * The nudges that found no target, used by {@link #findNudgeTarget} when {@link
+     * #mFailedNudgeCacheEnabled} is true.
+     */
+    @NonNull
+    private final FailedNudgeCache mFailedNudgeCache = new FailedNudgeCache(mLayoutGenerations);
+
+    private boolean mFailedNudgeCacheEnabled;
+
+    /**
+     * The executor {@link #findNudgeTargetFocusArea} collects the focus areas of the candidate
+     * windows on, or null to collect them one window after another on the calling thread.
+     */
+    @Nullable
+    private ExecutorService mFocusAreaCollectionExecutor;
+
+    /**
+     * Guards {@link #mPendingInvalidWindowIds} and {@link #mPendingHistoryUpdates}, which are
+     * added to without holding the lock on this navigator.
+     */
+    private final Object mPendingUpdatesLock = new Object();
+
+    /** The IDs of the windows to invalidate before the next search. */
+    @NonNull
+    private final SparseBooleanArray mPendingInvalidWindowIds = new SparseBooleanArray();
+
+    /** The updates to {@link #mRotaryCache} to make before the next search, in order. */
+    @NonNull
+    private final ArrayDeque<Runnable> mPendingHistoryUpdates = new ArrayDeque<>();
+
+    /** How many times the focus orders were created or extended, i.e., needed binder calls. */
+    private long mFocusOrderUpdateCount;
+
+    /** How many {@link #findRotateTarget} calls were answered from the focus order cache alone. */
+    private long mRotateTargetHitCount;
+
+    /** How many {@link #findRotateTarget} calls had to create or extend a focus order. */
+    private long mRotateTargetMissCount;
+
+    /** How many times {@link #speculateRotateTargets} ran. */
+    private long mSpeculationCount;
+
+    /**
+     * How many windows and subtrees were skipped while looking for nudge candidates, because their
+     * bounds couldn't contain a candidate.
+     */
+    private long mPrunedSubtreeCount;
+
+    /** How many subtrees were searched for nudge candidates. */
+    private long mSearchedSubtreeCount;
+
+    /** How many times the focus areas of the candidate windows were collected in parallel. */
+    private long mParallelCollectionCount;
+
+    /** How many {@link #findNudgeTarget} calls were answered from the failed nudge cache. */
+    private long mFailedNudgeHitCount;
+
     private final int mHunLeft;
     private final int mHunRight;
 
     @View.FocusRealDirection
     private int mHunNudgeDirection;
 
+    // Scratch geometry, reused so that searches don't allocate for each node or window they
+    // visit. Navigator is only used by one thread at a time. A method using one of these mustn't
+    // call another method that uses the same one while it's in use.
+
+    /** The bounds of the source of a search, or of the source window. */
+    @NonNull
+    private final Rect mSourceBounds = new Rect();
+
+    /** The bounds of the best candidate found so far. */
+    @NonNull
+    private final Rect mBestBounds = new Rect();
+
+    /** The bounds of the candidate, or window, being considered. */
+    @NonNull
+    private final Rect mCandidateBounds = new Rect();
+
+    /**
+     * The bounds of a descendant of a candidate. Only used by {@link #isCandidate}, which is
+     * called while the other scratch rectangles are in use.
+     */
+    @NonNull
+    private final Rect mDescendantBounds = new Rect();
+
+    /**
+     * The predicate {@link #isCandidate} searches the descendants of a candidate with, reused so
+     * that it doesn't capture a new lambda per call.
+     */
+    @NonNull
+    private final CandidateDescendantPredicate mCandidateDescendantPredicate =
+            new CandidateDescendantPredicate();
+
+    /**
+     * Scratch bounds for the code that runs without the lock, i.e. {@link #isHunWindow} on the main
+     * thread and {@link #collectWindowFocusAreas} on the focus area collection threads. Each thread
+     * has its own.
+     */
+    private static final ThreadLocal<Rect> sUnlockedBounds = ThreadLocal.withInitial(Rect::new);
+
     Navigator(@RotaryCache.CacheType int focusHistoryCacheType,
             int focusHistoryCacheSize,
             int focusHistoryExpirationTimeMs,
@@ -81,25 +226,133 @@ class Navigator {
         mHunNudgeDirection = showHunOnBottom ? View.FOCUS_DOWN : View.FOCUS_UP;
     }
 
-    /** Clears focus area history cache. */
+    /** Clears focus area history cache before the next search. */
     void clearFocusAreaHistory() {
-        mRotaryCache.clearFocusAreaHistory();
+        synchronized (mPendingUpdatesLock) {
+            mPendingHistoryUpdates.add(mRotaryCache::clearFocusAreaHistory);
+        }
+    }
+
+    /**
+     * Sets whether the focus and nudge history should be stored compactly, keyed by node identity
+     * rather than by copies of nodes. See {@link RotaryCache#setCompactStorageEnabled}.
+     */
+    synchronized void setCompactHistoryStorageEnabled(boolean enabled) {
+        mRotaryCache.setCompactStorageEnabled(enabled);
+    }
+
+    /**
+     * Invalidates everything cached about the given window. This should be called whenever the
+     * window is changed or removed, or its content changes or scrolls. The window's layout
+     * generation advances at once, which makes the results tagged with an older one stale, even
+     * those of a search in progress. The caches that hold results by window are cleared before the
+     * next search, so repeated calls for a window in between cost no more than one.
+     */
+    void invalidateWindow(int windowId) {
+        mLayoutGenerations.advance(windowId);
+        synchronized (mPendingUpdatesLock) {
+            mPendingInvalidWindowIds.put(windowId, true);
+        }
+    }
+
+    /**
+     * Applies the updates queued by {@link #invalidateWindow}, {@link #saveFocusedNode} and {@link
+     * #clearFocusAreaHistory}. Each search calls this before it uses the caches.
+     */
+    private void applyPendingUpdates() {
+        synchronized (mPendingUpdatesLock) {
+            for (int i = 0; i < mPendingInvalidWindowIds.size(); i++) {
+                applyWindowInvalidation(mPendingInvalidWindowIds.keyAt(i));
+            }
+            mPendingInvalidWindowIds.clear();
+        }
+        // History updates may make binder calls, so they're made without holding the pending
+        // updates lock, which the main thread may be waiting for.
+        while (true) {
+            Runnable update;
+            synchronized (mPendingUpdatesLock) {
+                update = mPendingHistoryUpdates.poll();
+            }
+            if (update == null) {
+                return;
+            }
+            update.run();
+        }
+    }
+
+    private void applyWindowInvalidation(int windowId) {
+        mFocusAreaIndex.invalidateWindow(windowId);
+        mFocusOrderCache.invalidateWindow(windowId);
+    }
+
+    /**
+     * Sets whether {@link #findRotateTarget} should cache the focus order within each focus area,
+     * so that rotating through nodes it has already visited needs no binder calls. The cached
+     * orders are discarded by {@link #invalidateWindow}.
+     */
+    synchronized void setFocusOrderCacheEnabled(boolean enabled) {
+        mFocusOrderCacheEnabled = enabled;
+        if (!enabled) {
+            mFocusOrderCache.clear();
+        }
+    }
+
+    /**
+     * Sets whether {@link #findNudgeTarget} should save the candidate focus areas for nudges from
+     * each focus area in a {@link NudgeGraph}, so that nudging from a focus area again needs no
+     * binder calls to find them. The graph is invalidated by {@link #invalidateWindow}.
+     */
+    synchronized void setNudgeGraphEnabled(boolean enabled) {
+        mNudgeGraphEnabled = enabled;
+    }
+
+    /**
+     * Sets whether {@link #findNudgeTarget} should remember the nudges that found no target, so
+     * that repeating one fails without searching the windows again. They're forgotten once any
+     * window changes, scrolls or its content changes, or a nudge succeeds.
+     */
+    synchronized void setFailedNudgeCacheEnabled(boolean enabled) {
+        mFailedNudgeCacheEnabled = enabled;
+        if (!enabled) {
+            mFailedNudgeCache.clear();
+        }
+    }
+
+    /**
+     * Sets the executor {@link #findNudgeTarget} uses to collect the focus areas in the candidate
+     * windows, and to check whether they're empty, in parallel rather than one window after
+     * another. Each task mostly waits for binder calls to an app, so a small bounded pool is
+     * enough. The results are merged in window order, so the target is the same either way. Null
+     * collects them serially on the calling thread.
+     */
+    synchronized void setFocusAreaCollectionExecutor(@Nullable ExecutorService executor) {
+        mFocusAreaCollectionExecutor = executor;
     }
 
-    /** Caches the focused node by focus area and by window. */
+    /**
+     * Caches the focused node by focus area and by window, before the next search. A copy of the
+     * node is saved, so the caller still owns it.
+     */
     void saveFocusedNode(@NonNull AccessibilityNodeInfo focusedNode) {
         long elapsedRealtime = SystemClock.elapsedRealtime();
-        AccessibilityNodeInfo focusArea = getAncestorFocusArea(focusedNode);
-        mRotaryCache.saveFocusedNode(focusArea, focusedNode, elapsedRealtime);
-        mRotaryCache.saveWindowFocus(focusedNode, elapsedRealtime);
-        Utils.recycleNode(focusArea);
+        AccessibilityNodeInfo node = copyNode(focusedNode);
+        synchronized (mPendingUpdatesLock) {
+            mPendingHistoryUpdates.add(() -> {
+                AccessibilityNodeInfo focusArea = getAncestorFocusArea(node);
+                mRotaryCache.saveFocusedNode(focusArea, node, elapsedRealtime);
+                mRotaryCache.saveWindowFocus(node, elapsedRealtime);
+                Utils.recycleNode(focusArea);
+                node.recycle();
+            });
+        }
     }
 
     /**
      * Returns the most recently focused valid node or {@code null} if there are no valid nodes
      * saved by {@link #saveFocusedNode}. The caller is responsible for recycling the result.
      */
-    AccessibilityNodeInfo getMostRecentFocus() {
+    synchronized AccessibilityNodeInfo getMostRecentFocus() {
+        applyPendingUpdates();
         return mRotaryCache.getMostRecentFocus(SystemClock.elapsedRealtime());
     }
 
@@ -123,22 +376,43 @@ class Navigator {
      *         FocusArea}, which is in the given {@code direction} from the current {@link
      *         FocusArea}, or null if not found
      */
-    AccessibilityNodeInfo findNudgeTarget(@NonNull List<AccessibilityWindowInfo> windows,
+    synchronized AccessibilityNodeInfo findNudgeTarget(
+            @NonNull List<AccessibilityWindowInfo> windows,
             @NonNull AccessibilityNodeInfo sourceNode, int direction) {
+        applyPendingUpdates();
         // If the user is trying to nudge to the HUN, search for a focus area in the HUN window.
         AccessibilityNodeInfo hunNudgeTarget = findHunNudgeTarget(windows, sourceNode, direction);
         if (hunNudgeTarget != null) {
+            // The nudge history saved may give a target to nudges that failed before.
+            mFailedNudgeCache.clear();
             return hunNudgeTarget;
         }
 
         long elapsedRealtime = SystemClock.elapsedRealtime();
         AccessibilityNodeInfo currentFocusArea = getAncestorFocusArea(sourceNode);
+
+        // If the same nudge failed before and nothing has changed since, it will fail again.
+        if (mFailedNudgeCacheEnabled
+                && mFailedNudgeCache.contains(currentFocusArea, sourceNode, direction, windows)) {
+            mFailedNudgeHitCount++;
+            Utils.recycleNode(currentFocusArea);
+            return null;
+        }
+
+        // Take the stamp before searching, so that a window invalidated meanwhile makes it stale.
+        LayoutGenerations.Stamp stamp =
+                mFailedNudgeCacheEnabled ? mLayoutGenerations.stamp(windows) : null;
         AccessibilityNodeInfo targetFocusArea =
                 findNudgeTargetFocusArea(windows, sourceNode, currentFocusArea, direction);
-        Utils.recycleNode(currentFocusArea);
         if (targetFocusArea == null) {
+            if (stamp != null) {
+                mFailedNudgeCache.put(currentFocusArea, sourceNode, direction, stamp);
+            }
+            Utils.recycleNode(currentFocusArea);
             return null;
         }
+        Utils.recycleNode(currentFocusArea);
+        mFailedNudgeCache.clear();
 
         // Return the recently focused node within the target focus area, if any.
         AccessibilityNodeInfo cachedFocusedNode =
@@ -148,15 +422,10 @@ class Navigator {
             return cachedFocusedNode;
         }
 
-        // Make a list of candidate nodes in the target FocusArea.
-        List<AccessibilityNodeInfo> candidateNodes = new ArrayList<>();
-        addFocusDescendants(targetFocusArea, candidateNodes);
-
-        // Choose the best candidate as the target node.
-        AccessibilityNodeInfo bestCandidate =
-                chooseBestNudgeCandidate(sourceNode, candidateNodes, direction);
+        // Choose the best candidate in the target FocusArea as the target node.
+        AccessibilityNodeInfo bestCandidate = chooseBestFocusDescendant(sourceNode,
+                targetFocusArea, direction, /* fallBackToFirst= */ false);
 
-        Utils.recycleNodes(candidateNodes);
         Utils.recycleNode(targetFocusArea);
         return bestCandidate;
     }
@@ -205,9 +474,9 @@ class Navigator {
         // case the geometric search will fail. The fallback is to use the first (typically only)
         // focus area.
         List<AccessibilityNodeInfo> hunFocusAreas = findFocusAreas(hunWindow);
-        removeEmptyFocusAreas(hunFocusAreas);
-        AccessibilityNodeInfo targetFocusArea =
-                chooseBestNudgeCandidate(sourceNode, hunFocusAreas, direction);
+        List<SubtreeSummary> hunFocusAreaSummaries = removeEmptyFocusAreas(hunFocusAreas);
+        AccessibilityNodeInfo targetFocusArea = chooseBestNudgeCandidate(
+                sourceNode, hunFocusAreas, hunFocusAreaSummaries, direction);
         if (targetFocusArea == null && !hunFocusAreas.isEmpty()) {
             targetFocusArea = copyNode(hunFocusAreas.get(0));
         }
@@ -233,14 +502,8 @@ class Navigator {
 
         // Choose the best candidate target node. The HUN may overlap the source node, in which
         // case the geometric search will fail. The fallback is to use the first focusable node.
-        List<AccessibilityNodeInfo> candidateNodes = new ArrayList<>();
-        addFocusDescendants(targetFocusArea, candidateNodes);
-        AccessibilityNodeInfo bestCandidate =
-                chooseBestNudgeCandidate(sourceNode, candidateNodes, direction);
-        if (bestCandidate == null && !candidateNodes.isEmpty()) {
-            bestCandidate = copyNode(candidateNodes.get(0));
-        }
-        Utils.recycleNodes(candidateNodes);
+        AccessibilityNodeInfo bestCandidate = chooseBestFocusDescendant(sourceNode,
+                targetFocusArea, direction, /* fallBackToFirst= */ true);
         Utils.recycleNode(targetFocusArea);
         Utils.recycleNode(currentFocusArea);
         return bestCandidate;
@@ -270,15 +533,29 @@ class Navigator {
      *         given {@code direction}, {@code null} is returned.
      */
     @Nullable
-    FindRotateTargetResult findRotateTarget(@NonNull AccessibilityNodeInfo sourceNode,
+    synchronized FindRotateTargetResult findRotateTarget(@NonNull AccessibilityNodeInfo sourceNode,
             @Nullable AccessibilityNodeInfo skipNode, int direction, int rotationCount) {
+        applyPendingUpdates();
+        if (mFocusOrderCacheEnabled) {
+            long focusOrderUpdateCount = mFocusOrderUpdateCount;
+            FindRotateTargetResult result =
+                    findRotateTargetInFocusOrder(sourceNode, skipNode, direction, rotationCount);
+            if (mFocusOrderUpdateCount == focusOrderUpdateCount) {
+                mRotateTargetHitCount++;
+            } else {
+                mRotateTargetMissCount++;
+            }
+            return result;
+        }
         int advancedCount = 0;
         AccessibilityNodeInfo currentFocusArea = getAncestorFocusArea(sourceNode);
         AccessibilityNodeInfo targetNode = copyNode(sourceNode);
         for (int i = 0; i < rotationCount; i++) {
+            IpcTracker.record(IpcTracker.OP_FOCUS_SEARCH);
             AccessibilityNodeInfo nextTargetNode = targetNode.focusSearch(direction);
             if (skipNode != null && skipNode.equals(nextTargetNode)) {
                 Utils.recycleNode(nextTargetNode);
+                IpcTracker.record(IpcTracker.OP_FOCUS_SEARCH);
                 nextTargetNode = skipNode.focusSearch(direction);
             }
             AccessibilityNodeInfo targetFocusArea =
@@ -292,7 +569,7 @@ class Navigator {
                 // If we're navigating through a scrolling view that can scroll in the specified
                 // direction and the next view is off-screen, don't advance to it. (We'll scroll
                 // instead.)
-                Rect nextTargetBounds = new Rect();
+                Rect nextTargetBounds = mCandidateBounds;
                 nextTargetNode.getBoundsInScreen(nextTargetBounds);
                 AccessibilityNodeInfo scrollableContainer = findScrollableContainer(targetNode);
                 AccessibilityNodeInfo.AccessibilityAction scrollAction =
@@ -301,7 +578,7 @@ class Navigator {
                                 : ACTION_SCROLL_BACKWARD;
                 if (scrollableContainer != null
                         && scrollableContainer.getActionList().contains(scrollAction)) {
-                    Rect scrollBounds = new Rect();
+                    Rect scrollBounds = mSourceBounds;
                     scrollableContainer.getBoundsInScreen(scrollBounds);
                     boolean intersects = nextTargetBounds.intersect(scrollBounds);
                     if (!intersects) {
@@ -330,12 +607,154 @@ class Navigator {
         return new FindRotateTargetResult(targetNode, advancedCount);
     }
 
+    /**
+     * Extends the cached focus order around {@code sourceNode} by one node in each direction, so
+     * that the next rotation by one detent needs no binder calls. Call it when the main thread is
+     * idle after the focus moves. Does nothing unless the focus order cache is enabled.
+     */
+    synchronized void speculateRotateTargets(@NonNull AccessibilityNodeInfo sourceNode,
+            @Nullable AccessibilityNodeInfo skipNode) {
+        if (!mFocusOrderCacheEnabled) {
+            return;
+        }
+        applyPendingUpdates();
+        mSpeculationCount++;
+        FindRotateTargetResult result = findRotateTargetInFocusOrder(sourceNode, skipNode,
+                View.FOCUS_FORWARD, /* rotationCount= */ 1);
+        if (result != null) {
+            Utils.recycleNode(result.node);
+        }
+        result = findRotateTargetInFocusOrder(sourceNode, skipNode, View.FOCUS_BACKWARD,
+                /* rotationCount= */ 1);
+        if (result != null) {
+            Utils.recycleNode(result.node);
+        }
+    }
+
+    /** Dumps how well rotation was answered from the focus order cache. */
+    synchronized void dump(@NonNull String prefix, @NonNull PrintWriter writer) {
+        long lookups = mRotateTargetHitCount + mRotateTargetMissCount;
+        writer.printf("%sRotate targets from focus order cache: hits=%d misses=%d "
+                        + "hitRate=%.1f%% speculations=%d%n",
+                prefix, mRotateTargetHitCount, mRotateTargetMissCount,
+                lookups == 0 ? 0f : 100f * mRotateTargetHitCount / lookups, mSpeculationCount);
+        writer.printf("%sNudge candidate subtrees: pruned=%d searched=%d parallelCollections=%d%n",
+                prefix, mPrunedSubtreeCount, mSearchedSubtreeCount, mParallelCollectionCount);
+        writer.printf("%sNudge searches avoided by failed nudge cache: %d%n",
+                prefix, mFailedNudgeHitCount);
+    }
+
+    /**
+     * Like {@link #findRotateTarget}, but moves through the cached focus order of the source node's
+     * focus area, extending it with {@link AccessibilityNodeInfo#focusSearch} only when the
+     * rotation goes past its known ends. The {@code skipNode} is kept in the focus order, but
+     * skipped over and not counted.
+     */
+    @Nullable
+    private FindRotateTargetResult findRotateTargetInFocusOrder(
+            @NonNull AccessibilityNodeInfo sourceNode, @Nullable AccessibilityNodeInfo skipNode,
+            int direction, int rotationCount) {
+        FocusOrderCache.FocusOrder focusOrder = mFocusOrderCache.get(sourceNode);
+        if (focusOrder == null) {
+            mFocusOrderUpdateCount++;
+            focusOrder = mFocusOrderCache.create(getAncestorFocusArea(sourceNode),
+                    createFocusOrderEntry(copyNode(sourceNode)));
+        }
+        int step = direction == View.FOCUS_FORWARD ? 1 : -1;
+        int position = focusOrder.getPosition(sourceNode);
+        int advancedCount = 0;
+        while (advancedCount < rotationCount) {
+            int nextPosition = position + step;
+            if (!focusOrder.hasPosition(nextPosition)
+                    && !extendFocusOrder(focusOrder, direction)) {
+                break;
+            }
+            if (skipNode != null && skipNode.equals(focusOrder.getEntry(nextPosition).mNode)) {
+                nextPosition += step;
+                if (!focusOrder.hasPosition(nextPosition)
+                        && !extendFocusOrder(focusOrder, direction)) {
+                    break;
+                }
+            }
+            // If we're navigating through a scrolling view that can scroll in the specified
+            // direction and the next view is off-screen, don't advance to it. (We'll scroll
+            // instead.)
+            if (focusOrder.getEntry(position).isClipped(focusOrder.getEntry(nextPosition),
+                    direction)) {
+                break;
+            }
+            position = nextPosition;
+            advancedCount++;
+        }
+        if (advancedCount == 0) {
+            return null;
+        }
+        return new FindRotateTargetResult(copyNode(focusOrder.getEntry(position).mNode),
+                advancedCount);
+    }
+
+    /**
+     * Extends the given focus order in the given direction by one node, if the next node in that
+     * direction is in the same focus area and isn't a FocusParkingView. Otherwise closes that end
+     * of the focus order. Returns whether the focus order was extended.
+     */
+    private boolean extendFocusOrder(@NonNull FocusOrderCache.FocusOrder focusOrder,
+            int direction) {
+        if (focusOrder.isClosed(direction)) {
+            return false;
+        }
+        mFocusOrderUpdateCount++;
+        AccessibilityNodeInfo endNode = focusOrder.getEntry(focusOrder.getEnd(direction)).mNode;
+        IpcTracker.record(IpcTracker.OP_FOCUS_SEARCH);
+        AccessibilityNodeInfo nextNode = endNode.focusSearch(direction);
+        boolean inFocusArea = false;
+        // A node already in the focus order means focusSearch() wrapped around.
+        if (nextNode != null && !Utils.isFocusParkingView(nextNode)
+                && !focusOrder.contains(nextNode)) {
+            AccessibilityNodeInfo nextFocusArea = getAncestorFocusArea(nextNode);
+            inFocusArea = focusOrder.getFocusArea().equals(nextFocusArea);
+            Utils.recycleNode(nextFocusArea);
+        }
+        if (!inFocusArea) {
+            Utils.recycleNode(nextNode);
+            focusOrder.close(direction);
+            return false;
+        }
+        focusOrder.extend(direction, createFocusOrderEntry(nextNode));
+        return true;
+    }
+
+    /**
+     * Returns a focus order entry for the given node, which it takes ownership of, including the
+     * bounds of its scrollable container, if any.
+     */
+    @NonNull
+    private FocusOrderCache.Entry createFocusOrderEntry(@NonNull AccessibilityNodeInfo node) {
+        Rect bounds = new Rect();
+        node.getBoundsInScreen(bounds);
+        AccessibilityNodeInfo scrollableContainer = findScrollableContainer(node);
+        if (scrollableContainer == null) {
+            return new FocusOrderCache.Entry(node, bounds, /* containerBounds= */ null,
+                    /* containerScrollsForward= */ false, /* containerScrollsBackward= */ false);
+        }
+        Rect containerBounds = new Rect();
+        scrollableContainer.getBoundsInScreen(containerBounds);
+        List<AccessibilityNodeInfo.AccessibilityAction> actions =
+                scrollableContainer.getActionList();
+        FocusOrderCache.Entry entry = new FocusOrderCache.Entry(node, bounds, containerBounds,
+                actions.contains(ACTION_SCROLL_FORWARD), actions.contains(ACTION_SCROLL_BACKWARD));
+        scrollableContainer.recycle();
+        return entry;
+    }
+
     /**
      * Searches the {@code rootNode} and its descendants in depth-first order, and returns the first
      * focus descendant (a node inside a focus area that can take focus) if any, or returns null if
      * not found. The caller is responsible for recycling the result.
      */
-    AccessibilityNodeInfo findFirstFocusDescendant(@NonNull AccessibilityNodeInfo rootNode) {
+    synchronized AccessibilityNodeInfo findFirstFocusDescendant(
+            @NonNull AccessibilityNodeInfo rootNode) {
+        applyPendingUpdates();
         // First try finding the first focus area and searching forward from the focus area. This
         // is a quick way to find the first node but it doesn't always work.
         AccessibilityNodeInfo focusDescendant = findFirstFocus(rootNode);
@@ -358,14 +777,22 @@ class Navigator {
         mNodeCopier = nodeCopier;
         mTreeTraverser.setNodeCopier(nodeCopier);
         mRotaryCache.setNodeCopier(nodeCopier);
+        mFocusAreaIndex.setNodeCopier(nodeCopier);
+        mAncestorFocusAreaCache.setNodeCopier(nodeCopier);
+        mScrollableContainerCache.setNodeCopier(nodeCopier);
+        mNudgeGraph.setNodeCopier(nodeCopier);
+        mFailedNudgeCache.setNodeCopier(nodeCopier);
     }
 
     /**
      * Searches all the nodes in the {@code window}, and returns the node representing a {@link
      * FocusParkingView}, if any, or returns null if not found. The caller is responsible for
      * recycling the result.
+     * <p>
+     * The main thread calls this to clear the focus, so it doesn't take the lock.
      */
     AccessibilityNodeInfo findFocusParkingView(@NonNull AccessibilityWindowInfo window) {
+        IpcTracker.record(IpcTracker.OP_GET_ROOT);
         AccessibilityNodeInfo root = window.getRoot();
         if (root == null) {
             L.e("No root node in " + window);
@@ -400,12 +827,14 @@ class Navigator {
             focusArea = copyNode(rootNode);
         }
 
+        IpcTracker.record(IpcTracker.OP_FOCUS_SEARCH);
         AccessibilityNodeInfo targetNode = focusArea.focusSearch(View.FOCUS_FORWARD);
         AccessibilityNodeInfo firstTarget = copyNode(targetNode);
         // focusSearch() searches in the active window, which has at least one FocusParkingView. We
         // need to skip it.
         while (targetNode != null && Utils.isFocusParkingView(targetNode)) {
             L.d("Found FocusParkingView, continue focusSearch() ...");
+            IpcTracker.record(IpcTracker.OP_FOCUS_SEARCH);
             AccessibilityNodeInfo nextTargetNode = targetNode.focusSearch(View.FOCUS_FORWARD);
             targetNode.recycle();
             targetNode = nextTargetNode;
@@ -467,42 +896,83 @@ class Navigator {
         }
         Utils.recycleNode(cachedTargetFocusArea);
 
-        // No target focus area in the cache; we need to search the node tree to find it.
-        AccessibilityWindowInfo currentWindow = focusedNode.getWindow();
+        // No target focus area in the cache. If the candidates for this nudge are in the nudge
+        // graph, choose among them without searching the node tree.
+        if (mNudgeGraphEnabled) {
+            NudgeGraph.Edge edge = mNudgeGraph.get(currentFocusArea, direction, windows);
+            if (edge != null) {
+                AccessibilityNodeInfo targetFocusArea = chooseBestNudgeCandidate(
+                        focusedNode, edge.mCandidates, edge.mSummaries, direction);
+                if (targetFocusArea != null) {
+                    mRotaryCache.saveTargetFocusArea(
+                            currentFocusArea, targetFocusArea, direction, elapsedRealtime);
+                }
+                return targetFocusArea;
+            }
+        }
+
+        // We need to search the node tree to find the target focus area.
+        AccessibilityWindowInfo currentWindow = copyWindow(windows, focusedNode.getWindowId());
+        if (currentWindow == null) {
+            IpcTracker.record(IpcTracker.OP_GET_WINDOW);
+            currentWindow = focusedNode.getWindow();
+        }
         if (currentWindow == null) {
             L.e("Currently focused window is null");
             return null;
         }
 
-        // Build a list of candidate focus areas, starting with all the other focus areas in the
-        // same window as the current focus area.
-        List<AccessibilityNodeInfo> candidateFocusAreas = findFocusAreas(currentWindow);
-        for (AccessibilityNodeInfo focusArea : candidateFocusAreas) {
-            if (focusArea.equals(currentFocusArea)) {
-                candidateFocusAreas.remove(focusArea);
-                focusArea.recycle();
-                break;
+        // The candidate windows are the current window and the other windows in the given
+        // direction.
+        List<AccessibilityWindowInfo> candidateWindows = new ArrayList<>();
+        addWindowsInDirection(windows, currentWindow, candidateWindows, direction);
+        LayoutGenerations.Stamp stamp = null;
+        if (mNudgeGraphEnabled) {
+            // The edge depends on the layouts of the current window and the candidate windows.
+            int[] windowIds = new int[candidateWindows.size() + 1];
+            windowIds[0] = currentFocusArea.getWindowId();
+            for (int i = 0; i < candidateWindows.size(); i++) {
+                windowIds[i + 1] = candidateWindows.get(i).getId();
             }
+            stamp = mLayoutGenerations.stamp(windows, windowIds);
         }
 
-        // Add candidate focus areas in other windows in the given direction.
-        List<AccessibilityWindowInfo> candidateWindows = new ArrayList<>();
-        addWindowsInDirection(windows, currentWindow, candidateWindows, direction);
-        currentWindow.recycle();
-        for (AccessibilityWindowInfo window : candidateWindows) {
-            List<AccessibilityNodeInfo> focusAreasInAnotherWindow = findFocusAreas(window);
-            candidateFocusAreas.addAll(focusAreasInAnotherWindow);
+        // Unless they're saved in the nudge graph, where they must serve nudges from every view in
+        // the current focus area, skip the windows and focus areas whose bounds can't contain a
+        // candidate for a nudge from the focused node before searching their descendants. The
+        // ones saved in the nudge graph are pruned by chooseBestNudgeCandidate() instead.
+        Rect focusedBounds = null;
+        if (!mNudgeGraphEnabled) {
+            focusedBounds = mSourceBounds;
+            focusedNode.getBoundsInScreen(focusedBounds);
         }
 
-        // Exclude focus areas that have no descendants to take focus, because once we found a best
-        // candidate focus area, we don't dig into other ones. If it has no descendants to take
-        // focus, the nudge will fail.
-        removeEmptyFocusAreas(candidateFocusAreas);
+        // Build a list of candidate focus areas, starting with all the other focus areas in the
+        // same window as the current focus area. Exclude focus areas that have no descendants to
+        // take focus, because once we found a best candidate focus area, we don't dig into other
+        // ones. If it has no descendants to take focus, the nudge will fail.
+        List<AccessibilityNodeInfo> candidateFocusAreas = new ArrayList<>();
+        List<SubtreeSummary> candidateSummaries = null;
+        if (mFocusAreaCollectionExecutor != null) {
+            candidateSummaries = collectFocusAreasInParallel(mFocusAreaCollectionExecutor,
+                    currentWindow, currentFocusArea, candidateWindows, focusedBounds, direction,
+                    candidateFocusAreas);
+        }
+        if (candidateSummaries == null) {
+            candidateSummaries = collectFocusAreas(currentWindow, currentFocusArea,
+                    candidateWindows, focusedBounds, direction, candidateFocusAreas);
+        }
+        currentWindow.recycle();
 
         // Choose the best candidate as our target focus area.
-        AccessibilityNodeInfo targetFocusArea =
-                chooseBestNudgeCandidate(focusedNode, candidateFocusAreas, direction);
-        Utils.recycleNodes(candidateFocusAreas);
+        AccessibilityNodeInfo targetFocusArea = chooseBestNudgeCandidate(
+                focusedNode, candidateFocusAreas, candidateSummaries, direction);
+        if (stamp != null) {
+            mNudgeGraph.put(currentFocusArea, direction, stamp, candidateFocusAreas,
+                    candidateSummaries);
+        } else {
+            Utils.recycleNodes(candidateFocusAreas);
+        }
 
         if (targetFocusArea != null) {
             // Save nudge history.
@@ -513,15 +983,259 @@ class Navigator {
         return targetFocusArea;
     }
 
-    private static void removeEmptyFocusAreas(@NonNull List<AccessibilityNodeInfo> focusAreas) {
+    /**
+     * Adds the focus areas in {@code currentWindow} other than {@code currentFocusArea}, then the
+     * focus areas in each of {@code candidateWindows}, to {@code results}, leaving out the ones
+     * with no descendants that can take focus. If {@code sourceBounds} isn't null, the windows and
+     * focus areas whose bounds can't contain a candidate for a nudge from {@code sourceBounds} in
+     * the given {@code direction} are left out too. Returns a summary of each focus area added, in
+     * the same order. The caller is responsible for recycling the added nodes.
+     */
+    @NonNull
+    private List<SubtreeSummary> collectFocusAreas(@NonNull AccessibilityWindowInfo currentWindow,
+            @NonNull AccessibilityNodeInfo currentFocusArea,
+            @NonNull List<AccessibilityWindowInfo> candidateWindows, @Nullable Rect sourceBounds,
+            int direction, @NonNull List<AccessibilityNodeInfo> results) {
+        results.addAll(findFocusAreas(currentWindow));
+        for (AccessibilityNodeInfo focusArea : results) {
+            if (focusArea.equals(currentFocusArea)) {
+                results.remove(focusArea);
+                focusArea.recycle();
+                break;
+            }
+        }
+        if (sourceBounds != null) {
+            removeFocusAreasOutOfDirection(sourceBounds, results, direction);
+        }
+        for (AccessibilityWindowInfo window : candidateWindows) {
+            if (sourceBounds != null) {
+                window.getBoundsInScreen(mCandidateBounds);
+                if (!FocusFinder.mayContainCandidate(sourceBounds, mCandidateBounds, direction)) {
+                    mPrunedSubtreeCount++;
+                    continue;
+                }
+            }
+            List<AccessibilityNodeInfo> focusAreasInAnotherWindow = findFocusAreas(window);
+            if (sourceBounds != null) {
+                removeFocusAreasOutOfDirection(sourceBounds, focusAreasInAnotherWindow,
+                        direction);
+            }
+            results.addAll(focusAreasInAnotherWindow);
+        }
+        return removeEmptyFocusAreas(results);
+    }
+
+    /**
+     * Like {@link #collectFocusAreas}, but collects and summarizes the focus areas in each window
+     * as a separate task on the given {@code executor}. The calling thread waits for the tasks,
+     * then updates the caches and adds the results in window order, so they're the same as {@link
+     * #collectFocusAreas} would return. Returns null, without adding any results, if there's at
+     * most one window to search, the wait was interrupted or any of the tasks failed. In the last
+     * case, the focus areas collected by the other tasks are recycled, and the caller should
+     * collect them serially, which throws the same exception if the failure wasn't transient.
+     */
+    @Nullable
+    private List<SubtreeSummary> collectFocusAreasInParallel(@NonNull ExecutorService executor,
+            @NonNull AccessibilityWindowInfo currentWindow,
+            @NonNull AccessibilityNodeInfo currentFocusArea,
+            @NonNull List<AccessibilityWindowInfo> candidateWindows, @Nullable Rect sourceBounds,
+            int direction, @NonNull List<AccessibilityNodeInfo> results) {
+        List<AccessibilityWindowInfo> searchedWindows =
+                new ArrayList<>(candidateWindows.size() + 1);
+        searchedWindows.add(currentWindow);
+        int prunedWindowCount = 0;
+        for (AccessibilityWindowInfo window : candidateWindows) {
+            if (sourceBounds != null) {
+                window.getBoundsInScreen(mCandidateBounds);
+                if (!FocusFinder.mayContainCandidate(sourceBounds, mCandidateBounds, direction)) {
+                    prunedWindowCount++;
+                    continue;
+                }
+            }
+            searchedWindows.add(window);
+        }
+        if (searchedWindows.size() < 2) {
+            return null;
+        }
+
+        // The tasks mustn't touch the caches, so look up what's cached for each window here. The
+        // caches can't change while the tasks run, because this thread holds the lock.
+        List<Callable<WindowFocusAreas>> tasks = new ArrayList<>(searchedWindows.size());
+        for (AccessibilityWindowInfo window : searchedWindows) {
+            int windowId = window.getId();
+            List<AccessibilityNodeInfo> indexedFocusAreas = mFocusAreaIndex.getFocusAreas(windowId);
+            AccessibilityNodeInfo excludedFocusArea =
+                    window == currentWindow ? currentFocusArea : null;
+            tasks.add(() -> collectWindowFocusAreas(window, indexedFocusAreas, excludedFocusArea,
+                    sourceBounds, direction));
+        }
+        List<Future<WindowFocusAreas>> futures;
+        try {
+            futures = executor.invokeAll(tasks);
+        } catch (InterruptedException e) {
+            L.w("Interrupted while collecting focus areas");
+            Thread.currentThread().interrupt();
+            return null;
+        }
+
+        // Wait for every task before using any result, so that the results can all be recycled if
+        // a task failed.
+        List<WindowFocusAreas> collected = new ArrayList<>(futures.size());
+        Throwable failure = null;
+        for (Future<WindowFocusAreas> future : futures) {
+            try {
+                collected.add(future.get());
+            } catch (InterruptedException | ExecutionException e) {
+                // invokeAll() only returns once every task is done, so this can only be an
+                // exception thrown by the task, which has recycled what it collected.
+                failure = e.getCause();
+            }
+        }
+        if (failure != null) {
+            L.w("Failed to collect focus areas in parallel: " + failure);
+            for (WindowFocusAreas windowFocusAreas : collected) {
+                Utils.recycleNodes(windowFocusAreas.mFocusAreas);
+            }
+            return null;
+        }
+
+        mParallelCollectionCount++;
+        mPrunedSubtreeCount += prunedWindowCount;
+        List<SubtreeSummary> summaries = new ArrayList<>();
+        for (int i = 0; i < collected.size(); i++) {
+            WindowFocusAreas windowFocusAreas = collected.get(i);
+            int windowId = searchedWindows.get(i).getId();
+            if (windowFocusAreas.mNewFocusAreas) {
+                mFocusAreaIndex.putFocusAreas(windowId, windowFocusAreas.mFocusAreas);
+            }
+            mPrunedSubtreeCount += windowFocusAreas.mPrunedCount;
+            mSearchedSubtreeCount += windowFocusAreas.mSearchedCount;
+            for (int j = 0; j < windowFocusAreas.mFocusAreas.size(); j++) {
+                AccessibilityNodeInfo focusArea = windowFocusAreas.mFocusAreas.get(j);
+                SubtreeSummary summary = windowFocusAreas.mSummaries.get(j);
+                if (summary == null || summary.isEmpty()) {
+                    focusArea.recycle();
+                } else {
+                    results.add(focusArea);
+                    summaries.add(summary);
+                }
+            }
+        }
+        return summaries;
+    }
+
+    /**
+     * Collects and summarizes the focus areas in the given {@code window}, for {@link
+     * #collectFocusAreasInParallel}. This runs on a worker thread, so it only reads the {@code
+     * indexedFocusAreas} cached for the window, and the cache is updated from the result on the
+     * calling thread. {@code excludedFocusArea}, and the focus areas pruned
+     * by {@code sourceBounds}, aren't summarized. If this throws, it recycles the focus areas it
+     * was given or collected.
+     */
+    @NonNull
+    private WindowFocusAreas collectWindowFocusAreas(@NonNull AccessibilityWindowInfo window,
+            @Nullable List<AccessibilityNodeInfo> indexedFocusAreas,
+            @Nullable AccessibilityNodeInfo excludedFocusArea, @Nullable Rect sourceBounds,
+            int direction) {
+        WindowFocusAreas result = new WindowFocusAreas();
+        try {
+            if (indexedFocusAreas != null) {
+                result.mFocusAreas = indexedFocusAreas;
+            } else {
+                IpcTracker.record(IpcTracker.OP_GET_ROOT);
+                AccessibilityNodeInfo rootNode = window.getRoot();
+                if (rootNode != null) {
+                    try {
+                        mTreeTraverser.depthFirstSelect(rootNode, Utils::isFocusArea,
+                                result.mFocusAreas);
+                        if (result.mFocusAreas.isEmpty()) {
+                            result.mFocusAreas.add(mNodeCopier.copy(rootNode));
+                        }
+                        result.mNewFocusAreas = true;
+                    } finally {
+                        rootNode.recycle();
+                    }
+                }
+            }
+
+            Rect focusAreaBounds = sUnlockedBounds.get();
+            for (AccessibilityNodeInfo focusArea : result.mFocusAreas) {
+                SubtreeSummary summary = null;
+                focusArea.getBoundsInScreen(focusAreaBounds);
+                if (focusArea.equals(excludedFocusArea)) {
+                    excludedFocusArea = null;
+                } else if (sourceBounds != null && !FocusFinder.mayContainCandidate(
+                        sourceBounds, focusAreaBounds, direction)) {
+                    result.mPrunedCount++;
+                } else {
+                    summary = SubtreeSummary.build(focusArea, mTreeTraverser);
+                    result.mSearchedCount++;
+                }
+                result.mSummaries.add(summary);
+            }
+        } catch (RuntimeException e) {
+            // The calling thread won't see the result, so recycle what it would have owned.
+            Utils.recycleNodes(result.mFocusAreas);
+            throw e;
+        }
+        return result;
+    }
+
+    /**
+     * Removes the focus areas whose bounds can't contain a candidate for a nudge from {@code
+     * sourceBounds} in the given {@code direction} from the given list, and recycles them.
+     */
+    private void removeFocusAreasOutOfDirection(@NonNull Rect sourceBounds,
+            @NonNull List<AccessibilityNodeInfo> focusAreas, int direction) {
+        Rect focusAreaBounds = mCandidateBounds;
+        for (Iterator<AccessibilityNodeInfo> iterator = focusAreas.iterator();
+                iterator.hasNext(); ) {
+            AccessibilityNodeInfo focusArea = iterator.next();
+            focusArea.getBoundsInScreen(focusAreaBounds);
+            if (!FocusFinder.mayContainCandidate(sourceBounds, focusAreaBounds, direction)) {
+                iterator.remove();
+                focusArea.recycle();
+                mPrunedSubtreeCount++;
+            }
+        }
+    }
+
+    /**
+     * Removes the focus areas that have no descendants that can take focus from the given list,
+     * and returns a summary of each remaining focus area, in the same order.
+     */
+    @NonNull
+    private List<SubtreeSummary> removeEmptyFocusAreas(
+            @NonNull List<AccessibilityNodeInfo> focusAreas) {
+        List<SubtreeSummary> summaries = new ArrayList<>(focusAreas.size());
         for (Iterator<AccessibilityNodeInfo> iterator = focusAreas.iterator();
                 iterator.hasNext(); ) {
             AccessibilityNodeInfo focusArea = iterator.next();
-            if (!Utils.canHaveFocus(focusArea)) {
+            SubtreeSummary summary = SubtreeSummary.build(focusArea, mTreeTraverser);
+            mSearchedSubtreeCount++;
+            if (summary.isEmpty()) {
                 iterator.remove();
                 focusArea.recycle();
+            } else {
+                summaries.add(summary);
             }
         }
+        return summaries;
+    }
+
+    /**
+     * Returns a copy of the window with the given ID from {@code windows}, or null if it isn't
+     * there. The caller is responsible for recycling the result.
+     */
+    @Nullable
+    private AccessibilityWindowInfo copyWindow(@NonNull List<AccessibilityWindowInfo> windows,
+            int windowId) {
+        for (AccessibilityWindowInfo window : windows) {
+            if (window.getId() == windowId) {
+                return mNodeCopier.copy(window);
+            }
+        }
+        return null;
     }
 
     /**
@@ -532,9 +1246,9 @@ class Navigator {
             @NonNull AccessibilityWindowInfo source,
             @NonNull List<AccessibilityWindowInfo> results,
             int direction) {
-        Rect sourceBounds = new Rect();
+        Rect sourceBounds = mSourceBounds;
         source.getBoundsInScreen(sourceBounds);
-        Rect destBounds = new Rect();
+        Rect destBounds = mCandidateBounds;
         for (AccessibilityWindowInfo window : windows) {
             if (!window.equals(source)) {
                 window.getBoundsInScreen(destBounds);
@@ -549,13 +1263,19 @@ class Navigator {
     }
 
     /**
-     * Scans the view hierarchy of the given {@code window} looking for focus areas and returns
-     * them. If there are no explicitly declared {@link FocusArea}s, returns the root view. The
-     * caller is responsible for recycling the result.
+     * Returns the focus areas in the given {@code window}. If there are no explicitly declared
+     * {@link FocusArea}s, returns the root view. The view hierarchy is only scanned if the window
+     * isn't in {@link #mFocusAreaIndex} yet. The caller is responsible for recycling the result.
      */
     private @NonNull
     List<AccessibilityNodeInfo> findFocusAreas(@NonNull AccessibilityWindowInfo window) {
-        List<AccessibilityNodeInfo> results = new ArrayList<>();
+        int windowId = window.getId();
+        List<AccessibilityNodeInfo> results = mFocusAreaIndex.getFocusAreas(windowId);
+        if (results != null) {
+            return results;
+        }
+        results = new ArrayList<>();
+        IpcTracker.record(IpcTracker.OP_GET_ROOT);
         AccessibilityNodeInfo rootNode = window.getRoot();
         if (rootNode != null) {
             addFocusAreas(rootNode, results);
@@ -563,6 +1283,7 @@ class Navigator {
                 results.add(copyNode(rootNode));
             }
             rootNode.recycle();
+            mFocusAreaIndex.putFocusAreas(windowId, results);
         }
         return results;
     }
@@ -577,7 +1298,8 @@ class Navigator {
         if (window.getType() != AccessibilityWindowInfo.TYPE_SYSTEM) {
             return false;
         }
-        Rect bounds = new Rect();
+        // This is called on the main thread without the lock, so it can't share mCandidateBounds.
+        Rect bounds = sUnlockedBounds.get();
         window.getBoundsInScreen(bounds);
         return bounds.left == mHunLeft && bounds.right == mHunRight;
     }
@@ -585,12 +1307,27 @@ class Navigator {
     /**
      * Searches from the given node up through its ancestors to the containing focus area, looking
      * for a node that's marked as horizontally or vertically scrollable. Returns a copy of the
-     * first such node or null if none is found. The caller is responsible for recycling the result.
+     * first such node or null if none is found. The result, or the lack of one, is cached until
+     * the node's window is invalidated. The caller is responsible for recycling the result.
+     * <p>
+     * The main thread calls this whenever the focus changes, so it doesn't take the lock.
      */
     @Nullable
     AccessibilityNodeInfo findScrollableContainer(@NonNull AccessibilityNodeInfo node) {
-        return mTreeTraverser.findNodeOrAncestor(node, /* stopPredicate= */ Utils::isFocusArea,
+        synchronized (mScrollableContainerCache) {
+            if (mScrollableContainerCache.contains(node)) {
+                return mScrollableContainerCache.get(node);
+            }
+        }
+        // Read the generation before climbing, so that the result isn't cached if the window is
+        // invalidated during the climb.
+        int generation = mLayoutGenerations.get(node.getWindowId());
+        // The tree traverser keeps no state, so it's safe to use while a search is using it.
+        AccessibilityNodeInfo result = mTreeTraverser.findNodeOrAncestor(node,
+                /* stopPredicate= */ Utils::isFocusArea,
                 /* targetPredicate= */ Utils::isScrollableContainer);
+        mScrollableContainerCache.put(node, result, generation);
+        return result;
     }
 
     /**
@@ -632,6 +1369,7 @@ class Navigator {
             @NonNull AccessibilityNodeInfo containerNode,
             @NonNull AccessibilityNodeInfo referenceNode,
             int direction) {
+        IpcTracker.record(IpcTracker.OP_FOCUS_SEARCH);
         AccessibilityNodeInfo targetNode = referenceNode.focusSearch(direction);
         if (targetNode == null
                 || targetNode.equals(containerNode)
@@ -652,7 +1390,9 @@ class Navigator {
     /**
      * Returns the first descendant of {@code node} which can take focus. The nodes are searched in
      * in depth-first order, not including {@code node} itself. If no descendant can take focus,
-     * null is returned. The caller is responsible for recycling the result.
+     * null is returned. The caller is responsible for recycling the result. Like {@link
+     * #findLastFocusableDescendant}, this doesn't take the lock, since the main thread calls it
+     * after scrolling.
      */
     @Nullable
     AccessibilityNodeInfo findFirstFocusableDescendant(@NonNull AccessibilityNodeInfo node) {
@@ -705,18 +1445,48 @@ class Navigator {
             @NonNull AccessibilityNodeInfo sourceNode,
             @NonNull List<AccessibilityNodeInfo> candidates,
             int direction) {
+        return chooseBestNudgeCandidate(sourceNode, candidates, /* summaries= */ null, direction);
+    }
+
+    /**
+     * Like {@link #chooseBestNudgeCandidate(AccessibilityNodeInfo, List, int)}, but if {@code
+     * summaries} isn't null, it must contain a summary of each of the {@code candidates} in the
+     * same order, and they're used to check whether each candidate is in the given {@code
+     * direction} instead of searching its descendants again. The candidates whose bounds rule them
+     * out aren't checked at all, which matters for the candidates from the {@link NudgeGraph}: they
+     * serve nudges from every view in the source focus area, so they can't be pruned by the bounds
+     * of the focused view when they're collected.
+     */
+    private AccessibilityNodeInfo chooseBestNudgeCandidate(
+            @NonNull AccessibilityNodeInfo sourceNode,
+            @NonNull List<AccessibilityNodeInfo> candidates,
+            @Nullable List<SubtreeSummary> summaries,
+            int direction) {
         if (candidates.isEmpty()) {
             return null;
         }
-        Rect sourceBounds = new Rect();
+        Rect sourceBounds = mSourceBounds;
         sourceNode.getBoundsInScreen(sourceBounds);
 
         AccessibilityNodeInfo bestNode = null;
-        Rect bestBounds = new Rect();
-
-        Rect candidateBounds = new Rect();
-        for (AccessibilityNodeInfo candidate : candidates) {
-            if (isCandidate(sourceBounds, candidate, direction)) {
+        Rect bestBounds = mBestBounds;
+
+        Rect candidateBounds = mCandidateBounds;
+        for (int i = 0; i < candidates.size(); i++) {
+            AccessibilityNodeInfo candidate = candidates.get(i);
+            boolean isCandidate;
+            if (summaries == null) {
+                isCandidate = isCandidate(sourceBounds, candidate, direction);
+            } else {
+                candidate.getBoundsInScreen(candidateBounds);
+                if (FocusFinder.mayContainCandidate(sourceBounds, candidateBounds, direction)) {
+                    isCandidate = summaries.get(i).hasCandidate(sourceBounds, direction);
+                } else {
+                    mPrunedSubtreeCount++;
+                    isCandidate = false;
+                }
+            }
+            if (isCandidate) {
                 candidate.getBoundsInScreen(candidateBounds);
                 if (bestNode == null || FocusFinder.isBetterCandidate(
                         direction, sourceBounds, candidateBounds, bestBounds)) {
@@ -728,24 +1498,51 @@ class Navigator {
         return copyNode(bestNode);
     }
 
+    /**
+     * Returns a copy of the best candidate from among the focus descendants of {@code focusArea}
+     * (see {@link #addFocusDescendants}) for a nudge from {@code sourceNode} in the given {@code
+     * direction}. Returns null if none of them are in the given {@code direction}, unless {@code
+     * fallBackToFirst} is true, in which case the first focus descendant (if any) is returned. The
+     * caller is responsible for recycling the result.
+     */
+    @Nullable
+    private AccessibilityNodeInfo chooseBestFocusDescendant(
+            @NonNull AccessibilityNodeInfo sourceNode,
+            @NonNull AccessibilityNodeInfo focusArea,
+            int direction,
+            boolean fallBackToFirst) {
+        List<AccessibilityNodeInfo> candidateNodes = new ArrayList<>();
+        addFocusDescendants(focusArea, candidateNodes);
+        AccessibilityNodeInfo bestCandidate =
+                chooseBestNudgeCandidate(sourceNode, candidateNodes, direction);
+        if (bestCandidate == null && fallBackToFirst && !candidateNodes.isEmpty()) {
+            bestCandidate = copyNode(candidateNodes.get(0));
+        }
+        Utils.recycleNodes(candidateNodes);
+        return bestCandidate;
+    }
+
     /**
      * Returns whether the given {@code node} is a candidate from {@code sourceBounds} to the given
      * {@code direction}. To be a candidate, the node or one of its descendants must be able to take
-     * focus and must be considered a candidate by {@link FocusFinder#isCandidate}.
+     * focus and must be considered a candidate by {@link FocusFinder#isCandidate}. The
+     * descendants aren't searched if the node's own bounds rule them out.
      */
-    private boolean isCandidate(@NonNull Rect sourceBounds,
+    @VisibleForTesting
+    boolean isCandidate(@NonNull Rect sourceBounds,
             @NonNull AccessibilityNodeInfo node,
             int direction) {
-        AccessibilityNodeInfo candidate = mTreeTraverser.depthFirstSearch(node, candidateNode -> {
-            // First check if the node can take focus.
-            if (!Utils.canTakeFocus(candidateNode)) {
-                return false;
-            }
-            // The node represents a focusable view in the FocusArea, so check the geometry.
-            Rect candidateBounds = new Rect();
-            candidateNode.getBoundsInScreen(candidateBounds);
-            return FocusFinder.isCandidate(sourceBounds, candidateBounds, direction);
-        });
+        node.getBoundsInScreen(mDescendantBounds);
+        if (!FocusFinder.mayContainCandidate(sourceBounds, mDescendantBounds, direction)) {
+            mPrunedSubtreeCount++;
+            return false;
+        }
+        mSearchedSubtreeCount++;
+        CandidateDescendantPredicate predicate = mCandidateDescendantPredicate;
+        predicate.mSourceBounds = sourceBounds;
+        predicate.mDirection = direction;
+        AccessibilityNodeInfo candidate = mTreeTraverser.depthFirstSearch(node, predicate);
+        predicate.mSourceBounds = null;
         if (candidate == null) {
             return false;
         }
@@ -765,26 +1562,71 @@ class Navigator {
      */
     @NonNull
     private AccessibilityNodeInfo getAncestorFocusArea(@NonNull AccessibilityNodeInfo node) {
-        TreeTraverser.NodePredicate isFocusAreaOrRoot = candidateNode -> {
-            if (Utils.isFocusArea(candidateNode)) {
-                // The candidateNode is a focus area.
-                return true;
-            }
-            AccessibilityNodeInfo parent = candidateNode.getParent();
+        AccessibilityNodeInfo result = mAncestorFocusAreaCache.get(node);
+        if (result != null) {
+            return result;
+        }
+        int generation = mLayoutGenerations.get(node.getWindowId());
+        // Climb until a focus area or the root node is reached, fetching each parent once.
+        result = copyNode(node);
+        while (!Utils.isFocusArea(result)) {
+            IpcTracker.record(IpcTracker.OP_GET_PARENT);
+            AccessibilityNodeInfo parent = result.getParent();
             if (parent == null) {
-                // The candidateNode is the root node.
-                return true;
+                // The result is the root node.
+                break;
             }
-            parent.recycle();
-            return false;
-        };
-        AccessibilityNodeInfo result = mTreeTraverser.findNodeOrAncestor(node, isFocusAreaOrRoot);
+            result.recycle();
+            result = parent;
+        }
         if (!Utils.isFocusArea(result)) {
             L.w("Couldn't find ancestor focus area for given node: " + node);
         }
+        mAncestorFocusAreaCache.put(node, result, generation);
         return result;
     }
 
+    /**
+     * Matches the nodes that can take focus and are candidates for a nudge from {@link
+     * #mSourceBounds} in {@link #mDirection}. See {@link #isCandidate}.
+     */
+    private class CandidateDescendantPredicate implements TreeTraverser.NodePredicate {
+        @Nullable
+        Rect mSourceBounds;
+        int mDirection;
+
+        @Override
+        public boolean isTarget(@NonNull AccessibilityNodeInfo candidateNode) {
+            // First check if the node can take focus.
+            if (!Utils.canTakeFocus(candidateNode)) {
+                return false;
+            }
+            // The node represents a focusable view in the FocusArea, so check the geometry.
+            candidateNode.getBoundsInScreen(mDescendantBounds);
+            return FocusFinder.isCandidate(mSourceBounds, mDescendantBounds, mDirection);
+        }
+    }
+
+    /** The focus areas in one window, collected by {@link #collectWindowFocusAreas}. */
+    private static class WindowFocusAreas {
+        /** All the focus areas in the window. */
+        @NonNull
+        List<AccessibilityNodeInfo> mFocusAreas = new ArrayList<>();
+
+        /**
+         * The summary of each of {@link #mFocusAreas}, in the same order, or null for the ones that
+         * weren't summarized because they aren't candidates.
+         */
+        @NonNull
+        final List<SubtreeSummary> mSummaries = new ArrayList<>();
+
+        /** Whether {@link #mFocusAreas} should be added to the {@link FocusAreaIndex}. */
+        boolean mNewFocusAreas;
+
+        int mPrunedCount;
+        int mSearchedCount;
+    }
+
     /** Result from {@link #findRotateTarget}. */
     static class FindRotateTargetResult {
         @NonNull final AccessibilityNodeInfo node;
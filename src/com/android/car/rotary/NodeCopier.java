@@ -17,15 +17,16 @@
 package com.android.car.rotary;
 
 import android.view.accessibility.AccessibilityNodeInfo;
+import android.view.accessibility.AccessibilityWindowInfo;
 
 import androidx.annotation.Nullable;
 
 /**
- * A class to copy {@link AccessibilityNodeInfo}.
+ * A class to copy {@link AccessibilityNodeInfo} and {@link AccessibilityWindowInfo}.
  * <p>
  * {@link AccessibilityNodeInfo#obtain(AccessibilityNodeInfo)} } doesn't work when passed a mock
  * node. To mock it in unit tests, we create a non-static method {@link
- * #copy(AccessibilityNodeInfo)} to wrap it.
+ * #copy(AccessibilityNodeInfo)} to wrap it. The same goes for windows.
  */
 class NodeCopier {
 
@@ -33,4 +34,9 @@ class NodeCopier {
     AccessibilityNodeInfo copy(@Nullable AccessibilityNodeInfo node) {
         return node == null ? null : AccessibilityNodeInfo.obtain(node);
     }
+
+    /** Copies a window. The caller is responsible for recycling result. */
+    AccessibilityWindowInfo copy(@Nullable AccessibilityWindowInfo window) {
+        return window == null ? null : AccessibilityWindowInfo.obtain(window);
+    }
 }
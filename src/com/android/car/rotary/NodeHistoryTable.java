@@ -0,0 +1,223 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.car.rotary;
+
+import android.util.LruCache;
+import android.view.accessibility.AccessibilityNodeInfo;
+
+import androidx.annotation.NonNull;
+
+/**
+ * A bounded map from the identity of a node, optionally combined with a direction, to another node
+ * and the time it was saved, used by {@link RotaryCache} when its compact storage is enabled. Once
+ * full, saving a new entry evicts the least recently used one, as {@link LruCache} does.
+ * <p>
+ * A node's identity is its window ID and source node ID, which is what {@link
+ * AccessibilityNodeInfo#equals} compares. Unlike an {@link LruCache} keyed by nodes, the keys are
+ * stored as primitives in open-addressing arrays, so saving an entry doesn't copy the key node and
+ * looking one up doesn't hash a node or allocate a key. Each entry holds one copy of its value
+ * node, which the caller only copies again when it's returned.
+ */
+class NodeHistoryTable {
+
+    /** The direction of entries whose key has no direction. */
+    static final int NO_DIRECTION = 0;
+
+    /** The source node ID of entries keyed by window only. */
+    static final long NO_SOURCE_NODE_ID = 0;
+
+    /** Where {@link #find} returns that there's no such entry. */
+    static final int NOT_FOUND = -1;
+
+    private final int mMaxSize;
+
+    /** The number of slots minus 1. The number of slots is a power of two. */
+    private final int mMask;
+
+    // The entry in each slot. A slot is empty if its node is null.
+    @NonNull
+    private final int[] mWindowIds;
+    @NonNull
+    private final long[] mSourceNodeIds;
+    @NonNull
+    private final int[] mDirections;
+    @NonNull
+    private final AccessibilityNodeInfo[] mNodes;
+    @NonNull
+    private final long[] mTimestamps;
+
+    /** When each entry was last saved or found, as a value of {@link #mUseCount}. */
+    @NonNull
+    private final long[] mLastUses;
+
+    private long mUseCount;
+    private int mSize;
+
+    NodeHistoryTable(int maxSize) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("maxSize must be positive");
+        }
+        mMaxSize = maxSize;
+        // Keep at least half of the slots empty, so that probe sequences stay short.
+        int slotCount = Integer.highestOneBit(maxSize * 2 - 1) << 1;
+        mMask = slotCount - 1;
+        mWindowIds = new int[slotCount];
+        mSourceNodeIds = new long[slotCount];
+        mDirections = new int[slotCount];
+        mNodes = new AccessibilityNodeInfo[slotCount];
+        mTimestamps = new long[slotCount];
+        mLastUses = new long[slotCount];
+    }
+
+    /**
+     * Returns the slot of the entry with the given key and marks it as the most recently used, or
+     * returns {@link #NOT_FOUND}.
+     */
+    int find(int windowId, long sourceNodeId, int direction) {
+        for (int slot = getHomeSlot(windowId, sourceNodeId, direction); mNodes[slot] != null;
+                slot = (slot + 1) & mMask) {
+            if (mWindowIds[slot] == windowId && mSourceNodeIds[slot] == sourceNodeId
+                    && mDirections[slot] == direction) {
+                mLastUses[slot] = ++mUseCount;
+                return slot;
+            }
+        }
+        return NOT_FOUND;
+    }
+
+    /**
+     * Returns the node of the entry in the given slot. It's still owned by this table, and is only
+     * valid until the next call that saves or removes an entry.
+     */
+    @NonNull
+    AccessibilityNodeInfo getNode(int slot) {
+        return mNodes[slot];
+    }
+
+    /** Returns the time the entry in the given slot was saved. */
+    long getTimestamp(int slot) {
+        return mTimestamps[slot];
+    }
+
+    /**
+     * Saves the given {@code node} and {@code timestamp} with the given key, replacing the entry
+     * with that key, if any. This table takes ownership of {@code node}.
+     */
+    void put(int windowId, long sourceNodeId, int direction, @NonNull AccessibilityNodeInfo node,
+            long timestamp) {
+        int slot = find(windowId, sourceNodeId, direction);
+        if (slot != NOT_FOUND) {
+            mNodes[slot].recycle();
+            mNodes[slot] = node;
+            mTimestamps[slot] = timestamp;
+            return;
+        }
+        if (mSize == mMaxSize) {
+            removeAt(getLeastRecentlyUsedSlot());
+        }
+        slot = getHomeSlot(windowId, sourceNodeId, direction);
+        while (mNodes[slot] != null) {
+            slot = (slot + 1) & mMask;
+        }
+        mWindowIds[slot] = windowId;
+        mSourceNodeIds[slot] = sourceNodeId;
+        mDirections[slot] = direction;
+        mNodes[slot] = node;
+        mTimestamps[slot] = timestamp;
+        mLastUses[slot] = ++mUseCount;
+        mSize++;
+    }
+
+    /**
+     * Returns the slots of all the entries, from the most recently used to the least recently
+     * used.
+     */
+    @NonNull
+    int[] getSlotsByRecency() {
+        int[] slots = new int[mSize];
+        int count = 0;
+        for (int slot = 0; slot <= mMask; slot++) {
+            if (mNodes[slot] == null) {
+                continue;
+            }
+            // Insertion sort, since there are only a few entries.
+            int i = count++;
+            while (i > 0 && mLastUses[slots[i - 1]] < mLastUses[slot]) {
+                slots[i] = slots[i - 1];
+                i--;
+            }
+            slots[i] = slot;
+        }
+        return slots;
+    }
+
+    int size() {
+        return mSize;
+    }
+
+    /** Removes and recycles all the entries. */
+    void clear() {
+        for (int slot = 0; slot <= mMask; slot++) {
+            if (mNodes[slot] != null) {
+                mNodes[slot].recycle();
+                mNodes[slot] = null;
+            }
+        }
+        mSize = 0;
+    }
+
+    private int getHomeSlot(int windowId, long sourceNodeId, int direction) {
+        long hash = (sourceNodeId * 31 + windowId) * 31 + direction;
+        hash *= 0x9E3779B97F4A7C15L;
+        return (int) (hash >>> 32) & mMask;
+    }
+
+    private int getLeastRecentlyUsedSlot() {
+        int result = NOT_FOUND;
+        for (int slot = 0; slot <= mMask; slot++) {
+            if (mNodes[slot] != null
+                    && (result == NOT_FOUND || mLastUses[slot] < mLastUses[result])) {
+                result = slot;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Recycles and removes the entry in the given slot, then moves later entries in its probe
+     * sequence back so that they can still be found without tombstones.
+     */
+    private void removeAt(int slot) {
+        mNodes[slot].recycle();
+        mNodes[slot] = null;
+        mSize--;
+        int hole = slot;
+        for (int next = (hole + 1) & mMask; mNodes[next] != null; next = (next + 1) & mMask) {
+            int home = getHomeSlot(mWindowIds[next], mSourceNodeIds[next], mDirections[next]);
+            // The entry can move back to the hole unless its home slot is after the hole.
+            if (((next - home) & mMask) >= ((next - hole) & mMask)) {
+                mWindowIds[hole] = mWindowIds[next];
+                mSourceNodeIds[hole] = mSourceNodeIds[next];
+                mDirections[hole] = mDirections[next];
+                mNodes[hole] = mNodes[next];
+                mTimestamps[hole] = mTimestamps[next];
+                mLastUses[hole] = mLastUses[next];
+                mNodes[next] = null;
+                hole = next;
+            }
+        }
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.car.rotary;
+
+import android.util.LruCache;
+import android.view.accessibility.AccessibilityNodeInfo;
+import android.view.accessibility.AccessibilityWindowInfo;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+import java.util.List;
+
+/**
+ * A graph of the focus areas in the visible windows, whose edges lead from each focus area to the
+ * candidate focus areas for a nudge in each of the four directions.
+ * <p>
+ * Finding the candidates for a nudge means listing the focus areas in the source window and in the
+ * windows in the nudge direction, then walking each one for views that can take focus, at the cost
+ * of many binder calls. The candidates only depend on the layout, so each edge is built the first
+ * time it's needed, by the same {@link FocusFinder} rules, and reused until the layout changes.
+ * Which candidate is best also depends on the bounds of the focused view, so {@link Navigator}
+ * still chooses among them, but without any binder calls.
+ * <p>
+ * Each edge is saved with a {@link LayoutGenerations.Stamp} of its source window and its candidate
+ * windows, and ignored once any of them has been invalidated, or if the windows on the screen
+ * aren't the ones it was built with.
+ */
+class NudgeGraph {
+
+    /** The maximum number of source focus areas cached. */
+    private static final int MAX_SIZE = 50;
+
+    @NonNull
+    private NodeCopier mNodeCopier = new NodeCopier();
+
+    @NonNull
+    private final LayoutGenerations mLayoutGenerations;
+
+    /** The edges from each source focus area, indexed by {@link Utils#getNudgeDirectionIndex}. */
+    @NonNull
+    private final LruCache<AccessibilityNodeInfo, Edge[]> mCache =
+            new LruCache<AccessibilityNodeInfo, Edge[]>(MAX_SIZE) {
+                @Override
+                protected void entryRemoved(boolean evicted, AccessibilityNodeInfo key,
+                        Edge[] oldValue, Edge[] newValue) {
+                    Utils.recycleNode(key);
+                    for (Edge edge : oldValue) {
+                        if (edge != null) {
+                            edge.recycle();
+                        }
+                    }
+                }
+            };
+
+    NudgeGraph(@NonNull LayoutGenerations layoutGenerations) {
+        mLayoutGenerations = layoutGenerations;
+    }
+
+    /**
+     * Returns the edge from {@code focusArea} in the given {@code direction}, or null if there
+     * isn't a valid one for the given {@code windows}. The result is still owned by this graph, and
+     * is only valid until the next call of a method of this graph.
+     */
+    @Nullable
+    Edge get(@NonNull AccessibilityNodeInfo focusArea, int direction,
+            @NonNull List<AccessibilityWindowInfo> windows) {
+        Edge[] edges = mCache.get(focusArea);
+        if (edges == null) {
+            return null;
+        }
+        Edge edge = edges[Utils.getNudgeDirectionIndex(direction)];
+        return edge != null && mLayoutGenerations.isCurrent(edge.mStamp, windows) ? edge : null;
+    }
+
+    /**
+     * Saves the edge from {@code focusArea} in the given {@code direction}. This graph takes
+     * ownership of {@code candidates}, but not of {@code focusArea}.
+     *
+     * @param stamp      a stamp of the source window and the windows the candidates were searched
+     *                   in, taken before they were searched
+     * @param candidates the candidate focus areas, each of which has views that can take focus
+     * @param summaries  a summary of each of the {@code candidates}, in the same order
+     */
+    void put(@NonNull AccessibilityNodeInfo focusArea, int direction,
+            @NonNull LayoutGenerations.Stamp stamp, @NonNull List<AccessibilityNodeInfo> candidates,
+            @NonNull List<SubtreeSummary> summaries) {
+        Edge edge = new Edge(candidates, summaries, stamp);
+
+        Edge[] edges = mCache.get(focusArea);
+        if (edges == null) {
+            edges = new Edge[Utils.NUDGE_DIRECTION_COUNT];
+            mCache.put(mNodeCopier.copy(focusArea), edges);
+        }
+        int index = Utils.getNudgeDirectionIndex(direction);
+        if (edges[index] != null) {
+            edges[index].recycle();
+        }
+        edges[index] = edge;
+    }
+
+    /** Sets a mock {@link NodeCopier} instance for testing. */
+    @VisibleForTesting
+    void setNodeCopier(@NonNull NodeCopier nodeCopier) {
+        mNodeCopier = nodeCopier;
+    }
+
+    /** The candidate focus areas for a nudge from one focus area in one direction. */
+    static class Edge {
+        @NonNull
+        final List<AccessibilityNodeInfo> mCandidates;
+
+        @NonNull
+        final List<SubtreeSummary> mSummaries;
+
+        /** The windows on the screen and the layout generations this edge was built from. */
+        @NonNull
+        private final LayoutGenerations.Stamp mStamp;
+
+        private Edge(@NonNull List<AccessibilityNodeInfo> candidates,
+                @NonNull List<SubtreeSummary> summaries, @NonNull LayoutGenerations.Stamp stamp) {
+            mCandidates = candidates;
+            mSummaries = summaries;
+            mStamp = stamp;
+        }
+
+        private void recycle() {
+            Utils.recycleNodes(mCandidates);
+        }
+    }
+}
@@ -73,6 +73,21 @@ class RotaryCache {
     @NonNull
     private final FocusWindowCache mFocusWindowCache;
 
+    // The compact storage of each of the caches above, used instead of its own storage when
+    // setCompactStorageEnabled(true) has been called. Null otherwise.
+
+    /** The last focused node by focus area. Has no directions. */
+    @Nullable
+    private NodeHistoryTable mCompactFocusHistory;
+
+    /** The target focus area by source focus area and direction. */
+    @Nullable
+    private NodeHistoryTable mCompactFocusAreaHistory;
+
+    /** The recently focused node by window. Has no source node IDs or directions. */
+    @Nullable
+    private NodeHistoryTable mCompactFocusWindowHistory;
+
     /** A record of when a node was focused. */
     private static class FocusHistory {
 
@@ -172,11 +187,16 @@ class RotaryCache {
             if (focusHistory == null || focusHistory.node == null) {
                 return false;
             }
+            return isUnexpired(focusHistory.timestamp, elapsedRealtime);
+        }
+
+        /** Returns whether an entry saved at the given {@code timestamp} hasn't expired. */
+        boolean isUnexpired(long timestamp, long elapsedRealtime) {
             switch (mCacheType) {
                 case CACHE_TYPE_NEVER_EXPIRE:
                     return true;
                 case CACHE_TYPE_EXPIRED_AFTER_SOME_TIME:
-                    return elapsedRealtime - focusHistory.timestamp < mExpirationTimeMs;
+                    return elapsedRealtime - timestamp < mExpirationTimeMs;
                 default:
                     return false;
             }
@@ -221,11 +241,16 @@ class RotaryCache {
             if (focusHistory == null || focusHistory.node == null) {
                 return false;
             }
+            return isUnexpired(focusHistory.timestamp, elapsedRealtime);
+        }
+
+        /** Returns whether an entry saved at the given {@code timestamp} hasn't expired. */
+        boolean isUnexpired(long timestamp, long elapsedRealtime) {
             switch (mCacheType) {
                 case CACHE_TYPE_NEVER_EXPIRE:
                     return true;
                 case CACHE_TYPE_EXPIRED_AFTER_SOME_TIME:
-                    return elapsedRealtime - focusHistory.timestamp < mExpirationTimeMs;
+                    return elapsedRealtime - timestamp < mExpirationTimeMs;
                 default:
                     return false;
             }
@@ -268,8 +293,15 @@ class RotaryCache {
          * </ul>
          */
         boolean isValidEntry(@NonNull FocusWindowHistory focusWindowHistory, long elapsedRealtime) {
-            if (!focusWindowHistory.mNode.refresh()
-                    || !Utils.canTakeFocus(focusWindowHistory.mNode)) {
+            return isValidEntry(
+                    focusWindowHistory.mNode, focusWindowHistory.mTimestamp, elapsedRealtime);
+        }
+
+        /** Like {@link #isValidEntry(FocusWindowHistory, long)}, for an entry's fields. */
+        boolean isValidEntry(@NonNull AccessibilityNodeInfo node, long timestamp,
+                long elapsedRealtime) {
+            IpcTracker.record(IpcTracker.OP_REFRESH);
+            if (!node.refresh() || !Utils.canTakeFocus(node)) {
                 return false;
             }
 
@@ -277,7 +309,7 @@ class RotaryCache {
                 case CACHE_TYPE_NEVER_EXPIRE:
                     return true;
                 case CACHE_TYPE_EXPIRED_AFTER_SOME_TIME:
-                    return elapsedRealtime - focusWindowHistory.mTimestamp < mExpirationTimeMs;
+                    return elapsedRealtime - timestamp < mExpirationTimeMs;
                 default:
                     return false;
             }
@@ -291,6 +323,11 @@ class RotaryCache {
             if (mCacheType == CACHE_TYPE_DISABLED) {
                 return;
             }
+            if (mCompactFocusWindowHistory != null) {
+                mCompactFocusWindowHistory.put(windowId, NodeHistoryTable.NO_SOURCE_NODE_ID,
+                        NodeHistoryTable.NO_DIRECTION, copyNode(node), elapsedRealtime);
+                return;
+            }
             put(windowId, new FocusWindowHistory(copyNode(node), elapsedRealtime));
         }
 
@@ -300,6 +337,16 @@ class RotaryCache {
          */
         @Nullable
         AccessibilityNodeInfo getMostRecentValidNode(long elapsedRealtime) {
+            if (mCompactFocusWindowHistory != null) {
+                for (int slot : mCompactFocusWindowHistory.getSlotsByRecency()) {
+                    AccessibilityNodeInfo node = mCompactFocusWindowHistory.getNode(slot);
+                    if (isValidEntry(node, mCompactFocusWindowHistory.getTimestamp(slot),
+                            elapsedRealtime)) {
+                        return copyNode(node);
+                    }
+                }
+                return null;
+            }
             Map<Integer, FocusWindowHistory> snapshot = snapshot();
             List<FocusWindowHistory> focusWindowHistories = new ArrayList<>(snapshot.values());
             Collections.reverse(focusWindowHistories);
@@ -344,9 +391,22 @@ class RotaryCache {
     AccessibilityNodeInfo getFocusedNode(@NonNull AccessibilityNodeInfo focusArea,
             long elapsedRealtime) {
         if (mFocusHistoryCache.enabled()) {
-            FocusHistory focusHistory = mFocusHistoryCache.get(focusArea);
-            if (mFocusHistoryCache.isValidFocusHistory(focusHistory, elapsedRealtime)) {
-                AccessibilityNodeInfo node = copyNode(focusHistory.node);
+            AccessibilityNodeInfo cachedNode = null;
+            if (mCompactFocusHistory != null) {
+                int slot = mCompactFocusHistory.find(focusArea.getWindowId(),
+                        focusArea.getSourceNodeId(), NodeHistoryTable.NO_DIRECTION);
+                if (slot != NodeHistoryTable.NOT_FOUND && mFocusHistoryCache.isUnexpired(
+                        mCompactFocusHistory.getTimestamp(slot), elapsedRealtime)) {
+                    cachedNode = mCompactFocusHistory.getNode(slot);
+                }
+            } else {
+                FocusHistory focusHistory = mFocusHistoryCache.get(focusArea);
+                if (mFocusHistoryCache.isValidFocusHistory(focusHistory, elapsedRealtime)) {
+                    cachedNode = focusHistory.node;
+                }
+            }
+            if (cachedNode != null) {
+                AccessibilityNodeInfo node = copyNode(cachedNode);
                 // Refresh the node in case the view represented by the node is no longer in the
                 // view tree, or the node's state (e.g., isFocused()) has changed.
                 AccessibilityNodeInfo refreshedNode = Utils.refreshNode(node);
@@ -370,6 +430,11 @@ class RotaryCache {
     void saveFocusedNode(@NonNull AccessibilityNodeInfo focusArea,
             @NonNull AccessibilityNodeInfo focusedNode, long elapsedRealtime) {
         if (mFocusHistoryCache.enabled()) {
+            if (mCompactFocusHistory != null) {
+                mCompactFocusHistory.put(focusArea.getWindowId(), focusArea.getSourceNodeId(),
+                        NodeHistoryTable.NO_DIRECTION, copyNode(focusedNode), elapsedRealtime);
+                return;
+            }
             mFocusHistoryCache.put(
                     copyNode(focusArea), new FocusHistory(copyNode(focusedNode), elapsedRealtime));
         }
@@ -384,10 +449,23 @@ class RotaryCache {
     AccessibilityNodeInfo getTargetFocusArea(@NonNull AccessibilityNodeInfo sourceFocusArea,
             int direction, long elapsedRealtime) {
         if (mFocusAreaHistoryCache.enabled()) {
-            FocusHistory focusHistory =
-                    mFocusAreaHistoryCache.get(new FocusAreaHistory(sourceFocusArea, direction));
-            if (mFocusAreaHistoryCache.isValidFocusHistory(focusHistory, elapsedRealtime)) {
-                AccessibilityNodeInfo focusArea = copyNode(focusHistory.node);
+            AccessibilityNodeInfo cachedFocusArea = null;
+            if (mCompactFocusAreaHistory != null) {
+                int slot = mCompactFocusAreaHistory.find(sourceFocusArea.getWindowId(),
+                        sourceFocusArea.getSourceNodeId(), direction);
+                if (slot != NodeHistoryTable.NOT_FOUND && mFocusAreaHistoryCache.isUnexpired(
+                        mCompactFocusAreaHistory.getTimestamp(slot), elapsedRealtime)) {
+                    cachedFocusArea = mCompactFocusAreaHistory.getNode(slot);
+                }
+            } else {
+                FocusHistory focusHistory = mFocusAreaHistoryCache.get(
+                        new FocusAreaHistory(sourceFocusArea, direction));
+                if (mFocusAreaHistoryCache.isValidFocusHistory(focusHistory, elapsedRealtime)) {
+                    cachedFocusArea = focusHistory.node;
+                }
+            }
+            if (cachedFocusArea != null) {
+                AccessibilityNodeInfo focusArea = copyNode(cachedFocusArea);
                 // Refresh the node in case the view represented by the node is no longer in the
                 // view tree.
                 return Utils.refreshNode(focusArea);
@@ -404,6 +482,12 @@ class RotaryCache {
             @NonNull AccessibilityNodeInfo targetFocusArea, int direction, long elapsedRealtime) {
         if (mFocusAreaHistoryCache.enabled()) {
             int oppositeDirection = getOppositeDirection(direction);
+            if (mCompactFocusAreaHistory != null) {
+                mCompactFocusAreaHistory.put(targetFocusArea.getWindowId(),
+                        targetFocusArea.getSourceNodeId(), oppositeDirection,
+                        copyNode(sourceFocusArea), elapsedRealtime);
+                return;
+            }
             mFocusAreaHistoryCache
                     .put(new FocusAreaHistory(copyNode(targetFocusArea), oppositeDirection),
                             new FocusHistory(copyNode(sourceFocusArea), elapsedRealtime));
@@ -414,12 +498,41 @@ class RotaryCache {
     void clearFocusAreaHistory() {
         if (mFocusAreaHistoryCache.enabled()) {
             mFocusAreaHistoryCache.evictAll();
+            if (mCompactFocusAreaHistory != null) {
+                mCompactFocusAreaHistory.clear();
+            }
         }
     }
 
     @VisibleForTesting
     boolean isFocusAreaHistoryCacheEmpty() {
-        return mFocusAreaHistoryCache.size() == 0;
+        return mFocusAreaHistoryCache.size() == 0
+                && (mCompactFocusAreaHistory == null || mCompactFocusAreaHistory.size() == 0);
+    }
+
+    /**
+     * Sets whether to store the caches in {@link NodeHistoryTable}s keyed by node identity, rather
+     * than in {@link LruCache}s keyed by copies of nodes. This saves a node copy per entry, and
+     * hashing a node and allocating a key per lookup. Everything cached so far is discarded.
+     */
+    void setCompactStorageEnabled(boolean enabled) {
+        mFocusHistoryCache.evictAll();
+        mFocusAreaHistoryCache.evictAll();
+        mFocusWindowCache.evictAll();
+        if (mCompactFocusHistory != null) {
+            mCompactFocusHistory.clear();
+            mCompactFocusAreaHistory.clear();
+            mCompactFocusWindowHistory.clear();
+        }
+        if (enabled) {
+            mCompactFocusHistory = new NodeHistoryTable(mFocusHistoryCache.maxSize());
+            mCompactFocusAreaHistory = new NodeHistoryTable(mFocusAreaHistoryCache.maxSize());
+            mCompactFocusWindowHistory = new NodeHistoryTable(mFocusWindowCache.maxSize());
+        } else {
+            mCompactFocusHistory = null;
+            mCompactFocusAreaHistory = null;
+            mCompactFocusWindowHistory = null;
+        }
     }
 
     /** Saves the most recently focused node within a window. */
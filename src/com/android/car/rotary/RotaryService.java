@@ -15,12 +15,17 @@
  */
 package com.android.car.rotary;
 
+import static android.view.accessibility.AccessibilityEvent.CONTENT_CHANGE_TYPE_PANE_APPEARED;
+import static android.view.accessibility.AccessibilityEvent.CONTENT_CHANGE_TYPE_PANE_DISAPPEARED;
+import static android.view.accessibility.AccessibilityEvent.CONTENT_CHANGE_TYPE_SUBTREE;
+import static android.view.accessibility.AccessibilityEvent.CONTENT_CHANGE_TYPE_UNDEFINED;
 import static android.view.accessibility.AccessibilityEvent.TYPE_VIEW_ACCESSIBILITY_FOCUSED;
 import static android.view.accessibility.AccessibilityEvent.TYPE_VIEW_ACCESSIBILITY_FOCUS_CLEARED;
 import static android.view.accessibility.AccessibilityEvent.TYPE_VIEW_CLICKED;
 import static android.view.accessibility.AccessibilityEvent.TYPE_VIEW_FOCUSED;
 import static android.view.accessibility.AccessibilityEvent.TYPE_VIEW_SCROLLED;
 import static android.view.accessibility.AccessibilityEvent.TYPE_WINDOWS_CHANGED;
+import static android.view.accessibility.AccessibilityEvent.TYPE_WINDOW_CONTENT_CHANGED;
 import static android.view.accessibility.AccessibilityEvent.TYPE_WINDOW_STATE_CHANGED;
 import static android.view.accessibility.AccessibilityEvent.WINDOWS_CHANGE_REMOVED;
 import static android.view.Display.DEFAULT_DISPLAY;
@@ -38,10 +43,11 @@ import android.content.res.Resources;
 import android.hardware.display.DisplayManager;
 import android.hardware.input.InputManager;
 import android.os.Build;
+import android.os.Handler;
+import android.os.MessageQueue;
 import android.os.SystemClock;
 import android.text.TextUtils;
 import android.view.Display;
-import android.view.InputDevice;
 import android.view.KeyEvent;
 import android.view.MotionEvent;
 import android.view.View;
@@ -55,10 +61,14 @@ import androidx.annotation.Nullable;
 
 import com.android.car.ui.utils.DirectManipulationHelper;
 
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * A service that can change focus based on rotary controller rotation and nudges, and perform
@@ -102,6 +112,22 @@ public class RotaryService extends AccessibilityService implements
      */
     private static final int SHIFT_DETENTS = 10;
 
+    /**
+     * The defaults of the deprecated {@code rotation_acceleration_3x_ms} and {@code
+     * rotation_acceleration_2x_ms} resources, for overlays that only set one of them.
+     */
+    private static final int DEFAULT_ROTATION_ACCELERATION_3X_MS = 20;
+    private static final int DEFAULT_ROTATION_ACCELERATION_2X_MS = 40;
+
+    /**
+     * The {@link AccessibilityEvent#getContentChangeTypes} that may add, remove or rearrange views,
+     * or change whether they can take focus, so what {@link #mNavigator} cached about the window
+     * must be invalidated. Other changes, such as to text or to the state description of a
+     * progress bar, are frequent and don't affect navigation, so they're ignored.
+     */
+    private static final int STRUCTURAL_CONTENT_CHANGE_TYPES = CONTENT_CHANGE_TYPE_SUBTREE
+            | CONTENT_CHANGE_TYPE_PANE_APPEARED | CONTENT_CHANGE_TYPE_PANE_DISAPPEARED;
+
     @NonNull
     private NodeCopier mNodeCopier = new NodeCopier();
 
@@ -116,17 +142,8 @@ public class RotaryService extends AccessibilityService implements
             // Capture controller nudges.
             CarInputManager.INPUT_TYPE_SYSTEM_NAVIGATE_KEYS};
 
-    /**
-     * Time interval in milliseconds to decide whether we should accelerate the rotation by 3 times
-     * for a rotate event.
-     */
-    private int mRotationAcceleration3xMs;
-
-    /**
-     * Time interval in milliseconds to decide whether we should accelerate the rotation by 2 times
-     * for a rotate event.
-     */
-    private int mRotationAcceleration2xMs;
+    /** Converts detents into rotations, accelerating fast spins. */
+    private RotationAccelerator mRotationAccelerator;
 
     /** Whether to clear focus area history when the user rotates the controller. */
     private boolean mClearFocusAreaHistoryWhenRotating;
@@ -210,7 +227,8 @@ public class RotaryService extends AccessibilityService implements
 
     /**
      * When to give up on receiving {@link AccessibilityEvent#TYPE_VIEW_SCROLLED}, in
-     * {@link SystemClock#uptimeMillis}.
+     * {@link SystemClock#uptimeMillis}. This is {@link Long#MAX_VALUE} until the last event of the
+     * scroll has been injected.
      */
     private long mAfterScrollActionUntil;
 
@@ -220,8 +238,71 @@ public class RotaryService extends AccessibilityService implements
     /** Whether we're in direct manipulation mode. */
     private boolean mInDirectManipulationMode;
 
-    /** The {@link SystemClock#uptimeMillis} when the last rotary rotation event occurred. */
-    private long mLastRotateEventTime;
+    /** Merges the rotations in each batch of events delivered by {@link CarInputManager}. */
+    private final RotationCoalescer mRotationCoalescer = new RotationCoalescer();
+
+    /** The windows on the screen, kept up to date from window change events. */
+    private WindowRegistry mWindowRegistry;
+
+    /** Injects the scroll events for rotations, spreading each one over several frames. */
+    private ScrollInjector mScrollInjector;
+
+    /**
+     * The threads {@link #mNavigator} collects the focus areas of the windows on when nudging, or
+     * null if it collects them on the calling thread.
+     */
+    @Nullable
+    private ExecutorService mFocusAreaCollectionExecutor;
+
+    /** Traces the latency from each rotation or nudge to the focus change it causes. */
+    private final LatencyTracer mLatencyTracer = new LatencyTracer();
+
+    /**
+     * The rotations and nudges from {@link CarInputManager} waiting to be handled, or null to
+     * handle them as they arrive. Inputs that pile up while the main thread is blocked on a slow
+     * app are collapsed.
+     */
+    @Nullable
+    private InputQueue mInputQueue;
+
+    /** Handles the inputs in {@link #mInputQueue} on the main thread. */
+    @Nullable
+    private Handler mInputHandler;
+
+    /** Whether {@link #mQueuedInputRunnable} has been posted to {@link #mInputHandler}. */
+    private boolean mQueuedInputPending;
+
+    private final Runnable mQueuedInputRunnable = this::handleNextQueuedInput;
+
+    /**
+     * Runs the searches for rotate, nudge and initial focus targets on a worker thread, or null to
+     * run them on the main thread.
+     */
+    @Nullable
+    private NavigationPipeline mNavigationPipeline;
+
+    /**
+     * The net number of "ticks" of the rotate search in {@link #mNavigationPipeline}, if any,
+     * positive for clockwise. A rotation that arrives before the search finishes supersedes it,
+     * searching again for the combined rotation.
+     */
+    private int mPendingRotationCount;
+
+    /**
+     * Whether to look up the rotate targets next to the focused node while the main thread is
+     * idle after a rotation, so that the next rotation is answered from the focus order cache.
+     */
+    private boolean mRotateTargetSpeculationEnabled;
+
+    /** Whether {@link #mSpeculationIdleHandler} has been added to the main thread's queue. */
+    private boolean mSpeculationPending;
+
+    private final MessageQueue.IdleHandler mSpeculationIdleHandler = () -> {
+        mSpeculationPending = false;
+        speculateRotateTargets();
+        // Run once per rotation.
+        return false;
+    };
 
     /**
      * The repeat count of {@link KeyEvent#KEYCODE_DPAD_CENTER}. Use to prevent processing a center
@@ -275,8 +356,30 @@ public class RotaryService extends AccessibilityService implements
     public void onCreate() {
         super.onCreate();
         Resources res = getResources();
-        mRotationAcceleration3xMs = res.getInteger(R.integer.rotation_acceleration_3x_ms);
-        mRotationAcceleration2xMs = res.getInteger(R.integer.rotation_acceleration_2x_ms);
+        int rotationAcceleration3xMs = res.getInteger(R.integer.rotation_acceleration_3x_ms);
+        int rotationAcceleration2xMs = res.getInteger(R.integer.rotation_acceleration_2x_ms);
+        if (rotationAcceleration3xMs >= 0 || rotationAcceleration2xMs >= 0) {
+            // An overlay still sets the deprecated step function, so honor it rather than the
+            // gain curve.
+            L.w("rotation_acceleration_3x_ms and rotation_acceleration_2x_ms are deprecated; "
+                    + "use rotation_acceleration_intervals_ms and "
+                    + "rotation_acceleration_gains_percent instead");
+            mRotationAccelerator = RotationAccelerator.createWithStepGains(
+                    rotationAcceleration3xMs >= 0
+                            ? rotationAcceleration3xMs
+                            : DEFAULT_ROTATION_ACCELERATION_3X_MS,
+                    rotationAcceleration2xMs >= 0
+                            ? rotationAcceleration2xMs
+                            : DEFAULT_ROTATION_ACCELERATION_2X_MS,
+                    res.getInteger(R.integer.rotation_acceleration_smoothing_percent),
+                    res.getInteger(R.integer.rotation_acceleration_spin_timeout_ms));
+        } else {
+            mRotationAccelerator = new RotationAccelerator(
+                    res.getIntArray(R.array.rotation_acceleration_intervals_ms),
+                    res.getIntArray(R.array.rotation_acceleration_gains_percent),
+                    res.getInteger(R.integer.rotation_acceleration_smoothing_percent),
+                    res.getInteger(R.integer.rotation_acceleration_spin_timeout_ms));
+        }
 
         mClearFocusAreaHistoryWhenRotating =
                 res.getBoolean(R.bool.clear_focus_area_history_when_rotating);
@@ -326,6 +429,35 @@ public class RotaryService extends AccessibilityService implements
                 hunLeft,
                 hunRight,
                 showHunOnBottom);
+        mNavigator.setFocusOrderCacheEnabled(res.getBoolean(R.bool.enable_focus_order_cache));
+        mNavigator.setNudgeGraphEnabled(res.getBoolean(R.bool.enable_nudge_graph));
+        mNavigator.setFailedNudgeCacheEnabled(res.getBoolean(R.bool.enable_failed_nudge_cache));
+        mNavigator.setCompactHistoryStorageEnabled(
+                res.getBoolean(R.bool.enable_compact_history_storage));
+        if (res.getBoolean(R.bool.enable_parallel_focus_area_collection)) {
+            mFocusAreaCollectionExecutor = Executors.newFixedThreadPool(
+                    res.getInteger(R.integer.focus_area_collection_thread_count));
+            mNavigator.setFocusAreaCollectionExecutor(mFocusAreaCollectionExecutor);
+        }
+        mWindowRegistry = new WindowRegistry(this::getWindows, mNavigator::isHunWindow);
+        mRotateTargetSpeculationEnabled =
+                res.getBoolean(R.bool.enable_rotate_target_speculation);
+        if (res.getBoolean(R.bool.enable_navigation_pipeline)) {
+            mNavigationPipeline = new NavigationPipeline(getMainLooper());
+        }
+        mScrollInjector = new ScrollInjector(
+                event -> mInputManager.injectInputEvent(event,
+                        InputManager.INJECT_INPUT_EVENT_MODE_ASYNC),
+                res.getInteger(R.integer.scroll_injection_duration_ms),
+                res.getInteger(R.integer.scroll_injection_distance_percent) / 100f,
+                res.getInteger(R.integer.scroll_injection_easing));
+        mScrollInjector.setOnScrollFinishedListener(() -> mAfterScrollActionUntil =
+                SystemClock.uptimeMillis() + mAfterScrollTimeoutMs);
+        if (res.getBoolean(R.bool.enable_input_queue)) {
+            mInputQueue = new InputQueue(res.getInteger(R.integer.input_queue_capacity),
+                    res.getInteger(R.integer.input_queue_collapse_policy));
+            mInputHandler = new Handler(getMainLooper());
+        }
     }
 
     /**
@@ -357,6 +489,8 @@ public class RotaryService extends AccessibilityService implements
     @Override
     public void onServiceConnected() {
         super.onServiceConnected();
+        // Any windows fetched before the service was connected are missing.
+        mWindowRegistry.invalidate();
 
         mCar = Car.createCar(this, null, Car.CAR_WAIT_TIMEOUT_WAIT_FOREVER,
                 (car, ready) -> {
@@ -388,6 +522,27 @@ public class RotaryService extends AccessibilityService implements
 
     @Override
     public void onDestroy() {
+        if (mScrollInjector != null) {
+            mScrollInjector.cancel();
+        }
+        if (mNavigationPipeline != null) {
+            mNavigationPipeline.quit();
+        }
+        if (mSpeculationPending) {
+            getMainLooper().getQueue().removeIdleHandler(mSpeculationIdleHandler);
+            mSpeculationPending = false;
+        }
+        if (mQueuedInputPending) {
+            mInputHandler.removeCallbacks(mQueuedInputRunnable);
+            mQueuedInputPending = false;
+        }
+        if (mWindowRegistry != null) {
+            mWindowRegistry.clear();
+        }
+        if (mFocusAreaCollectionExecutor != null) {
+            mNavigator.setFocusAreaCollectionExecutor(null);
+            mFocusAreaCollectionExecutor.shutdown();
+        }
         if (mCarInputManager != null) {
             mCarInputManager.releaseInputEventCapture(CarInputManager.TARGET_DISPLAY_TYPE_MAIN);
         }
@@ -397,40 +552,67 @@ public class RotaryService extends AccessibilityService implements
         super.onDestroy();
     }
 
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        IpcTracker.dump(/* prefix= */ "", writer);
+        mLatencyTracer.dump(/* prefix= */ "", writer);
+        if (mWindowRegistry != null) {
+            mWindowRegistry.dump(/* prefix= */ "", writer);
+        }
+        if (mInputQueue != null) {
+            mInputQueue.dump(/* prefix= */ "", writer);
+        }
+        if (mNavigationPipeline != null) {
+            mNavigationPipeline.dump(/* prefix= */ "", writer);
+        }
+        if (mNavigator != null) {
+            mNavigator.dump(/* prefix= */ "", writer);
+        }
+    }
+
     @Override
     public void onAccessibilityEvent(AccessibilityEvent event) {
-        switch (event.getEventType()) {
-            case TYPE_VIEW_FOCUSED: {
-                handleViewFocusedEvent(event);
-                break;
-            }
-            case TYPE_VIEW_CLICKED: {
-                handleViewClickedEvent(event);
-                break;
-            }
-            case TYPE_VIEW_ACCESSIBILITY_FOCUSED: {
-                updateDirectManipulationMode(event, true);
-                break;
-            }
-            case TYPE_VIEW_ACCESSIBILITY_FOCUS_CLEARED: {
-                updateDirectManipulationMode(event, false);
-                break;
-            }
-            case TYPE_VIEW_SCROLLED: {
-                handleViewScrolledEvent(event);
-                break;
-            }
-            case TYPE_WINDOW_STATE_CHANGED: {
-                CharSequence packageName = event.getPackageName();
-                onForegroundAppChanged(packageName);
-                break;
-            }
-            case TYPE_WINDOWS_CHANGED: {
-                handleWindowsChangedEvent(event);
-                break;
+        IpcTracker.beginEvent(IpcTracker.EVENT_ACCESSIBILITY);
+        try {
+            switch (event.getEventType()) {
+                case TYPE_VIEW_FOCUSED: {
+                    handleViewFocusedEvent(event);
+                    break;
+                }
+                case TYPE_VIEW_CLICKED: {
+                    handleViewClickedEvent(event);
+                    break;
+                }
+                case TYPE_VIEW_ACCESSIBILITY_FOCUSED: {
+                    updateDirectManipulationMode(event, true);
+                    break;
+                }
+                case TYPE_VIEW_ACCESSIBILITY_FOCUS_CLEARED: {
+                    updateDirectManipulationMode(event, false);
+                    break;
+                }
+                case TYPE_VIEW_SCROLLED: {
+                    handleViewScrolledEvent(event);
+                    break;
+                }
+                case TYPE_WINDOW_STATE_CHANGED: {
+                    CharSequence packageName = event.getPackageName();
+                    onForegroundAppChanged(packageName);
+                    break;
+                }
+                case TYPE_WINDOWS_CHANGED: {
+                    handleWindowsChangedEvent(event);
+                    break;
+                }
+                case TYPE_WINDOW_CONTENT_CHANGED: {
+                    handleWindowContentChangedEvent(event);
+                    break;
+                }
+                default:
+                    // Do nothing.
             }
-            default:
-                // Do nothing.
+        } finally {
+            IpcTracker.endEvent();
         }
     }
 
@@ -458,8 +640,38 @@ public class RotaryService extends AccessibilityService implements
             return;
         }
         for (KeyEvent event : events) {
+            int keyCode = getKeyCode(event);
+            if (isRotateKeyCode(keyCode)) {
+                // Key up events for rotation are consumed without doing anything, so they don't
+                // interrupt the batch.
+                if (event.getAction() == KeyEvent.ACTION_DOWN) {
+                    boolean clockwise = isClockwiseKeyCode(keyCode);
+                    int detents = event.isShiftPressed() ? SHIFT_DETENTS : 1;
+                    mRotationCoalescer.add(clockwise,
+                            mRotationAccelerator.addDetents(clockwise, detents,
+                                    event.getEventTime()),
+                            event.getEventTime());
+                }
+                continue;
+            }
+            if (mInputQueue != null && isNudgeKeyCode(keyCode) && !mInDirectManipulationMode) {
+                // Outside direct manipulation mode, key up events for nudges don't do anything,
+                // so they're consumed without waiting for the queue.
+                if (event.getAction() == KeyEvent.ACTION_DOWN) {
+                    flushRotation();
+                    mInputQueue.addNudge(getNudgeDirection(keyCode), event.getEventTime(),
+                            SystemClock.uptimeMillis());
+                    scheduleQueuedInput();
+                }
+                continue;
+            }
+            flushRotation();
+            // Handle the queued inputs first so that, for example, a click lands on the view that
+            // the preceding rotations moved the focus to.
+            handleQueuedInputs();
             handleKeyEvent(event);
         }
+        flushRotation();
     }
 
     /**
@@ -472,8 +684,19 @@ public class RotaryService extends AccessibilityService implements
             return;
         }
         for (RotaryEvent rotaryEvent : events) {
-            handleRotaryEvent(rotaryEvent);
+            if (rotaryEvent.getInputType() != CarInputManager.INPUT_TYPE_ROTARY_NAVIGATION) {
+                continue;
+            }
+            boolean clockwise = rotaryEvent.isClockwise();
+            int rotationCount = 0;
+            for (int i = 0; i < rotaryEvent.getNumberOfClicks(); i++) {
+                rotationCount += mRotationAccelerator.addDetent(clockwise,
+                        rotaryEvent.getUptimeMillisForClick(i));
+            }
+            mRotationCoalescer.add(clockwise, rotationCount,
+                    rotaryEvent.getUptimeMillisForClick(0));
         }
+        flushRotation();
     }
 
     @Override
@@ -491,11 +714,29 @@ public class RotaryService extends AccessibilityService implements
     }
 
     /**
-     * Handles key events. Returns whether the key event was consumed. To avoid invalid event stream
-     * getting through to the application, if a key down event is consumed, the corresponding key up
-     * event must be consumed too, and vice versa.
+     * Handles key events, attributing the binder calls made to the type of input the key
+     * represents. Returns whether the key event was consumed.
      */
     private boolean handleKeyEvent(KeyEvent event) {
+        int eventType = getIpcEventType(getKeyCode(event));
+        if (event.getAction() == KeyEvent.ACTION_DOWN
+                && (eventType == IpcTracker.EVENT_ROTATE || eventType == IpcTracker.EVENT_NUDGE)) {
+            mLatencyTracer.onInputHandled(event.getEventTime(), SystemClock.uptimeMillis());
+        }
+        IpcTracker.beginEvent(eventType);
+        try {
+            return dispatchKeyEvent(event);
+        } finally {
+            IpcTracker.endEvent();
+        }
+    }
+
+    /**
+     * Dispatches key events to their handlers. Returns whether the key event was consumed. To avoid
+     * invalid event stream getting through to the application, if a key down event is consumed,
+     * the corresponding key up event must be consumed too, and vice versa.
+     */
+    private boolean dispatchKeyEvent(KeyEvent event) {
         int action = event.getAction();
         boolean isActionDown = action == KeyEvent.ACTION_DOWN;
         int keyCode = getKeyCode(event);
@@ -504,15 +745,17 @@ public class RotaryService extends AccessibilityService implements
             case KeyEvent.KEYCODE_Q:
             case KeyEvent.KEYCODE_C:
                 if (isActionDown) {
-                    handleRotateEvent(/* clockwise= */ false, detents,
-                            event.getEventTime());
+                    handleRotateEvent(/* clockwise= */ false,
+                            mRotationAccelerator.addDetents(/* clockwise= */ false, detents,
+                                    event.getEventTime()));
                 }
                 return true;
             case KeyEvent.KEYCODE_E:
             case KeyEvent.KEYCODE_V:
                 if (isActionDown) {
-                    handleRotateEvent(/* clockwise= */ true, detents,
-                            event.getEventTime());
+                    handleRotateEvent(/* clockwise= */ true,
+                            mRotationAccelerator.addDetents(/* clockwise= */ true, detents,
+                                    event.getEventTime()));
                 }
                 return true;
             case KeyEvent.KEYCODE_SYSTEM_NAVIGATION_LEFT:
@@ -560,7 +803,11 @@ public class RotaryService extends AccessibilityService implements
         if (!mInRotaryMode) {
             return;
         }
+        IpcTracker.record(IpcTracker.OP_GET_SOURCE);
         AccessibilityNodeInfo sourceNode = event.getSource();
+        if (sourceNode != null) {
+            mLatencyTracer.onViewFocused(sourceNode, SystemClock.uptimeMillis());
+        }
         // No need to handle TYPE_VIEW_FOCUSED event if sourceNode is null or the focused node stays
         // the same.
         if (sourceNode == null || sourceNode.equals(mFocusedNode)) {
@@ -622,6 +869,7 @@ public class RotaryService extends AccessibilityService implements
         // Note: there is no way to tell whether the window is removed in click event
         // because window remove event (TYPE_WINDOWS_CHANGED with type
         // WINDOWS_CHANGE_REMOVED) comes AFTER click event.
+        IpcTracker.record(IpcTracker.OP_GET_SOURCE);
         AccessibilityNodeInfo sourceNode = event.getSource();
         if (mIgnoreViewClickedNode != null
                 && event.getEventTime() < mIgnoreViewClickedUntil
@@ -644,10 +892,18 @@ public class RotaryService extends AccessibilityService implements
 
     /** Handles {@link AccessibilityEvent#TYPE_VIEW_SCROLLED} event. */
     private void handleViewScrolledEvent(@NonNull AccessibilityEvent event) {
+        // Scrolling moves views around, so anything cached about the window is stale.
+        mNavigator.invalidateWindow(event.getWindowId());
         if (mAfterScrollAction == AfterScrollAction.NONE
                 || SystemClock.uptimeMillis() >= mAfterScrollActionUntil) {
             return;
         }
+        // While the scroll is still being streamed, the views keep moving, so a view focused now
+        // could be scrolled off the screen by the frames to come. Wait for the last of them.
+        if (mScrollInjector.isRunning()) {
+            return;
+        }
+        IpcTracker.record(IpcTracker.OP_GET_SOURCE);
         AccessibilityNodeInfo sourceNode = event.getSource();
         if (sourceNode == null || !Utils.isScrollableContainer(sourceNode)) {
             Utils.recycleNode(sourceNode);
@@ -703,6 +959,8 @@ public class RotaryService extends AccessibilityService implements
 
     /** Handles {@link AccessibilityEvent#TYPE_WINDOWS_CHANGED} event. */
     private void handleWindowsChangedEvent(@NonNull AccessibilityEvent event) {
+        mNavigator.invalidateWindow(event.getWindowId());
+        mWindowRegistry.onWindowsChanged(event.getWindowId(), event.getWindowChanges());
         if ((event.getWindowChanges() & WINDOWS_CHANGE_REMOVED) != 0
                 && mInRotaryMode
                 && mFocusedNode != null
@@ -710,14 +968,89 @@ public class RotaryService extends AccessibilityService implements
             // The window containing the focused node is gone. Restore focus to the last
             // focused node in the last focused window.
             setFocusedNode(null);
-            AccessibilityNodeInfo newFocus = mNavigator.getMostRecentFocus();
-            if (newFocus != null) {
-                performFocusAction(newFocus);
-                newFocus.recycle();
+            if (mNavigationPipeline != null) {
+                mNavigationPipeline.submit(mNavigator::getMostRecentFocus,
+                        this::applyMostRecentFocus, Utils::recycleNode);
+                return;
             }
+            applyMostRecentFocus(mNavigator.getMostRecentFocus());
+        }
+    }
+
+    /** Moves the focus to the given most recently focused node, if any, and recycles it. */
+    private void applyMostRecentFocus(@Nullable AccessibilityNodeInfo newFocus) {
+        if (newFocus != null) {
+            performFocusAction(newFocus);
+            newFocus.recycle();
+        }
+    }
+
+    /** Handles {@link AccessibilityEvent#TYPE_WINDOW_CONTENT_CHANGED} event. */
+    private void handleWindowContentChangedEvent(@NonNull AccessibilityEvent event) {
+        int changeTypes = event.getContentChangeTypes();
+        // An undefined change, e.g., to whether a view is enabled, may be structural.
+        if (changeTypes != CONTENT_CHANGE_TYPE_UNDEFINED
+                && (changeTypes & STRUCTURAL_CONTENT_CHANGE_TYPES) == 0) {
+            return;
+        }
+        mNavigator.invalidateWindow(event.getWindowId());
+    }
+
+    /** Returns the {@link IpcTracker.EventType} of the input represented by the given key code. */
+    @IpcTracker.EventType
+    private static int getIpcEventType(int keyCode) {
+        switch (keyCode) {
+            case KeyEvent.KEYCODE_Q:
+            case KeyEvent.KEYCODE_C:
+            case KeyEvent.KEYCODE_E:
+            case KeyEvent.KEYCODE_V:
+                return IpcTracker.EVENT_ROTATE;
+            case KeyEvent.KEYCODE_SYSTEM_NAVIGATION_LEFT:
+            case KeyEvent.KEYCODE_SYSTEM_NAVIGATION_RIGHT:
+            case KeyEvent.KEYCODE_SYSTEM_NAVIGATION_UP:
+            case KeyEvent.KEYCODE_SYSTEM_NAVIGATION_DOWN:
+                return IpcTracker.EVENT_NUDGE;
+            case KeyEvent.KEYCODE_DPAD_CENTER:
+                return IpcTracker.EVENT_CENTER_BUTTON;
+            case KeyEvent.KEYCODE_BACK:
+                return IpcTracker.EVENT_BACK_BUTTON;
+            default:
+                return IpcTracker.EVENT_NONE;
         }
     }
 
+    /** Returns whether the given key code is a controller nudge. */
+    private static boolean isNudgeKeyCode(int keyCode) {
+        return getIpcEventType(keyCode) == IpcTracker.EVENT_NUDGE;
+    }
+
+    /** Returns the direction of the given nudge key code. */
+    private static int getNudgeDirection(int keyCode) {
+        switch (keyCode) {
+            case KeyEvent.KEYCODE_SYSTEM_NAVIGATION_LEFT:
+                return View.FOCUS_LEFT;
+            case KeyEvent.KEYCODE_SYSTEM_NAVIGATION_RIGHT:
+                return View.FOCUS_RIGHT;
+            case KeyEvent.KEYCODE_SYSTEM_NAVIGATION_UP:
+                return View.FOCUS_UP;
+            case KeyEvent.KEYCODE_SYSTEM_NAVIGATION_DOWN:
+                return View.FOCUS_DOWN;
+            default:
+                throw new IllegalArgumentException("Not a nudge key code: " + keyCode);
+        }
+    }
+
+    /** Returns whether the given key code emulates controller rotation. */
+    private static boolean isRotateKeyCode(int keyCode) {
+        return keyCode == KeyEvent.KEYCODE_Q || keyCode == KeyEvent.KEYCODE_C
+                || isClockwiseKeyCode(keyCode);
+    }
+
+    /** Returns whether the given key code emulates clockwise controller rotation. */
+    private static boolean isClockwiseKeyCode(int keyCode) {
+        return keyCode == KeyEvent.KEYCODE_E || keyCode == KeyEvent.KEYCODE_V;
+    }
+
     private static int getKeyCode(KeyEvent event) {
         int keyCode = event.getKeyCode();
         if (Build.IS_DEBUGGABLE) {
@@ -761,6 +1094,7 @@ public class RotaryService extends AccessibilityService implements
 
         // Case 3: the focus is not in application window and the focused node doesn't support
         // direct manipulation, perform click or long click on the focused node.
+        IpcTracker.record(IpcTracker.OP_PERFORM_ACTION);
         boolean result = mFocusedNode.performAction(
                 longClick
                 ? AccessibilityNodeInfo.ACTION_LONG_CLICK
@@ -799,11 +1133,32 @@ public class RotaryService extends AccessibilityService implements
         }
 
         // If the focused node is not in direct manipulation mode, move the focus.
-        // TODO(b/152438801): sometimes getWindows() takes 10s after boot.
-        List<AccessibilityWindowInfo> windows = getWindows();
+        if (mNavigationPipeline != null) {
+            invalidateNavigationPipeline();
+            AccessibilityNodeInfo sourceNode = copyNode(mFocusedNode);
+            mNavigationPipeline.submit(() -> findNudgeTarget(sourceNode, direction),
+                    this::applyNudgeTarget, Utils::recycleNode, sourceNode);
+            return;
+        }
+        applyNudgeTarget(findNudgeTarget(mFocusedNode, direction));
+    }
+
+    /**
+     * Returns the target of a nudge from {@code sourceNode} in the given {@code direction}, or null
+     * if there isn't one. The caller is responsible for recycling the result.
+     */
+    @Nullable
+    private AccessibilityNodeInfo findNudgeTarget(@NonNull AccessibilityNodeInfo sourceNode,
+            int direction) {
+        List<AccessibilityWindowInfo> windows = mWindowRegistry.copyWindows();
         AccessibilityNodeInfo targetNode =
-                mNavigator.findNudgeTarget(windows, mFocusedNode, direction);
+                mNavigator.findNudgeTarget(windows, sourceNode, direction);
         Utils.recycleWindows(windows);
+        return targetNode;
+    }
+
+    /** Moves the focus to the given nudge target, if any, and recycles it. */
+    private void applyNudgeTarget(@Nullable AccessibilityNodeInfo targetNode) {
         if (targetNode == null) {
             L.w("Failed to find nudge target");
             return;
@@ -816,18 +1171,105 @@ public class RotaryService extends AccessibilityService implements
         Utils.recycleNode(targetNode);
     }
 
-    private void handleRotaryEvent(RotaryEvent rotaryEvent) {
-        if (rotaryEvent.getInputType() != CarInputManager.INPUT_TYPE_ROTARY_NAVIGATION) {
+    /**
+     * Handles the rotations merged by {@link #mRotationCoalescer} as a single rotation, if they
+     * didn't cancel out, then resets it. If {@link #mInputQueue} is enabled, the rotation is queued
+     * rather than handled right away.
+     */
+    private void flushRotation() {
+        if (mRotationCoalescer.getRotationCount() > 1) {
+            L.v("Coalesced %d rotations into %d %s rotations",
+                    mRotationCoalescer.getRotationCount(), mRotationCoalescer.getCount(),
+                    mRotationCoalescer.isClockwise() ? "clockwise" : "counterclockwise");
+        }
+        if (mRotationCoalescer.hasRotation()) {
+            if (mInputQueue != null) {
+                mInputQueue.addRotation(mRotationCoalescer.isClockwise(),
+                        mRotationCoalescer.getCount(), mRotationCoalescer.getFirstInputTime(),
+                        SystemClock.uptimeMillis());
+                scheduleQueuedInput();
+            } else {
+                handleRotation(mRotationCoalescer.isClockwise(), mRotationCoalescer.getCount(),
+                        mRotationCoalescer.getFirstInputTime());
+            }
+        }
+        mRotationCoalescer.reset();
+    }
+
+    /** Posts {@link #mQueuedInputRunnable}, unless it's already pending. */
+    private void scheduleQueuedInput() {
+        if (mQueuedInputPending) {
             return;
         }
-        boolean clockwise = rotaryEvent.isClockwise();
-        int count = rotaryEvent.getNumberOfClicks();
-        // TODO(b/153195148): Use the first eventTime for now. We'll need to improve it later.
-        long eventTime = rotaryEvent.getUptimeMillisForClick(0);
-        handleRotateEvent(clockwise, count, eventTime);
+        mQueuedInputPending = true;
+        mInputHandler.post(mQueuedInputRunnable);
+    }
+
+    /**
+     * Handles the oldest input in {@link #mInputQueue}. The rest are left for later messages, so
+     * that inputs that arrive while this one is being handled can be collapsed into them.
+     */
+    private void handleNextQueuedInput() {
+        mQueuedInputPending = false;
+        handleQueuedInput(mInputQueue.poll(SystemClock.uptimeMillis()));
+        if (!mInputQueue.isEmpty()) {
+            scheduleQueuedInput();
+        }
+    }
+
+    /** Handles all the inputs in {@link #mInputQueue}, if any, right away. */
+    private void handleQueuedInputs() {
+        if (mInputQueue == null) {
+            return;
+        }
+        InputQueue.Input input;
+        while ((input = mInputQueue.poll(SystemClock.uptimeMillis())) != null) {
+            handleQueuedInput(input);
+        }
+    }
+
+    private void handleQueuedInput(@Nullable InputQueue.Input input) {
+        if (input == null) {
+            return;
+        }
+        if (input.mType == InputQueue.Input.TYPE_ROTATION) {
+            handleRotation(input.isClockwise(), input.getCount(), input.mInputTime);
+            return;
+        }
+        if (mInDirectManipulationMode) {
+            // The nudge was queued before direct manipulation mode started. Handling it now would
+            // inject an ACTION_DOWN without the matching ACTION_UP, so drop it instead.
+            L.d("Dropping nudge queued before entering direct manipulation mode");
+            return;
+        }
+        mLatencyTracer.onInputHandled(input.mInputTime, SystemClock.uptimeMillis());
+        IpcTracker.beginEvent(IpcTracker.EVENT_NUDGE);
+        try {
+            handleNudgeEvent(input.getDirection(), KeyEvent.ACTION_DOWN);
+        } finally {
+            IpcTracker.endEvent();
+        }
+    }
+
+    /**
+     * Handles a rotation of {@code rotationCount} "ticks" whose (first) input event occurred at
+     * {@code inputTime}, tracing it.
+     */
+    private void handleRotation(boolean clockwise, int rotationCount, long inputTime) {
+        mLatencyTracer.onInputHandled(inputTime, SystemClock.uptimeMillis());
+        IpcTracker.beginEvent(IpcTracker.EVENT_ROTATE);
+        try {
+            handleRotateEvent(clockwise, rotationCount);
+        } finally {
+            IpcTracker.endEvent();
+        }
     }
 
-    private void handleRotateEvent(boolean clockwise, int count, long eventTime) {
+    /**
+     * Handles a rotation of the controller by {@code rotationCount} "ticks", after acceleration by
+     * {@link #mRotationAccelerator}.
+     */
+    private void handleRotateEvent(boolean clockwise, int rotationCount) {
         // Clear focus area history if configured to do so, but not when rotating in the HUN. The
         // HUN overlaps the application window so it's common for focus areas to overlap, causing
         // geometric searches to fail. History is essential here.
@@ -835,11 +1277,11 @@ public class RotaryService extends AccessibilityService implements
             mNavigator.clearFocusAreaHistory();
         }
         if (initFocus()) {
+            // The rotation only initialized the focus, so it mustn't accelerate the next one.
+            mRotationAccelerator.reset();
             return;
         }
 
-        int rotationCount = getRotateAcceleration(count, eventTime);
-
         // If a scrollable container is focused, no focusable descendants are visible, so scroll the
         // container.
         AccessibilityNodeInfo.AccessibilityAction scrollAction =
@@ -853,15 +1295,14 @@ public class RotaryService extends AccessibilityService implements
         // If the focused node is in direct manipulation mode, manipulate it directly.
         if (mInDirectManipulationMode) {
             if (isInApplicationWindow(mFocusedNode)) {
-                AccessibilityWindowInfo window = mFocusedNode.getWindow();
+                WindowRegistry.Entry window = mWindowRegistry.get(mFocusedNode.getWindowId());
                 if (window == null) {
                     L.w("Failed to get window of " + mFocusedNode);
                     return;
                 }
-                int displayId = window.getDisplayId();
-                window.recycle();
+                int displayId = window.mDisplayId;
                 // TODO(b/155823126): Add config to let OEMs determine the mapping.
-                injectMotionEvent(displayId, MotionEvent.AXIS_SCROLL,
+                mScrollInjector.inject(displayId, MotionEvent.AXIS_SCROLL,
                         clockwise ? rotationCount : -rotationCount);
             } else {
                 performScrollAction(mFocusedNode, clockwise);
@@ -872,13 +1313,59 @@ public class RotaryService extends AccessibilityService implements
         // If the focused node is not in direct manipulation mode, move the focus. Skip over
         // mScrollableContainer; we don't want to navigate from a focusable descendant to the
         // scrollable container except as a side-effect of scrolling.
-        int remainingRotationCount = rotationCount;
+        if (mNavigationPipeline != null) {
+            findRotateTargetInPipeline(clockwise, rotationCount);
+            return;
+        }
         int direction = clockwise ? View.FOCUS_FORWARD : View.FOCUS_BACKWARD;
-        Navigator.FindRotateTargetResult result = mNavigator.findRotateTarget(mFocusedNode,
-                /* skipNode= */ mScrollableContainer, direction, rotationCount);
+        applyRotateTarget(mNavigator.findRotateTarget(mFocusedNode,
+                /* skipNode= */ mScrollableContainer, direction, rotationCount),
+                clockwise, rotationCount);
+    }
+
+    /**
+     * Searches for the rotate target in {@link #mNavigationPipeline}, combining the rotation with
+     * that of the search in progress, if any, which it supersedes.
+     */
+    private void findRotateTargetInPipeline(boolean clockwise, int rotationCount) {
+        mNavigationPipeline.invalidate();
+        mPendingRotationCount += clockwise ? rotationCount : -rotationCount;
+        if (mPendingRotationCount == 0) {
+            return;
+        }
+        boolean netClockwise = mPendingRotationCount > 0;
+        int netRotationCount = Math.abs(mPendingRotationCount);
+        int direction = netClockwise ? View.FOCUS_FORWARD : View.FOCUS_BACKWARD;
+        AccessibilityNodeInfo sourceNode = copyNode(mFocusedNode);
+        AccessibilityNodeInfo skipNode = copyNode(mScrollableContainer);
+        mNavigationPipeline.submit(
+                () -> mNavigator.findRotateTarget(sourceNode, skipNode, direction,
+                        netRotationCount),
+                result -> {
+                    mPendingRotationCount = 0;
+                    applyRotateTarget(result, netClockwise, netRotationCount);
+                },
+                result -> Utils.recycleNode(result.node),
+                sourceNode, skipNode);
+    }
+
+    /** Makes the searches in {@link #mNavigationPipeline} stale, including any rotate search. */
+    private void invalidateNavigationPipeline() {
+        mNavigationPipeline.invalidate();
+        mPendingRotationCount = 0;
+    }
+
+    /**
+     * Moves the focus to the rotate target in the given {@code result}, if any, and recycles it,
+     * then scrolls by the rotations the move didn't use up.
+     */
+    private void applyRotateTarget(@Nullable Navigator.FindRotateTargetResult result,
+            boolean clockwise, int rotationCount) {
+        int remainingRotationCount = rotationCount;
         if (result != null) {
             if (performFocusAction(result.node)) {
                 remainingRotationCount -= result.advancedCount;
+                scheduleRotateTargetSpeculation();
             }
             Utils.recycleNode(result.node);
         } else {
@@ -899,6 +1386,46 @@ public class RotaryService extends AccessibilityService implements
         }
     }
 
+    /**
+     * Arranges for the rotate targets next to the focused node to be looked up once the main
+     * thread is idle, unless that's already arranged.
+     */
+    private void scheduleRotateTargetSpeculation() {
+        if (!mRotateTargetSpeculationEnabled || mSpeculationPending) {
+            return;
+        }
+        mSpeculationPending = true;
+        getMainLooper().getQueue().addIdleHandler(mSpeculationIdleHandler);
+    }
+
+    /**
+     * Looks up the rotate targets next to the focused node, if any, so that they're in the focus
+     * order cache when the next rotation arrives. They stay valid until the window's content
+     * changes or scrolls.
+     */
+    private void speculateRotateTargets() {
+        if (!mInRotaryMode || mInDirectManipulationMode || mFocusedNode == null) {
+            return;
+        }
+        IpcTracker.beginEvent(IpcTracker.EVENT_SPECULATION);
+        try {
+            if (mNavigationPipeline != null) {
+                // Speculating takes the navigator's lock, which a search may be holding. It's
+                // skipped if the focus moves before the worker gets to it.
+                AccessibilityNodeInfo sourceNode = copyNode(mFocusedNode);
+                AccessibilityNodeInfo skipNode = copyNode(mScrollableContainer);
+                mNavigationPipeline.<Void>submit(() -> {
+                    mNavigator.speculateRotateTargets(sourceNode, skipNode);
+                    return null;
+                }, result -> { }, result -> { }, sourceNode, skipNode);
+                return;
+            }
+            mNavigator.speculateRotateTargets(mFocusedNode, mScrollableContainer);
+        } finally {
+            IpcTracker.endEvent();
+        }
+    }
+
     /** Handles Back button event. */
     private void handleBackButtonEvent(int action) {
         if (!isValidAction(action)) {
@@ -947,6 +1474,7 @@ public class RotaryService extends AccessibilityService implements
             L.w("Node " + targetNode + " doesn't support action " + actionToPerform);
             return;
         }
+        IpcTracker.record(IpcTracker.OP_PERFORM_ACTION);
         boolean result = targetNode.performAction(actionToPerform);
         if (!result) {
             L.w("Failed to perform action " + actionToPerform + " on " + targetNode);
@@ -954,18 +1482,16 @@ public class RotaryService extends AccessibilityService implements
     }
 
     /** Returns whether the given {@code node} is in the application window. */
-    private static boolean isInApplicationWindow(@NonNull AccessibilityNodeInfo node) {
+    private boolean isInApplicationWindow(@NonNull AccessibilityNodeInfo node) {
         if (TREAT_APP_WINDOW_AS_SYSTEM_WINDOW) {
             return false;
         }
-        AccessibilityWindowInfo window = node.getWindow();
+        WindowRegistry.Entry window = mWindowRegistry.get(node.getWindowId());
         if (window == null) {
             L.w("Failed to get window of " + node);
             return false;
         }
-        boolean result = window.getType() == AccessibilityWindowInfo.TYPE_APPLICATION;
-        Utils.recycleWindow(window);
-        return result;
+        return window.mType == AccessibilityWindowInfo.TYPE_APPLICATION;
     }
 
     /** Returns whether {@link #mFocusedNode} is in the HUN window. */
@@ -973,14 +1499,12 @@ public class RotaryService extends AccessibilityService implements
         if (mFocusedNode == null) {
             return false;
         }
-        AccessibilityWindowInfo window = mFocusedNode.getWindow();
+        WindowRegistry.Entry window = mWindowRegistry.get(mFocusedNode.getWindowId());
         if (window == null) {
             L.w("Failed to get window of " + mFocusedNode);
             return false;
         }
-        boolean result = mNavigator.isHunWindow(window);
-        Utils.recycleWindow(window);
-        return result;
+        return window.mIsHun;
     }
 
     private void updateDirectManipulationMode(AccessibilityEvent event, boolean enable) {
@@ -1008,9 +1532,10 @@ public class RotaryService extends AccessibilityService implements
     }
 
     /**
-     * Injects a {@link MotionEvent} to scroll {@code scrollableContainer} by {@code rotationCount}
-     * steps. The direction depends on the value of {@code clockwise}. Sets
-     * {@link #mAfterScrollAction} to move the focus once the scroll occurs, as follows:<ul>
+     * Injects {@link MotionEvent}s via {@link #mScrollInjector} to scroll {@code
+     * scrollableContainer} by {@code rotationCount} steps. The direction depends on the value of
+     * {@code clockwise}. Sets {@link #mAfterScrollAction} to move the focus once the scroll
+     * occurs, as follows:<ul>
      *     <li>If the user is spinning the rotary controller quickly, focuses the first or last
      *         focusable descendant so that the next rotation event will scroll immediately.
      *     <li>If the user is spinning slowly and there are no focusable descendants visible,
@@ -1041,52 +1566,20 @@ public class RotaryService extends AccessibilityService implements
                         : AfterScrollAction.FOCUS_PREVIOUS;
             }
         }
-        mAfterScrollActionUntil = SystemClock.uptimeMillis() + mAfterScrollTimeoutMs;
         int axis = Utils.isHorizontallyScrollableContainer(scrollableContainer)
                 ? MotionEvent.AXIS_HSCROLL
                 : MotionEvent.AXIS_VSCROLL;
-        AccessibilityWindowInfo window = scrollableContainer.getWindow();
+        WindowRegistry.Entry window = mWindowRegistry.get(scrollableContainer.getWindowId());
         if (window == null) {
             L.w("Failed to get window of " + scrollableContainer);
             return;
         }
-        int displayId = window.getDisplayId();
-        window.recycle();
-        injectMotionEvent(displayId, axis, clockwise ? -rotationCount : rotationCount);
-    }
-
-    private void injectMotionEvent(int displayId, int axis, int axisValue) {
-        long upTime = SystemClock.uptimeMillis();
-        MotionEvent.PointerProperties[] properties = new MotionEvent.PointerProperties[1];
-        properties[0] = new MotionEvent.PointerProperties();
-        properties[0].id = 0; // Any integer value but -1 (INVALID_POINTER_ID) is fine.
-        MotionEvent.PointerCoords[] coords = new MotionEvent.PointerCoords[1];
-        coords[0] = new MotionEvent.PointerCoords();
-        // No need to set X,Y coordinates. We use a non-pointer source so the event will be routed
-        // to the focused view.
-        coords[0].setAxisValue(axis, axisValue);
-        MotionEvent motionEvent = MotionEvent.obtain(/* downTime= */ upTime,
-                /* eventTime= */ upTime,
-                MotionEvent.ACTION_SCROLL,
-                /* pointerCount= */ 1,
-                properties,
-                coords,
-                /* metaState= */ 0,
-                /* buttonState= */ 0,
-                /* xPrecision= */ 1.0f,
-                /* yPrecision= */ 1.0f,
-                /* deviceId= */ 0,
-                /* edgeFlags= */ 0,
-                InputDevice.SOURCE_ROTARY_ENCODER,
-                displayId,
-                /* flags= */ 0);
-
-        if (motionEvent != null) {
-            mInputManager.injectInputEvent(motionEvent,
-                    InputManager.INJECT_INPUT_EVENT_MODE_ASYNC);
-        } else {
-            L.w("Unable to obtain MotionEvent");
-        }
+        int displayId = window.mDisplayId;
+        // The timeout starts once the last event of the scroll has been injected. See
+        // ScrollInjector#setOnScrollFinishedListener.
+        mAfterScrollActionUntil = Long.MAX_VALUE;
+        mScrollInjector.scroll(displayId, axis, clockwise ? -rotationCount : rotationCount,
+                System.nanoTime());
     }
 
     private boolean injectKeyEventForDirection(int direction, int action) {
@@ -1179,7 +1672,7 @@ public class RotaryService extends AccessibilityService implements
             L.e("Don't call clearFocusInCurrentWindow() when mFocusedNode is null");
             return false;
         }
-        AccessibilityWindowInfo window = mFocusedNode.getWindow();
+        AccessibilityWindowInfo window = mWindowRegistry.copyWindow(mFocusedNode.getWindowId());
         if (window == null) {
             L.w("Failed to get window of " + mFocusedNode);
             return false;
@@ -1191,6 +1684,7 @@ public class RotaryService extends AccessibilityService implements
             return false;
         }
         window.recycle();
+        IpcTracker.record(IpcTracker.OP_PERFORM_ACTION);
         boolean result = focusParkingView.performAction(AccessibilityNodeInfo.ACTION_FOCUS);
         if (result) {
             if (mFocusParkingView != null) {
@@ -1227,13 +1721,25 @@ public class RotaryService extends AccessibilityService implements
      * currently active window, if any.
      */
     private void focusFirstFocusDescendant() {
+        IpcTracker.record(IpcTracker.OP_GET_ROOT);
         AccessibilityNodeInfo rootNode = getRootInActiveWindow();
         if (rootNode == null) {
             L.e("rootNode of active window is null");
             return;
         }
+        if (mNavigationPipeline != null) {
+            invalidateNavigationPipeline();
+            mNavigationPipeline.submit(() -> mNavigator.findFirstFocusDescendant(rootNode),
+                    this::applyFirstFocusDescendant, Utils::recycleNode, rootNode);
+            return;
+        }
         AccessibilityNodeInfo targetNode = mNavigator.findFirstFocusDescendant(rootNode);
         rootNode.recycle();
+        applyFirstFocusDescendant(targetNode);
+    }
+
+    /** Moves the focus to the given first focus descendant, if any, and recycles it. */
+    private void applyFirstFocusDescendant(@Nullable AccessibilityNodeInfo targetNode) {
         if (targetNode == null) {
             L.w("Failed to find the first focus descendant");
             return;
@@ -1275,6 +1781,11 @@ public class RotaryService extends AccessibilityService implements
         mPreviousFocusedNode = mFocusedNode;
         mFocusedNode = copyNode(focusedNode);
 
+        // Searches from the previous focused node are stale now.
+        if (mNavigationPipeline != null) {
+            invalidateNavigationPipeline();
+        }
+
         // Set mScrollableContainer to the scrollable container which contains mFocusedNode, if any.
         // Skip if mFocusedNode is a FocusParkingView. The FocusParkingView is focused when the
         // focus view is scrolled off the screen. We'll focus the scrollable container when we
@@ -1361,6 +1872,8 @@ public class RotaryService extends AccessibilityService implements
         }
         // Now we can perform ACTION_FOCUS on targetNode since it doesn't have focus, or its
         // descendant's focus has been cleared.
+        long focusRequestTime = SystemClock.uptimeMillis();
+        IpcTracker.record(IpcTracker.OP_PERFORM_ACTION);
         boolean result = targetNode.performAction(AccessibilityNodeInfo.ACTION_FOCUS);
         if (!result) {
             L.w("Failed to perform ACTION_FOCUS on node " + targetNode);
@@ -1372,38 +1885,11 @@ public class RotaryService extends AccessibilityService implements
             return false;
         }
 
+        mLatencyTracer.onFocusRequested(targetNode, focusRequestTime);
         setFocusedNode(targetNode);
         return true;
     }
 
-    /**
-     * Returns the number of "ticks" to rotate for a single rotate event with the given detent
-     * {@code count} at the given time. Uses and updates {@link #mLastRotateEventTime}. The result
-     * will be one, two, or three times the given detent {@code count} depending on the interval
-     * between the current event and the previous event and the detent {@code count}.
-     *
-     * @param count     the number of detents the user rotated
-     * @param eventTime the {@link SystemClock#uptimeMillis} when the event occurred
-     * @return the number of "ticks" to rotate
-     */
-    private int getRotateAcceleration(int count, long eventTime) {
-        // count is 0 when testing key "C" or "V" is pressed.
-        if (count <= 0) {
-            count = 1;
-        }
-        int result = count;
-        // TODO(b/153195148): This method can be improved once we've plumbed through the VHAL
-        //  changes. We'll get timestamps for each detent.
-        long delta = (eventTime - mLastRotateEventTime) / count;  // Assume constant speed.
-        if (delta <= mRotationAcceleration3xMs) {
-            result = count * 3;
-        } else if (delta <= mRotationAcceleration2xMs) {
-            result = count * 2;
-        }
-        mLastRotateEventTime = eventTime;
-        return result;
-    }
-
     private AccessibilityNodeInfo copyNode(@Nullable AccessibilityNodeInfo node) {
         return mNodeCopier.copy(node);
     }
@@ -1428,6 +1914,7 @@ public class RotaryService extends AccessibilityService implements
             return;
         }
         // TODO(b/158797952): do 2,3.
+        IpcTracker.record(IpcTracker.OP_PERFORM_ACTION);
         if (focusParkingView.performAction(AccessibilityNodeInfo.ACTION_DISMISS)) {
             L.d("Move focus to the default focus in the window");
             return;
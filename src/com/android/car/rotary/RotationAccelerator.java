@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.car.rotary;
+
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Converts controller rotation into "ticks" to rotate, accelerating fast spins.
+ * <p>
+ * The interval between consecutive detents is smoothed with an exponentially weighted moving
+ * average, and the gain (ticks per detent) is read off a curve of (interval, gain) points,
+ * interpolating linearly between them. Fractional ticks are carried over to the next detent. A
+ * spin ends when the direction changes or no detent arrives for a while; the first detent of a
+ * spin always counts as one tick, so slow or single detents are never accelerated.
+ */
+class RotationAccelerator {
+
+    /** The detent intervals of the gain curve, in milliseconds, in decreasing order. */
+    @NonNull
+    private final int[] mIntervalsMs;
+
+    /** The gains of the gain curve as percentages, i.e., 100 means one tick per detent. */
+    @NonNull
+    private final int[] mGainsPercent;
+
+    /** The weight of the newest interval in the moving average, as a percentage. */
+    private final int mSmoothingPercent;
+
+    /** How many milliseconds without a detent end a spin. */
+    private final int mSpinTimeoutMs;
+
+    /** Whether a spin is in progress. */
+    private boolean mSpinning;
+
+    /** The direction of the spin in progress, if any. */
+    private boolean mClockwise;
+
+    /** The {@link SystemClock#uptimeMillis} of the last detent. */
+    private long mLastDetentTime;
+
+    /** The smoothed interval between detents, or -1 if the spin has only one detent so far. */
+    private float mSmoothedIntervalMs;
+
+    /** The fraction of a tick carried over from previous detents, as a percentage. */
+    private int mCarryPercent;
+
+    RotationAccelerator(@NonNull int[] intervalsMs, @NonNull int[] gainsPercent,
+            int smoothingPercent, int spinTimeoutMs) {
+        if (intervalsMs.length == 0 || intervalsMs.length != gainsPercent.length) {
+            throw new IllegalArgumentException(
+                    "The gain curve must have as many intervals as gains, and at least one");
+        }
+        for (int i = 0; i < intervalsMs.length; i++) {
+            if (i > 0 && intervalsMs[i] >= intervalsMs[i - 1]) {
+                throw new IllegalArgumentException(
+                        "The intervals of the gain curve must be in decreasing order");
+            }
+            if (gainsPercent[i] < 100) {
+                throw new IllegalArgumentException(
+                        "The gains of the gain curve must be at least 100 percent");
+            }
+        }
+        if (smoothingPercent <= 0 || smoothingPercent > 100) {
+            throw new IllegalArgumentException("Smoothing must be in the range (0, 100]");
+        }
+        mIntervalsMs = intervalsMs;
+        mGainsPercent = gainsPercent;
+        mSmoothingPercent = smoothingPercent;
+        mSpinTimeoutMs = spinTimeoutMs;
+    }
+
+    /**
+     * Creates a rotation accelerator with the step function rotation used to be accelerated with:
+     * three ticks per detent when detents are at most {@code acceleration3xMs} apart, two when
+     * they're at most {@code acceleration2xMs} apart, and one otherwise.
+     */
+    @NonNull
+    static RotationAccelerator createWithStepGains(int acceleration3xMs, int acceleration2xMs,
+            int smoothingPercent, int spinTimeoutMs) {
+        int[] intervalsMs;
+        int[] gainsPercent;
+        if (acceleration2xMs > acceleration3xMs + 1) {
+            intervalsMs = new int[]{acceleration2xMs + 1, acceleration2xMs, acceleration3xMs + 1,
+                    acceleration3xMs};
+            gainsPercent = new int[]{100, 200, 200, 300};
+        } else if (acceleration2xMs == acceleration3xMs + 1) {
+            intervalsMs = new int[]{acceleration2xMs + 1, acceleration2xMs, acceleration3xMs};
+            gainsPercent = new int[]{100, 200, 300};
+        } else {
+            // Intervals short enough for 2x are short enough for 3x, which takes precedence.
+            intervalsMs = new int[]{acceleration3xMs + 1, acceleration3xMs};
+            gainsPercent = new int[]{100, 300};
+        }
+        return new RotationAccelerator(intervalsMs, gainsPercent, smoothingPercent,
+                spinTimeoutMs);
+    }
+
+    /**
+     * Returns the number of ticks to rotate for one detent in the given direction at the given
+     * {@link SystemClock#uptimeMillis}. The result is always at least one.
+     */
+    int addDetent(boolean clockwise, long uptimeMillis) {
+        if (!continuesSpin(clockwise, uptimeMillis)) {
+            startSpin(clockwise, uptimeMillis);
+            return 1;
+        }
+        long intervalMs = uptimeMillis - mLastDetentTime;
+        if (mSmoothedIntervalMs < 0) {
+            mSmoothedIntervalMs = intervalMs;
+        } else {
+            mSmoothedIntervalMs += (intervalMs - mSmoothedIntervalMs) * mSmoothingPercent / 100f;
+        }
+        mLastDetentTime = uptimeMillis;
+        int percent = mCarryPercent + getGainPercent(mSmoothedIntervalMs);
+        mCarryPercent = percent % 100;
+        return percent / 100;
+    }
+
+    /**
+     * Returns the number of ticks to rotate for {@code count} detents in the given direction, when
+     * only the time of the last one is known. The detents are assumed to be evenly spaced since
+     * the previous detent. If this starts a new spin, there's nothing to measure the speed
+     * against, so each detent counts as one tick.
+     */
+    int addDetents(boolean clockwise, int count, long eventTime) {
+        if (!continuesSpin(clockwise, eventTime)) {
+            startSpin(clockwise, eventTime);
+            return count;
+        }
+        long previousTime = mLastDetentTime;
+        int ticks = 0;
+        for (int i = 1; i <= count; i++) {
+            ticks += addDetent(clockwise, previousTime + (eventTime - previousTime) * i / count);
+        }
+        return ticks;
+    }
+
+    /**
+     * Ends the spin in progress, if any, so the next detent counts as one tick. Called when a
+     * rotation didn't move the focus, so that it doesn't accelerate the rotations that follow.
+     */
+    void reset() {
+        mSpinning = false;
+    }
+
+    private boolean continuesSpin(boolean clockwise, long uptimeMillis) {
+        return mSpinning && clockwise == mClockwise && uptimeMillis >= mLastDetentTime
+                && uptimeMillis - mLastDetentTime <= mSpinTimeoutMs;
+    }
+
+    private void startSpin(boolean clockwise, long uptimeMillis) {
+        mSpinning = true;
+        mClockwise = clockwise;
+        mLastDetentTime = uptimeMillis;
+        mSmoothedIntervalMs = -1;
+        mCarryPercent = 0;
+    }
+
+    /** Returns the gain for the given detent interval, as a percentage. */
+    private int getGainPercent(float intervalMs) {
+        if (intervalMs >= mIntervalsMs[0]) {
+            return mGainsPercent[0];
+        }
+        for (int i = 1; i < mIntervalsMs.length; i++) {
+            if (intervalMs >= mIntervalsMs[i]) {
+                float fraction = (mIntervalsMs[i - 1] - intervalMs)
+                        / (mIntervalsMs[i - 1] - mIntervalsMs[i]);
+                int gainRange = mGainsPercent[i] - mGainsPercent[i - 1];
+                return Math.round(mGainsPercent[i - 1] + fraction * gainRange);
+            }
+        }
+        return mGainsPercent[mGainsPercent.length - 1];
+    }
+}
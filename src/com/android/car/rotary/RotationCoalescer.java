@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.car.rotary;
+
+/**
+ * Merges a batch of rotations into one net rotation, so that a fast spin delivered as several
+ * events moves the focus once rather than through every intermediate view. Rotations in opposite
+ * directions cancel out.
+ */
+class RotationCoalescer {
+
+    /** The net number of "ticks", positive for clockwise. */
+    private int mNetCount;
+
+    /** The number of rotations added since the last {@link #reset}. */
+    private int mRotationCount;
+
+    /** The time of the input event of the first rotation added since the last {@link #reset}. */
+    private long mFirstInputTime;
+
+    /**
+     * Adds a rotation of {@code count} "ticks" in the given direction, whose input event occurred
+     * at the given {@link android.os.SystemClock#uptimeMillis}.
+     */
+    void add(boolean clockwise, int count, long inputTime) {
+        if (mRotationCount == 0) {
+            mFirstInputTime = inputTime;
+        }
+        mNetCount += clockwise ? count : -count;
+        mRotationCount++;
+    }
+
+    /** Returns whether the rotations added since the last {@link #reset} didn't cancel out. */
+    boolean hasRotation() {
+        return mNetCount != 0;
+    }
+
+    /** Returns whether the net rotation is clockwise. */
+    boolean isClockwise() {
+        return mNetCount > 0;
+    }
+
+    /** Returns the net number of "ticks", which is never negative. */
+    int getCount() {
+        return Math.abs(mNetCount);
+    }
+
+    /** Returns the time of the input event of the first rotation merged. */
+    long getFirstInputTime() {
+        return mFirstInputTime;
+    }
+
+    /** Returns the number of rotations merged since the last {@link #reset}. */
+    int getRotationCount() {
+        return mRotationCount;
+    }
+
+    /** Discards the rotations added so far. */
+    void reset() {
+        mNetCount = 0;
+        mRotationCount = 0;
+    }
+}
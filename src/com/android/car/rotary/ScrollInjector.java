@@ -0,0 +1,244 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.car.rotary;
+
+import android.animation.TimeInterpolator;
+import android.os.SystemClock;
+import android.view.Choreographer;
+import android.view.InputDevice;
+import android.view.MotionEvent;
+import android.view.animation.DecelerateInterpolator;
+import android.view.animation.LinearInterpolator;
+
+import androidx.annotation.IntDef;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Injects scroll {@link MotionEvent}s for rotations. Rather than a single event whose axis value is
+ * the rotation count, which makes accelerated spins jump a page at a time, a rotation is turned
+ * into a stream of fractional {@link MotionEvent#ACTION_SCROLL} events, one per display frame,
+ * whose axis values add up to the total distance. How the distance is spread over the frames is
+ * set by the easing.
+ * <p>
+ * A rotation that arrives while a stream is running on the same display and axis extends it: the
+ * distance not yet injected is added to the new rotation's and the stream restarts. Otherwise the
+ * rest of the running stream is injected at once first.
+ * <p>
+ * The pointer properties and coordinates are allocated once, and each event is recycled after it's
+ * injected, so events come from {@link MotionEvent}'s pool rather than being allocated per frame.
+ * This class must be used on the main thread.
+ */
+class ScrollInjector implements Choreographer.FrameCallback {
+
+    /** The scroll advances at a constant rate. */
+    static final int EASING_LINEAR = 0;
+    /** The scroll starts fast and slows down towards its end. */
+    static final int EASING_DECELERATE = 1;
+
+    @IntDef(value = {EASING_LINEAR, EASING_DECELERATE})
+    @Retention(RetentionPolicy.SOURCE)
+    @interface Easing {
+    }
+
+    /** Injects an event into the input system. The event may be recycled once this returns. */
+    interface Injector {
+        void inject(@NonNull MotionEvent event);
+    }
+
+    @NonNull
+    private final Injector mInjector;
+
+    @NonNull
+    private final Choreographer mChoreographer;
+
+    /** How long a stream lasts, in nanoseconds. Zero to inject each rotation as one event. */
+    private final long mDurationNanos;
+
+    /** The axis distance of one rotation "tick". */
+    private final float mDistancePerRotation;
+
+    @NonNull
+    private final TimeInterpolator mInterpolator;
+
+    @NonNull
+    private final MotionEvent.PointerProperties[] mPointerProperties =
+            {new MotionEvent.PointerProperties()};
+
+    @NonNull
+    private final MotionEvent.PointerCoords[] mPointerCoords = {new MotionEvent.PointerCoords()};
+
+    /** Called once the last event of a scroll has been injected, if not null. */
+    @Nullable
+    private Runnable mOnScrollFinishedListener;
+
+    /** Whether a stream is running, i.e., this is posted to {@link #mChoreographer}. */
+    private boolean mRunning;
+
+    private int mDisplayId;
+    private int mAxis;
+
+    /** The total distance of the running stream, and how much of it has been injected. */
+    private float mDistance;
+    private float mInjectedDistance;
+
+    /** When the running stream started, in {@link System#nanoTime}. */
+    private long mStartTimeNanos;
+
+    /**
+     * Creates a scroll injector whose streams last {@code durationMs} and scroll {@code
+     * distancePerRotation} along the axis for each rotation "tick", spread over the frames
+     * according to {@code easing}.
+     */
+    ScrollInjector(@NonNull Injector injector, int durationMs, float distancePerRotation,
+            @Easing int easing) {
+        mInjector = injector;
+        mChoreographer = Choreographer.getInstance();
+        mDurationNanos = TimeUnit.MILLISECONDS.toNanos(durationMs);
+        mDistancePerRotation = distancePerRotation;
+        mInterpolator = easing == EASING_DECELERATE
+                ? new DecelerateInterpolator()
+                : new LinearInterpolator();
+        // Any integer value but -1 (INVALID_POINTER_ID) is fine.
+        mPointerProperties[0].id = 0;
+    }
+
+    /**
+     * Scrolls by {@code rotationCount} "ticks" along {@code axis} on the given display, starting at
+     * {@code nowNanos}, a {@link System#nanoTime}. A positive count scrolls in the positive
+     * direction of the axis.
+     */
+    void scroll(int displayId, int axis, int rotationCount, long nowNanos) {
+        float distance = rotationCount * mDistancePerRotation;
+        if (mRunning && (displayId != mDisplayId || axis != mAxis)) {
+            finish();
+        }
+        if (mDurationNanos == 0) {
+            inject(displayId, axis, distance);
+            notifyScrollFinished();
+            return;
+        }
+        mDisplayId = displayId;
+        mAxis = axis;
+        mDistance = mDistance - mInjectedDistance + distance;
+        mInjectedDistance = 0;
+        mStartTimeNanos = nowNanos;
+        if (!mRunning) {
+            mRunning = true;
+            mChoreographer.postFrameCallback(this);
+        }
+    }
+
+    /**
+     * Sets a listener to call once the last event of a scroll has been injected, i.e., when a
+     * stream ends or is finished early, or right after a scroll injected as one event.
+     */
+    void setOnScrollFinishedListener(@Nullable Runnable listener) {
+        mOnScrollFinishedListener = listener;
+    }
+
+    /** Returns whether a stream is running, i.e., some of its events are yet to be injected. */
+    boolean isRunning() {
+        return mRunning;
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        if (!mRunning) {
+            return;
+        }
+        float fraction = Math.min(1f, Math.max(0f,
+                (float) (frameTimeNanos - mStartTimeNanos) / mDurationNanos));
+        float distance = mDistance * mInterpolator.getInterpolation(fraction);
+        inject(mDisplayId, mAxis, distance - mInjectedDistance);
+        mInjectedDistance = distance;
+        if (fraction < 1f) {
+            mChoreographer.postFrameCallback(this);
+        } else {
+            reset();
+            notifyScrollFinished();
+        }
+    }
+
+    /** Injects the rest of the running stream, if any, at once. */
+    void finish() {
+        if (!mRunning) {
+            return;
+        }
+        mChoreographer.removeFrameCallback(this);
+        inject(mDisplayId, mAxis, mDistance - mInjectedDistance);
+        reset();
+        notifyScrollFinished();
+    }
+
+    /** Stops the running stream, if any, without injecting the rest of it. */
+    void cancel() {
+        if (mRunning) {
+            mChoreographer.removeFrameCallback(this);
+            reset();
+        }
+    }
+
+    private void reset() {
+        mRunning = false;
+        mDistance = 0;
+        mInjectedDistance = 0;
+    }
+
+    private void notifyScrollFinished() {
+        if (mOnScrollFinishedListener != null) {
+            mOnScrollFinishedListener.run();
+        }
+    }
+
+    /** Injects a single scroll event with the given axis value, unless it's zero. */
+    void inject(int displayId, int axis, float axisValue) {
+        if (axisValue == 0) {
+            return;
+        }
+        long upTime = SystemClock.uptimeMillis();
+        MotionEvent.PointerCoords coords = mPointerCoords[0];
+        coords.clear();
+        // No need to set X,Y coordinates. We use a non-pointer source so the event will be routed
+        // to the focused view.
+        coords.setAxisValue(axis, axisValue);
+        MotionEvent motionEvent = MotionEvent.obtain(/* downTime= */ upTime,
+                /* eventTime= */ upTime,
+                MotionEvent.ACTION_SCROLL,
+                /* pointerCount= */ 1,
+                mPointerProperties,
+                mPointerCoords,
+                /* metaState= */ 0,
+                /* buttonState= */ 0,
+                /* xPrecision= */ 1.0f,
+                /* yPrecision= */ 1.0f,
+                /* deviceId= */ 0,
+                /* edgeFlags= */ 0,
+                InputDevice.SOURCE_ROTARY_ENCODER,
+                displayId,
+                /* flags= */ 0);
+        if (motionEvent == null) {
+            L.w("Unable to obtain MotionEvent");
+            return;
+        }
+        mInjector.inject(motionEvent);
+        motionEvent.recycle();
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.car.rotary;
+
+import android.util.LruCache;
+import android.view.accessibility.AccessibilityNodeInfo;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+/**
+ * A cache of the scrollable container, or the lack of one, around recently seen nodes.
+ * <p>
+ * Finding the scrollable container around a node means climbing its ancestors up to its focus area,
+ * at the cost of one binder call per level. While rotating through a long list, it's looked up for
+ * every detent, and again when the focus moves, so the result is cached. Nodes are keyed as {@link
+ * AccessibilityNodeInfo#equals} defines them, i.e. by window ID and source node ID.
+ * <p>
+ * Like {@link AncestorFocusAreaCache}, entries are tagged with the {@link LayoutGenerations layout
+ * generation} of their window, and ignored once it has advanced.
+ * <p>
+ * The methods are synchronized, since {@link Navigator#findScrollableContainer} uses this cache on
+ * the main thread without holding the navigator's lock.
+ */
+class ScrollableContainerCache {
+
+    /** The maximum number of nodes cached. */
+    private static final int MAX_SIZE = 100;
+
+    @NonNull
+    private NodeCopier mNodeCopier = new NodeCopier();
+
+    @NonNull
+    private final LayoutGenerations mLayoutGenerations;
+
+    @NonNull
+    private final LruCache<AccessibilityNodeInfo, Entry> mCache =
+            new LruCache<AccessibilityNodeInfo, Entry>(MAX_SIZE) {
+                @Override
+                protected void entryRemoved(boolean evicted, AccessibilityNodeInfo key,
+                        Entry oldValue, Entry newValue) {
+                    Utils.recycleNode(key);
+                    Utils.recycleNode(oldValue.mScrollableContainer);
+                }
+            };
+
+    ScrollableContainerCache(@NonNull LayoutGenerations layoutGenerations) {
+        mLayoutGenerations = layoutGenerations;
+    }
+
+    /**
+     * Returns whether the scrollable container around the given node, or the lack of one, is
+     * cached for the current layout generation of the node's window.
+     */
+    synchronized boolean contains(@NonNull AccessibilityNodeInfo node) {
+        Entry entry = mCache.get(node);
+        return entry != null && entry.mGeneration == mLayoutGenerations.get(node.getWindowId());
+    }
+
+    /**
+     * Returns a copy of the scrollable container cached for the given node, or null if there's no
+     * scrollable container around it or {@link #contains} is false. The caller is responsible for
+     * recycling the result.
+     */
+    @Nullable
+    synchronized AccessibilityNodeInfo get(@NonNull AccessibilityNodeInfo node) {
+        Entry entry = mCache.get(node);
+        if (entry == null || entry.mGeneration != mLayoutGenerations.get(node.getWindowId())) {
+            // Leave the stale entry to be replaced or evicted. Removing it here would recycle
+            // the caller's node, since LruCache passes the given key to entryRemoved().
+            return null;
+        }
+        return mNodeCopier.copy(entry.mScrollableContainer);
+    }
+
+    /**
+     * Caches the scrollable container around the given node, which may be null, found in the given
+     * layout {@code generation} of its window. Nothing is cached if the window has been invalidated
+     * since, because the container may have been found in the old layout. Copies of the nodes are
+     * saved, so the caller still owns them.
+     */
+    synchronized void put(@NonNull AccessibilityNodeInfo node,
+            @Nullable AccessibilityNodeInfo scrollableContainer, int generation) {
+        if (generation != mLayoutGenerations.get(node.getWindowId())) {
+            return;
+        }
+        mCache.put(mNodeCopier.copy(node),
+                new Entry(mNodeCopier.copy(scrollableContainer), generation));
+    }
+
+    /** Sets a mock {@link NodeCopier} instance for testing. */
+    @VisibleForTesting
+    synchronized void setNodeCopier(@NonNull NodeCopier nodeCopier) {
+        mNodeCopier = nodeCopier;
+    }
+
+    /** A cached scrollable container, if any, and the layout generation it was found in. */
+    private static class Entry {
+        @Nullable
+        final AccessibilityNodeInfo mScrollableContainer;
+        final int mGeneration;
+
+        Entry(@Nullable AccessibilityNodeInfo scrollableContainer, int generation) {
+            mScrollableContainer = scrollableContainer;
+            mGeneration = generation;
+        }
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.car.rotary;
+
+import android.graphics.Rect;
+import android.view.View;
+
+import androidx.annotation.NonNull;
+
+import java.util.Arrays;
+
+/**
+ * A uniform grid over a set of rectangles, used to find the rectangles that may be nudge
+ * candidates from a source rectangle without visiting all of them.
+ * <p>
+ * {@link FocusFinder#isCandidate} only accepts a rectangle that extends past the source in the
+ * nudge direction, e.g. whose bottom is below the source's bottom for {@link View#FOCUS_DOWN}.
+ * {@link #query} returns exactly the rectangles meeting that condition, visiting only the grid
+ * cells on that side of the source.
+ */
+class SpatialIndex {
+
+    /** The ID of each rectangle. */
+    @NonNull
+    private final int[] mIds;
+
+    /** The bounds of each rectangle, as four consecutive values: left, top, right, bottom. */
+    @NonNull
+    private final int[] mBounds;
+
+    private final int mCount;
+    private final int mColumns;
+    private final int mRows;
+    private final int mLeft;
+    private final int mTop;
+    private final int mWidth;
+    private final int mHeight;
+
+    /** The rectangles overlapping each cell, in row-major order. */
+    @NonNull
+    private final int[][] mCells;
+
+    /** The query in which each rectangle was last visited, so each is returned at most once. */
+    @NonNull
+    private final int[] mVisitedStamps;
+    private int mStamp;
+
+    /**
+     * Creates an index of {@code count} rectangles. The rectangle with the ID {@code ids[i]} has
+     * the bounds {@code bounds[4 * i]} to {@code bounds[4 * i + 3]} (left, top, right, bottom).
+     * The arrays are copied.
+     */
+    SpatialIndex(@NonNull int[] ids, @NonNull int[] bounds, int count) {
+        mIds = Arrays.copyOf(ids, count);
+        mBounds = Arrays.copyOf(bounds, count * 4);
+        mCount = count;
+        mVisitedStamps = new int[count];
+
+        int left = Integer.MAX_VALUE;
+        int top = Integer.MAX_VALUE;
+        int right = Integer.MIN_VALUE;
+        int bottom = Integer.MIN_VALUE;
+        for (int i = 0; i < count; i++) {
+            left = Math.min(left, mBounds[i * 4]);
+            top = Math.min(top, mBounds[i * 4 + 1]);
+            right = Math.max(right, mBounds[i * 4 + 2]);
+            bottom = Math.max(bottom, mBounds[i * 4 + 3]);
+        }
+        mLeft = count == 0 ? 0 : left;
+        mTop = count == 0 ? 0 : top;
+        mWidth = count == 0 ? 1 : Math.max(1, right - left);
+        mHeight = count == 0 ? 1 : Math.max(1, bottom - top);
+
+        // Aim for about one rectangle per cell.
+        int size = Math.max(1, (int) Math.ceil(Math.sqrt(count)));
+        mColumns = size;
+        mRows = size;
+
+        // Count the rectangles in each cell, then fill the cells.
+        int[] cellSizes = new int[mColumns * mRows];
+        for (int i = 0; i < count; i++) {
+            forEachCell(i, cell -> cellSizes[cell]++);
+        }
+        mCells = new int[mColumns * mRows][];
+        for (int cell = 0; cell < mCells.length; cell++) {
+            mCells[cell] = new int[cellSizes[cell]];
+        }
+        Arrays.fill(cellSizes, 0);
+        for (int i = 0; i < count; i++) {
+            int rect = i;
+            forEachCell(i, cell -> mCells[cell][cellSizes[cell]++] = rect);
+        }
+    }
+
+    /** Returns the number of rectangles in this index. */
+    int size() {
+        return mCount;
+    }
+
+    /**
+     * Finds the rectangles that extend past {@code sourceBounds} in the given {@code direction},
+     * i.e., those which might satisfy {@link FocusFinder#isCandidate}. Their IDs are written to
+     * {@code outIds}, which must be at least {@link #size} long, in ascending order.
+     *
+     * @param direction must be {@link View#FOCUS_UP}, {@link View#FOCUS_DOWN}, {@link
+     *                  View#FOCUS_LEFT}, or {@link View#FOCUS_RIGHT}
+     * @return the number of IDs written to {@code outIds}
+     */
+    int query(@NonNull Rect sourceBounds, int direction, @NonNull int[] outIds) {
+        int firstColumn = 0;
+        int lastColumn = mColumns - 1;
+        int firstRow = 0;
+        int lastRow = mRows - 1;
+        switch (direction) {
+            case View.FOCUS_LEFT:
+                lastColumn = getColumn(sourceBounds.left);
+                break;
+            case View.FOCUS_RIGHT:
+                firstColumn = getColumn(sourceBounds.right);
+                break;
+            case View.FOCUS_UP:
+                lastRow = getRow(sourceBounds.top);
+                break;
+            case View.FOCUS_DOWN:
+                firstRow = getRow(sourceBounds.bottom);
+                break;
+            default:
+                throw new IllegalArgumentException("direction must be one of "
+                        + "{FOCUS_UP, FOCUS_DOWN, FOCUS_LEFT, FOCUS_RIGHT}.");
+        }
+
+        mStamp++;
+        int found = 0;
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int column = firstColumn; column <= lastColumn; column++) {
+                for (int rect : mCells[row * mColumns + column]) {
+                    if (mVisitedStamps[rect] == mStamp) {
+                        continue;
+                    }
+                    mVisitedStamps[rect] = mStamp;
+                    if (extendsPast(rect, sourceBounds, direction)) {
+                        outIds[found++] = mIds[rect];
+                    }
+                }
+            }
+        }
+        Arrays.sort(outIds, 0, found);
+        return found;
+    }
+
+    /** Returns whether the given rectangle extends past {@code sourceBounds} in the direction. */
+    private boolean extendsPast(int rect, @NonNull Rect sourceBounds, int direction) {
+        int offset = rect * 4;
+        switch (direction) {
+            case View.FOCUS_LEFT:
+                return mBounds[offset] < sourceBounds.left;
+            case View.FOCUS_RIGHT:
+                return mBounds[offset + 2] > sourceBounds.right;
+            case View.FOCUS_UP:
+                return mBounds[offset + 1] < sourceBounds.top;
+            default:
+                return mBounds[offset + 3] > sourceBounds.bottom;
+        }
+    }
+
+    /**
+     * Calls {@code consumer} with each cell the given rectangle overlaps. The right and bottom
+     * edges are exclusive, but empty rectangles still occupy the cell containing their top left.
+     */
+    private void forEachCell(int rect, @NonNull CellConsumer consumer) {
+        int offset = rect * 4;
+        int left = mBounds[offset];
+        int top = mBounds[offset + 1];
+        int firstColumn = getColumn(left);
+        int lastColumn = getColumn(Math.max(left, mBounds[offset + 2] - 1));
+        int firstRow = getRow(top);
+        int lastRow = getRow(Math.max(top, mBounds[offset + 3] - 1));
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int column = firstColumn; column <= lastColumn; column++) {
+                consumer.accept(row * mColumns + column);
+            }
+        }
+    }
+
+    private int getColumn(int x) {
+        long column = ((long) x - mLeft) * mColumns / mWidth;
+        return (int) Math.max(0, Math.min(mColumns - 1, column));
+    }
+
+    private int getRow(int y) {
+        long row = ((long) y - mTop) * mRows / mHeight;
+        return (int) Math.max(0, Math.min(mRows - 1, row));
+    }
+
+    private interface CellConsumer {
+        void accept(int cell);
+    }
+}
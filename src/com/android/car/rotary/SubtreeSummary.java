@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.car.rotary;
+
+import android.graphics.Rect;
+import android.view.accessibility.AccessibilityNodeInfo;
+
+import androidx.annotation.NonNull;
+
+import java.util.Arrays;
+
+/**
+ * The bounds of the nodes that can take focus in a subtree, i.e., a node and its descendants.
+ * <p>
+ * During a nudge, each candidate {@link com.android.car.ui.FocusArea} is first checked for nodes
+ * that can take focus, then for nodes in the nudge direction. A summary records the focusable
+ * nodes in one walk so both questions can be answered without walking the subtree again.
+ */
+class SubtreeSummary {
+
+    private static final int INITIAL_CAPACITY = 4;
+
+    /** The number of nodes that can take focus. */
+    private int mCount;
+
+    /** The bounds in screen of the nodes, as four consecutive values: left, top, right, bottom. */
+    @NonNull
+    private int[] mBounds = new int[INITIAL_CAPACITY * 4];
+
+    /** Used by {@link #hasCandidate} to avoid allocating a Rect per node. */
+    @NonNull
+    private final Rect mScratchBounds = new Rect();
+
+    /**
+     * Summarizes the subtree rooted at {@code node} by walking its live descendants with
+     * {@code treeTraverser}.
+     */
+    @NonNull
+    static SubtreeSummary build(@NonNull AccessibilityNodeInfo node,
+            @NonNull TreeTraverser treeTraverser) {
+        SubtreeSummary summary = new SubtreeSummary();
+        Rect bounds = new Rect();
+        // Visit every node, so focusable nodes inside other focusable nodes are included too.
+        treeTraverser.depthFirstSearch(node, candidateNode -> {
+            if (Utils.canTakeFocus(candidateNode)) {
+                candidateNode.getBoundsInScreen(bounds);
+                summary.add(bounds);
+            }
+            return false;
+        });
+        return summary;
+    }
+
+    /** Returns whether no node in the subtree can take focus. See {@link Utils#canHaveFocus}. */
+    boolean isEmpty() {
+        return mCount == 0;
+    }
+
+    /** Returns the number of nodes in the subtree that can take focus. */
+    int size() {
+        return mCount;
+    }
+
+    /**
+     * Returns whether any node in the subtree that can take focus is a candidate for a nudge from
+     * {@code sourceBounds} in the given {@code direction}, according to {@link
+     * FocusFinder#isCandidate}.
+     */
+    boolean hasCandidate(@NonNull Rect sourceBounds, int direction) {
+        for (int i = 0; i < mCount; i++) {
+            int offset = i * 4;
+            mScratchBounds.set(mBounds[offset], mBounds[offset + 1], mBounds[offset + 2],
+                    mBounds[offset + 3]);
+            if (FocusFinder.isCandidate(sourceBounds, mScratchBounds, direction)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void add(@NonNull Rect bounds) {
+        int offset = mCount * 4;
+        if (offset + 4 > mBounds.length) {
+            mBounds = Arrays.copyOf(mBounds, mBounds.length * 2);
+        }
+        mBounds[offset] = bounds.left;
+        mBounds[offset + 1] = bounds.top;
+        mBounds[offset + 2] = bounds.right;
+        mBounds[offset + 3] = bounds.bottom;
+        mCount++;
+    }
+}
@@ -0,0 +1,463 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.car.rotary;
+
+import static com.android.car.ui.utils.RotaryConstants.ROTARY_HORIZONTALLY_SCROLLABLE;
+import static com.android.car.ui.utils.RotaryConstants.ROTARY_VERTICALLY_SCROLLABLE;
+
+import android.graphics.Rect;
+import android.view.accessibility.AccessibilityNodeInfo;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+import com.android.car.ui.FocusArea;
+import com.android.car.ui.FocusParkingView;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An immutable snapshot of an {@link AccessibilityNodeInfo} tree, built in one pass.
+ * <p>
+ * Calling {@link AccessibilityNodeInfo#getChild} or {@link AccessibilityNodeInfo#getParent} on a
+ * live node costs a binder call. A snapshot walks the tree once and records what navigation needs
+ * to know about each node in flat primitive arrays, so that later searches cost no binder calls
+ * until the snapshot is discarded.
+ * <p>
+ * Nodes are stored in depth-first (pre-order) order and referred to by index. The root is at index
+ * 0, and the descendants of the node at index {@code i} occupy the range {@code i + 1} (inclusive)
+ * to {@link #getSubtreeEnd getSubtreeEnd(i)} (exclusive). Thus the descendants of a node can be
+ * skipped by jumping to the end of its range, and iterating over the range backwards visits the
+ * nodes in reverse depth-first order.
+ * <p>
+ * The snapshot owns a copy of every node in it. Call {@link #recycle} when it's no longer needed.
+ */
+class TreeSnapshot {
+
+    /** The node is visible to the user. */
+    @VisibleForTesting
+    static final int FLAG_VISIBLE_TO_USER = 1;
+    /** The node is focusable. */
+    @VisibleForTesting
+    static final int FLAG_FOCUSABLE = 1 << 1;
+    /** The node is enabled. */
+    @VisibleForTesting
+    static final int FLAG_ENABLED = 1 << 2;
+    /** The node supports {@code ACTION_SCROLL_FORWARD}. */
+    @VisibleForTesting
+    static final int FLAG_CAN_SCROLL_FORWARD = 1 << 3;
+    /** The node supports {@code ACTION_SCROLL_BACKWARD}. */
+    @VisibleForTesting
+    static final int FLAG_CAN_SCROLL_BACKWARD = 1 << 4;
+
+    /** The node represents a view other than a {@link FocusArea} or {@link FocusParkingView}. */
+    @VisibleForTesting
+    static final byte CLASS_KIND_OTHER = 0;
+    /** The node represents a {@link FocusArea}. */
+    @VisibleForTesting
+    static final byte CLASS_KIND_FOCUS_AREA = 1;
+    /** The node represents a {@link FocusParkingView}. */
+    @VisibleForTesting
+    static final byte CLASS_KIND_FOCUS_PARKING_VIEW = 2;
+
+    /** The node's content description doesn't mark it as a scrollable container. */
+    @VisibleForTesting
+    static final byte DESCRIPTION_KIND_OTHER = 0;
+    /** The node's content description marks it as a horizontally scrollable container. */
+    @VisibleForTesting
+    static final byte DESCRIPTION_KIND_HORIZONTALLY_SCROLLABLE = 1;
+    /** The node's content description marks it as a vertically scrollable container. */
+    @VisibleForTesting
+    static final byte DESCRIPTION_KIND_VERTICALLY_SCROLLABLE = 2;
+
+    private static final String FOCUS_AREA_CLASS_NAME = FocusArea.class.getName();
+    private static final String FOCUS_PARKING_VIEW_CLASS_NAME = FocusParkingView.class.getName();
+
+    /** Returned by searches when no node satisfies the predicate. */
+    static final int NO_NODE = -1;
+
+    @NonNull
+    private final NodeCopier mNodeCopier;
+
+    /** The number of nodes in this snapshot. */
+    private final int mSize;
+
+    /** The index of each node's parent, or {@link #NO_NODE} for the root. */
+    @NonNull
+    private final int[] mParent;
+
+    /** The index just past the last descendant of each node. */
+    @NonNull
+    private final int[] mSubtreeEnd;
+
+    /** The bounds in screen of each node, as four consecutive values: left, top, right, bottom. */
+    @NonNull
+    private final int[] mBounds;
+
+    /** A bitmask of {@code FLAG_*} values for each node. */
+    @NonNull
+    private final int[] mFlags;
+
+    /** A {@code CLASS_KIND_*} value for each node. */
+    @NonNull
+    private final byte[] mClassKind;
+
+    /** A {@code DESCRIPTION_KIND_*} value for each node. */
+    @NonNull
+    private final byte[] mDescriptionKind;
+
+    /** The nodes themselves, owned by this snapshot. Only used to hand out copies. */
+    @NonNull
+    private final AccessibilityNodeInfo[] mNodes;
+
+    /** The index of each node. */
+    @NonNull
+    private final Map<AccessibilityNodeInfo, Integer> mIndices;
+
+    /** A spatial index of the nodes that can take focus, built when first needed. */
+    @Nullable
+    private SpatialIndex mFocusableIndex;
+
+    private TreeSnapshot(@NonNull Builder builder) {
+        mNodeCopier = builder.mNodeCopier;
+        mSize = builder.mSize;
+        mParent = Arrays.copyOf(builder.mParent, mSize);
+        mSubtreeEnd = Arrays.copyOf(builder.mSubtreeEnd, mSize);
+        mBounds = Arrays.copyOf(builder.mBounds, mSize * 4);
+        mFlags = Arrays.copyOf(builder.mFlags, mSize);
+        mClassKind = Arrays.copyOf(builder.mClassKind, mSize);
+        mDescriptionKind = Arrays.copyOf(builder.mDescriptionKind, mSize);
+        mNodes = Arrays.copyOf(builder.mNodes, mSize);
+        mIndices = new HashMap<>(mSize * 2);
+        for (int i = 0; i < mSize; i++) {
+            mIndices.put(mNodes[i], i);
+        }
+    }
+
+    /**
+     * Builds a snapshot of {@code root} and its descendants. The caller still owns {@code root}.
+     */
+    @NonNull
+    static TreeSnapshot build(@NonNull AccessibilityNodeInfo root,
+            @NonNull NodeCopier nodeCopier) {
+        Builder builder = new Builder(nodeCopier);
+        builder.add(nodeCopier.copy(root), NO_NODE);
+        return new TreeSnapshot(builder);
+    }
+
+    /** Recycles the nodes in this snapshot. The snapshot must not be used afterwards. */
+    void recycle() {
+        for (AccessibilityNodeInfo node : mNodes) {
+            Utils.recycleNode(node);
+        }
+    }
+
+    /** Returns the number of nodes in this snapshot. */
+    int size() {
+        return mSize;
+    }
+
+    /** Returns the index of the given node, or {@link #NO_NODE} if it isn't in this snapshot. */
+    int indexOf(@NonNull AccessibilityNodeInfo node) {
+        Integer index = mIndices.get(node);
+        return index == null ? NO_NODE : index;
+    }
+
+    /** Returns whether the given node is in this snapshot. */
+    boolean contains(@NonNull AccessibilityNodeInfo node) {
+        return mIndices.containsKey(node);
+    }
+
+    /**
+     * Returns a copy of the node at the given index, or null if {@code index} is {@link #NO_NODE}.
+     * The caller is responsible for recycling the result.
+     */
+    @Nullable
+    AccessibilityNodeInfo copyNode(int index) {
+        return index == NO_NODE ? null : mNodeCopier.copy(mNodes[index]);
+    }
+
+    /** Returns the index of the parent of the node at the given index, or {@link #NO_NODE}. */
+    int getParent(int index) {
+        return mParent[index];
+    }
+
+    /** Returns the index just past the last descendant of the node at the given index. */
+    int getSubtreeEnd(int index) {
+        return mSubtreeEnd[index];
+    }
+
+    /** Copies the bounds in screen of the node at the given index into {@code outBounds}. */
+    void getBoundsInScreen(int index, @NonNull Rect outBounds) {
+        int offset = index * 4;
+        outBounds.set(mBounds[offset], mBounds[offset + 1], mBounds[offset + 2],
+                mBounds[offset + 3]);
+    }
+
+    /** Returns whether the node at the given index has all the given {@code FLAG_*} flags. */
+    boolean hasFlags(int index, int flags) {
+        return (mFlags[index] & flags) == flags;
+    }
+
+    /** Like {@link Utils#canTakeFocus}, for the node at the given index. */
+    boolean canTakeFocus(int index) {
+        return hasFlags(index, FLAG_VISIBLE_TO_USER | FLAG_FOCUSABLE | FLAG_ENABLED)
+                && !isFocusParkingView(index);
+    }
+
+    /** Like {@link Utils#isFocusArea}, for the node at the given index. */
+    boolean isFocusArea(int index) {
+        return mClassKind[index] == CLASS_KIND_FOCUS_AREA;
+    }
+
+    /** Like {@link Utils#isFocusParkingView}, for the node at the given index. */
+    boolean isFocusParkingView(int index) {
+        return mClassKind[index] == CLASS_KIND_FOCUS_PARKING_VIEW;
+    }
+
+    /** Like {@link Utils#isScrollableContainer}, for the node at the given index. */
+    boolean isScrollableContainer(int index) {
+        return mDescriptionKind[index] != DESCRIPTION_KIND_OTHER;
+    }
+
+    /**
+     * Returns a spatial index of the bounds of the nodes in this snapshot that can take focus,
+     * with the nodes' indices as IDs.
+     */
+    @NonNull
+    SpatialIndex getFocusableIndex() {
+        if (mFocusableIndex == null) {
+            int[] ids = new int[mSize];
+            int[] bounds = new int[mSize * 4];
+            int count = 0;
+            for (int i = 0; i < mSize; i++) {
+                if (canTakeFocus(i)) {
+                    ids[count] = i;
+                    System.arraycopy(mBounds, i * 4, bounds, count * 4, 4);
+                    count++;
+                }
+            }
+            mFocusableIndex = new SpatialIndex(ids, bounds, count);
+        }
+        return mFocusableIndex;
+    }
+
+    /** Like {@link Utils#canHaveFocus}, for the node at the given index. */
+    boolean canHaveFocus(int index) {
+        return depthFirstSearch(index, /* skipPredicate= */ null, this::canTakeFocus) != NO_NODE;
+    }
+
+    /**
+     * Like {@link TreeTraverser#depthFirstSearch}: searches the node at {@code index} and its
+     * descendants in depth-first order, skipping any node that satisfies {@code skipPredicate} as
+     * well as its descendants, and returns the index of the first node satisfying {@code
+     * targetPredicate}, or {@link #NO_NODE} if not found.
+     */
+    int depthFirstSearch(int index, @Nullable IndexPredicate skipPredicate,
+            @NonNull IndexPredicate targetPredicate) {
+        int end = mSubtreeEnd[index];
+        int i = index;
+        while (i < end) {
+            if (skipPredicate != null && skipPredicate.isTarget(i)) {
+                i = mSubtreeEnd[i];
+                continue;
+            }
+            if (targetPredicate.isTarget(i)) {
+                return i;
+            }
+            i++;
+        }
+        return NO_NODE;
+    }
+
+    /**
+     * Like {@link TreeTraverser#reverseDepthFirstSearch}: searches the node at {@code index} and
+     * its descendants in reverse depth-first order, and returns the index of the first node
+     * satisfying {@code targetPredicate}, or {@link #NO_NODE} if not found.
+     */
+    int reverseDepthFirstSearch(int index, @NonNull IndexPredicate targetPredicate) {
+        for (int i = mSubtreeEnd[index] - 1; i >= index; i--) {
+            if (targetPredicate.isTarget(i)) {
+                return i;
+            }
+        }
+        return NO_NODE;
+    }
+
+    /**
+     * Like {@link TreeTraverser#depthFirstSelect}: iterates through the node at {@code index} and
+     * its descendants in depth-first order, adding copies of the nodes which satisfy {@code
+     * selectPredicate} to {@code selectedNodes}. Descendants of these nodes aren't checked. The
+     * caller is responsible for recycling the added nodes.
+     */
+    void depthFirstSelect(int index, @NonNull IndexPredicate selectPredicate,
+            @NonNull List<AccessibilityNodeInfo> selectedNodes) {
+        int end = mSubtreeEnd[index];
+        int i = index;
+        while (i < end) {
+            if (selectPredicate.isTarget(i)) {
+                selectedNodes.add(copyNode(i));
+                i = mSubtreeEnd[i];
+            } else {
+                i++;
+            }
+        }
+    }
+
+    /**
+     * Like {@link TreeTraverser#findNodeOrAncestor}: iterates starting at the node at {@code index}
+     * and then progressing through its ancestors, and returns the index of the first node that
+     * satisfies {@code targetPredicate}, or {@link #NO_NODE} if no such node is encountered before
+     * reaching the root or a node which satisfies {@code stopPredicate}.
+     */
+    int findNodeOrAncestor(int index, @Nullable IndexPredicate stopPredicate,
+            @NonNull IndexPredicate targetPredicate) {
+        int i = index;
+        while (i != NO_NODE && (stopPredicate == null || !stopPredicate.isTarget(i))) {
+            if (targetPredicate.isTarget(i)) {
+                return i;
+            }
+            i = mParent[i];
+        }
+        return NO_NODE;
+    }
+
+    /** A function that takes the index of a node in a snapshot and returns a {@code boolean}. */
+    interface IndexPredicate {
+        boolean isTarget(int index);
+    }
+
+    /** Accumulates the nodes of a tree into growable arrays. */
+    private static class Builder {
+        private static final int INITIAL_CAPACITY = 64;
+
+        @NonNull
+        private final NodeCopier mNodeCopier;
+        @NonNull
+        private final Rect mScratchBounds = new Rect();
+
+        private int mSize;
+        private int[] mParent = new int[INITIAL_CAPACITY];
+        private int[] mSubtreeEnd = new int[INITIAL_CAPACITY];
+        private int[] mBounds = new int[INITIAL_CAPACITY * 4];
+        private int[] mFlags = new int[INITIAL_CAPACITY];
+        private byte[] mClassKind = new byte[INITIAL_CAPACITY];
+        private byte[] mDescriptionKind = new byte[INITIAL_CAPACITY];
+        private AccessibilityNodeInfo[] mNodes = new AccessibilityNodeInfo[INITIAL_CAPACITY];
+
+        Builder(@NonNull NodeCopier nodeCopier) {
+            mNodeCopier = nodeCopier;
+        }
+
+        /**
+         * Adds {@code node} and its descendants in depth-first order. Takes ownership of
+         * {@code node}.
+         */
+        void add(@NonNull AccessibilityNodeInfo node, int parent) {
+            int index = mSize++;
+            ensureCapacity(mSize);
+            mNodes[index] = node;
+            mParent[index] = parent;
+
+            node.getBoundsInScreen(mScratchBounds);
+            int offset = index * 4;
+            mBounds[offset] = mScratchBounds.left;
+            mBounds[offset + 1] = mScratchBounds.top;
+            mBounds[offset + 2] = mScratchBounds.right;
+            mBounds[offset + 3] = mScratchBounds.bottom;
+
+            int flags = 0;
+            if (node.isVisibleToUser()) {
+                flags |= FLAG_VISIBLE_TO_USER;
+            }
+            if (node.isFocusable()) {
+                flags |= FLAG_FOCUSABLE;
+            }
+            if (node.isEnabled()) {
+                flags |= FLAG_ENABLED;
+            }
+            List<AccessibilityNodeInfo.AccessibilityAction> actions = node.getActionList();
+            if (actions != null) {
+                if (actions.contains(
+                        AccessibilityNodeInfo.AccessibilityAction.ACTION_SCROLL_FORWARD)) {
+                    flags |= FLAG_CAN_SCROLL_FORWARD;
+                }
+                if (actions.contains(
+                        AccessibilityNodeInfo.AccessibilityAction.ACTION_SCROLL_BACKWARD)) {
+                    flags |= FLAG_CAN_SCROLL_BACKWARD;
+                }
+            }
+            mFlags[index] = flags;
+            mClassKind[index] = getClassKind(node);
+            mDescriptionKind[index] = getDescriptionKind(node);
+
+            for (int i = 0; i < node.getChildCount(); i++) {
+                IpcTracker.record(IpcTracker.OP_GET_CHILD);
+                AccessibilityNodeInfo child = node.getChild(i);
+                if (child != null) {
+                    add(child, index);
+                }
+            }
+            mSubtreeEnd[index] = mSize;
+        }
+
+        private void ensureCapacity(int capacity) {
+            if (capacity <= mParent.length) {
+                return;
+            }
+            int newCapacity = Math.max(capacity, mParent.length * 2);
+            mParent = Arrays.copyOf(mParent, newCapacity);
+            mSubtreeEnd = Arrays.copyOf(mSubtreeEnd, newCapacity);
+            mBounds = Arrays.copyOf(mBounds, newCapacity * 4);
+            mFlags = Arrays.copyOf(mFlags, newCapacity);
+            mClassKind = Arrays.copyOf(mClassKind, newCapacity);
+            mDescriptionKind = Arrays.copyOf(mDescriptionKind, newCapacity);
+            mNodes = Arrays.copyOf(mNodes, newCapacity);
+        }
+
+        private static byte getClassKind(@NonNull AccessibilityNodeInfo node) {
+            CharSequence className = node.getClassName();
+            if (className == null) {
+                return CLASS_KIND_OTHER;
+            }
+            if (FOCUS_AREA_CLASS_NAME.contentEquals(className)) {
+                return CLASS_KIND_FOCUS_AREA;
+            }
+            if (FOCUS_PARKING_VIEW_CLASS_NAME.contentEquals(className)) {
+                return CLASS_KIND_FOCUS_PARKING_VIEW;
+            }
+            return CLASS_KIND_OTHER;
+        }
+
+        private static byte getDescriptionKind(@NonNull AccessibilityNodeInfo node) {
+            CharSequence contentDescription = node.getContentDescription();
+            if (contentDescription == null) {
+                return DESCRIPTION_KIND_OTHER;
+            }
+            if (ROTARY_HORIZONTALLY_SCROLLABLE.contentEquals(contentDescription)) {
+                return DESCRIPTION_KIND_HORIZONTALLY_SCROLLABLE;
+            }
+            if (ROTARY_VERTICALLY_SCROLLABLE.contentEquals(contentDescription)) {
+                return DESCRIPTION_KIND_VERTICALLY_SCROLLABLE;
+            }
+            return DESCRIPTION_KIND_OTHER;
+        }
+    }
+}
@@ -61,6 +61,7 @@ class TreeTraverser {
             if (targetPredicate.isTarget(currentNode)) {
                 return currentNode;
             }
+            IpcTracker.record(IpcTracker.OP_GET_PARENT);
             AccessibilityNodeInfo parentNode = currentNode.getParent();
             currentNode.recycle();
             currentNode = parentNode;
@@ -98,6 +99,7 @@ class TreeTraverser {
             return copyNode(node);
         }
         for (int i = 0; i < node.getChildCount(); i++) {
+            IpcTracker.record(IpcTracker.OP_GET_CHILD);
             AccessibilityNodeInfo child = node.getChild(i);
             if (child == null) {
                 continue;
@@ -121,6 +123,7 @@ class TreeTraverser {
     AccessibilityNodeInfo reverseDepthFirstSearch(@NonNull AccessibilityNodeInfo node,
             @NonNull NodePredicate targetPredicate) {
         for (int i = node.getChildCount() - 1; i >= 0; i--) {
+            IpcTracker.record(IpcTracker.OP_GET_CHILD);
             AccessibilityNodeInfo child = node.getChild(i);
             if (child == null) {
                 continue;
@@ -152,6 +155,7 @@ class TreeTraverser {
             return;
         }
         for (int i = 0; i < node.getChildCount(); i++) {
+            IpcTracker.record(IpcTracker.OP_GET_CHILD);
             AccessibilityNodeInfo child = node.getChild(i);
             if (child == null) {
                 continue;
@@ -19,6 +19,7 @@ package com.android.car.rotary;
 import static com.android.car.ui.utils.RotaryConstants.ROTARY_HORIZONTALLY_SCROLLABLE;
 import static com.android.car.ui.utils.RotaryConstants.ROTARY_VERTICALLY_SCROLLABLE;
 
+import android.view.View;
 import android.view.accessibility.AccessibilityNodeInfo;
 import android.view.accessibility.AccessibilityWindowInfo;
 
@@ -45,6 +46,9 @@ class Utils {
     private static final String FOCUS_AREA_CLASS_NAME = FocusArea.class.getName();
     private static final String FOCUS_PARKING_VIEW_CLASS_NAME = FocusParkingView.class.getName();
 
+    /** The number of nudge directions. See {@link #getNudgeDirectionIndex}. */
+    static final int NUDGE_DIRECTION_COUNT = 4;
+
     private Utils() {
     }
 
@@ -73,6 +77,7 @@ class Utils {
         if (node == null) {
             return null;
         }
+        IpcTracker.record(IpcTracker.OP_REFRESH);
         boolean succeeded = node.refresh();
         if (succeeded) {
             return node;
@@ -94,6 +99,7 @@ class Utils {
             return true;
         }
         for (int i = 0; i < node.getChildCount(); i++) {
+            IpcTracker.record(IpcTracker.OP_GET_CHILD);
             AccessibilityNodeInfo childNode = node.getChild(i);
             if (childNode != null) {
                 boolean result = canHaveFocus(childNode);
@@ -115,6 +121,7 @@ class Utils {
             return true;
         }
         for (int i = 0; i < node.getChildCount(); i++) {
+            IpcTracker.record(IpcTracker.OP_GET_CHILD);
             AccessibilityNodeInfo childNode = node.getChild(i);
             if (childNode != null) {
                 boolean result = hasFocus(childNode);
@@ -163,6 +170,7 @@ class Utils {
     /** Returns whether {@code descendant} is a descendant of {@code ancestor}. */
     static boolean isDescendant(@NonNull AccessibilityNodeInfo ancestor,
             @NonNull AccessibilityNodeInfo descendant) {
+        IpcTracker.record(IpcTracker.OP_GET_PARENT);
         AccessibilityNodeInfo parent = descendant.getParent();
         if (parent == null) {
             return false;
@@ -187,4 +195,24 @@ class Utils {
             }
         }
     }
+
+    /**
+     * Returns the index of the given nudge direction, from 0 to {@link #NUDGE_DIRECTION_COUNT} - 1,
+     * for caches that keep one entry per direction.
+     */
+    static int getNudgeDirectionIndex(int direction) {
+        switch (direction) {
+            case View.FOCUS_LEFT:
+                return 0;
+            case View.FOCUS_UP:
+                return 1;
+            case View.FOCUS_RIGHT:
+                return 2;
+            case View.FOCUS_DOWN:
+                return 3;
+            default:
+                throw new IllegalArgumentException("direction must be one of "
+                        + "{FOCUS_UP, FOCUS_DOWN, FOCUS_LEFT, FOCUS_RIGHT}.");
+        }
+    }
 }
@@ -0,0 +1,311 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.car.rotary;
+
+import static android.view.accessibility.AccessibilityEvent.WINDOWS_CHANGE_ADDED;
+import static android.view.accessibility.AccessibilityEvent.WINDOWS_CHANGE_BOUNDS;
+import static android.view.accessibility.AccessibilityEvent.WINDOWS_CHANGE_LAYER;
+import static android.view.accessibility.AccessibilityEvent.WINDOWS_CHANGE_REMOVED;
+
+import android.graphics.Rect;
+import android.util.SparseArray;
+import android.util.SparseBooleanArray;
+import android.view.accessibility.AccessibilityWindowInfo;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The windows on the screen and the properties of each one that navigation needs, kept up to date
+ * from {@link android.view.accessibility.AccessibilityEvent#TYPE_WINDOWS_CHANGED} events.
+ * <p>
+ * Without it, every nudge calls {@link
+ * android.accessibilityservice.AccessibilityService#getWindows}, and checking the type, display or
+ * HUN-ness of the focused node's window costs a {@link
+ * android.view.accessibility.AccessibilityNodeInfo#getWindow} binder call each time. Instead, the
+ * windows are fetched once and only fetched again after a change that affects them: a window was
+ * added, or moved or restacked. Removed windows are simply dropped, and other changes such as
+ * titles or focus are ignored. Looking up a window that isn't there fetches the windows again in
+ * case its event hasn't arrived yet, but only once per ID until the next change.
+ * <p>
+ * The state is guarded by the lock on the registry, since {@link NavigationPipeline} may look up
+ * the windows for a nudge on its worker thread. Windows are only handed out as copies for the same
+ * reason. The windows are fetched without holding the lock, so the main thread's window events
+ * never wait for another thread's binder call. A change that arrives during a fetch leaves the
+ * registry stale, so the windows are fetched again before they're next used.
+ */
+class WindowRegistry {
+
+    /** The window changes after which the windows need to be fetched again. */
+    private static final int REFRESH_CHANGES =
+            WINDOWS_CHANGE_ADDED | WINDOWS_CHANGE_BOUNDS | WINDOWS_CHANGE_LAYER;
+
+    /** Fetches the windows on the screen, e.g. {@link RotaryService#getWindows}. */
+    interface WindowSource {
+        @NonNull
+        List<AccessibilityWindowInfo> getWindows();
+    }
+
+    /** Identifies the heads-up notification window, e.g. {@link Navigator#isHunWindow}. */
+    interface HunWindowDetector {
+        boolean isHunWindow(@NonNull AccessibilityWindowInfo window);
+    }
+
+    @NonNull
+    private NodeCopier mNodeCopier = new NodeCopier();
+
+    @NonNull
+    private final WindowSource mWindowSource;
+
+    @NonNull
+    private final HunWindowDetector mHunWindowDetector;
+
+    /** The windows, in the order they were fetched in, i.e., from top to bottom. */
+    @NonNull
+    private final List<Entry> mEntries = new ArrayList<>();
+
+    /** The same windows, by window ID. */
+    @NonNull
+    private final SparseArray<Entry> mEntriesById = new SparseArray<>();
+
+    /**
+     * The IDs of the windows which were looked up but weren't there, even after fetching the
+     * windows again. They're looked up without fetching until the next window change.
+     */
+    @NonNull
+    private final SparseBooleanArray mMissingIds = new SparseBooleanArray();
+
+    /** Whether the windows need to be fetched before they're next used. */
+    private boolean mStale = true;
+
+    /**
+     * How many times the registry was made stale. A fetch that started before the latest change
+     * leaves it stale.
+     */
+    private int mStaleCount;
+
+    /** How many times the windows were fetched. */
+    private long mRefreshCount;
+
+    /** How many window lookups were answered, which each used to be a binder call. */
+    private long mLookupCount;
+
+    /** How many lookups of missing windows were answered without fetching the windows. */
+    private long mMissingLookupCount;
+
+    WindowRegistry(@NonNull WindowSource windowSource,
+            @NonNull HunWindowDetector hunWindowDetector) {
+        mWindowSource = windowSource;
+        mHunWindowDetector = hunWindowDetector;
+    }
+
+    /**
+     * Updates the registry for a {@link
+     * android.view.accessibility.AccessibilityEvent#TYPE_WINDOWS_CHANGED} event for the given
+     * window with the given {@link
+     * android.view.accessibility.AccessibilityEvent#getWindowChanges}.
+     */
+    synchronized void onWindowsChanged(int windowId, int windowChanges) {
+        // Any window that was missing may have appeared.
+        mMissingIds.clear();
+        if ((windowChanges & WINDOWS_CHANGE_REMOVED) != 0) {
+            Entry entry = mEntriesById.get(windowId);
+            if (entry != null) {
+                mEntriesById.remove(windowId);
+                mEntries.remove(entry);
+                entry.mWindow.recycle();
+            }
+        }
+        if ((windowChanges & REFRESH_CHANGES) != 0) {
+            markStale();
+        } else if ((windowChanges & WINDOWS_CHANGE_REMOVED) != 0) {
+            // A fetch in progress may still include the removed window.
+            mStaleCount++;
+        }
+    }
+
+    /** Makes the registry fetch the windows again before they're next used. */
+    synchronized void invalidate() {
+        mMissingIds.clear();
+        markStale();
+    }
+
+    /**
+     * Returns the properties of the window with the given ID, or null if there's no such window.
+     */
+    @Nullable
+    Entry get(int windowId) {
+        refreshIfStale();
+        synchronized (this) {
+            Entry entry = mEntriesById.get(windowId);
+            if (entry != null) {
+                mLookupCount++;
+                return entry;
+            }
+            if (mMissingIds.get(windowId)) {
+                // E.g. a stale node in a removed window. Don't fetch again until a window changes.
+                mMissingLookupCount++;
+                return null;
+            }
+            // A window may be reported before its TYPE_WINDOWS_CHANGED event arrives.
+            markStale();
+        }
+        refreshIfStale();
+        synchronized (this) {
+            Entry entry = mEntriesById.get(windowId);
+            if (entry == null) {
+                mMissingIds.put(windowId, true);
+            } else {
+                mLookupCount++;
+            }
+            return entry;
+        }
+    }
+
+    /**
+     * Returns a copy of the window with the given ID, or null if there's no such window. The
+     * caller is responsible for recycling the result.
+     */
+    @Nullable
+    AccessibilityWindowInfo copyWindow(int windowId) {
+        if (get(windowId) == null) {
+            return null;
+        }
+        synchronized (this) {
+            // The entry may have been replaced or removed since, and its window recycled.
+            Entry entry = mEntriesById.get(windowId);
+            return entry == null ? null : mNodeCopier.copy(entry.mWindow);
+        }
+    }
+
+    /**
+     * Returns copies of the windows on the screen, from top to bottom, as {@link
+     * android.accessibilityservice.AccessibilityService#getWindows} would. The caller is
+     * responsible for recycling them.
+     */
+    @NonNull
+    List<AccessibilityWindowInfo> copyWindows() {
+        refreshIfStale();
+        synchronized (this) {
+            mLookupCount++;
+            List<AccessibilityWindowInfo> windows = new ArrayList<>(mEntries.size());
+            for (Entry entry : mEntries) {
+                windows.add(mNodeCopier.copy(entry.mWindow));
+            }
+            return windows;
+        }
+    }
+
+    /** Discards the windows. */
+    synchronized void clear() {
+        recycleEntries();
+        markStale();
+    }
+
+    private void markStale() {
+        mStale = true;
+        mStaleCount++;
+    }
+
+    private void recycleEntries() {
+        for (Entry entry : mEntries) {
+            entry.mWindow.recycle();
+        }
+        mEntries.clear();
+        mEntriesById.clear();
+    }
+
+    /**
+     * Fetches the windows if they're stale. The binder call is made without holding the lock, and
+     * the result swapped in under it.
+     */
+    private void refreshIfStale() {
+        int staleCount;
+        synchronized (this) {
+            if (!mStale) {
+                return;
+            }
+            staleCount = mStaleCount;
+        }
+        // TODO(b/152438801): sometimes getWindows() takes 10s after boot.
+        IpcTracker.record(IpcTracker.OP_GET_WINDOWS);
+        List<AccessibilityWindowInfo> windows = mWindowSource.getWindows();
+        List<Entry> entries = new ArrayList<>(windows.size());
+        for (AccessibilityWindowInfo window : windows) {
+            entries.add(new Entry(window, mHunWindowDetector.isHunWindow(window)));
+        }
+        synchronized (this) {
+            if (!mStale) {
+                // Another thread fetched them meanwhile.
+                for (Entry entry : entries) {
+                    entry.mWindow.recycle();
+                }
+                return;
+            }
+            recycleEntries();
+            for (Entry entry : entries) {
+                mEntries.add(entry);
+                mEntriesById.put(entry.mId, entry);
+            }
+            mRefreshCount++;
+            // If the windows changed during the fetch, use them for now, but fetch them again.
+            mStale = staleCount != mStaleCount;
+        }
+    }
+
+    synchronized void dump(@NonNull String prefix, @NonNull PrintWriter writer) {
+        writer.printf("%sWindow registry: windows=%d refreshes=%d lookups=%d missingLookups=%d%n",
+                prefix, mEntries.size(), mRefreshCount, mLookupCount, mMissingLookupCount);
+    }
+
+    /** Sets a mock {@link NodeCopier} instance for testing. */
+    @VisibleForTesting
+    synchronized void setNodeCopier(@NonNull NodeCopier nodeCopier) {
+        mNodeCopier = nodeCopier;
+    }
+
+    /** A window and the properties navigation needs, as of when it was fetched. */
+    static class Entry {
+        /** The window, owned by the registry. */
+        @NonNull
+        private final AccessibilityWindowInfo mWindow;
+
+        final int mId;
+        final int mType;
+        final int mDisplayId;
+        final int mLayer;
+        final boolean mIsHun;
+
+        /** The bounds of the window in the screen. Don't modify it. */
+        @NonNull
+        final Rect mBounds = new Rect();
+
+        private Entry(@NonNull AccessibilityWindowInfo window, boolean isHun) {
+            mWindow = window;
+            mId = window.getId();
+            mType = window.getType();
+            mDisplayId = window.getDisplayId();
+            mLayer = window.getLayer();
+            mIsHun = isHun;
+            window.getBoundsInScreen(mBounds);
+        }
+    }
+}
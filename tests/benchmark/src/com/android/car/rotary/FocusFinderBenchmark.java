@@ -0,0 +1,208 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.car.rotary;
+
+import android.graphics.Rect;
+import android.view.View;
+
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+import androidx.test.filters.LargeTest;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Benchmarks for the geometry in {@link FocusFinder}, run over synthetic layouts of various sizes.
+ * <p>
+ * Each iteration makes one call, so the reported time and allocation count are per call. The
+ * arguments cycle through pseudo-random pairs of rectangles from the layout and all four
+ * directions. {@link #findBestCandidate} instead scans the whole layout for the best candidate
+ * from one source, as a nudge does.
+ */
+@LargeTest
+@RunWith(Parameterized.class)
+public class FocusFinderBenchmark {
+
+    private static final int[] DIRECTIONS =
+            {View.FOCUS_UP, View.FOCUS_DOWN, View.FOCUS_LEFT, View.FOCUS_RIGHT};
+
+    private static final int[] SIZES = {10, 100, 1000, 10000};
+
+    /** The number of precomputed argument sets. Must be a power of two. */
+    private static final int ARGUMENT_COUNT = 1024;
+
+    @Rule
+    public BenchmarkRule mBenchmarkRule = new BenchmarkRule();
+
+    private final String mLayout;
+    private final int mSize;
+
+    private Rect[] mRects;
+    private final int[] mSources = new int[ARGUMENT_COUNT];
+    private final int[] mCandidates = new int[ARGUMENT_COUNT];
+    private final int[] mOthers = new int[ARGUMENT_COUNT];
+
+    /** Consumes results so that the calls can't be optimized away. */
+    private int mSink;
+
+    @Parameterized.Parameters(name = "{0}_{1}")
+    public static List<Object[]> getParameters() {
+        List<Object[]> parameters = new ArrayList<>();
+        for (String layout : SyntheticLayouts.ALL) {
+            for (int size : SIZES) {
+                parameters.add(new Object[]{layout, size});
+            }
+        }
+        return parameters;
+    }
+
+    public FocusFinderBenchmark(String layout, int size) {
+        mLayout = layout;
+        mSize = size;
+    }
+
+    @Before
+    public void setUp() {
+        mRects = SyntheticLayouts.build(mLayout, mSize);
+        Random random = new Random(/* seed= */ 1);
+        for (int i = 0; i < ARGUMENT_COUNT; i++) {
+            mSources[i] = random.nextInt(mSize);
+            mCandidates[i] = random.nextInt(mSize);
+            mOthers[i] = random.nextInt(mSize);
+        }
+    }
+
+    @Test
+    public void isCandidate() {
+        BenchmarkState state = mBenchmarkRule.getState();
+        int i = 0;
+        while (state.keepRunning()) {
+            int arg = i++ & (ARGUMENT_COUNT - 1);
+            if (FocusFinder.isCandidate(mRects[mSources[arg]], mRects[mCandidates[arg]],
+                    DIRECTIONS[arg & 3])) {
+                mSink++;
+            }
+        }
+    }
+
+    @Test
+    public void isBetterCandidate() {
+        BenchmarkState state = mBenchmarkRule.getState();
+        int i = 0;
+        while (state.keepRunning()) {
+            int arg = i++ & (ARGUMENT_COUNT - 1);
+            if (FocusFinder.isBetterCandidate(DIRECTIONS[arg & 3], mRects[mSources[arg]],
+                    mRects[mCandidates[arg]], mRects[mOthers[arg]])) {
+                mSink++;
+            }
+        }
+    }
+
+    @Test
+    public void beamBeats() {
+        BenchmarkState state = mBenchmarkRule.getState();
+        int i = 0;
+        while (state.keepRunning()) {
+            int arg = i++ & (ARGUMENT_COUNT - 1);
+            if (FocusFinder.beamBeats(DIRECTIONS[arg & 3], mRects[mSources[arg]],
+                    mRects[mCandidates[arg]], mRects[mOthers[arg]])) {
+                mSink++;
+            }
+        }
+    }
+
+    @Test
+    public void isPartiallyInDirection() {
+        BenchmarkState state = mBenchmarkRule.getState();
+        int i = 0;
+        while (state.keepRunning()) {
+            int arg = i++ & (ARGUMENT_COUNT - 1);
+            if (FocusFinder.isPartiallyInDirection(mRects[mSources[arg]],
+                    mRects[mCandidates[arg]], DIRECTIONS[arg & 3])) {
+                mSink++;
+            }
+        }
+    }
+
+    @Test
+    public void majorAxisDistance() {
+        BenchmarkState state = mBenchmarkRule.getState();
+        int i = 0;
+        while (state.keepRunning()) {
+            int arg = i++ & (ARGUMENT_COUNT - 1);
+            mSink += FocusFinder.majorAxisDistance(DIRECTIONS[arg & 3], mRects[mSources[arg]],
+                    mRects[mCandidates[arg]]);
+        }
+    }
+
+    @Test
+    public void majorAxisDistanceToFarEdge() {
+        BenchmarkState state = mBenchmarkRule.getState();
+        int i = 0;
+        while (state.keepRunning()) {
+            int arg = i++ & (ARGUMENT_COUNT - 1);
+            mSink += FocusFinder.majorAxisDistanceToFarEdge(DIRECTIONS[arg & 3],
+                    mRects[mSources[arg]], mRects[mCandidates[arg]]);
+        }
+    }
+
+    @Test
+    public void beamsOverlap() {
+        BenchmarkState state = mBenchmarkRule.getState();
+        int i = 0;
+        while (state.keepRunning()) {
+            int arg = i++ & (ARGUMENT_COUNT - 1);
+            if (FocusFinder.beamsOverlap(DIRECTIONS[arg & 3], mRects[mSources[arg]],
+                    mRects[mCandidates[arg]])) {
+                mSink++;
+            }
+        }
+    }
+
+    /** Finds the best candidate in the whole layout, as {@link Navigator} does for a nudge. */
+    @Test
+    public void findBestCandidate() {
+        BenchmarkState state = mBenchmarkRule.getState();
+        int i = 0;
+        while (state.keepRunning()) {
+            int arg = i++ & (ARGUMENT_COUNT - 1);
+            Rect source = mRects[mSources[arg]];
+            int direction = DIRECTIONS[arg & 3];
+            Rect best = null;
+            for (Rect candidate : mRects) {
+                if (candidate == source) {
+                    continue;
+                }
+                if (best == null
+                        ? FocusFinder.isCandidate(source, candidate, direction)
+                        : FocusFinder.isBetterCandidate(direction, source, candidate, best)) {
+                    best = candidate;
+                }
+            }
+            if (best != null) {
+                mSink++;
+            }
+        }
+    }
+}
@@ -0,0 +1,313 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.car.rotary;
+
+import static org.mockito.Mockito.when;
+
+import android.graphics.Rect;
+import android.view.View;
+import android.view.accessibility.AccessibilityNodeInfo;
+import android.view.accessibility.AccessibilityWindowInfo;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.android.car.ui.FocusArea;
+import com.android.car.ui.FocusParkingView;
+import com.android.car.ui.utils.RotaryConstants;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A builder which builds a large mock node tree spread over several windows, resembling the
+ * heaviest car apps. It's used to benchmark {@link Navigator}.
+ * <p>
+ * There are three windows:
+ * <ul>
+ *     <li>The application window. Its root contains a FocusParkingView and a row of focus areas,
+ *         every other one nested inside another focus area. Each focus area contains a vertically
+ *         scrollable container of rows. Each row has a few cells, and each cell has a focusable
+ *         button with a label. Rows are added until the requested number of nodes is reached.
+ *     <li>The HUN window, with one focus area of action buttons.
+ *     <li>The navigation bar window, with a FocusParkingView and one focus area of buttons.
+ * </ul>
+ * Within each window, {@link AccessibilityNodeInfo#focusSearch} moves forward and backward through
+ * the focusable nodes in depth-first order, and a focus area searches forward to its first
+ * focusable descendant. The mock nodes are stub-only, so they can't be verified.
+ */
+class LargeTreeBuilder {
+    private static final String FOCUS_AREA_CLASS_NAME = FocusArea.class.getName();
+    private static final String FOCUS_PARKING_VIEW_CLASS_NAME = FocusParkingView.class.getName();
+
+    private static final int SCREEN_WIDTH = 1920;
+    private static final int APP_WINDOW_HEIGHT = 1000;
+    private static final int SCREEN_HEIGHT = 1080;
+    private static final int COLUMNS = 4;
+    private static final int CELLS_PER_ROW = 4;
+    private static final int ROW_HEIGHT = 100;
+    private static final int PADDING = 10;
+    private static final int HUN_BUTTONS = 3;
+    private static final int NAV_BAR_BUTTONS = 6;
+
+    /** The children of each node built so far. */
+    private final Map<AccessibilityNodeInfo, List<AccessibilityNodeInfo>> mChildren =
+            new IdentityHashMap<>();
+
+    private final List<AccessibilityWindowInfo> mWindows = new ArrayList<>();
+    private final List<AccessibilityNodeInfo> mAppButtons = new ArrayList<>();
+    private AccessibilityWindowInfo mAppWindow;
+    private AccessibilityNodeInfo mAppRoot;
+    private int mNodeCount;
+
+    /**
+     * Builds the windows, with roughly {@code appNodeCount} nodes in the application window. The
+     * HUN window has the given bounds.
+     */
+    LargeTreeBuilder build(int appNodeCount, @NonNull Rect hunWindowBounds) {
+        buildAppWindow(appNodeCount);
+        buildHunWindow(hunWindowBounds);
+        buildNavBarWindow();
+        return this;
+    }
+
+    /** Returns the windows: the application window, the HUN and the navigation bar. */
+    @NonNull
+    List<AccessibilityWindowInfo> getWindows() {
+        return mWindows;
+    }
+
+    @NonNull
+    AccessibilityWindowInfo getAppWindow() {
+        return mAppWindow;
+    }
+
+    @NonNull
+    AccessibilityNodeInfo getAppRoot() {
+        return mAppRoot;
+    }
+
+    /** Returns the buttons in the application window, which are all the nodes that take focus. */
+    @NonNull
+    List<AccessibilityNodeInfo> getAppButtons() {
+        return mAppButtons;
+    }
+
+    /** Returns the total number of nodes in all the windows. */
+    int getNodeCount() {
+        return mNodeCount;
+    }
+
+    private void buildAppWindow(int appNodeCount) {
+        mAppWindow = buildWindow(AccessibilityWindowInfo.TYPE_APPLICATION,
+                new Rect(0, 0, SCREEN_WIDTH, APP_WINDOW_HEIGHT));
+        mAppRoot = buildRoot(mAppWindow);
+        buildFocusParkingView(mAppWindow, mAppRoot);
+
+        int columnWidth = SCREEN_WIDTH / COLUMNS;
+        AccessibilityNodeInfo[] containers = new AccessibilityNodeInfo[COLUMNS];
+        for (int column = 0; column < COLUMNS; column++) {
+            Rect bounds = new Rect(column * columnWidth, 0, (column + 1) * columnWidth,
+                    APP_WINDOW_HEIGHT);
+            AccessibilityNodeInfo focusArea = buildFocusArea(mAppWindow, mAppRoot, bounds);
+            if (column % 2 == 1) {
+                focusArea = buildFocusArea(mAppWindow, focusArea, bounds);
+            }
+            containers[column] = newNode(mAppWindow, focusArea)
+                    .setBoundsInScreen(bounds)
+                    .setVisibleToUser(true)
+                    .setEnabled(true)
+                    .setContentDescription(RotaryConstants.ROTARY_VERTICALLY_SCROLLABLE)
+                    .build();
+        }
+
+        // Add rows to each column in turn. The rows extend below the window, as if scrolled off.
+        int cellWidth = columnWidth / CELLS_PER_ROW;
+        for (int row = 0; mNodeCount < appNodeCount; row++) {
+            for (int column = 0; column < COLUMNS && mNodeCount < appNodeCount; column++) {
+                int left = column * columnWidth;
+                int top = row * ROW_HEIGHT;
+                AccessibilityNodeInfo rowNode = newNode(mAppWindow, containers[column])
+                        .setBoundsInScreen(new Rect(left, top, left + columnWidth,
+                                top + ROW_HEIGHT))
+                        .setVisibleToUser(true)
+                        .setEnabled(true)
+                        .build();
+                for (int cell = 0; cell < CELLS_PER_ROW; cell++) {
+                    Rect cellBounds = new Rect(left + cell * cellWidth, top,
+                            left + (cell + 1) * cellWidth, top + ROW_HEIGHT);
+                    AccessibilityNodeInfo cellNode = newNode(mAppWindow, rowNode)
+                            .setBoundsInScreen(cellBounds)
+                            .setVisibleToUser(true)
+                            .setEnabled(true)
+                            .build();
+                    Rect buttonBounds = new Rect(cellBounds);
+                    buttonBounds.inset(PADDING, PADDING);
+                    AccessibilityNodeInfo button = buildButton(mAppWindow, cellNode, buttonBounds);
+                    newNode(mAppWindow, button)
+                            .setBoundsInScreen(buttonBounds)
+                            .setVisibleToUser(true)
+                            .setEnabled(true)
+                            .build();
+                    mAppButtons.add(button);
+                }
+            }
+        }
+        linkFocusSearch(mAppRoot);
+    }
+
+    private void buildHunWindow(@NonNull Rect hunWindowBounds) {
+        AccessibilityWindowInfo window =
+                buildWindow(AccessibilityWindowInfo.TYPE_SYSTEM, hunWindowBounds);
+        AccessibilityNodeInfo root = buildRoot(window);
+        AccessibilityNodeInfo focusArea = buildFocusArea(window, root, hunWindowBounds);
+        buildButtonRow(window, focusArea, hunWindowBounds, HUN_BUTTONS);
+        linkFocusSearch(root);
+    }
+
+    private void buildNavBarWindow() {
+        Rect bounds = new Rect(0, APP_WINDOW_HEIGHT, SCREEN_WIDTH, SCREEN_HEIGHT);
+        AccessibilityWindowInfo window = buildWindow(AccessibilityWindowInfo.TYPE_SYSTEM, bounds);
+        AccessibilityNodeInfo root = buildRoot(window);
+        buildFocusParkingView(window, root);
+        AccessibilityNodeInfo focusArea = buildFocusArea(window, root, bounds);
+        buildButtonRow(window, focusArea, bounds, NAV_BAR_BUTTONS);
+        linkFocusSearch(root);
+    }
+
+    private AccessibilityWindowInfo buildWindow(int type, @NonNull Rect bounds) {
+        AccessibilityWindowInfo window = new WindowBuilder()
+                .setType(type)
+                .setBoundsInScreen(bounds)
+                .build();
+        mWindows.add(window);
+        return window;
+    }
+
+    private AccessibilityNodeInfo buildRoot(@NonNull AccessibilityWindowInfo window) {
+        Rect bounds = new Rect();
+        window.getBoundsInScreen(bounds);
+        AccessibilityNodeInfo root = newNode(window, /* parent= */ null)
+                .setBoundsInScreen(bounds)
+                .setVisibleToUser(true)
+                .setEnabled(true)
+                .build();
+        when(window.getRoot()).thenReturn(root);
+        return root;
+    }
+
+    private AccessibilityNodeInfo buildFocusArea(@NonNull AccessibilityWindowInfo window,
+            @NonNull AccessibilityNodeInfo parent, @NonNull Rect bounds) {
+        return newNode(window, parent)
+                .setClassName(FOCUS_AREA_CLASS_NAME)
+                .setBoundsInScreen(bounds)
+                .setVisibleToUser(true)
+                .setEnabled(true)
+                .build();
+    }
+
+    private void buildFocusParkingView(@NonNull AccessibilityWindowInfo window,
+            @NonNull AccessibilityNodeInfo parent) {
+        newNode(window, parent)
+                .setClassName(FOCUS_PARKING_VIEW_CLASS_NAME)
+                .setBoundsInScreen(new Rect(0, 0, 1, 1))
+                .setFocusable(true)
+                .setVisibleToUser(true)
+                .setEnabled(true)
+                .build();
+    }
+
+    private AccessibilityNodeInfo buildButton(@NonNull AccessibilityWindowInfo window,
+            @NonNull AccessibilityNodeInfo parent, @NonNull Rect bounds) {
+        return newNode(window, parent)
+                .setBoundsInScreen(bounds)
+                .setFocusable(true)
+                .setVisibleToUser(true)
+                .setEnabled(true)
+                .build();
+    }
+
+    private void buildButtonRow(@NonNull AccessibilityWindowInfo window,
+            @NonNull AccessibilityNodeInfo parent, @NonNull Rect bounds, int count) {
+        int width = bounds.width() / count;
+        for (int i = 0; i < count; i++) {
+            buildButton(window, parent, new Rect(bounds.left + i * width, bounds.top,
+                    bounds.left + (i + 1) * width, bounds.bottom));
+        }
+    }
+
+    /**
+     * Returns a builder for a stub-only node in the given window. Each parent has its own list of
+     * children, so that finding a child doesn't mean scanning the whole tree.
+     */
+    private NodeBuilder newNode(@NonNull AccessibilityWindowInfo window,
+            @Nullable AccessibilityNodeInfo parent) {
+        mNodeCount++;
+        NodeBuilder builder = new NodeBuilder()
+                .setWindow(window)
+                .setStubOnly(true);
+        if (parent != null) {
+            builder.setParent(parent)
+                    .setNodeList(mChildren.computeIfAbsent(parent, key -> new ArrayList<>()));
+        }
+        return builder;
+    }
+
+    /**
+     * Mocks {@link AccessibilityNodeInfo#focusSearch} for the focusable nodes and focus areas in
+     * the tree rooted at {@code root}.
+     */
+    private void linkFocusSearch(@NonNull AccessibilityNodeInfo root) {
+        List<AccessibilityNodeInfo> focusables = new ArrayList<>();
+        List<AccessibilityNodeInfo> focusAreas = new ArrayList<>();
+        List<Integer> firstFocusableInFocusArea = new ArrayList<>();
+        collect(root, focusables, focusAreas, firstFocusableInFocusArea);
+        for (int i = 0; i < focusables.size(); i++) {
+            AccessibilityNodeInfo node = focusables.get(i);
+            when(node.focusSearch(View.FOCUS_FORWARD))
+                    .thenReturn(i + 1 < focusables.size() ? focusables.get(i + 1) : null);
+            when(node.focusSearch(View.FOCUS_BACKWARD))
+                    .thenReturn(i > 0 ? focusables.get(i - 1) : null);
+        }
+        for (int i = 0; i < focusAreas.size(); i++) {
+            int first = firstFocusableInFocusArea.get(i);
+            when(focusAreas.get(i).focusSearch(View.FOCUS_FORWARD))
+                    .thenReturn(first < focusables.size() ? focusables.get(first) : null);
+        }
+    }
+
+    /** Collects the focusable nodes and focus areas in depth-first order. */
+    private void collect(@NonNull AccessibilityNodeInfo node,
+            @NonNull List<AccessibilityNodeInfo> focusables,
+            @NonNull List<AccessibilityNodeInfo> focusAreas,
+            @NonNull List<Integer> firstFocusableInFocusArea) {
+        if (Utils.isFocusArea(node)) {
+            focusAreas.add(node);
+            firstFocusableInFocusArea.add(focusables.size());
+        }
+        if (node.isFocusable()) {
+            focusables.add(node);
+        }
+        List<AccessibilityNodeInfo> children = mChildren.get(node);
+        if (children != null) {
+            for (AccessibilityNodeInfo child : children) {
+                collect(child, focusables, focusAreas, firstFocusableInFocusArea);
+            }
+        }
+    }
+}
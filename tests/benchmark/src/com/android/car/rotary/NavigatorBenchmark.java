@@ -0,0 +1,207 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.car.rotary;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.AdditionalAnswers.returnsFirstArg;
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.withSettings;
+
+import android.graphics.Rect;
+import android.util.Log;
+import android.view.View;
+import android.view.accessibility.AccessibilityNodeInfo;
+import android.view.accessibility.AccessibilityWindowInfo;
+
+import androidx.annotation.NonNull;
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+import androidx.test.filters.LargeTest;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Benchmarks for the main {@link Navigator} operations, run over large mock trees built by {@link
+ * LargeTreeBuilder}.
+ * <p>
+ * Each iteration makes one call from a pseudo-random source button. The operations are run in two
+ * configurations: "cold", with every window invalidated before each call as after a layout
+ * change, and "warm", with the Navigator's caches staying valid between calls. Besides the time
+ * and allocations per call, the average number of binder calls per call (i.e., nodes fetched from
+ * the app) is logged. Timings with mock nodes don't include the binder calls themselves, but the
+ * binder call counts predict their cost on real trees.
+ */
+@LargeTest
+@RunWith(Parameterized.class)
+public class NavigatorBenchmark {
+
+    private static final String TAG = "NavigatorBenchmark";
+
+    private static final int[] NODE_COUNTS = {1000, 5000, 10000, 50000};
+
+    private static final String COLD = "cold";
+    private static final String WARM = "warm";
+
+    private static final int[] NUDGE_DIRECTIONS =
+            {View.FOCUS_UP, View.FOCUS_DOWN, View.FOCUS_LEFT, View.FOCUS_RIGHT};
+
+    /** The number of precomputed source buttons. Must be a power of two. */
+    private static final int SOURCE_COUNT = 1024;
+
+    @Rule
+    public BenchmarkRule mBenchmarkRule = new BenchmarkRule();
+
+    private final String mConfig;
+    private final int mNodeCount;
+
+    private final Rect mHunWindowBounds = new Rect(50, 10, 950, 200);
+    private final AccessibilityNodeInfo[] mSources = new AccessibilityNodeInfo[SOURCE_COUNT];
+
+    private LargeTreeBuilder mTree;
+    private Navigator mNavigator;
+
+    /** The number of calls made, to compute the binder calls per call. */
+    private int mCallCount;
+
+    @Parameterized.Parameters(name = "{0}_{1}")
+    public static List<Object[]> getParameters() {
+        List<Object[]> parameters = new ArrayList<>();
+        for (String config : new String[]{COLD, WARM}) {
+            for (int nodeCount : NODE_COUNTS) {
+                parameters.add(new Object[]{config, nodeCount});
+            }
+        }
+        return parameters;
+    }
+
+    public NavigatorBenchmark(String config, int nodeCount) {
+        mConfig = config;
+        mNodeCount = nodeCount;
+    }
+
+    @Before
+    public void setUp() {
+        mTree = new LargeTreeBuilder().build(mNodeCount, mHunWindowBounds);
+        mNavigator = createNavigator();
+        List<AccessibilityNodeInfo> buttons = mTree.getAppButtons();
+        Random random = new Random(/* seed= */ 1);
+        for (int i = 0; i < SOURCE_COUNT; i++) {
+            mSources[i] = buttons.get(random.nextInt(buttons.size()));
+        }
+        IpcTracker.reset();
+    }
+
+    @After
+    public void tearDown() {
+        long binderCalls = 0;
+        for (int op = IpcTracker.OP_GET_CHILD; op <= IpcTracker.OP_GET_SOURCE; op++) {
+            binderCalls += IpcTracker.getCount(IpcTracker.EVENT_NONE, op);
+        }
+        Log.i(TAG, String.format("config=%s nodes=%d binderCallsPerCall=%.1f", mConfig,
+                mTree.getNodeCount(), mCallCount == 0 ? 0f : (float) binderCalls / mCallCount));
+    }
+
+    @Test
+    public void findNudgeTarget() {
+        BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            AccessibilityNodeInfo source = prepareCall(state);
+            int direction = NUDGE_DIRECTIONS[mCallCount & 3];
+            mNavigator.findNudgeTarget(mTree.getWindows(), source, direction);
+        }
+    }
+
+    @Test
+    public void findRotateTarget() {
+        BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            AccessibilityNodeInfo source = prepareCall(state);
+            int direction = (mCallCount & 1) == 0 ? View.FOCUS_FORWARD : View.FOCUS_BACKWARD;
+            Navigator.FindRotateTargetResult result = mNavigator.findRotateTarget(source,
+                    /* skipNode= */ null, direction, /* rotationCount= */ 1);
+            assertThat(result).isNotNull();
+        }
+    }
+
+    @Test
+    public void findFirstFocusDescendant() {
+        BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            prepareCall(state);
+            assertThat(mNavigator.findFirstFocusDescendant(mTree.getAppRoot())).isNotNull();
+        }
+    }
+
+    @Test
+    public void findFocusParkingView() {
+        BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            prepareCall(state);
+            assertThat(mNavigator.findFocusParkingView(mTree.getAppWindow())).isNotNull();
+        }
+    }
+
+    /**
+     * Counts the call about to be made and returns its source. In the cold configuration, every
+     * window is invalidated first, outside the timed section.
+     */
+    @NonNull
+    private AccessibilityNodeInfo prepareCall(@NonNull BenchmarkState state) {
+        if (COLD.equals(mConfig)) {
+            state.pauseTiming();
+            for (AccessibilityWindowInfo window : mTree.getWindows()) {
+                mNavigator.invalidateWindow(window.getId());
+            }
+            state.resumeTiming();
+        }
+        return mSources[mCallCount++ & (SOURCE_COUNT - 1)];
+    }
+
+    @NonNull
+    private Navigator createNavigator() {
+        Navigator navigator = new Navigator(
+                /* focusHistoryCacheType= */ RotaryCache.CACHE_TYPE_NEVER_EXPIRE,
+                /* focusHistoryCacheSize= */ 10,
+                /* focusHistoryExpirationTimeMs= */ 0,
+                /* focusAreaHistoryCacheType= */ RotaryCache.CACHE_TYPE_NEVER_EXPIRE,
+                /* focusAreaHistoryCacheSize= */ 5,
+                /* focusAreaHistoryExpirationTimeMs= */ 0,
+                /* focusWindowCacheType= */ RotaryCache.CACHE_TYPE_NEVER_EXPIRE,
+                /* focusWindowCacheSize= */ 5,
+                /* focusWindowExpirationTimeMs= */ 0,
+                mHunWindowBounds.left,
+                mHunWindowBounds.right,
+                /* showHunOnBottom= */ false);
+        // Copies of mock nodes are the nodes themselves. The copier is called very often, so it
+        // mustn't record its invocations.
+        NodeCopier nodeCopier = mock(NodeCopier.class, withSettings().stubOnly());
+        doAnswer(returnsFirstArg()).when(nodeCopier).copy(any(AccessibilityNodeInfo.class));
+        navigator.setNodeCopier(nodeCopier);
+        return navigator;
+    }
+}
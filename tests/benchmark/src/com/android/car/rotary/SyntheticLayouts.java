@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.car.rotary;
+
+import android.graphics.Rect;
+
+import androidx.annotation.NonNull;
+
+import java.util.Random;
+
+/** Generates the bounds of the views in typical car UI layouts, for benchmarking. */
+final class SyntheticLayouts {
+
+    /** A square grid of 100x100 icons, like a launcher. */
+    static final String GRID = "grid";
+
+    /** A single column of full-width rows, like a settings list. */
+    static final String LIST = "list";
+
+    /**
+     * A stack of heads-up notification cards, each overlapping the previous one, with a row of
+     * action buttons on each card.
+     */
+    static final String HUN_CARDS = "hunCards";
+
+    static final String[] ALL = {GRID, LIST, HUN_CARDS};
+
+    private static final int GAP = 10;
+    private static final int ICON_SIZE = 100;
+    private static final int ROW_WIDTH = 1000;
+    private static final int ROW_HEIGHT = 80;
+    private static final int CARD_WIDTH = 600;
+    private static final int CARD_HEIGHT = 200;
+    private static final int CARD_OFFSET = 20;
+    private static final int BUTTONS_PER_CARD = 3;
+
+    private SyntheticLayouts() {
+    }
+
+    /** Returns the bounds of {@code count} views laid out as {@code layout}. */
+    @NonNull
+    static Rect[] build(@NonNull String layout, int count) {
+        Rect[] rects = new Rect[count];
+        switch (layout) {
+            case GRID:
+                int columns = (int) Math.ceil(Math.sqrt(count));
+                for (int i = 0; i < count; i++) {
+                    int left = (i % columns) * (ICON_SIZE + GAP);
+                    int top = (i / columns) * (ICON_SIZE + GAP);
+                    rects[i] = new Rect(left, top, left + ICON_SIZE, top + ICON_SIZE);
+                }
+                break;
+            case LIST:
+                for (int i = 0; i < count; i++) {
+                    int top = i * (ROW_HEIGHT + GAP);
+                    rects[i] = new Rect(0, top, ROW_WIDTH, top + ROW_HEIGHT);
+                }
+                break;
+            case HUN_CARDS:
+                // The cards are jittered so that their edges rarely line up exactly.
+                Random random = new Random(/* seed= */ 1);
+                int card = 0;
+                for (int i = 0; i < count; card++) {
+                    int left = card * CARD_OFFSET + random.nextInt(GAP);
+                    int top = card * CARD_OFFSET + random.nextInt(GAP);
+                    rects[i++] = new Rect(left, top, left + CARD_WIDTH, top + CARD_HEIGHT);
+                    int buttonWidth = CARD_WIDTH / BUTTONS_PER_CARD;
+                    for (int button = 0; button < BUTTONS_PER_CARD && i < count; button++) {
+                        int buttonLeft = left + button * buttonWidth;
+                        int buttonTop = top + CARD_HEIGHT - ROW_HEIGHT;
+                        rects[i++] = new Rect(buttonLeft, buttonTop, buttonLeft + buttonWidth,
+                                top + CARD_HEIGHT);
+                    }
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown layout " + layout);
+        }
+        return rects;
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.car.rotary;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.AdditionalAnswers.returnsFirstArg;
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+import android.view.View;
+import android.view.accessibility.AccessibilityNodeInfo;
+import android.view.accessibility.AccessibilityWindowInfo;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+@RunWith(RobolectricTestRunner.class)
+public class FailedNudgeCacheTest {
+
+    private final LayoutGenerations mLayoutGenerations = new LayoutGenerations();
+    private final FailedNudgeCache mFailedNudgeCache = new FailedNudgeCache(mLayoutGenerations);
+
+    private AccessibilityWindowInfo mLeftWindow;
+    private AccessibilityWindowInfo mRightWindow;
+    private List<AccessibilityWindowInfo> mWindows;
+    private AccessibilityNodeInfo mFocusArea;
+    private AccessibilityNodeInfo mSourceNode;
+
+    @Before
+    public void setUp() {
+        // Copies of mock nodes are the nodes themselves.
+        NodeCopier nodeCopier = mock(NodeCopier.class);
+        doAnswer(returnsFirstArg()).when(nodeCopier).copy(any(AccessibilityNodeInfo.class));
+        mFailedNudgeCache.setNodeCopier(nodeCopier);
+
+        mLeftWindow = new WindowBuilder().build();
+        mRightWindow = new WindowBuilder().build();
+        mWindows = Arrays.asList(mLeftWindow, mRightWindow);
+        mFocusArea = new NodeBuilder().setWindow(mLeftWindow).build();
+        mSourceNode = new NodeBuilder().setWindow(mLeftWindow).setParent(mFocusArea).build();
+    }
+
+    @Test
+    public void testContainsSavedFailure() {
+        putFailure();
+
+        assertThat(mFailedNudgeCache.contains(mFocusArea, mSourceNode, View.FOCUS_LEFT, mWindows))
+                .isTrue();
+        assertThat(mFailedNudgeCache.contains(mFocusArea, mSourceNode, View.FOCUS_UP, mWindows))
+                .isFalse();
+    }
+
+    @Test
+    public void testOtherSourceNodeIsNotContained() {
+        putFailure();
+
+        AccessibilityNodeInfo otherNode =
+                new NodeBuilder().setWindow(mLeftWindow).setParent(mFocusArea).build();
+
+        assertThat(mFailedNudgeCache.contains(mFocusArea, otherNode, View.FOCUS_LEFT, mWindows))
+                .isFalse();
+    }
+
+    @Test
+    public void testInvalidatingAnyWindowForgetsFailure() {
+        putFailure();
+
+        mLayoutGenerations.advance(mRightWindow.getId());
+
+        assertThat(mFailedNudgeCache.contains(mFocusArea, mSourceNode, View.FOCUS_LEFT, mWindows))
+                .isFalse();
+    }
+
+    @Test
+    public void testInvalidatingWindowDuringSearchForgetsFailure() {
+        LayoutGenerations.Stamp stamp = mLayoutGenerations.stamp(mWindows);
+        mLayoutGenerations.advance(mLeftWindow.getId());
+        mFailedNudgeCache.put(mFocusArea, mSourceNode, View.FOCUS_LEFT, stamp);
+
+        assertThat(mFailedNudgeCache.contains(mFocusArea, mSourceNode, View.FOCUS_LEFT, mWindows))
+                .isFalse();
+    }
+
+    @Test
+    public void testInvalidatingWindowNotOnScreenKeepsFailure() {
+        putFailure();
+
+        mLayoutGenerations.advance(mRightWindow.getId() + 100);
+
+        assertThat(mFailedNudgeCache.contains(mFocusArea, mSourceNode, View.FOCUS_LEFT, mWindows))
+                .isTrue();
+    }
+
+    @Test
+    public void testNewWindowForgetsFailure() {
+        putFailure();
+
+        List<AccessibilityWindowInfo> windows = new ArrayList<>(mWindows);
+        windows.add(new WindowBuilder().build());
+
+        assertThat(mFailedNudgeCache.contains(mFocusArea, mSourceNode, View.FOCUS_LEFT, windows))
+                .isFalse();
+    }
+
+    @Test
+    public void testClearForgetsFailure() {
+        putFailure();
+
+        mFailedNudgeCache.clear();
+
+        assertThat(mFailedNudgeCache.contains(mFocusArea, mSourceNode, View.FOCUS_LEFT, mWindows))
+                .isFalse();
+    }
+
+    private void putFailure() {
+        mFailedNudgeCache.put(mFocusArea, mSourceNode, View.FOCUS_LEFT,
+                mLayoutGenerations.stamp(mWindows));
+    }
+}
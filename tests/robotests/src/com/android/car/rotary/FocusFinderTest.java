@@ -24,6 +24,8 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.robolectric.RobolectricTestRunner;
 
+import java.util.Random;
+
 /** Most of the tests are copied from {@link android.view.FocusFinderTest}. */
 @RunWith(RobolectricTestRunner.class)
 public class FocusFinderTest extends AndroidTestCase {
@@ -42,6 +44,36 @@ public class FocusFinderTest extends AndroidTestCase {
                 new Rect(50, 0, 60, 101));
     }
 
+    @Test
+    public void testMayContainCandidate() {
+        final Rect src = new Rect(100, 100, 200, 200);
+        final Rect container = new Rect(100, 0, 300, 300);
+
+        assertFalse(FocusFinder.mayContainCandidate(src, container, View.FOCUS_LEFT));
+        assertTrue(FocusFinder.mayContainCandidate(src, container, View.FOCUS_RIGHT));
+        assertTrue(FocusFinder.mayContainCandidate(src, container, View.FOCUS_UP));
+        assertTrue(FocusFinder.mayContainCandidate(src, container, View.FOCUS_DOWN));
+    }
+
+    @Test
+    public void testMayContainCandidateIsConsistentWithIsCandidate() {
+        final int[] directions =
+                {View.FOCUS_LEFT, View.FOCUS_RIGHT, View.FOCUS_UP, View.FOCUS_DOWN};
+        Random random = new Random(/* seed= */ 1);
+        for (int i = 0; i < 10000; i++) {
+            Rect src = randomRect(random, new Rect(0, 0, 100, 100));
+            Rect container = randomRect(random, new Rect(0, 0, 100, 100));
+            Rect dest = randomRect(random, container);
+            for (int direction : directions) {
+                if (FocusFinder.isCandidate(src, dest, direction)) {
+                    assertTrue("container " + container + " holds candidate " + dest + " from "
+                                    + src + " in direction " + validateAndGetStringFor(direction),
+                            FocusFinder.mayContainCandidate(src, container, direction));
+                }
+            }
+        }
+    }
+
     @Test
     public void testBelowNotCandidateForDirectionUp() {
         assertIsNotCandidate(View.FOCUS_UP,
@@ -488,6 +520,15 @@ public class FocusFinderTest extends AndroidTestCase {
                 new Rect(0, 0, 1, 20));  // candidate
     }
 
+    /** Returns a random rectangle, possibly empty, inside {@code bounds}. */
+    private static Rect randomRect(Random random, Rect bounds) {
+        int left = bounds.left + random.nextInt(bounds.width() + 1);
+        int top = bounds.top + random.nextInt(bounds.height() + 1);
+        int right = left + random.nextInt(bounds.right - left + 1);
+        int bottom = top + random.nextInt(bounds.bottom - top + 1);
+        return new Rect(left, top, right, bottom);
+    }
+
     private void assertIsPartiallyInDirection(int direction, Rect src, Rect dest) {
         String directionStr = validateAndGetStringFor(direction);
         final String assertMsg = String.format(
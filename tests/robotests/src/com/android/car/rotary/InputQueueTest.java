@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.car.rotary;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.junit.Assert.assertThrows;
+
+import android.view.View;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+@RunWith(RobolectricTestRunner.class)
+public class InputQueueTest {
+
+    @Test
+    public void testMergePolicySumsConsecutiveRotations() {
+        InputQueue queue = new InputQueue(/* capacity= */ 8, InputQueue.COLLAPSE_POLICY_MERGE);
+        queue.addRotation(/* clockwise= */ true, /* count= */ 2, /* inputTime= */ 100,
+                /* uptime= */ 105);
+        queue.addRotation(/* clockwise= */ true, /* count= */ 3, /* inputTime= */ 110,
+                /* uptime= */ 115);
+        queue.addRotation(/* clockwise= */ false, /* count= */ 1, /* inputTime= */ 120,
+                /* uptime= */ 125);
+
+        InputQueue.Input input = queue.poll(/* uptime= */ 205);
+
+        assertThat(input.mType).isEqualTo(InputQueue.Input.TYPE_ROTATION);
+        assertThat(input.isClockwise()).isTrue();
+        assertThat(input.getCount()).isEqualTo(4);
+        assertThat(input.mInputTime).isEqualTo(100);
+        assertThat(queue.isEmpty()).isTrue();
+        assertThat(queue.getCollapsedCount()).isEqualTo(2);
+        assertThat(queue.getAverageDelayMs()).isEqualTo(100);
+    }
+
+    @Test
+    public void testMergePolicyDropsRotationsThatCancelOut() {
+        InputQueue queue = new InputQueue(/* capacity= */ 8, InputQueue.COLLAPSE_POLICY_MERGE);
+        queue.addRotation(/* clockwise= */ true, /* count= */ 2, /* inputTime= */ 100,
+                /* uptime= */ 100);
+        queue.addRotation(/* clockwise= */ false, /* count= */ 2, /* inputTime= */ 110,
+                /* uptime= */ 110);
+
+        assertThat(queue.isEmpty()).isTrue();
+    }
+
+    @Test
+    public void testMergePolicyKeepsLatestNudgeDirection() {
+        InputQueue queue = new InputQueue(/* capacity= */ 8, InputQueue.COLLAPSE_POLICY_MERGE);
+        queue.addNudge(View.FOCUS_LEFT, /* inputTime= */ 100, /* uptime= */ 100);
+        queue.addNudge(View.FOCUS_UP, /* inputTime= */ 110, /* uptime= */ 110);
+        queue.addRotation(/* clockwise= */ true, /* count= */ 1, /* inputTime= */ 120,
+                /* uptime= */ 120);
+        queue.addNudge(View.FOCUS_RIGHT, /* inputTime= */ 130, /* uptime= */ 130);
+
+        InputQueue.Input nudge = queue.poll(/* uptime= */ 200);
+        assertThat(nudge.mType).isEqualTo(InputQueue.Input.TYPE_NUDGE);
+        assertThat(nudge.getDirection()).isEqualTo(View.FOCUS_UP);
+        assertThat(nudge.mInputTime).isEqualTo(100);
+
+        // Inputs of different types aren't collapsed, so the order is kept.
+        assertThat(queue.poll(/* uptime= */ 200).mType)
+                .isEqualTo(InputQueue.Input.TYPE_ROTATION);
+        assertThat(queue.poll(/* uptime= */ 200).getDirection()).isEqualTo(View.FOCUS_RIGHT);
+        assertThat(queue.poll(/* uptime= */ 200)).isNull();
+    }
+
+    @Test
+    public void testNonePolicyKeepsEveryInput() {
+        InputQueue queue = new InputQueue(/* capacity= */ 8, InputQueue.COLLAPSE_POLICY_NONE);
+        queue.addRotation(/* clockwise= */ true, /* count= */ 1, /* inputTime= */ 100,
+                /* uptime= */ 100);
+        queue.addRotation(/* clockwise= */ true, /* count= */ 1, /* inputTime= */ 110,
+                /* uptime= */ 110);
+        queue.addNudge(View.FOCUS_LEFT, /* inputTime= */ 120, /* uptime= */ 120);
+        queue.addNudge(View.FOCUS_UP, /* inputTime= */ 130, /* uptime= */ 130);
+
+        assertThat(queue.poll(/* uptime= */ 140).getCount()).isEqualTo(1);
+        assertThat(queue.poll(/* uptime= */ 140).getCount()).isEqualTo(1);
+        assertThat(queue.poll(/* uptime= */ 140).getDirection()).isEqualTo(View.FOCUS_LEFT);
+        assertThat(queue.poll(/* uptime= */ 140).getDirection()).isEqualTo(View.FOCUS_UP);
+        assertThat(queue.getCollapsedCount()).isEqualTo(0);
+        assertThat(queue.getMaxDelayMs()).isEqualTo(40);
+    }
+
+    @Test
+    public void testFullQueueDropsOldestInput() {
+        InputQueue queue = new InputQueue(/* capacity= */ 2, InputQueue.COLLAPSE_POLICY_NONE);
+        queue.addNudge(View.FOCUS_LEFT, /* inputTime= */ 100, /* uptime= */ 100);
+        queue.addNudge(View.FOCUS_UP, /* inputTime= */ 110, /* uptime= */ 110);
+        queue.addNudge(View.FOCUS_RIGHT, /* inputTime= */ 120, /* uptime= */ 120);
+
+        assertThat(queue.getDroppedCount()).isEqualTo(1);
+        assertThat(queue.poll(/* uptime= */ 130).getDirection()).isEqualTo(View.FOCUS_UP);
+        assertThat(queue.poll(/* uptime= */ 130).getDirection()).isEqualTo(View.FOCUS_RIGHT);
+    }
+
+    @Test
+    public void testInvalidCapacity() {
+        assertThrows(IllegalArgumentException.class,
+                () -> new InputQueue(/* capacity= */ 0, InputQueue.COLLAPSE_POLICY_MERGE));
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.car.rotary;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.graphics.Rect;
+import android.view.accessibility.AccessibilityNodeInfo;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+@RunWith(RobolectricTestRunner.class)
+public class IpcTrackerTest {
+
+    @Before
+    public void setUp() {
+        IpcTracker.reset();
+    }
+
+    @Test
+    public void testCallsAttributedToOutermostEvent() {
+        IpcTracker.record(IpcTracker.OP_GET_CHILD);
+
+        IpcTracker.beginEvent(IpcTracker.EVENT_NUDGE);
+        IpcTracker.record(IpcTracker.OP_FOCUS_SEARCH);
+        IpcTracker.beginEvent(IpcTracker.EVENT_ACCESSIBILITY);
+        IpcTracker.record(IpcTracker.OP_FOCUS_SEARCH);
+        IpcTracker.endEvent();
+        IpcTracker.endEvent();
+
+        assertThat(IpcTracker.getCount(IpcTracker.EVENT_NONE, IpcTracker.OP_GET_CHILD))
+                .isEqualTo(1);
+        assertThat(IpcTracker.getCount(IpcTracker.EVENT_NUDGE, IpcTracker.OP_FOCUS_SEARCH))
+                .isEqualTo(2);
+        assertThat(IpcTracker.getCount(IpcTracker.EVENT_ACCESSIBILITY,
+                IpcTracker.OP_FOCUS_SEARCH)).isEqualTo(0);
+        assertThat(IpcTracker.getEventCount(IpcTracker.EVENT_NUDGE)).isEqualTo(1);
+        assertThat(IpcTracker.getEventCount(IpcTracker.EVENT_ACCESSIBILITY)).isEqualTo(0);
+    }
+
+    @Test
+    public void testEventsAreTrackedPerThread() throws InterruptedException {
+        IpcTracker.beginEvent(IpcTracker.EVENT_ROTATE);
+        Thread worker = new Thread(() -> {
+            IpcTracker.record(IpcTracker.OP_GET_CHILD);
+            IpcTracker.resumeEvent(IpcTracker.EVENT_NUDGE);
+            IpcTracker.record(IpcTracker.OP_FOCUS_SEARCH);
+            IpcTracker.endEvent();
+        });
+        worker.start();
+        worker.join();
+        IpcTracker.endEvent();
+
+        assertThat(IpcTracker.getCount(IpcTracker.EVENT_NONE, IpcTracker.OP_GET_CHILD))
+                .isEqualTo(1);
+        assertThat(IpcTracker.getCount(IpcTracker.EVENT_ROTATE, IpcTracker.OP_GET_CHILD))
+                .isEqualTo(0);
+        assertThat(IpcTracker.getCount(IpcTracker.EVENT_NUDGE, IpcTracker.OP_FOCUS_SEARCH))
+                .isEqualTo(1);
+        // The resumed event was begun elsewhere, so it isn't counted again.
+        assertThat(IpcTracker.getEventCount(IpcTracker.EVENT_NUDGE)).isEqualTo(0);
+        assertThat(IpcTracker.getEventCount(IpcTracker.EVENT_ROTATE)).isEqualTo(1);
+    }
+
+    @Test
+    public void testDumpAddsUpThreads() throws InterruptedException {
+        IpcTracker.record(IpcTracker.OP_GET_SOURCE);
+        Thread worker = new Thread(() -> IpcTracker.record(IpcTracker.OP_GET_SOURCE));
+        worker.start();
+        worker.join();
+        IpcTracker.record(IpcTracker.OP_GET_SOURCE);
+
+        StringWriter stringWriter = new StringWriter();
+        IpcTracker.dump(/* prefix= */ "", new PrintWriter(stringWriter));
+        assertThat(stringWriter.toString()).contains("none: getSource=3 total=3");
+        assertThat(IpcTracker.getCount(IpcTracker.EVENT_NONE, IpcTracker.OP_GET_SOURCE))
+                .isEqualTo(3);
+    }
+
+    @Test
+    public void testTraversalRecordsGetChild() {
+        List<AccessibilityNodeInfo> nodeList = new ArrayList<>();
+        AccessibilityNodeInfo root = new NodeBuilder()
+                .setNodeList(nodeList)
+                .setBoundsInScreen(new Rect(0, 0, 100, 100))
+                .build();
+        for (int i = 0; i < 3; i++) {
+            new NodeBuilder()
+                    .setNodeList(nodeList)
+                    .setParent(root)
+                    .setBoundsInScreen(new Rect(0, 0, 10, 10))
+                    .build();
+        }
+
+        IpcTracker.beginEvent(IpcTracker.EVENT_ROTATE);
+        new TreeTraverser().depthFirstSearch(root, /* targetPredicate= */ node -> false);
+        IpcTracker.endEvent();
+
+        assertThat(IpcTracker.getCount(IpcTracker.EVENT_ROTATE, IpcTracker.OP_GET_CHILD))
+                .isEqualTo(3);
+    }
+
+    @Test
+    public void testDump() {
+        IpcTracker.beginEvent(IpcTracker.EVENT_ROTATE);
+        IpcTracker.record(IpcTracker.OP_FOCUS_SEARCH);
+        IpcTracker.record(IpcTracker.OP_PERFORM_ACTION);
+        IpcTracker.endEvent();
+
+        StringWriter stringWriter = new StringWriter();
+        IpcTracker.dump(/* prefix= */ "", new PrintWriter(stringWriter));
+        String dump = stringWriter.toString();
+        assertThat(dump).contains("rotate: events=1");
+        assertThat(dump).contains("focusSearch=1 performAction=1 total=2 avgCallsPerEvent=2.0");
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.car.rotary;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.AdditionalAnswers.returnsFirstArg;
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.when;
+
+import android.view.accessibility.AccessibilityNodeInfo;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+@RunWith(RobolectricTestRunner.class)
+public class LatencyTracerTest {
+
+    private static final String APP = "com.example.app";
+
+    private final LatencyTracer mLatencyTracer = new LatencyTracer();
+
+    private AccessibilityNodeInfo mButton1;
+    private AccessibilityNodeInfo mButton2;
+
+    @Mock
+    private NodeCopier mNodeCopier;
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        doAnswer(returnsFirstArg()).when(mNodeCopier).copy(any(AccessibilityNodeInfo.class));
+        mLatencyTracer.setNodeCopier(mNodeCopier);
+
+        mButton1 = new NodeBuilder().build();
+        mButton2 = new NodeBuilder().build();
+        when(mButton1.getPackageName()).thenReturn(APP);
+        when(mButton2.getPackageName()).thenReturn(APP);
+    }
+
+    @Test
+    public void testStagesAreRecordedPerApp() {
+        mLatencyTracer.onInputHandled(/* inputTime= */ 1000, /* handleTime= */ 1005);
+        mLatencyTracer.onFocusRequested(mButton1, /* time= */ 1015);
+        // Focus changes of other nodes don't finish the trace.
+        mLatencyTracer.onViewFocused(mButton2, /* time= */ 1020);
+        assertThat(mLatencyTracer.getCount(APP)).isEqualTo(0);
+        mLatencyTracer.onViewFocused(mButton1, /* time= */ 1075);
+
+        assertThat(mLatencyTracer.getCount(APP)).isEqualTo(1);
+        String dump = dump();
+        assertThat(dump).contains(APP + ": count=1 overBudget=1 avgQueueMs=5.0 avgSearchMs=10.0 "
+                + "avgAppMs=60.0");
+        assertThat(dump).contains("<100ms=1");
+        assertThat(dump).contains("abandoned=0");
+    }
+
+    @Test
+    public void testFocusChangesNotCausedByInputAreIgnored() {
+        mLatencyTracer.onFocusRequested(mButton1, /* time= */ 1000);
+        mLatencyTracer.onViewFocused(mButton1, /* time= */ 1010);
+
+        assertThat(mLatencyTracer.getCount(APP)).isEqualTo(0);
+    }
+
+    @Test
+    public void testNewInputAbandonsUnfinishedTrace() {
+        mLatencyTracer.onInputHandled(/* inputTime= */ 1000, /* handleTime= */ 1001);
+        mLatencyTracer.onFocusRequested(mButton1, /* time= */ 1002);
+        mLatencyTracer.onInputHandled(/* inputTime= */ 1010, /* handleTime= */ 1011);
+        mLatencyTracer.onFocusRequested(mButton2, /* time= */ 1012);
+        mLatencyTracer.onViewFocused(mButton1, /* time= */ 1013);
+        mLatencyTracer.onViewFocused(mButton2, /* time= */ 1020);
+
+        assertThat(mLatencyTracer.getCount(APP)).isEqualTo(1);
+        String dump = dump();
+        assertThat(dump).contains("<20ms=1");
+        assertThat(dump).contains("abandoned=1");
+    }
+
+    @Test
+    public void testInputThatDoesNotMoveFocusExpires() {
+        mLatencyTracer.onInputHandled(/* inputTime= */ 1000, /* handleTime= */ 1001);
+        mLatencyTracer.onFocusRequested(mButton1, 1001 + LatencyTracer.MAX_TRACE_MS);
+        mLatencyTracer.onViewFocused(mButton1, 1002 + LatencyTracer.MAX_TRACE_MS);
+
+        assertThat(mLatencyTracer.getCount(APP)).isEqualTo(0);
+    }
+
+    private String dump() {
+        StringWriter writer = new StringWriter();
+        mLatencyTracer.dump(/* prefix= */ "", new PrintWriter(writer));
+        return writer.toString();
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.car.rotary;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.view.accessibility.AccessibilityWindowInfo;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+@RunWith(RobolectricTestRunner.class)
+public class LayoutGenerationsTest {
+
+    private final LayoutGenerations mLayoutGenerations = new LayoutGenerations();
+
+    private AccessibilityWindowInfo mLeftWindow;
+    private AccessibilityWindowInfo mRightWindow;
+    private List<AccessibilityWindowInfo> mWindows;
+
+    @Before
+    public void setUp() {
+        mLeftWindow = new WindowBuilder().build();
+        mRightWindow = new WindowBuilder().build();
+        mWindows = Arrays.asList(mLeftWindow, mRightWindow);
+    }
+
+    @Test
+    public void testAdvance() {
+        assertThat(mLayoutGenerations.get(mLeftWindow.getId())).isEqualTo(0);
+
+        mLayoutGenerations.advance(mLeftWindow.getId());
+
+        assertThat(mLayoutGenerations.get(mLeftWindow.getId())).isEqualTo(1);
+        assertThat(mLayoutGenerations.get(mRightWindow.getId())).isEqualTo(0);
+    }
+
+    @Test
+    public void testStampIsCurrentUntilStampedWindowAdvances() {
+        LayoutGenerations.Stamp stamp =
+                mLayoutGenerations.stamp(mWindows, new int[]{mLeftWindow.getId()});
+
+        mLayoutGenerations.advance(mRightWindow.getId());
+        assertThat(mLayoutGenerations.isCurrent(stamp, mWindows)).isTrue();
+
+        mLayoutGenerations.advance(mLeftWindow.getId());
+        assertThat(mLayoutGenerations.isCurrent(stamp, mWindows)).isFalse();
+    }
+
+    @Test
+    public void testStampIsNotCurrentForOtherWindows() {
+        LayoutGenerations.Stamp stamp = mLayoutGenerations.stamp(mWindows);
+
+        assertThat(mLayoutGenerations.isCurrent(stamp, Collections.singletonList(mLeftWindow)))
+                .isFalse();
+        assertThat(mLayoutGenerations.isCurrent(stamp, Arrays.asList(mRightWindow, mLeftWindow)))
+                .isFalse();
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.car.rotary;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.junit.Assert.assertThrows;
+import static org.mockito.Mockito.verify;
+
+import android.view.accessibility.AccessibilityNodeInfo;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+
+@RunWith(RobolectricTestRunner.class)
+public class NavigationPipelineTest {
+
+    private final Queue<Runnable> mWorkerQueue = new ArrayDeque<>();
+    private final Queue<Runnable> mMainQueue = new ArrayDeque<>();
+    private final NavigationPipeline mPipeline =
+            new NavigationPipeline(mWorkerQueue::add, mMainQueue::add);
+
+    private final List<String> mApplied = new ArrayList<>();
+    private final List<String> mDiscarded = new ArrayList<>();
+
+    @Test
+    public void testResultIsApplied() {
+        AccessibilityNodeInfo input = new NodeBuilder().build();
+        mPipeline.submit(() -> "target", mApplied::add, mDiscarded::add, input);
+
+        runAll(mWorkerQueue);
+        verify(input).recycle();
+        assertThat(mApplied).isEmpty();
+
+        runAll(mMainQueue);
+        assertThat(mApplied).containsExactly("target");
+        assertThat(mDiscarded).isEmpty();
+    }
+
+    @Test
+    public void testResultInvalidatedWhileSearchingIsDiscarded() {
+        mPipeline.submit(() -> "target", mApplied::add, mDiscarded::add);
+
+        runAll(mWorkerQueue);
+        mPipeline.invalidate();
+        runAll(mMainQueue);
+
+        assertThat(mApplied).isEmpty();
+        assertThat(mDiscarded).containsExactly("target");
+    }
+
+    @Test
+    public void testSupersededSearchIsSkipped() {
+        AccessibilityNodeInfo input = new NodeBuilder().build();
+        List<String> searched = new ArrayList<>();
+        mPipeline.submit(() -> {
+            searched.add("old");
+            return "old";
+        }, mApplied::add, mDiscarded::add, input);
+        mPipeline.invalidate();
+        mPipeline.submit(() -> {
+            searched.add("new");
+            return "new";
+        }, mApplied::add, mDiscarded::add);
+
+        runAll(mWorkerQueue);
+        runAll(mMainQueue);
+
+        assertThat(searched).containsExactly("new");
+        verify(input).recycle();
+        assertThat(mApplied).containsExactly("new");
+        // The skipped search had no result to discard.
+        assertThat(mDiscarded).isEmpty();
+
+        StringWriter dump = new StringWriter();
+        mPipeline.dump(/* prefix= */ "", new PrintWriter(dump));
+        assertThat(dump.toString()).contains("applied=1 discarded=1");
+    }
+
+    @Test
+    public void testNullResultIsApplied() {
+        List<String> results = new ArrayList<>();
+        mPipeline.<String>submit(() -> null, results::add, mDiscarded::add);
+
+        runAll(mWorkerQueue);
+        runAll(mMainQueue);
+
+        assertThat(results).hasSize(1);
+        assertThat(results.get(0)).isNull();
+        assertThat(mDiscarded).isEmpty();
+    }
+
+    @Test
+    public void testInputsAreRecycledWhenSearchFails() {
+        AccessibilityNodeInfo input = new NodeBuilder().build();
+        mPipeline.<String>submit(() -> {
+            throw new IllegalStateException("Search failed");
+        }, mApplied::add, mDiscarded::add, input);
+
+        assertThrows(IllegalStateException.class, () -> runAll(mWorkerQueue));
+
+        verify(input).recycle();
+    }
+
+    @Test
+    public void testSearchSubmittedAfterQuitIsNotRun() {
+        mPipeline.quit();
+        AccessibilityNodeInfo input = new NodeBuilder().build();
+        mPipeline.submit(() -> "target", mApplied::add, mDiscarded::add, input);
+
+        // The inputs are recycled at once, since no worker is left to do it.
+        verify(input).recycle();
+        assertThat(mWorkerQueue).isEmpty();
+        assertThat(mMainQueue).isEmpty();
+    }
+
+    @Test
+    public void testSearchCallsAreAttributedToSubmittingEvent() throws InterruptedException {
+        IpcTracker.reset();
+        IpcTracker.beginEvent(IpcTracker.EVENT_NUDGE);
+        mPipeline.submit(() -> {
+            IpcTracker.record(IpcTracker.OP_FOCUS_SEARCH);
+            return "target";
+        }, mApplied::add, mDiscarded::add);
+        IpcTracker.endEvent();
+
+        // The main thread has moved on to another event by the time the worker runs the search.
+        IpcTracker.beginEvent(IpcTracker.EVENT_ACCESSIBILITY);
+        Thread worker = new Thread(() -> runAll(mWorkerQueue));
+        worker.start();
+        worker.join();
+        IpcTracker.endEvent();
+
+        assertThat(IpcTracker.getCount(IpcTracker.EVENT_NUDGE, IpcTracker.OP_FOCUS_SEARCH))
+                .isEqualTo(1);
+        assertThat(IpcTracker.getCount(IpcTracker.EVENT_ACCESSIBILITY,
+                IpcTracker.OP_FOCUS_SEARCH)).isEqualTo(0);
+    }
+
+    private static void runAll(Queue<Runnable> queue) {
+        Runnable runnable;
+        while ((runnable = queue.poll()) != null) {
+            runnable.run();
+        }
+    }
+}
@@ -16,10 +16,16 @@
 package com.android.car.rotary;
 
 import static com.google.common.truth.Truth.assertThat;
+import static com.google.common.truth.Truth.assertWithMessage;
 
 import static org.mockito.AdditionalAnswers.returnsFirstArg;
 import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.anyInt;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.clearInvocations;
 import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import android.graphics.Rect;
@@ -28,6 +34,7 @@ import android.view.accessibility.AccessibilityNodeInfo;
 import android.view.accessibility.AccessibilityWindowInfo;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
 import com.android.car.rotary.Navigator.FindRotateTargetResult;
 import com.android.car.ui.FocusArea;
@@ -41,9 +48,15 @@ import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 import org.robolectric.RobolectricTestRunner;
 
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 @RunWith(RobolectricTestRunner.class)
 public class NavigatorTest {
@@ -156,6 +169,54 @@ public class NavigatorTest {
         assertThat(target.advancedCount).isEqualTo(1);
     }
 
+    /**
+     * Tests {@link Navigator#findRotateTarget} reusing the ancestor focus areas found for nodes in
+     * the following node tree:
+     * <pre>
+     *              root
+     *               |
+     *           focusArea
+     *            /     \
+     *          /         \
+     *      button1     button2
+     * </pre>
+     */
+    @Test
+    public void testFindRotateTargetReusesAncestorFocusAreas() {
+        AccessibilityNodeInfo root = new NodeBuilder().setNodeList(mNodeList).build();
+        AccessibilityNodeInfo focusArea = new NodeBuilder()
+                .setNodeList(mNodeList)
+                .setParent(root)
+                .setClassName(FOCUS_AREA_CLASS_NAME)
+                .build();
+        AccessibilityNodeInfo button1 = new NodeBuilder()
+                .setNodeList(mNodeList)
+                .setParent(focusArea)
+                .build();
+        AccessibilityNodeInfo button2 = new NodeBuilder()
+                .setNodeList(mNodeList)
+                .setParent(focusArea)
+                .build();
+
+        int direction = View.FOCUS_FORWARD;
+        when(button1.focusSearch(direction)).thenReturn(button2);
+
+        FindRotateTargetResult target = mNavigator.findRotateTarget(button1, null, direction, 1);
+        assertThat(target.node).isSameAs(button2);
+
+        // Rotating again shouldn't climb from button2 to find its focus area.
+        clearInvocations(button2);
+        target = mNavigator.findRotateTarget(button1, null, direction, 1);
+        assertThat(target.node).isSameAs(button2);
+        verify(button2, never()).getParent();
+
+        // Once the window's layout changes, the focus area should be found again.
+        mNavigator.invalidateWindow(button2.getWindowId());
+        target = mNavigator.findRotateTarget(button1, null, direction, 1);
+        assertThat(target.node).isSameAs(button2);
+        verify(button2).getParent();
+    }
+
     /**
      * Tests {@link Navigator#findRotateTarget} in the following node tree:
      * <pre>
@@ -336,6 +397,168 @@ public class NavigatorTest {
         target = mNavigator.findRotateTarget(button1, null, direction, 3);
         assertThat(target.node).isSameAs(button2);
         assertThat(target.advancedCount).isEqualTo(1);
+
+        // The focus order cache should stop at the edge of the scrollable container too.
+        mNavigator.setFocusOrderCacheEnabled(true);
+        target = mNavigator.findRotateTarget(button1, null, direction, 1);
+        assertThat(target.node).isSameAs(button2);
+        assertThat(target.advancedCount).isEqualTo(1);
+
+        target = mNavigator.findRotateTarget(button1, null, direction, 3);
+        assertThat(target.node).isSameAs(button2);
+        assertThat(target.advancedCount).isEqualTo(1);
+    }
+
+    /**
+     * Tests {@link Navigator#findRotateTarget} with the focus order cache enabled, in the
+     * following node tree:
+     * <pre>
+     *              root
+     *               |
+     *           focusArea
+     *          /    |    \
+     *        /      |     \
+     *    button1 button2 button3
+     * </pre>
+     */
+    @Test
+    public void testFindRotateTargetWithFocusOrderCache() {
+        AccessibilityNodeInfo root = new NodeBuilder().setNodeList(mNodeList).build();
+        AccessibilityNodeInfo focusArea = new NodeBuilder()
+                .setNodeList(mNodeList)
+                .setParent(root)
+                .setClassName(FOCUS_AREA_CLASS_NAME)
+                .build();
+        AccessibilityNodeInfo button1 = new NodeBuilder()
+                .setNodeList(mNodeList)
+                .setParent(focusArea)
+                .build();
+        AccessibilityNodeInfo button2 = new NodeBuilder()
+                .setNodeList(mNodeList)
+                .setParent(focusArea)
+                .build();
+        AccessibilityNodeInfo button3 = new NodeBuilder()
+                .setNodeList(mNodeList)
+                .setParent(focusArea)
+                .build();
+
+        when(button1.focusSearch(View.FOCUS_FORWARD)).thenReturn(button2);
+        when(button2.focusSearch(View.FOCUS_FORWARD)).thenReturn(button3);
+        when(button3.focusSearch(View.FOCUS_FORWARD)).thenReturn(null);
+        mNavigator.setFocusOrderCacheEnabled(true);
+
+        // Rotate 3 times and exceed the boundary, the focus should stay at the boundary.
+        FindRotateTargetResult target =
+                mNavigator.findRotateTarget(button1, null, View.FOCUS_FORWARD, 3);
+        assertThat(target.node).isSameAs(button3);
+        assertThat(target.advancedCount).isEqualTo(2);
+        verify(button3).focusSearch(View.FOCUS_FORWARD);
+
+        // The focus order is known now, so rotating through it again shouldn't search, in either
+        // direction.
+        clearInvocations(button1, button2, button3);
+        target = mNavigator.findRotateTarget(button2, null, View.FOCUS_FORWARD, 5);
+        assertThat(target.node).isSameAs(button3);
+        assertThat(target.advancedCount).isEqualTo(1);
+        target = mNavigator.findRotateTarget(button3, null, View.FOCUS_BACKWARD, 2);
+        assertThat(target.node).isSameAs(button1);
+        assertThat(target.advancedCount).isEqualTo(2);
+        verify(button1, never()).focusSearch(anyInt());
+        verify(button2, never()).focusSearch(anyInt());
+        verify(button3, never()).focusSearch(anyInt());
+
+        // Rotating backward past button1 searches once. After that, that end is known.
+        target = mNavigator.findRotateTarget(button2, null, View.FOCUS_BACKWARD, 2);
+        assertThat(target.node).isSameAs(button1);
+        assertThat(target.advancedCount).isEqualTo(1);
+        verify(button1).focusSearch(View.FOCUS_BACKWARD);
+        clearInvocations(button1);
+        target = mNavigator.findRotateTarget(button1, null, View.FOCUS_BACKWARD, 1);
+        assertThat(target).isNull();
+        verify(button1, never()).focusSearch(anyInt());
+
+        // Once the window's content changes, the focus order should be learned again.
+        mNavigator.invalidateWindow(button1.getWindowId());
+        target = mNavigator.findRotateTarget(button1, null, View.FOCUS_FORWARD, 1);
+        assertThat(target.node).isSameAs(button2);
+        verify(button1).focusSearch(View.FOCUS_FORWARD);
+    }
+
+    /**
+     * Tests {@link Navigator#speculateRotateTargets} in the following node tree:
+     * <pre>
+     *                   root
+     *                    |
+     *                focusArea
+     *          /      |      |     \
+     *        /        |      |      \
+     *    button1 button2 container button3
+     * </pre>
+     */
+    @Test
+    public void testSpeculateRotateTargets() {
+        AccessibilityNodeInfo root = new NodeBuilder().setNodeList(mNodeList).build();
+        AccessibilityNodeInfo focusArea = new NodeBuilder()
+                .setNodeList(mNodeList)
+                .setParent(root)
+                .setClassName(FOCUS_AREA_CLASS_NAME)
+                .build();
+        AccessibilityNodeInfo button1 = new NodeBuilder()
+                .setNodeList(mNodeList)
+                .setParent(focusArea)
+                .build();
+        AccessibilityNodeInfo button2 = new NodeBuilder()
+                .setNodeList(mNodeList)
+                .setParent(focusArea)
+                .build();
+        AccessibilityNodeInfo container = new NodeBuilder()
+                .setNodeList(mNodeList)
+                .setParent(focusArea)
+                .build();
+        AccessibilityNodeInfo button3 = new NodeBuilder()
+                .setNodeList(mNodeList)
+                .setParent(focusArea)
+                .build();
+
+        when(button1.focusSearch(View.FOCUS_FORWARD)).thenReturn(button2);
+        when(button2.focusSearch(View.FOCUS_FORWARD)).thenReturn(container);
+        when(container.focusSearch(View.FOCUS_FORWARD)).thenReturn(button3);
+        when(button2.focusSearch(View.FOCUS_BACKWARD)).thenReturn(button1);
+        mNavigator.setFocusOrderCacheEnabled(true);
+
+        // Speculating from button2 should look up the nodes on either side of it, skipping the
+        // container.
+        mNavigator.speculateRotateTargets(button2, /* skipNode= */ container);
+        verify(button2).focusSearch(View.FOCUS_FORWARD);
+        verify(container).focusSearch(View.FOCUS_FORWARD);
+        verify(button2).focusSearch(View.FOCUS_BACKWARD);
+
+        // So rotating by one detent from button2 shouldn't search.
+        clearInvocations(button1, button2, container, button3);
+        FindRotateTargetResult target =
+                mNavigator.findRotateTarget(button2, container, View.FOCUS_FORWARD, 1);
+        assertThat(target.node).isSameAs(button3);
+        assertThat(target.advancedCount).isEqualTo(1);
+        target = mNavigator.findRotateTarget(button2, container, View.FOCUS_BACKWARD, 1);
+        assertThat(target.node).isSameAs(button1);
+        assertThat(target.advancedCount).isEqualTo(1);
+        verify(button1, never()).focusSearch(anyInt());
+        verify(button2, never()).focusSearch(anyInt());
+        verify(container, never()).focusSearch(anyInt());
+        verify(button3, never()).focusSearch(anyInt());
+
+        // Without a skip node, the container is the next target.
+        target = mNavigator.findRotateTarget(button2, null, View.FOCUS_FORWARD, 1);
+        assertThat(target.node).isSameAs(container);
+
+        // Rotating past button3 has to search.
+        target = mNavigator.findRotateTarget(button3, null, View.FOCUS_FORWARD, 1);
+        assertThat(target).isNull();
+        verify(button3).focusSearch(View.FOCUS_FORWARD);
+
+        StringWriter dump = new StringWriter();
+        mNavigator.dump(/* prefix= */ "", new PrintWriter(dump));
+        assertThat(dump.toString()).contains("hits=3 misses=1 hitRate=75.0% speculations=1");
     }
 
     /**
@@ -1072,6 +1295,552 @@ public class NavigatorTest {
         assertThat(target).isSameAs(viewContainer);
     }
 
+    /**
+     * Tests {@link Navigator#findNudgeTarget} reusing the focus areas indexed for a window in the
+     * following layout:
+     * <pre>
+     *    ============ top focus area ============
+     *    =                                      =
+     *    =  ................................    =
+     *    =  .           topView            .    =
+     *    =  ................................    =
+     *    =                                      =
+     *    ========================================
+     *
+     *    =========== bottom focus area ==========
+     *    =                                      =
+     *    =  ................................    =
+     *    =  .          bottomView          .    =
+     *    =  ................................    =
+     *    =                                      =
+     *    ========================================
+     * </pre>
+     */
+    @Test
+    public void testFindNudgeTargetReusesFocusAreaIndex() {
+        Rect windowBounds = new Rect(0, 0, 100, 200);
+        AccessibilityWindowInfo window = new WindowBuilder()
+                .setBoundsInScreen(windowBounds)
+                .build();
+        AccessibilityNodeInfo root = new NodeBuilder()
+                .setNodeList(mNodeList)
+                .setWindow(window)
+                .setBoundsInScreen(windowBounds)
+                .build();
+        setRootNodeForWindow(root, window);
+
+        AccessibilityNodeInfo topFocusArea = new NodeBuilder()
+                .setNodeList(mNodeList)
+                .setWindow(window)
+                .setParent(root)
+                .setClassName(FOCUS_AREA_CLASS_NAME)
+                .setBoundsInScreen(new Rect(0, 0, 100, 100))
+                .build();
+        AccessibilityNodeInfo topView = new NodeBuilder()
+                .setNodeList(mNodeList)
+                .setWindow(window)
+                .setParent(topFocusArea)
+                .setFocusable(true)
+                .setVisibleToUser(true)
+                .setEnabled(true)
+                .setBoundsInScreen(new Rect(0, 0, 100, 100))
+                .build();
+        AccessibilityNodeInfo bottomFocusArea = new NodeBuilder()
+                .setNodeList(mNodeList)
+                .setWindow(window)
+                .setParent(root)
+                .setClassName(FOCUS_AREA_CLASS_NAME)
+                .setBoundsInScreen(new Rect(0, 100, 100, 200))
+                .build();
+        AccessibilityNodeInfo bottomView = new NodeBuilder()
+                .setNodeList(mNodeList)
+                .setWindow(window)
+                .setParent(bottomFocusArea)
+                .setFocusable(true)
+                .setVisibleToUser(true)
+                .setEnabled(true)
+                .setBoundsInScreen(new Rect(0, 100, 100, 200))
+                .build();
+
+        List<AccessibilityWindowInfo> windows = new ArrayList<>();
+        windows.add(window);
+
+        // The first nudge scans the window for focus areas.
+        AccessibilityNodeInfo target =
+                mNavigator.findNudgeTarget(windows, topView, View.FOCUS_DOWN);
+        assertThat(target).isSameAs(bottomView);
+
+        // Nudging again shouldn't scan the window because its focus areas are indexed.
+        clearInvocations(root);
+        target = mNavigator.findNudgeTarget(windows, topView, View.FOCUS_DOWN);
+        assertThat(target).isSameAs(bottomView);
+        verify(root, never()).getChild(anyInt());
+
+        // Once the window is invalidated, it should be scanned again.
+        mNavigator.invalidateWindow(window.getId());
+        target = mNavigator.findNudgeTarget(windows, topView, View.FOCUS_DOWN);
+        assertThat(target).isSameAs(bottomView);
+        verify(root, atLeastOnce()).getChild(anyInt());
+    }
+
+    /**
+     * Tests {@link Navigator#findNudgeTarget} collecting the focus areas of the windows in parallel
+     * in the following layout:
+     * <pre>
+     *    ****leftWindow****  ***middleWindow***  ***rightWindow****
+     *    *                *  *                *  *                *
+     *    *  == left ====  *  *  == middle ==  *  *  == right ===  *
+     *    *  = ........ =  *  *  = ........ =  *  *  = ........ =  *
+     *    *  = .left  . =  *  *  = .middle. =  *  *  = .right . =  *
+     *    *  = ........ =  *  *  = ........ =  *  *  = ........ =  *
+     *    *  ============  *  *  ============  *  *  ============  *
+     *    *                *  *                *  *                *
+     *    ******************  ******************  ******************
+     * </pre>
+     * where the view in the middle focus area is disabled.
+     */
+    @Test
+    public void testFindNudgeTargetWithParallelFocusAreaCollection() {
+        AccessibilityNodeInfo[] roots = new AccessibilityNodeInfo[3];
+        AccessibilityNodeInfo[] views = new AccessibilityNodeInfo[3];
+        List<AccessibilityWindowInfo> windows = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            Rect windowBounds = new Rect(i * 300, 0, i * 300 + 300, 300);
+            AccessibilityWindowInfo window = new WindowBuilder()
+                    .setBoundsInScreen(windowBounds)
+                    .build();
+            roots[i] = new NodeBuilder()
+                    .setNodeList(mNodeList)
+                    .setWindow(window)
+                    .setBoundsInScreen(windowBounds)
+                    .build();
+            setRootNodeForWindow(roots[i], window);
+            Rect focusAreaBounds = new Rect(windowBounds);
+            focusAreaBounds.inset(50, 50);
+            AccessibilityNodeInfo focusArea = new NodeBuilder()
+                    .setNodeList(mNodeList)
+                    .setWindow(window)
+                    .setParent(roots[i])
+                    .setClassName(FOCUS_AREA_CLASS_NAME)
+                    .setBoundsInScreen(focusAreaBounds)
+                    .build();
+            views[i] = new NodeBuilder()
+                    .setNodeList(mNodeList)
+                    .setWindow(window)
+                    .setParent(focusArea)
+                    .setFocusable(true)
+                    .setVisibleToUser(true)
+                    .setEnabled(i != 1)
+                    .setBoundsInScreen(focusAreaBounds)
+                    .build();
+            windows.add(window);
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            mNavigator.setFocusAreaCollectionExecutor(executor);
+
+            // The middle focus area has no view to take focus, so the target is in the right
+            // window, as when the windows are searched one after another.
+            AccessibilityNodeInfo target =
+                    mNavigator.findNudgeTarget(windows, views[0], View.FOCUS_RIGHT);
+            assertThat(target).isSameAs(views[2]);
+            verify(roots[1], atLeastOnce()).getChild(anyInt());
+        } finally {
+            mNavigator.setFocusAreaCollectionExecutor(null);
+            executor.shutdown();
+        }
+
+        // The focus areas found by the worker threads should be indexed, so nudging again
+        // serially shouldn't scan the windows.
+        mNavigator.clearFocusAreaHistory();
+        clearInvocations(roots);
+        AccessibilityNodeInfo target =
+                mNavigator.findNudgeTarget(windows, views[0], View.FOCUS_RIGHT);
+        assertThat(target).isSameAs(views[2]);
+        for (AccessibilityNodeInfo root : roots) {
+            verify(root, never()).getChild(anyInt());
+        }
+
+        StringWriter dump = new StringWriter();
+        mNavigator.dump(/* prefix= */ "", new PrintWriter(dump));
+        assertThat(dump.toString()).contains("parallelCollections=1");
+    }
+
+    /**
+     * Tests {@link Navigator#findNudgeTarget} with the nudge graph enabled, in the following
+     * layout:
+     * <pre>
+     *    ===== left ===== ==== middle ==== ===== right ====
+     *    =              = =              = =              =
+     *    =  leftButton  = = middleButton = = rightButton  =
+     *    =              = =              = =              =
+     *    ================ ================ ================
+     * </pre>
+     * where the focus areas in the graph's edge to the right include the left one, which the bounds
+     * of the focused view rule out.
+     */
+    @Test
+    public void testFindNudgeTargetWithNudgeGraphPrunesCandidates() {
+        AccessibilityWindowInfo window = new WindowBuilder()
+                .setBoundsInScreen(new Rect(0, 0, 900, 300))
+                .build();
+        AccessibilityNodeInfo root = new NodeBuilder()
+                .setNodeList(mNodeList)
+                .setWindow(window)
+                .setBoundsInScreen(new Rect(0, 0, 900, 300))
+                .build();
+        setRootNodeForWindow(root, window);
+        AccessibilityNodeInfo[] buttons = new AccessibilityNodeInfo[3];
+        for (int i = 0; i < 3; i++) {
+            Rect bounds = new Rect(i * 300, 0, i * 300 + 300, 300);
+            AccessibilityNodeInfo focusArea = new NodeBuilder()
+                    .setNodeList(mNodeList)
+                    .setWindow(window)
+                    .setParent(root)
+                    .setClassName(FOCUS_AREA_CLASS_NAME)
+                    .setBoundsInScreen(bounds)
+                    .build();
+            buttons[i] = new NodeBuilder()
+                    .setNodeList(mNodeList)
+                    .setWindow(window)
+                    .setParent(focusArea)
+                    .setFocusable(true)
+                    .setVisibleToUser(true)
+                    .setEnabled(true)
+                    .setBoundsInScreen(bounds)
+                    .build();
+        }
+        List<AccessibilityWindowInfo> windows = Collections.singletonList(window);
+        mNavigator.setNudgeGraphEnabled(true);
+
+        // The edge is built from all the other focus areas, and the left one is pruned when
+        // choosing among them.
+        AccessibilityNodeInfo target =
+                mNavigator.findNudgeTarget(windows, buttons[1], View.FOCUS_RIGHT);
+        assertThat(target).isSameAs(buttons[2]);
+        StringWriter dump = new StringWriter();
+        mNavigator.dump(/* prefix= */ "", new PrintWriter(dump));
+        assertThat(dump.toString()).contains("pruned=1 ");
+
+        // The saved edge is reused without walking the window, and still pruned.
+        mNavigator.clearFocusAreaHistory();
+        clearInvocations(root);
+        target = mNavigator.findNudgeTarget(windows, buttons[1], View.FOCUS_RIGHT);
+        assertThat(target).isSameAs(buttons[2]);
+        verify(root, never()).getChild(anyInt());
+        dump = new StringWriter();
+        mNavigator.dump(/* prefix= */ "", new PrintWriter(dump));
+        assertThat(dump.toString()).contains("pruned=2 ");
+    }
+
+    /**
+     * Tests {@link Navigator#findNudgeTarget} falling back to collecting the focus areas serially
+     * when collecting them in one of the windows fails on a worker thread.
+     */
+    @Test
+    public void testFindNudgeTargetWhenParallelFocusAreaCollectionFails() {
+        AccessibilityNodeInfo[] roots = new AccessibilityNodeInfo[3];
+        AccessibilityNodeInfo[] views = new AccessibilityNodeInfo[3];
+        List<AccessibilityWindowInfo> windows = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            Rect windowBounds = new Rect(i * 300, 0, i * 300 + 300, 300);
+            AccessibilityWindowInfo window = new WindowBuilder()
+                    .setBoundsInScreen(windowBounds)
+                    .build();
+            roots[i] = new NodeBuilder()
+                    .setNodeList(mNodeList)
+                    .setWindow(window)
+                    .setBoundsInScreen(windowBounds)
+                    .build();
+            setRootNodeForWindow(roots[i], window);
+            Rect focusAreaBounds = new Rect(windowBounds);
+            focusAreaBounds.inset(50, 50);
+            AccessibilityNodeInfo focusArea = new NodeBuilder()
+                    .setNodeList(mNodeList)
+                    .setWindow(window)
+                    .setParent(roots[i])
+                    .setClassName(FOCUS_AREA_CLASS_NAME)
+                    .setBoundsInScreen(focusAreaBounds)
+                    .build();
+            views[i] = new NodeBuilder()
+                    .setNodeList(mNodeList)
+                    .setWindow(window)
+                    .setParent(focusArea)
+                    .setFocusable(true)
+                    .setVisibleToUser(true)
+                    .setEnabled(true)
+                    .setBoundsInScreen(focusAreaBounds)
+                    .build();
+            windows.add(window);
+        }
+        // The first attempt to walk the middle window fails, e.g. because it changed meanwhile.
+        when(windows.get(1).getRoot())
+                .thenThrow(new IllegalStateException("Window changed"))
+                .thenReturn(roots[1]);
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            mNavigator.setFocusAreaCollectionExecutor(executor);
+
+            AccessibilityNodeInfo target =
+                    mNavigator.findNudgeTarget(windows, views[0], View.FOCUS_RIGHT);
+            assertThat(target).isSameAs(views[1]);
+        } finally {
+            mNavigator.setFocusAreaCollectionExecutor(null);
+            executor.shutdown();
+        }
+
+        StringWriter dump = new StringWriter();
+        mNavigator.dump(/* prefix= */ "", new PrintWriter(dump));
+        assertThat(dump.toString()).contains("parallelCollections=0");
+    }
+
+    /**
+     * Tests {@link Navigator#findNudgeTarget} remembering a nudge towards the edge of the screen
+     * that found no target, in the following layout:
+     * <pre>
+     *    ========== focus area ==========
+     *    =                              =
+     *    =  ..........................  =
+     *    =  .          view          .  =
+     *    =  ..........................  =
+     *    =                              =
+     *    ================================
+     * </pre>
+     */
+    @Test
+    public void testFindNudgeTargetWithFailedNudgeCache() {
+        mNavigator.setFailedNudgeCacheEnabled(true);
+        Rect windowBounds = new Rect(0, 0, 100, 100);
+        AccessibilityWindowInfo window = new WindowBuilder()
+                .setBoundsInScreen(windowBounds)
+                .build();
+        AccessibilityNodeInfo root = new NodeBuilder()
+                .setNodeList(mNodeList)
+                .setWindow(window)
+                .setBoundsInScreen(windowBounds)
+                .build();
+        setRootNodeForWindow(root, window);
+        AccessibilityNodeInfo focusArea = new NodeBuilder()
+                .setNodeList(mNodeList)
+                .setWindow(window)
+                .setParent(root)
+                .setClassName(FOCUS_AREA_CLASS_NAME)
+                .setBoundsInScreen(windowBounds)
+                .build();
+        AccessibilityNodeInfo view = new NodeBuilder()
+                .setNodeList(mNodeList)
+                .setWindow(window)
+                .setParent(focusArea)
+                .setFocusable(true)
+                .setVisibleToUser(true)
+                .setEnabled(true)
+                .setBoundsInScreen(windowBounds)
+                .build();
+
+        List<AccessibilityWindowInfo> windows = new ArrayList<>();
+        windows.add(window);
+
+        // The first nudge searches the window and fails.
+        assertThat(mNavigator.findNudgeTarget(windows, view, View.FOCUS_LEFT)).isNull();
+        verify(window).getRoot();
+
+        // Repeating it should fail without searching the window.
+        clearInvocations(window, root);
+        assertThat(mNavigator.findNudgeTarget(windows, view, View.FOCUS_LEFT)).isNull();
+        verify(window, never()).getRoot();
+        verify(root, never()).getChild(anyInt());
+
+        // Once the window is invalidated, it should be searched again.
+        mNavigator.invalidateWindow(window.getId());
+        assertThat(mNavigator.findNudgeTarget(windows, view, View.FOCUS_LEFT)).isNull();
+        verify(window).getRoot();
+
+        StringWriter dump = new StringWriter();
+        mNavigator.dump(/* prefix= */ "", new PrintWriter(dump));
+        assertThat(dump.toString()).contains("Nudge searches avoided by failed nudge cache: 1");
+    }
+
+    /**
+     * Tests {@link Navigator#findNudgeTarget} choosing among several focusable views, one of which
+     * contains another, in the following layout:
+     * <pre>
+     *    ============ top focus area ============
+     *    =                  ................    =
+     *    =                  .  topButton   .    =
+     *    =                  ................    =
+     *    ========================================
+     *
+     *    =========== bottom focus area ==========
+     *    =  ................  ..............    =
+     *    =  .   button1    .  .  container .    =
+     *    =  ................  .  ........  .    =
+     *    =                    .  .button2.  .    =
+     *    =                    .  ........  .    =
+     *    =                    ..............    =
+     *    ========================================
+     * </pre>
+     * where container and button2 can both take focus.
+     */
+    @Test
+    public void testFindNudgeTargetWithNestedFocusableViews() {
+        Rect windowBounds = new Rect(0, 0, 200, 200);
+        AccessibilityWindowInfo window = new WindowBuilder()
+                .setBoundsInScreen(windowBounds)
+                .build();
+        AccessibilityNodeInfo root = new NodeBuilder()
+                .setNodeList(mNodeList)
+                .setWindow(window)
+                .setBoundsInScreen(windowBounds)
+                .build();
+        setRootNodeForWindow(root, window);
+
+        AccessibilityNodeInfo topFocusArea = new NodeBuilder()
+                .setNodeList(mNodeList)
+                .setWindow(window)
+                .setParent(root)
+                .setClassName(FOCUS_AREA_CLASS_NAME)
+                .setBoundsInScreen(new Rect(0, 0, 200, 50))
+                .build();
+        AccessibilityNodeInfo topButton = new NodeBuilder()
+                .setNodeList(mNodeList)
+                .setWindow(window)
+                .setParent(topFocusArea)
+                .setFocusable(true)
+                .setVisibleToUser(true)
+                .setEnabled(true)
+                .setBoundsInScreen(new Rect(100, 0, 200, 50))
+                .build();
+        AccessibilityNodeInfo bottomFocusArea = new NodeBuilder()
+                .setNodeList(mNodeList)
+                .setWindow(window)
+                .setParent(root)
+                .setClassName(FOCUS_AREA_CLASS_NAME)
+                .setBoundsInScreen(new Rect(0, 100, 200, 200))
+                .build();
+        AccessibilityNodeInfo button1 = new NodeBuilder()
+                .setNodeList(mNodeList)
+                .setWindow(window)
+                .setParent(bottomFocusArea)
+                .setFocusable(true)
+                .setVisibleToUser(true)
+                .setEnabled(true)
+                .setBoundsInScreen(new Rect(0, 100, 100, 150))
+                .build();
+        AccessibilityNodeInfo container = new NodeBuilder()
+                .setNodeList(mNodeList)
+                .setWindow(window)
+                .setParent(bottomFocusArea)
+                .setFocusable(true)
+                .setVisibleToUser(true)
+                .setEnabled(true)
+                .setBoundsInScreen(new Rect(100, 100, 200, 200))
+                .build();
+        new NodeBuilder()
+                .setNodeList(mNodeList)
+                .setWindow(window)
+                .setParent(container)
+                .setFocusable(true)
+                .setVisibleToUser(true)
+                .setEnabled(true)
+                .setBoundsInScreen(new Rect(125, 125, 175, 175))
+                .build();
+
+        List<AccessibilityWindowInfo> windows = new ArrayList<>();
+        windows.add(window);
+
+        // The container is directly below topButton, so it's chosen rather than button1 or the
+        // button inside the container.
+        AccessibilityNodeInfo target =
+                mNavigator.findNudgeTarget(windows, topButton, View.FOCUS_DOWN);
+        assertThat(target).isSameAs(container);
+
+        // Nudging up from button1 goes to topButton even though it isn't directly above.
+        target = mNavigator.findNudgeTarget(windows, button1, View.FOCUS_UP);
+        assertThat(target).isSameAs(topButton);
+    }
+
+    /**
+     * Tests that {@link Navigator#isCandidate} doesn't allocate when searching live nodes, in the
+     * following node tree:
+     * <pre>
+     *                    root
+     *                     |
+     *                     |
+     *                 focusArea
+     *               /  /  |  \  \
+     *             /   /   |   \   \
+     *     button0  button1 ... button19
+     * </pre>
+     * where the buttons are in a row, and the source is to the right of all of them but inside the
+     * focus area, so the focus area isn't pruned.
+     */
+    @Test
+    public void testIsCandidateDoesNotAllocate() {
+        FixedNode root = new FixedNode(/* parent= */ null, new Rect(0, 0, 2200, 100));
+        FixedNode focusArea = new FixedNode(root, new Rect(0, 0, 2200, 100));
+        focusArea.mClassName = FOCUS_AREA_CLASS_NAME;
+        for (int i = 0; i < 20; i++) {
+            new FixedNode(focusArea, new Rect(i * 100, 0, (i + 1) * 100, 100)).mFocusable = true;
+        }
+        mNavigator.setNodeCopier(new IdentityNodeCopier());
+        Rect sourceBounds = new Rect(2000, 0, 2100, 100);
+
+        // Every button is checked when nudging right, and none is a candidate.
+        assertThat(mNavigator.isCandidate(sourceBounds, focusArea, View.FOCUS_RIGHT)).isFalse();
+        assertThat(mNavigator.isCandidate(sourceBounds, focusArea, View.FOCUS_LEFT)).isTrue();
+
+        int calls = 10000;
+        long allocated = measureAllocatedBytes(calls,
+                () -> mNavigator.isCandidate(sourceBounds, focusArea, View.FOCUS_RIGHT));
+
+        // Less than a byte per call means nothing is allocated per call, let alone per button.
+        assertThat(allocated).isLessThan((long) calls);
+    }
+
+    /**
+     * Tests that {@link Navigator#findRotateTarget} doesn't allocate per detent when searching live
+     * nodes, in the following node tree:
+     * <pre>
+     *                    root
+     *                     |
+     *                     |
+     *                 focusArea
+     *               /  /  |  \  \
+     *             /   /   |   \   \
+     *     button0  button1 ... button9
+     * </pre>
+     * where each button's focusSearch() returns its neighbor.
+     */
+    @Test
+    public void testFindRotateTargetDoesNotAllocatePerDetent() {
+        FixedNode root = new FixedNode(/* parent= */ null, new Rect(0, 0, 1000, 100));
+        FixedNode focusArea = new FixedNode(root, new Rect(0, 0, 1000, 100));
+        focusArea.mClassName = FOCUS_AREA_CLASS_NAME;
+        for (int i = 0; i < 10; i++) {
+            new FixedNode(focusArea, new Rect(i * 100, 0, (i + 1) * 100, 100)).mFocusable = true;
+        }
+        mNavigator.setNodeCopier(new IdentityNodeCopier());
+        AccessibilityNodeInfo button0 = focusArea.getChild(0);
+
+        FindRotateTargetResult result = mNavigator.findRotateTarget(button0, /* skipNode= */ null,
+                View.FOCUS_FORWARD, /* rotationCount= */ 5);
+        assertThat(result.node).isSameAs(focusArea.getChild(5));
+        assertThat(result.advancedCount).isEqualTo(5);
+
+        // The result is allocated once per call, however many detents it advances, so rotating
+        // five detents should allocate no more than rotating one.
+        int calls = 10000;
+        long allocatedOneDetent = measureAllocatedBytes(calls,
+                () -> mNavigator.findRotateTarget(button0, /* skipNode= */ null,
+                        View.FOCUS_FORWARD, /* rotationCount= */ 1));
+        long allocatedFiveDetents = measureAllocatedBytes(calls,
+                () -> mNavigator.findRotateTarget(button0, /* skipNode= */ null,
+                        View.FOCUS_FORWARD, /* rotationCount= */ 5));
+        assertThat(allocatedFiveDetents - allocatedOneDetent).isLessThan((long) calls);
+    }
+
     /**
      * Tests {@link Navigator#findFirstFocusDescendant} in the following node tree:
      * <pre>
@@ -1248,6 +2017,22 @@ public class NavigatorTest {
         assertThat(target).isSameAs(scrollableContainer);
         target = mNavigator.findScrollableContainer(button2);
         assertThat(target).isNull();
+
+        // Looking again shouldn't climb the ancestors, whether or not there's a container.
+        clearInvocations(button1, container, button2);
+        target = mNavigator.findScrollableContainer(button1);
+        assertThat(target).isSameAs(scrollableContainer);
+        target = mNavigator.findScrollableContainer(button2);
+        assertThat(target).isNull();
+        verify(button1, never()).getParent();
+        verify(container, never()).getParent();
+        verify(button2, never()).getParent();
+
+        // Once the window's layout changes, the containers should be found again.
+        mNavigator.invalidateWindow(button1.getWindowId());
+        target = mNavigator.findScrollableContainer(button1);
+        assertThat(target).isSameAs(scrollableContainer);
+        verify(button1).getParent();
     }
 
     /**
@@ -1501,9 +2286,178 @@ public class NavigatorTest {
         assertThat(target).isSameAs(button2);
     }
 
+    /**
+     * Tests that the methods the main thread uses to keep the caches up to date don't wait for a
+     * search holding the lock, and that their updates are applied before the next search.
+     */
+    @Test
+    public void testCacheUpdatesDontWaitForSearches() throws InterruptedException {
+        AccessibilityNodeInfo focusArea = new NodeBuilder()
+                .setNodeList(mNodeList)
+                .setClassName(FOCUS_AREA_CLASS_NAME)
+                .build();
+        AccessibilityNodeInfo button = new NodeBuilder()
+                .setNodeList(mNodeList)
+                .setParent(focusArea)
+                .setFocusable(true)
+                .setVisibleToUser(true)
+                .setEnabled(true)
+                .build();
+
+        Thread mainThread = new Thread(() -> {
+            mNavigator.invalidateWindow(button.getWindowId());
+            mNavigator.saveFocusedNode(button);
+            mNavigator.clearFocusAreaHistory();
+            mNavigator.findScrollableContainer(button);
+        });
+        // Hold the lock as a search running on the pipeline's worker thread would.
+        synchronized (mNavigator) {
+            mainThread.start();
+            mainThread.join(/* millis= */ 5000);
+            assertThat(mainThread.isAlive()).isFalse();
+        }
+
+        AccessibilityNodeInfo mostRecentFocus = mNavigator.getMostRecentFocus();
+        assertThat(mostRecentFocus).isSameAs(button);
+    }
+
+    /**
+     * Returns the number of bytes this thread allocates making {@code calls} calls of {@code call},
+     * after the same number of calls to warm up, so that class loading and compilation aren't
+     * counted. Fails rather than skipping if the JVM can't measure allocations, so that an
+     * allocation test can't pass without checking anything.
+     */
+    private static long measureAllocatedBytes(int calls, @NonNull Runnable call) {
+        ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        assertWithMessage("JVM can't measure allocations")
+                .that(threadMXBean).isInstanceOf(com.sun.management.ThreadMXBean.class);
+        com.sun.management.ThreadMXBean allocationBean =
+                (com.sun.management.ThreadMXBean) threadMXBean;
+        assertWithMessage("JVM can't measure allocations")
+                .that(allocationBean.isThreadAllocatedMemorySupported()).isTrue();
+        allocationBean.setThreadAllocatedMemoryEnabled(true);
+
+        for (int i = 0; i < calls; i++) {
+            call.run();
+        }
+        long threadId = Thread.currentThread().getId();
+        long allocatedBefore = allocationBean.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < calls; i++) {
+            call.run();
+        }
+        return allocationBean.getThreadAllocatedBytes(threadId) - allocatedBefore;
+    }
+
     /** Sets the {@code root} node in the {@code window}'s hierarchy. */
     private void setRootNodeForWindow(@NonNull AccessibilityNodeInfo root,
             @NonNull AccessibilityWindowInfo window) {
         when(window.getRoot()).thenReturn(root);
     }
+
+    /**
+     * A node copier which returns the node itself, like {@link #mNodeCopier}, but without a mock's
+     * bookkeeping, which allocates on every call.
+     */
+    private static class IdentityNodeCopier extends NodeCopier {
+        @Override
+        AccessibilityNodeInfo copy(@Nullable AccessibilityNodeInfo node) {
+            return node;
+        }
+    }
+
+    /**
+     * A node in a fixed tree. Unlike mock nodes, its methods don't allocate, so it can be used to
+     * check that code doesn't allocate. Recycling it does nothing, and it's only equal to itself.
+     * {@link #focusSearch} moves between siblings.
+     */
+    private static class FixedNode extends AccessibilityNodeInfo {
+        @Nullable
+        private final FixedNode mParent;
+        @NonNull
+        private final List<FixedNode> mChildren = new ArrayList<>();
+        @NonNull
+        private final Rect mBounds;
+        @Nullable
+        CharSequence mClassName;
+        boolean mFocusable;
+
+        FixedNode(@Nullable FixedNode parent, @NonNull Rect bounds) {
+            mParent = parent;
+            mBounds = bounds;
+            if (parent != null) {
+                parent.mChildren.add(this);
+            }
+        }
+
+        @Override
+        public AccessibilityNodeInfo getParent() {
+            return mParent;
+        }
+
+        @Override
+        public int getChildCount() {
+            return mChildren.size();
+        }
+
+        @Override
+        public AccessibilityNodeInfo getChild(int index) {
+            return mChildren.get(index);
+        }
+
+        @Override
+        public void getBoundsInScreen(Rect outBounds) {
+            outBounds.set(mBounds);
+        }
+
+        @Override
+        public CharSequence getClassName() {
+            return mClassName;
+        }
+
+        @Override
+        public CharSequence getContentDescription() {
+            return null;
+        }
+
+        @Override
+        public boolean isFocusable() {
+            return mFocusable;
+        }
+
+        @Override
+        public boolean isVisibleToUser() {
+            return true;
+        }
+
+        @Override
+        public boolean isEnabled() {
+            return true;
+        }
+
+        @Override
+        public AccessibilityNodeInfo focusSearch(int direction) {
+            if (mParent == null) {
+                return null;
+            }
+            int index = mParent.mChildren.indexOf(this)
+                    + (direction == View.FOCUS_FORWARD ? 1 : -1);
+            return index >= 0 && index < mParent.mChildren.size()
+                    ? mParent.mChildren.get(index)
+                    : null;
+        }
+
+        @Override
+        public void recycle() {
+        }
+
+        @Override
+        public boolean equals(Object object) {
+            return this == object;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(this);
+        }
+    }
 }
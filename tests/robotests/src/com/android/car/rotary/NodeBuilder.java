@@ -19,6 +19,7 @@ import static org.mockito.Mockito.any;
 import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
 
 import android.graphics.Rect;
 import android.view.accessibility.AccessibilityNodeInfo;
@@ -35,6 +36,9 @@ import java.util.List;
  * need to be recycled.
  */
 class NodeBuilder {
+    /** The source node ID to assign to the next node, so that each node has a distinct one. */
+    private static long sNextSourceNodeId = 1;
+
     /**
      * A list of mock nodes created via NodeBuilder. This list is used for searching for a
      * node's child nodes.
@@ -69,9 +73,18 @@ class NodeBuilder {
     /** The action list for this node. */
     @NonNull
     private List<AccessibilityNodeInfo.AccessibilityAction> mActionList = new ArrayList<>();
+    /**
+     * Whether the mock node can't be verified. Such nodes don't record their invocations, so they
+     * don't use more memory each time they're called.
+     */
+    private boolean mStubOnly;
 
     AccessibilityNodeInfo build() {
-        AccessibilityNodeInfo node = mock(AccessibilityNodeInfo.class);
+        AccessibilityNodeInfo node = mStubOnly
+                ? mock(AccessibilityNodeInfo.class, withSettings().stubOnly())
+                : mock(AccessibilityNodeInfo.class);
+        // Mock AccessibilityNodeInfo#getSourceNodeId().
+        when(node.getSourceNodeId()).thenReturn(sNextSourceNodeId++);
         if (mWindow != null) {
             // Mock AccessibilityNodeInfo#getWindow().
             when(node.getWindow()).thenReturn(mWindow);
@@ -79,6 +92,10 @@ class NodeBuilder {
         if (mWindowId != null) {
             // Mock AccessibilityNodeInfo#getWindowId().
             when(node.getWindowId()).thenReturn(mWindowId);
+        } else if (mWindow != null) {
+            // Mock AccessibilityNodeInfo#getWindowId() to match the window.
+            int windowId = mWindow.getId();
+            when(node.getWindowId()).thenReturn(windowId);
         }
         if (mParent != null && mNodeList != null) {
             // Mock AccessibilityNodeInfo#getParent().
@@ -206,4 +223,9 @@ class NodeBuilder {
         mActionList = actionList;
         return this;
     }
+
+    NodeBuilder setStubOnly(boolean stubOnly) {
+        mStubOnly = stubOnly;
+        return this;
+    }
 }
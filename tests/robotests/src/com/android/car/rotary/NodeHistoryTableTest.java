@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.car.rotary;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import android.view.View;
+import android.view.accessibility.AccessibilityNodeInfo;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+@RunWith(RobolectricTestRunner.class)
+public class NodeHistoryTableTest {
+
+    private static final int WINDOW_ID = 1;
+
+    @Test
+    public void testFindReturnsSavedEntry() {
+        NodeHistoryTable table = new NodeHistoryTable(/* maxSize= */ 4);
+        AccessibilityNodeInfo node = mock(AccessibilityNodeInfo.class);
+        table.put(WINDOW_ID, /* sourceNodeId= */ 10, View.FOCUS_LEFT, node, /* timestamp= */ 5);
+
+        int slot = table.find(WINDOW_ID, /* sourceNodeId= */ 10, View.FOCUS_LEFT);
+
+        assertThat(slot).isNotEqualTo(NodeHistoryTable.NOT_FOUND);
+        assertThat(table.getNode(slot)).isSameAs(node);
+        assertThat(table.getTimestamp(slot)).isEqualTo(5);
+        assertThat(table.find(WINDOW_ID, /* sourceNodeId= */ 10, View.FOCUS_RIGHT))
+                .isEqualTo(NodeHistoryTable.NOT_FOUND);
+        assertThat(table.find(WINDOW_ID + 1, /* sourceNodeId= */ 10, View.FOCUS_LEFT))
+                .isEqualTo(NodeHistoryTable.NOT_FOUND);
+    }
+
+    @Test
+    public void testPutReplacesAndRecyclesEntryWithSameKey() {
+        NodeHistoryTable table = new NodeHistoryTable(/* maxSize= */ 4);
+        AccessibilityNodeInfo oldNode = mock(AccessibilityNodeInfo.class);
+        AccessibilityNodeInfo newNode = mock(AccessibilityNodeInfo.class);
+        table.put(WINDOW_ID, /* sourceNodeId= */ 10, View.FOCUS_LEFT, oldNode, /* timestamp= */ 5);
+
+        table.put(WINDOW_ID, /* sourceNodeId= */ 10, View.FOCUS_LEFT, newNode, /* timestamp= */ 6);
+
+        assertThat(table.size()).isEqualTo(1);
+        verify(oldNode).recycle();
+        int slot = table.find(WINDOW_ID, /* sourceNodeId= */ 10, View.FOCUS_LEFT);
+        assertThat(table.getNode(slot)).isSameAs(newNode);
+        assertThat(table.getTimestamp(slot)).isEqualTo(6);
+    }
+
+    @Test
+    public void testPutEvictsLeastRecentlyUsedEntry() {
+        NodeHistoryTable table = new NodeHistoryTable(/* maxSize= */ 3);
+        AccessibilityNodeInfo[] nodes = new AccessibilityNodeInfo[4];
+        for (int i = 0; i < nodes.length; i++) {
+            nodes[i] = mock(AccessibilityNodeInfo.class);
+        }
+        table.put(WINDOW_ID, /* sourceNodeId= */ 0, NodeHistoryTable.NO_DIRECTION, nodes[0], 0);
+        table.put(WINDOW_ID, /* sourceNodeId= */ 1, NodeHistoryTable.NO_DIRECTION, nodes[1], 0);
+        table.put(WINDOW_ID, /* sourceNodeId= */ 2, NodeHistoryTable.NO_DIRECTION, nodes[2], 0);
+
+        // Using the oldest entry makes the second one the least recently used.
+        table.find(WINDOW_ID, /* sourceNodeId= */ 0, NodeHistoryTable.NO_DIRECTION);
+        table.put(WINDOW_ID, /* sourceNodeId= */ 3, NodeHistoryTable.NO_DIRECTION, nodes[3], 0);
+
+        assertThat(table.size()).isEqualTo(3);
+        verify(nodes[1]).recycle();
+        verify(nodes[0], never()).recycle();
+        assertThat(table.find(WINDOW_ID, /* sourceNodeId= */ 1, NodeHistoryTable.NO_DIRECTION))
+                .isEqualTo(NodeHistoryTable.NOT_FOUND);
+        for (int i : new int[]{0, 2, 3}) {
+            int slot = table.find(WINDOW_ID, i, NodeHistoryTable.NO_DIRECTION);
+            assertThat(table.getNode(slot)).isSameAs(nodes[i]);
+        }
+    }
+
+    @Test
+    public void testEntriesStayFindableAfterManyEvictions() {
+        int maxSize = 5;
+        NodeHistoryTable table = new NodeHistoryTable(maxSize);
+        AccessibilityNodeInfo[] nodes = new AccessibilityNodeInfo[100];
+        for (int i = 0; i < nodes.length; i++) {
+            nodes[i] = mock(AccessibilityNodeInfo.class);
+            table.put(i % 3, /* sourceNodeId= */ i, View.FOCUS_UP, nodes[i], /* timestamp= */ i);
+        }
+
+        assertThat(table.size()).isEqualTo(maxSize);
+        for (int i = 0; i < nodes.length; i++) {
+            int slot = table.find(i % 3, /* sourceNodeId= */ i, View.FOCUS_UP);
+            if (i < nodes.length - maxSize) {
+                assertThat(slot).isEqualTo(NodeHistoryTable.NOT_FOUND);
+            } else {
+                assertThat(table.getNode(slot)).isSameAs(nodes[i]);
+            }
+        }
+    }
+
+    @Test
+    public void testGetSlotsByRecency() {
+        NodeHistoryTable table = new NodeHistoryTable(/* maxSize= */ 4);
+        AccessibilityNodeInfo node1 = mock(AccessibilityNodeInfo.class);
+        AccessibilityNodeInfo node2 = mock(AccessibilityNodeInfo.class);
+        AccessibilityNodeInfo node3 = mock(AccessibilityNodeInfo.class);
+        table.put(/* windowId= */ 1, NodeHistoryTable.NO_SOURCE_NODE_ID,
+                NodeHistoryTable.NO_DIRECTION, node1, 0);
+        table.put(/* windowId= */ 2, NodeHistoryTable.NO_SOURCE_NODE_ID,
+                NodeHistoryTable.NO_DIRECTION, node2, 0);
+        table.put(/* windowId= */ 3, NodeHistoryTable.NO_SOURCE_NODE_ID,
+                NodeHistoryTable.NO_DIRECTION, node3, 0);
+        table.put(/* windowId= */ 1, NodeHistoryTable.NO_SOURCE_NODE_ID,
+                NodeHistoryTable.NO_DIRECTION, node1, 0);
+
+        int[] slots = table.getSlotsByRecency();
+
+        assertThat(slots).hasLength(3);
+        assertThat(table.getNode(slots[0])).isSameAs(node1);
+        assertThat(table.getNode(slots[1])).isSameAs(node3);
+        assertThat(table.getNode(slots[2])).isSameAs(node2);
+    }
+
+    @Test
+    public void testClearRecyclesEntries() {
+        NodeHistoryTable table = new NodeHistoryTable(/* maxSize= */ 4);
+        AccessibilityNodeInfo node = mock(AccessibilityNodeInfo.class);
+        table.put(WINDOW_ID, /* sourceNodeId= */ 10, View.FOCUS_LEFT, node, /* timestamp= */ 5);
+
+        table.clear();
+
+        assertThat(table.size()).isEqualTo(0);
+        verify(node).recycle();
+        assertThat(table.find(WINDOW_ID, /* sourceNodeId= */ 10, View.FOCUS_LEFT))
+                .isEqualTo(NodeHistoryTable.NOT_FOUND);
+    }
+}
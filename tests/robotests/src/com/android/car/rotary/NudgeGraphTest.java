@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.car.rotary;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.AdditionalAnswers.returnsFirstArg;
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+import android.view.View;
+import android.view.accessibility.AccessibilityNodeInfo;
+import android.view.accessibility.AccessibilityWindowInfo;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+@RunWith(RobolectricTestRunner.class)
+public class NudgeGraphTest {
+
+    private final LayoutGenerations mLayoutGenerations = new LayoutGenerations();
+    private final NudgeGraph mNudgeGraph = new NudgeGraph(mLayoutGenerations);
+
+    private AccessibilityWindowInfo mLeftWindow;
+    private AccessibilityWindowInfo mRightWindow;
+    private List<AccessibilityWindowInfo> mWindows;
+    private AccessibilityNodeInfo mSourceFocusArea;
+    private AccessibilityNodeInfo mCandidate;
+
+    @Before
+    public void setUp() {
+        // Copies of mock nodes are the nodes themselves.
+        NodeCopier nodeCopier = mock(NodeCopier.class);
+        doAnswer(returnsFirstArg()).when(nodeCopier).copy(any(AccessibilityNodeInfo.class));
+        mNudgeGraph.setNodeCopier(nodeCopier);
+
+        mLeftWindow = new WindowBuilder().build();
+        mRightWindow = new WindowBuilder().build();
+        mWindows = Arrays.asList(mLeftWindow, mRightWindow);
+        mSourceFocusArea = new NodeBuilder().setWindow(mLeftWindow).build();
+        mCandidate = new NodeBuilder().setWindow(mRightWindow).build();
+    }
+
+    @Test
+    public void testGetReturnsSavedEdge() {
+        putEdge(View.FOCUS_RIGHT);
+
+        NudgeGraph.Edge edge = mNudgeGraph.get(mSourceFocusArea, View.FOCUS_RIGHT, mWindows);
+
+        assertThat(edge).isNotNull();
+        assertThat(edge.mCandidates).containsExactly(mCandidate);
+        assertThat(mNudgeGraph.get(mSourceFocusArea, View.FOCUS_LEFT, mWindows)).isNull();
+    }
+
+    @Test
+    public void testInvalidatingSourceWindowInvalidatesEdge() {
+        putEdge(View.FOCUS_RIGHT);
+
+        mLayoutGenerations.advance(mLeftWindow.getId());
+
+        assertThat(mNudgeGraph.get(mSourceFocusArea, View.FOCUS_RIGHT, mWindows)).isNull();
+    }
+
+    @Test
+    public void testInvalidatingCandidateWindowInvalidatesEdge() {
+        putEdge(View.FOCUS_RIGHT);
+
+        mLayoutGenerations.advance(mRightWindow.getId());
+
+        assertThat(mNudgeGraph.get(mSourceFocusArea, View.FOCUS_RIGHT, mWindows)).isNull();
+    }
+
+    @Test
+    public void testInvalidatingUninvolvedWindowKeepsEdge() {
+        putEdge(View.FOCUS_RIGHT);
+
+        mLayoutGenerations.advance(mRightWindow.getId() + 100);
+
+        assertThat(mNudgeGraph.get(mSourceFocusArea, View.FOCUS_RIGHT, mWindows)).isNotNull();
+    }
+
+    @Test
+    public void testNewWindowInvalidatesEdge() {
+        putEdge(View.FOCUS_RIGHT);
+
+        List<AccessibilityWindowInfo> windows = new ArrayList<>(mWindows);
+        windows.add(new WindowBuilder().build());
+
+        assertThat(mNudgeGraph.get(mSourceFocusArea, View.FOCUS_RIGHT, windows)).isNull();
+    }
+
+    private void putEdge(int direction) {
+        List<AccessibilityNodeInfo> candidates = new ArrayList<>();
+        candidates.add(mCandidate);
+        List<SubtreeSummary> summaries = new ArrayList<>();
+        summaries.add(new SubtreeSummary());
+        LayoutGenerations.Stamp stamp = mLayoutGenerations.stamp(mWindows,
+                new int[]{mLeftWindow.getId(), mRightWindow.getId()});
+        mNudgeGraph.put(mSourceFocusArea, direction, stamp, candidates, summaries);
+    }
+}
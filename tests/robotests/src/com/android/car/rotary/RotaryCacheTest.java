@@ -328,6 +328,58 @@ public class RotaryCacheTest {
         assertThat(node).isEqualTo(node2InWindow2);
     }
 
+    @Test
+    public void testCompactStorageGetFocusedNode() {
+        mRotaryCache.setCompactStorageEnabled(true);
+        mRotaryCache.saveFocusedNode(mFocusArea, mFocusedNode, 0);
+
+        assertThat(mRotaryCache.getFocusedNode(mFocusArea, mValidTime)).isEqualTo(mFocusedNode);
+        assertThat(mRotaryCache.getFocusedNode(mTargetFocusArea, mValidTime)).isNull();
+        assertThat(mRotaryCache.getFocusedNode(mFocusArea, mExpiredTime)).isNull();
+    }
+
+    @Test
+    public void testCompactStorageGetTargetFocusArea() {
+        mRotaryCache.setCompactStorageEnabled(true);
+        int direction = View.FOCUS_LEFT;
+        int oppositeDirection = RotaryCache.getOppositeDirection(direction);
+        mRotaryCache.saveTargetFocusArea(mFocusArea, mTargetFocusArea, direction, 0);
+
+        assertThat(mRotaryCache.getTargetFocusArea(mTargetFocusArea, oppositeDirection,
+                mValidTime)).isEqualTo(mFocusArea);
+        assertThat(mRotaryCache.getTargetFocusArea(mTargetFocusArea, direction, mValidTime))
+                .isNull();
+
+        mRotaryCache.clearFocusAreaHistory();
+        assertThat(mRotaryCache.isFocusAreaHistoryCacheEmpty()).isTrue();
+    }
+
+    @Test
+    public void testCompactStorageFocusAreaCacheOverflow() {
+        mRotaryCache.setCompactStorageEnabled(true);
+        int direction = View.FOCUS_RIGHT;
+        int oppositeDirection = RotaryCache.getOppositeDirection(direction);
+        mRotaryCache.saveTargetFocusArea(mFocusArea, mTargetFocusArea, direction, 0);
+
+        for (int i = 0; i < FOCUS_AREA_CACHE_SIZE; i++) {
+            saveFocusAreaHistory();
+        }
+
+        assertThat(mRotaryCache.getTargetFocusArea(mTargetFocusArea, oppositeDirection,
+                mValidTime)).isNull();
+    }
+
+    @Test
+    public void testCompactStorageGetWindowFocusInMultipleWindows() {
+        mRotaryCache.setCompactStorageEnabled(true);
+        AccessibilityNodeInfo node1InWindow1 = createFocusNodeInWindow(1);
+        AccessibilityNodeInfo node1InWindow2 = createFocusNodeInWindow(2);
+        mRotaryCache.saveWindowFocus(node1InWindow1, 0);
+        mRotaryCache.saveWindowFocus(node1InWindow2, 0);
+
+        assertThat(mRotaryCache.getMostRecentFocus(mValidTime)).isEqualTo(node1InWindow2);
+    }
+
     /** Creates a node that is in the view tree. */
     private AccessibilityNodeInfo createNode() {
         return new NodeBuilder().setInViewTree(true).build();
@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.car.rotary;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.junit.Assert.assertThrows;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+@RunWith(RobolectricTestRunner.class)
+public class RotationAcceleratorTest {
+
+    private static final int[] INTERVALS_MS = {50, 40, 20};
+    private static final int[] GAINS_PERCENT = {100, 200, 300};
+    private static final int SPIN_TIMEOUT_MS = 250;
+
+    private RotationAccelerator mRotationAccelerator;
+
+    @Before
+    public void setUp() {
+        mRotationAccelerator = new RotationAccelerator(INTERVALS_MS, GAINS_PERCENT,
+                /* smoothingPercent= */ 100, SPIN_TIMEOUT_MS);
+    }
+
+    @Test
+    public void testSlowSpinIsNotAccelerated() {
+        long time = 1000;
+        for (int i = 0; i < 10; i++) {
+            assertThat(mRotationAccelerator.addDetent(/* clockwise= */ true, time)).isEqualTo(1);
+            time += 100;
+        }
+    }
+
+    @Test
+    public void testFastSpinIsAccelerated() {
+        assertThat(mRotationAccelerator.addDetent(/* clockwise= */ true, 1000)).isEqualTo(1);
+        assertThat(mRotationAccelerator.addDetent(/* clockwise= */ true, 1040)).isEqualTo(2);
+        assertThat(mRotationAccelerator.addDetent(/* clockwise= */ true, 1060)).isEqualTo(3);
+        assertThat(mRotationAccelerator.addDetent(/* clockwise= */ true, 1070)).isEqualTo(3);
+    }
+
+    @Test
+    public void testGainIsInterpolatedAndFractionsCarriedOver() {
+        // An interval of 45 ms is halfway between 100% and 200%, so 150%.
+        long time = 1000;
+        mRotationAccelerator.addDetent(/* clockwise= */ true, time);
+        int ticks = 0;
+        for (int i = 0; i < 4; i++) {
+            time += 45;
+            ticks += mRotationAccelerator.addDetent(/* clockwise= */ true, time);
+        }
+
+        assertThat(ticks).isEqualTo(6);
+    }
+
+    @Test
+    public void testIntervalIsSmoothed() {
+        RotationAccelerator accelerator = new RotationAccelerator(INTERVALS_MS, GAINS_PERCENT,
+                /* smoothingPercent= */ 50, SPIN_TIMEOUT_MS);
+        accelerator.addDetent(/* clockwise= */ true, 1000);
+        assertThat(accelerator.addDetent(/* clockwise= */ true, 1060)).isEqualTo(1);
+        // A single fast detent only brings the smoothed interval down to (60 + 20) / 2 = 40 ms.
+        assertThat(accelerator.addDetent(/* clockwise= */ true, 1080)).isEqualTo(2);
+    }
+
+    @Test
+    public void testPauseOrReversalStartsNewSpin() {
+        mRotationAccelerator.addDetent(/* clockwise= */ true, 1000);
+        assertThat(mRotationAccelerator.addDetent(/* clockwise= */ true, 1020)).isEqualTo(3);
+
+        assertThat(mRotationAccelerator.addDetent(/* clockwise= */ false, 1040)).isEqualTo(1);
+        assertThat(mRotationAccelerator.addDetent(/* clockwise= */ false, 1060)).isEqualTo(3);
+
+        assertThat(mRotationAccelerator.addDetent(/* clockwise= */ false,
+                1060 + SPIN_TIMEOUT_MS + 1)).isEqualTo(1);
+    }
+
+    @Test
+    public void testAddDetentsAssumesConstantSpeed() {
+        assertThat(mRotationAccelerator.addDetents(/* clockwise= */ true, /* count= */ 3,
+                /* eventTime= */ 1000)).isEqualTo(3);
+        assertThat(mRotationAccelerator.addDetents(/* clockwise= */ true, /* count= */ 3,
+                /* eventTime= */ 1060)).isEqualTo(9);
+    }
+
+    @Test
+    public void testResetStartsNewSpin() {
+        mRotationAccelerator.addDetent(/* clockwise= */ true, 1000);
+        mRotationAccelerator.reset();
+
+        assertThat(mRotationAccelerator.addDetent(/* clockwise= */ true, 1020)).isEqualTo(1);
+        assertThat(mRotationAccelerator.addDetent(/* clockwise= */ true, 1040)).isEqualTo(3);
+    }
+
+    @Test
+    public void testStepGainsMatchDeprecatedThresholds() {
+        RotationAccelerator accelerator = RotationAccelerator.createWithStepGains(
+                /* acceleration3xMs= */ 20, /* acceleration2xMs= */ 40,
+                /* smoothingPercent= */ 100, SPIN_TIMEOUT_MS);
+
+        assertThat(accelerator.addDetent(/* clockwise= */ true, 1000)).isEqualTo(1);
+        assertThat(accelerator.addDetent(/* clockwise= */ true, 1050)).isEqualTo(1);
+        assertThat(accelerator.addDetent(/* clockwise= */ true, 1090)).isEqualTo(2);
+        assertThat(accelerator.addDetent(/* clockwise= */ true, 1111)).isEqualTo(2);
+        assertThat(accelerator.addDetent(/* clockwise= */ true, 1131)).isEqualTo(3);
+    }
+
+    @Test
+    public void testInvalidCurveThrows() {
+        assertThrows(IllegalArgumentException.class, () -> new RotationAccelerator(
+                new int[]{20, 40}, new int[]{100, 200}, /* smoothingPercent= */ 50,
+                SPIN_TIMEOUT_MS));
+        assertThrows(IllegalArgumentException.class, () -> new RotationAccelerator(
+                new int[]{40}, new int[]{50}, /* smoothingPercent= */ 50, SPIN_TIMEOUT_MS));
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.car.rotary;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+@RunWith(RobolectricTestRunner.class)
+public class RotationCoalescerTest {
+
+    private final RotationCoalescer mRotationCoalescer = new RotationCoalescer();
+
+    @Test
+    public void testSameDirectionRotationsAreSummed() {
+        mRotationCoalescer.add(/* clockwise= */ true, /* count= */ 1, /* inputTime= */ 110);
+        mRotationCoalescer.add(/* clockwise= */ true, /* count= */ 2, /* inputTime= */ 120);
+        mRotationCoalescer.add(/* clockwise= */ true, /* count= */ 1, /* inputTime= */ 130);
+
+        assertThat(mRotationCoalescer.hasRotation()).isTrue();
+        assertThat(mRotationCoalescer.isClockwise()).isTrue();
+        assertThat(mRotationCoalescer.getCount()).isEqualTo(4);
+        assertThat(mRotationCoalescer.getRotationCount()).isEqualTo(3);
+        assertThat(mRotationCoalescer.getFirstInputTime()).isEqualTo(110);
+    }
+
+    @Test
+    public void testOppositeDirectionRotationsCancelOut() {
+        mRotationCoalescer.add(/* clockwise= */ true, /* count= */ 3, /* inputTime= */ 140);
+        mRotationCoalescer.add(/* clockwise= */ false, /* count= */ 1, /* inputTime= */ 150);
+
+        assertThat(mRotationCoalescer.isClockwise()).isTrue();
+        assertThat(mRotationCoalescer.getCount()).isEqualTo(2);
+
+        mRotationCoalescer.add(/* clockwise= */ false, /* count= */ 4, /* inputTime= */ 160);
+
+        assertThat(mRotationCoalescer.isClockwise()).isFalse();
+        assertThat(mRotationCoalescer.getCount()).isEqualTo(2);
+
+        mRotationCoalescer.add(/* clockwise= */ true, /* count= */ 2, /* inputTime= */ 170);
+
+        assertThat(mRotationCoalescer.hasRotation()).isFalse();
+    }
+
+    @Test
+    public void testReset() {
+        mRotationCoalescer.add(/* clockwise= */ false, /* count= */ 1, /* inputTime= */ 180);
+        mRotationCoalescer.reset();
+
+        assertThat(mRotationCoalescer.hasRotation()).isFalse();
+        assertThat(mRotationCoalescer.getRotationCount()).isEqualTo(0);
+
+        mRotationCoalescer.add(/* clockwise= */ true, /* count= */ 1, /* inputTime= */ 190);
+
+        assertThat(mRotationCoalescer.getCount()).isEqualTo(1);
+        assertThat(mRotationCoalescer.getFirstInputTime()).isEqualTo(190);
+    }
+}
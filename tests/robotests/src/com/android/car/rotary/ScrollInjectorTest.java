@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.car.rotary;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.view.MotionEvent;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@RunWith(RobolectricTestRunner.class)
+public class ScrollInjectorTest {
+
+    private static final int DISPLAY_ID = 0;
+
+    /** The axis values of the injected events, in order, with their axes. */
+    private final List<Float> mValues = new ArrayList<>();
+    private final List<Integer> mAxes = new ArrayList<>();
+
+    private final ScrollInjector.Injector mInjector = event -> {
+        int axis = event.getAxisValue(MotionEvent.AXIS_VSCROLL) != 0
+                ? MotionEvent.AXIS_VSCROLL
+                : MotionEvent.AXIS_HSCROLL;
+        mAxes.add(axis);
+        mValues.add(event.getAxisValue(axis));
+    };
+
+    @Test
+    public void testScrollIsSpreadOverFrames() {
+        ScrollInjector injector = new ScrollInjector(mInjector, /* durationMs= */ 100,
+                /* distancePerRotation= */ 1f, ScrollInjector.EASING_LINEAR);
+
+        injector.scroll(DISPLAY_ID, MotionEvent.AXIS_VSCROLL, /* rotationCount= */ 3,
+                /* nowNanos= */ 0);
+        assertThat(mValues).isEmpty();
+
+        injector.doFrame(ms(25));
+        injector.doFrame(ms(50));
+        injector.doFrame(ms(100));
+        // The stream is over, so later frames don't inject anything.
+        injector.doFrame(ms(125));
+
+        assertThat(mValues).hasSize(3);
+        assertThat(mValues.get(0)).isWithin(1e-4f).of(0.75f);
+        assertThat(mValues.get(1)).isWithin(1e-4f).of(0.75f);
+        assertThat(mValues.get(2)).isWithin(1e-4f).of(1.5f);
+    }
+
+    @Test
+    public void testDecelerateEasingInjectsTotalDistance() {
+        ScrollInjector injector = new ScrollInjector(mInjector, /* durationMs= */ 100,
+                /* distancePerRotation= */ 2f, ScrollInjector.EASING_DECELERATE);
+
+        injector.scroll(DISPLAY_ID, MotionEvent.AXIS_VSCROLL, /* rotationCount= */ -2,
+                /* nowNanos= */ 0);
+        for (int ms = 16; ms <= 112; ms += 16) {
+            injector.doFrame(ms(ms));
+        }
+
+        float total = 0;
+        for (float value : mValues) {
+            total += value;
+        }
+        assertThat(total).isWithin(1e-4f).of(-4f);
+        // Faster at first.
+        assertThat(Math.abs(mValues.get(0))).isGreaterThan(Math.abs(mValues.get(5)));
+    }
+
+    @Test
+    public void testScrollDuringStreamExtendsIt() {
+        ScrollInjector injector = new ScrollInjector(mInjector, /* durationMs= */ 100,
+                /* distancePerRotation= */ 1f, ScrollInjector.EASING_LINEAR);
+
+        injector.scroll(DISPLAY_ID, MotionEvent.AXIS_VSCROLL, /* rotationCount= */ 2,
+                /* nowNanos= */ 0);
+        injector.doFrame(ms(50));
+        // 1 of 2 has been injected, so 1 + 2 remain, over a new 100 ms.
+        injector.scroll(DISPLAY_ID, MotionEvent.AXIS_VSCROLL, /* rotationCount= */ 2,
+                /* nowNanos= */ ms(50));
+        injector.doFrame(ms(100));
+        injector.doFrame(ms(150));
+
+        assertThat(mValues).hasSize(3);
+        assertThat(mValues.get(0)).isWithin(1e-4f).of(1f);
+        assertThat(mValues.get(1)).isWithin(1e-4f).of(1.5f);
+        assertThat(mValues.get(2)).isWithin(1e-4f).of(1.5f);
+    }
+
+    @Test
+    public void testScrollOnOtherAxisFinishesStream() {
+        ScrollInjector injector = new ScrollInjector(mInjector, /* durationMs= */ 100,
+                /* distancePerRotation= */ 1f, ScrollInjector.EASING_LINEAR);
+
+        injector.scroll(DISPLAY_ID, MotionEvent.AXIS_VSCROLL, /* rotationCount= */ 2,
+                /* nowNanos= */ 0);
+        injector.doFrame(ms(50));
+        injector.scroll(DISPLAY_ID, MotionEvent.AXIS_HSCROLL, /* rotationCount= */ 1,
+                /* nowNanos= */ ms(50));
+
+        assertThat(mAxes).containsExactly(MotionEvent.AXIS_VSCROLL, MotionEvent.AXIS_VSCROLL);
+        assertThat(mValues.get(1)).isWithin(1e-4f).of(1f);
+
+        injector.doFrame(ms(150));
+
+        assertThat(mAxes.get(2)).isEqualTo(MotionEvent.AXIS_HSCROLL);
+        assertThat(mValues.get(2)).isWithin(1e-4f).of(1f);
+    }
+
+    @Test
+    public void testScrollFinishedListenerIsCalledAfterLastFrame() {
+        ScrollInjector injector = new ScrollInjector(mInjector, /* durationMs= */ 100,
+                /* distancePerRotation= */ 1f, ScrollInjector.EASING_LINEAR);
+        int[] finishedCount = {0};
+        injector.setOnScrollFinishedListener(() -> finishedCount[0]++);
+
+        injector.scroll(DISPLAY_ID, MotionEvent.AXIS_VSCROLL, /* rotationCount= */ 2,
+                /* nowNanos= */ 0);
+        injector.doFrame(ms(50));
+
+        assertThat(injector.isRunning()).isTrue();
+        assertThat(finishedCount[0]).isEqualTo(0);
+
+        injector.doFrame(ms(100));
+
+        assertThat(injector.isRunning()).isFalse();
+        assertThat(finishedCount[0]).isEqualTo(1);
+    }
+
+    @Test
+    public void testZeroDurationInjectsAtOnce() {
+        ScrollInjector injector = new ScrollInjector(mInjector, /* durationMs= */ 0,
+                /* distancePerRotation= */ 1f, ScrollInjector.EASING_DECELERATE);
+
+        injector.scroll(DISPLAY_ID, MotionEvent.AXIS_VSCROLL, /* rotationCount= */ 3,
+                /* nowNanos= */ 0);
+
+        assertThat(mValues).containsExactly(3f);
+    }
+
+    private static long ms(long ms) {
+        return TimeUnit.MILLISECONDS.toNanos(ms);
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.car.rotary;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.AdditionalAnswers.returnsFirstArg;
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+import android.view.accessibility.AccessibilityNodeInfo;
+import android.view.accessibility.AccessibilityWindowInfo;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+@RunWith(RobolectricTestRunner.class)
+public class ScrollableContainerCacheTest {
+
+    private final LayoutGenerations mLayoutGenerations = new LayoutGenerations();
+    private final ScrollableContainerCache mScrollableContainerCache =
+            new ScrollableContainerCache(mLayoutGenerations);
+
+    private AccessibilityWindowInfo mWindow;
+    private AccessibilityNodeInfo mContainer;
+    private AccessibilityNodeInfo mNode;
+
+    @Before
+    public void setUp() {
+        // Copies of mock nodes are the nodes themselves.
+        NodeCopier nodeCopier = mock(NodeCopier.class);
+        doAnswer(returnsFirstArg()).when(nodeCopier).copy(any(AccessibilityNodeInfo.class));
+        mScrollableContainerCache.setNodeCopier(nodeCopier);
+
+        mWindow = new WindowBuilder().build();
+        mContainer = new NodeBuilder().setWindow(mWindow).build();
+        mNode = new NodeBuilder().setWindow(mWindow).setParent(mContainer).build();
+    }
+
+    @Test
+    public void testGetReturnsSavedContainer() {
+        mScrollableContainerCache.put(mNode, mContainer, mLayoutGenerations.get(mWindow.getId()));
+
+        assertThat(mScrollableContainerCache.contains(mNode)).isTrue();
+        assertThat(mScrollableContainerCache.get(mNode)).isEqualTo(mContainer);
+    }
+
+    @Test
+    public void testInvalidatingWindowInvalidatesContainer() {
+        mScrollableContainerCache.put(mNode, mContainer, mLayoutGenerations.get(mWindow.getId()));
+
+        mLayoutGenerations.advance(mWindow.getId());
+
+        assertThat(mScrollableContainerCache.contains(mNode)).isFalse();
+        assertThat(mScrollableContainerCache.get(mNode)).isNull();
+    }
+
+    @Test
+    public void testContainerFoundBeforeInvalidationIsNotCached() {
+        // The container is looked up in one generation, but the window is invalidated before it's
+        // cached, e.g. by the main thread while a worker thread climbs the ancestors.
+        int generation = mLayoutGenerations.get(mWindow.getId());
+        mLayoutGenerations.advance(mWindow.getId());
+
+        mScrollableContainerCache.put(mNode, mContainer, generation);
+
+        assertThat(mScrollableContainerCache.contains(mNode)).isFalse();
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.car.rotary;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.graphics.Rect;
+import android.view.View;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+@RunWith(RobolectricTestRunner.class)
+public class SpatialIndexTest {
+
+    private static final int[] DIRECTIONS =
+            {View.FOCUS_UP, View.FOCUS_DOWN, View.FOCUS_LEFT, View.FOCUS_RIGHT};
+
+    @Test
+    public void testQuery() {
+        // A row of three rectangles, with IDs 10, 20 and 30 from left to right.
+        int[] ids = {10, 20, 30};
+        int[] bounds = {
+                0, 0, 100, 100,
+                100, 0, 200, 100,
+                200, 0, 300, 100};
+        SpatialIndex spatialIndex = new SpatialIndex(ids, bounds, ids.length);
+        int[] outIds = new int[spatialIndex.size()];
+
+        Rect sourceBounds = new Rect(100, 0, 200, 100);
+        int count = spatialIndex.query(sourceBounds, View.FOCUS_RIGHT, outIds);
+        assertThat(Arrays.copyOf(outIds, count)).asList().containsExactly(30);
+
+        count = spatialIndex.query(sourceBounds, View.FOCUS_LEFT, outIds);
+        assertThat(Arrays.copyOf(outIds, count)).asList().containsExactly(10);
+
+        count = spatialIndex.query(sourceBounds, View.FOCUS_DOWN, outIds);
+        assertThat(count).isEqualTo(0);
+
+        // Source outside the indexed area.
+        sourceBounds = new Rect(0, -200, 300, -100);
+        count = spatialIndex.query(sourceBounds, View.FOCUS_DOWN, outIds);
+        assertThat(Arrays.copyOf(outIds, count)).asList().containsExactly(10, 20, 30).inOrder();
+    }
+
+    @Test
+    public void testQueryEmptyIndex() {
+        SpatialIndex spatialIndex = new SpatialIndex(new int[0], new int[0], 0);
+        int count = spatialIndex.query(new Rect(0, 0, 10, 10), View.FOCUS_UP, new int[0]);
+        assertThat(count).isEqualTo(0);
+    }
+
+    /** Compares queries against a linear scan using {@link FocusFinder#isCandidate}. */
+    @Test
+    public void testQueryFindsAllCandidates() {
+        Random random = new Random(/* seed= */ 1);
+        int count = 200;
+        int[] ids = new int[count];
+        int[] bounds = new int[count * 4];
+        for (int i = 0; i < count; i++) {
+            ids[i] = i;
+            int left = random.nextInt(1000);
+            int top = random.nextInt(1000);
+            // Include some empty rectangles.
+            bounds[i * 4] = left;
+            bounds[i * 4 + 1] = top;
+            bounds[i * 4 + 2] = left + random.nextInt(200);
+            bounds[i * 4 + 3] = top + random.nextInt(200);
+        }
+        SpatialIndex spatialIndex = new SpatialIndex(ids, bounds, count);
+        int[] outIds = new int[count];
+        Rect candidateBounds = new Rect();
+
+        for (int trial = 0; trial < 50; trial++) {
+            int left = random.nextInt(1200) - 100;
+            int top = random.nextInt(1200) - 100;
+            Rect sourceBounds = new Rect(left, top, left + random.nextInt(300),
+                    top + random.nextInt(300));
+            for (int direction : DIRECTIONS) {
+                int found = spatialIndex.query(sourceBounds, direction, outIds);
+                List<Integer> results = new ArrayList<>();
+                for (int i = 0; i < found; i++) {
+                    results.add(outIds[i]);
+                }
+                assertThat(results).isInOrder();
+                for (int i = 0; i < count; i++) {
+                    candidateBounds.set(bounds[i * 4], bounds[i * 4 + 1], bounds[i * 4 + 2],
+                            bounds[i * 4 + 3]);
+                    if (FocusFinder.isCandidate(sourceBounds, candidateBounds, direction)) {
+                        assertThat(results).contains(i);
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.car.rotary;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.AdditionalAnswers.returnsFirstArg;
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.doAnswer;
+
+import android.graphics.Rect;
+import android.view.View;
+import android.view.accessibility.AccessibilityNodeInfo;
+
+import com.android.car.ui.FocusArea;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@RunWith(RobolectricTestRunner.class)
+public class SubtreeSummaryTest {
+
+    private static final String FOCUS_AREA_CLASS_NAME = FocusArea.class.getName();
+
+    @Mock
+    private NodeCopier mNodeCopier;
+
+    private List<AccessibilityNodeInfo> mNodeList;
+
+    private TreeTraverser mTreeTraverser;
+
+    private AccessibilityNodeInfo mRoot;
+    private AccessibilityNodeInfo mFocusArea;
+    private AccessibilityNodeInfo mEmptyFocusArea;
+
+    /**
+     * Builds the following node tree:
+     * <pre>
+     *                       root
+     *                      /    \
+     *                    /        \
+     *            focusArea      emptyFocusArea
+     *             /    \               |
+     *           /        \             |
+     *      button1    container    disabledButton
+     *                     |
+     *                     |
+     *                  button2
+     * </pre>
+     * where container and its descendant button2 can both take focus.
+     */
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        doAnswer(returnsFirstArg()).when(mNodeCopier).copy(any(AccessibilityNodeInfo.class));
+        mTreeTraverser = new TreeTraverser();
+        mTreeTraverser.setNodeCopier(mNodeCopier);
+        mNodeList = new ArrayList<>();
+
+        mRoot = new NodeBuilder()
+                .setNodeList(mNodeList)
+                .setBoundsInScreen(new Rect(0, 0, 400, 200))
+                .build();
+        mFocusArea = new NodeBuilder()
+                .setNodeList(mNodeList)
+                .setParent(mRoot)
+                .setClassName(FOCUS_AREA_CLASS_NAME)
+                .setBoundsInScreen(new Rect(0, 0, 400, 100))
+                .build();
+        buildFocusableNode(mFocusArea, new Rect(0, 0, 100, 100));
+        AccessibilityNodeInfo container = buildFocusableNode(mFocusArea,
+                new Rect(100, 0, 400, 100));
+        buildFocusableNode(container, new Rect(300, 0, 400, 100));
+        mEmptyFocusArea = new NodeBuilder()
+                .setNodeList(mNodeList)
+                .setParent(mRoot)
+                .setClassName(FOCUS_AREA_CLASS_NAME)
+                .setBoundsInScreen(new Rect(0, 100, 400, 200))
+                .build();
+        new NodeBuilder()
+                .setNodeList(mNodeList)
+                .setParent(mEmptyFocusArea)
+                .setFocusable(true)
+                .setVisibleToUser(true)
+                .setEnabled(false)
+                .setBoundsInScreen(new Rect(0, 100, 400, 200))
+                .build();
+    }
+
+    @Test
+    public void testBuildFromLiveNodes() {
+        SubtreeSummary summary = SubtreeSummary.build(mFocusArea, mTreeTraverser);
+        assertThat(summary.isEmpty()).isFalse();
+        // Focusable nodes inside other focusable nodes are included.
+        assertThat(summary.size()).isEqualTo(3);
+
+        SubtreeSummary emptySummary = SubtreeSummary.build(mEmptyFocusArea, mTreeTraverser);
+        assertThat(emptySummary.isEmpty()).isTrue();
+        assertThat(emptySummary.hasCandidate(new Rect(0, 0, 10, 10), View.FOCUS_DOWN)).isFalse();
+    }
+
+    @Test
+    public void testHasCandidate() {
+        SubtreeSummary summary = SubtreeSummary.build(mFocusArea, mTreeTraverser);
+
+        // Source below the focus area.
+        Rect sourceBounds = new Rect(0, 100, 400, 200);
+        assertThat(summary.hasCandidate(sourceBounds, View.FOCUS_UP)).isTrue();
+        assertThat(summary.hasCandidate(sourceBounds, View.FOCUS_DOWN)).isFalse();
+
+        // Only the innermost button is to the right of the source.
+        sourceBounds = new Rect(250, 0, 300, 100);
+        assertThat(summary.hasCandidate(sourceBounds, View.FOCUS_RIGHT)).isTrue();
+    }
+
+    private AccessibilityNodeInfo buildFocusableNode(AccessibilityNodeInfo parent, Rect bounds) {
+        return new NodeBuilder()
+                .setNodeList(mNodeList)
+                .setParent(parent)
+                .setFocusable(true)
+                .setVisibleToUser(true)
+                .setEnabled(true)
+                .setBoundsInScreen(bounds)
+                .build();
+    }
+}
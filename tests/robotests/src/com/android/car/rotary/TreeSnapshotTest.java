@@ -0,0 +1,249 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.car.rotary;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.AdditionalAnswers.returnsFirstArg;
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.doAnswer;
+
+import android.graphics.Rect;
+import android.view.accessibility.AccessibilityNodeInfo;
+
+import com.android.car.ui.FocusArea;
+import com.android.car.ui.FocusParkingView;
+import com.android.car.ui.utils.RotaryConstants;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+@RunWith(RobolectricTestRunner.class)
+public class TreeSnapshotTest {
+
+    private static final String FOCUS_AREA_CLASS_NAME = FocusArea.class.getName();
+    private static final String FOCUS_PARKING_VIEW_CLASS_NAME = FocusParkingView.class.getName();
+
+    @Mock
+    private NodeCopier mNodeCopier;
+
+    private List<AccessibilityNodeInfo> mNodeList;
+
+    private AccessibilityNodeInfo mNode0;
+    private AccessibilityNodeInfo mNode1;
+    private AccessibilityNodeInfo mNode2;
+    private AccessibilityNodeInfo mNode3;
+    private AccessibilityNodeInfo mNode4;
+    private AccessibilityNodeInfo mNode5;
+    private AccessibilityNodeInfo mNode6;
+
+    private TreeSnapshot mTreeSnapshot;
+
+    /**
+     * Builds a snapshot of the following node tree:
+     * <pre>
+     *                   node0
+     *                  /     \
+     *                /         \
+     *           node1           node4
+     *           /   \           /   \
+     *         /       \       /       \
+     *      node2    node3   node5    node6
+     * </pre>
+     * where node1 and node4 are focus areas, node2, node3 and node6 can take focus, node5 is a
+     * FocusParkingView and node4 is a vertically scrollable container.
+     */
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+
+        // NodeCopier#copy() doesn't work when passed a mock node, so we create a mock method
+        // which returns the passed node itself rather than a copy.
+        doAnswer(returnsFirstArg()).when(mNodeCopier).copy(any(AccessibilityNodeInfo.class));
+
+        mNodeList = new ArrayList<>();
+        mNode0 = new NodeBuilder()
+                .setNodeList(mNodeList)
+                .setBoundsInScreen(new Rect(0, 0, 100, 200))
+                .build();
+        mNode1 = new NodeBuilder()
+                .setNodeList(mNodeList)
+                .setParent(mNode0)
+                .setClassName(FOCUS_AREA_CLASS_NAME)
+                .setBoundsInScreen(new Rect(0, 0, 100, 100))
+                .build();
+        mNode2 = buildFocusableNode(mNode1, new Rect(0, 0, 50, 100));
+        mNode3 = buildFocusableNode(mNode1, new Rect(50, 0, 100, 100));
+        mNode4 = new NodeBuilder()
+                .setNodeList(mNodeList)
+                .setParent(mNode0)
+                .setClassName(FOCUS_AREA_CLASS_NAME)
+                .setContentDescription(RotaryConstants.ROTARY_VERTICALLY_SCROLLABLE)
+                .setActionList(Collections.singletonList(
+                        AccessibilityNodeInfo.AccessibilityAction.ACTION_SCROLL_FORWARD))
+                .setBoundsInScreen(new Rect(0, 100, 100, 200))
+                .build();
+        mNode5 = new NodeBuilder()
+                .setNodeList(mNodeList)
+                .setParent(mNode4)
+                .setClassName(FOCUS_PARKING_VIEW_CLASS_NAME)
+                .setFocusable(true)
+                .setVisibleToUser(true)
+                .setEnabled(true)
+                .build();
+        mNode6 = buildFocusableNode(mNode4, new Rect(0, 100, 100, 200));
+
+        mTreeSnapshot = TreeSnapshot.build(mNode0, mNodeCopier);
+    }
+
+    @Test
+    public void testBuild() {
+        assertThat(mTreeSnapshot.size()).isEqualTo(7);
+
+        // Nodes are indexed in depth-first order.
+        assertThat(mTreeSnapshot.indexOf(mNode0)).isEqualTo(0);
+        assertThat(mTreeSnapshot.indexOf(mNode1)).isEqualTo(1);
+        assertThat(mTreeSnapshot.indexOf(mNode2)).isEqualTo(2);
+        assertThat(mTreeSnapshot.indexOf(mNode3)).isEqualTo(3);
+        assertThat(mTreeSnapshot.indexOf(mNode4)).isEqualTo(4);
+        assertThat(mTreeSnapshot.indexOf(mNode5)).isEqualTo(5);
+        assertThat(mTreeSnapshot.indexOf(mNode6)).isEqualTo(6);
+        assertThat(mTreeSnapshot.copyNode(4)).isSameAs(mNode4);
+
+        AccessibilityNodeInfo otherNode = new NodeBuilder().setNodeList(mNodeList).build();
+        assertThat(mTreeSnapshot.indexOf(otherNode)).isEqualTo(TreeSnapshot.NO_NODE);
+        assertThat(mTreeSnapshot.contains(otherNode)).isFalse();
+
+        assertThat(mTreeSnapshot.getParent(0)).isEqualTo(TreeSnapshot.NO_NODE);
+        assertThat(mTreeSnapshot.getParent(3)).isEqualTo(1);
+        assertThat(mTreeSnapshot.getParent(4)).isEqualTo(0);
+        assertThat(mTreeSnapshot.getSubtreeEnd(0)).isEqualTo(7);
+        assertThat(mTreeSnapshot.getSubtreeEnd(1)).isEqualTo(4);
+        assertThat(mTreeSnapshot.getSubtreeEnd(2)).isEqualTo(3);
+
+        Rect bounds = new Rect();
+        mTreeSnapshot.getBoundsInScreen(3, bounds);
+        assertThat(bounds).isEqualTo(new Rect(50, 0, 100, 100));
+
+        assertThat(mTreeSnapshot.isFocusArea(1)).isTrue();
+        assertThat(mTreeSnapshot.isFocusArea(2)).isFalse();
+        assertThat(mTreeSnapshot.isFocusParkingView(5)).isTrue();
+        assertThat(mTreeSnapshot.isScrollableContainer(4)).isTrue();
+        assertThat(mTreeSnapshot.isScrollableContainer(1)).isFalse();
+        assertThat(mTreeSnapshot.hasFlags(4, TreeSnapshot.FLAG_CAN_SCROLL_FORWARD)).isTrue();
+        assertThat(mTreeSnapshot.hasFlags(4, TreeSnapshot.FLAG_CAN_SCROLL_BACKWARD)).isFalse();
+
+        // A FocusParkingView can't take focus even though it's focusable.
+        assertThat(mTreeSnapshot.canTakeFocus(2)).isTrue();
+        assertThat(mTreeSnapshot.canTakeFocus(5)).isFalse();
+        assertThat(mTreeSnapshot.canHaveFocus(1)).isTrue();
+        assertThat(mTreeSnapshot.canHaveFocus(5)).isFalse();
+    }
+
+    @Test
+    public void testDepthFirstSearch() {
+        // Iterate in depth-first order, finding nothing.
+        List<Integer> visited = new ArrayList<>();
+        int result = mTreeSnapshot.depthFirstSearch(0, /* skipPredicate= */ null, index -> {
+            visited.add(index);
+            return false;
+        });
+        assertThat(result).isEqualTo(TreeSnapshot.NO_NODE);
+        assertThat(visited).containsExactly(0, 1, 2, 3, 4, 5, 6).inOrder();
+
+        // Skip focus areas.
+        visited.clear();
+        result = mTreeSnapshot.depthFirstSearch(0,
+                /* skipPredicate= */ mTreeSnapshot::isFocusArea, index -> {
+                    visited.add(index);
+                    return false;
+                });
+        assertThat(result).isEqualTo(TreeSnapshot.NO_NODE);
+        assertThat(visited).containsExactly(0);
+
+        // Search a subtree.
+        result = mTreeSnapshot.depthFirstSearch(4, /* skipPredicate= */ null,
+                mTreeSnapshot::canTakeFocus);
+        assertThat(result).isEqualTo(6);
+    }
+
+    @Test
+    public void testReverseDepthFirstSearch() {
+        List<Integer> visited = new ArrayList<>();
+        int result = mTreeSnapshot.reverseDepthFirstSearch(0, index -> {
+            visited.add(index);
+            return false;
+        });
+        assertThat(result).isEqualTo(TreeSnapshot.NO_NODE);
+        assertThat(visited).containsExactly(6, 5, 4, 3, 2, 1, 0).inOrder();
+
+        result = mTreeSnapshot.reverseDepthFirstSearch(1, mTreeSnapshot::canTakeFocus);
+        assertThat(result).isEqualTo(3);
+    }
+
+    @Test
+    public void testDepthFirstSelect() {
+        List<AccessibilityNodeInfo> selected = new ArrayList<>();
+        mTreeSnapshot.depthFirstSelect(0, mTreeSnapshot::isFocusArea, selected);
+        assertThat(selected).containsExactly(mNode1, mNode4).inOrder();
+
+        selected.clear();
+        mTreeSnapshot.depthFirstSelect(0, mTreeSnapshot::canTakeFocus, selected);
+        assertThat(selected).containsExactly(mNode2, mNode3, mNode6).inOrder();
+    }
+
+    @Test
+    public void testFindNodeOrAncestor() {
+        // Should check the node itself.
+        int result = mTreeSnapshot.findNodeOrAncestor(4, /* stopPredicate= */ null,
+                mTreeSnapshot::isScrollableContainer);
+        assertThat(result).isEqualTo(4);
+
+        // Parent.
+        result = mTreeSnapshot.findNodeOrAncestor(6, /* stopPredicate= */ null,
+                mTreeSnapshot::isScrollableContainer);
+        assertThat(result).isEqualTo(4);
+
+        // No ancestor found.
+        result = mTreeSnapshot.findNodeOrAncestor(2, /* stopPredicate= */ null,
+                mTreeSnapshot::isScrollableContainer);
+        assertThat(result).isEqualTo(TreeSnapshot.NO_NODE);
+
+        // Stop before target.
+        result = mTreeSnapshot.findNodeOrAncestor(2,
+                /* stopPredicate= */ mTreeSnapshot::isFocusArea, index -> index == 0);
+        assertThat(result).isEqualTo(TreeSnapshot.NO_NODE);
+    }
+
+    private AccessibilityNodeInfo buildFocusableNode(AccessibilityNodeInfo parent, Rect bounds) {
+        return new NodeBuilder()
+                .setNodeList(mNodeList)
+                .setParent(parent)
+                .setFocusable(true)
+                .setVisibleToUser(true)
+                .setEnabled(true)
+                .setBoundsInScreen(bounds)
+                .build();
+    }
+}
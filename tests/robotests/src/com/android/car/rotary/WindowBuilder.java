@@ -31,6 +31,11 @@ import androidx.annotation.Nullable;
  * don't need to be recycled.
  */
 class WindowBuilder {
+    /** The ID to assign to the next window unless {@link #setId} is called. */
+    private static int sNextId = 1;
+
+    /** The window ID. Unique by default, like real window IDs. */
+    private int mId = sNextId++;
     /** The root node in the window's hierarchy. */
     private AccessibilityNodeInfo mRoot;
     /** The bounds of this window in the screen. */
@@ -40,6 +45,8 @@ class WindowBuilder {
 
     AccessibilityWindowInfo build() {
         AccessibilityWindowInfo window = mock(AccessibilityWindowInfo.class);
+        // Mock AccessibilityWindowInfo#getId().
+        when(window.getId()).thenReturn(mId);
         if (mRoot != null) {
             // Mock AccessibilityWindowInfo#getRoot().
             when(window.getRoot()).thenReturn(mRoot);
@@ -58,6 +65,11 @@ class WindowBuilder {
         return window;
     }
 
+    WindowBuilder setId(int id) {
+        mId = id;
+        return this;
+    }
+
     WindowBuilder setRoot(@Nullable AccessibilityNodeInfo root) {
         mRoot = root;
         return this;
@@ -33,11 +33,13 @@ public class WindowBuilderTest {
         AccessibilityNodeInfo root = new NodeBuilder().build();
         Rect bounds = new Rect(100, 200, 300, 400);
         AccessibilityWindowInfo window = new WindowBuilder()
+                .setId(7)
                 .setRoot(root)
                 .setBoundsInScreen(bounds)
                 .setType(AccessibilityWindowInfo.TYPE_SYSTEM)
                 .build();
 
+        assertThat(window.getId()).isEqualTo(7);
         assertThat(window.getRoot()).isSameAs(root);
 
         Rect boundsInScreen = new Rect();
@@ -45,4 +47,12 @@ public class WindowBuilderTest {
         assertThat(boundsInScreen).isEqualTo(bounds);
         assertThat(window.getType()).isEqualTo(AccessibilityWindowInfo.TYPE_SYSTEM);
     }
+
+    @Test
+    public void testBuildWindowsWithUniqueIds() {
+        AccessibilityWindowInfo window1 = new WindowBuilder().build();
+        AccessibilityWindowInfo window2 = new WindowBuilder().build();
+
+        assertThat(window1.getId()).isNotEqualTo(window2.getId());
+    }
 }
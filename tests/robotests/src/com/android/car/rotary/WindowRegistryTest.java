@@ -0,0 +1,185 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.car.rotary;
+
+import static android.view.accessibility.AccessibilityEvent.WINDOWS_CHANGE_ADDED;
+import static android.view.accessibility.AccessibilityEvent.WINDOWS_CHANGE_BOUNDS;
+import static android.view.accessibility.AccessibilityEvent.WINDOWS_CHANGE_FOCUSED;
+import static android.view.accessibility.AccessibilityEvent.WINDOWS_CHANGE_REMOVED;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.AdditionalAnswers.returnsFirstArg;
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+import android.graphics.Rect;
+import android.view.accessibility.AccessibilityWindowInfo;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@RunWith(RobolectricTestRunner.class)
+public class WindowRegistryTest {
+
+    private final List<AccessibilityWindowInfo> mWindows = new ArrayList<>();
+    private int mFetchCount;
+    /** Run while fetching the windows, if not null. */
+    private Runnable mOnFetch;
+
+    private AccessibilityWindowInfo mAppWindow;
+    private AccessibilityWindowInfo mHunWindow;
+    private WindowRegistry mWindowRegistry;
+
+    @Before
+    public void setUp() {
+        mAppWindow = new WindowBuilder()
+                .setType(AccessibilityWindowInfo.TYPE_APPLICATION)
+                .setBoundsInScreen(new Rect(0, 0, 1000, 1000))
+                .build();
+        mHunWindow = new WindowBuilder()
+                .setType(AccessibilityWindowInfo.TYPE_SYSTEM)
+                .setBoundsInScreen(new Rect(50, 10, 950, 200))
+                .build();
+        mWindows.add(mHunWindow);
+        mWindows.add(mAppWindow);
+
+        mWindowRegistry = new WindowRegistry(() -> {
+            mFetchCount++;
+            if (mOnFetch != null) {
+                mOnFetch.run();
+            }
+            return new ArrayList<>(mWindows);
+        }, window -> window == mHunWindow);
+        // Copies of mock windows are the windows themselves.
+        NodeCopier nodeCopier = mock(NodeCopier.class);
+        doAnswer(returnsFirstArg()).when(nodeCopier).copy(any(AccessibilityWindowInfo.class));
+        mWindowRegistry.setNodeCopier(nodeCopier);
+    }
+
+    @Test
+    public void testWindowsAreFetchedOnce() {
+        WindowRegistry.Entry app = mWindowRegistry.get(mAppWindow.getId());
+        WindowRegistry.Entry hun = mWindowRegistry.get(mHunWindow.getId());
+
+        assertThat(app.mType).isEqualTo(AccessibilityWindowInfo.TYPE_APPLICATION);
+        assertThat(app.mIsHun).isFalse();
+        assertThat(app.mBounds).isEqualTo(new Rect(0, 0, 1000, 1000));
+        assertThat(hun.mIsHun).isTrue();
+        assertThat(mWindowRegistry.copyWindows()).containsExactly(mHunWindow, mAppWindow)
+                .inOrder();
+        assertThat(mFetchCount).isEqualTo(1);
+    }
+
+    @Test
+    public void testAddedWindowIsFetched() {
+        mWindowRegistry.copyWindows();
+        AccessibilityWindowInfo newWindow = new WindowBuilder().build();
+        mWindows.add(newWindow);
+
+        mWindowRegistry.onWindowsChanged(newWindow.getId(), WINDOWS_CHANGE_ADDED);
+
+        assertThat(mWindowRegistry.copyWindows()).contains(newWindow);
+        assertThat(mFetchCount).isEqualTo(2);
+    }
+
+    @Test
+    public void testMovedWindowIsFetched() {
+        mWindowRegistry.copyWindows();
+
+        mWindowRegistry.onWindowsChanged(mHunWindow.getId(), WINDOWS_CHANGE_BOUNDS);
+        mWindowRegistry.get(mHunWindow.getId());
+
+        assertThat(mFetchCount).isEqualTo(2);
+    }
+
+    @Test
+    public void testRemovedWindowIsDroppedWithoutFetching() {
+        mWindowRegistry.copyWindows();
+
+        mWindowRegistry.onWindowsChanged(mHunWindow.getId(), WINDOWS_CHANGE_REMOVED);
+
+        assertThat(mWindowRegistry.copyWindows()).containsExactly(mAppWindow);
+        assertThat(mFetchCount).isEqualTo(1);
+    }
+
+    @Test
+    public void testIrrelevantChangeIsIgnored() {
+        mWindowRegistry.copyWindows();
+
+        mWindowRegistry.onWindowsChanged(mAppWindow.getId(), WINDOWS_CHANGE_FOCUSED);
+        mWindowRegistry.copyWindows();
+
+        assertThat(mFetchCount).isEqualTo(1);
+    }
+
+    @Test
+    public void testUnknownWindowIsFetched() {
+        mWindowRegistry.copyWindows();
+        AccessibilityWindowInfo newWindow = new WindowBuilder().build();
+        mWindows.add(newWindow);
+
+        assertThat(mWindowRegistry.get(newWindow.getId())).isNotNull();
+        assertThat(mFetchCount).isEqualTo(2);
+    }
+
+    @Test
+    public void testMissingWindowIsFetchedOnceUntilWindowsChange() {
+        mWindowRegistry.copyWindows();
+        AccessibilityWindowInfo removedWindow = new WindowBuilder().build();
+
+        assertThat(mWindowRegistry.get(removedWindow.getId())).isNull();
+        assertThat(mWindowRegistry.get(removedWindow.getId())).isNull();
+        assertThat(mFetchCount).isEqualTo(2);
+
+        mWindowRegistry.onWindowsChanged(mAppWindow.getId(), WINDOWS_CHANGE_FOCUSED);
+        mWindows.add(removedWindow);
+
+        assertThat(mWindowRegistry.get(removedWindow.getId())).isNotNull();
+        assertThat(mFetchCount).isEqualTo(3);
+    }
+
+    @Test
+    public void testWindowChangeDuringFetchDoesNotWait() {
+        mOnFetch = () -> {
+            mOnFetch = null;
+            // The main thread reports a change while a worker thread is fetching the windows.
+            Thread thread = new Thread(() ->
+                    mWindowRegistry.onWindowsChanged(mHunWindow.getId(), WINDOWS_CHANGE_BOUNDS));
+            thread.start();
+            try {
+                thread.join(/* millis= */ 5000);
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+            assertThat(thread.isAlive()).isFalse();
+        };
+
+        assertThat(mWindowRegistry.copyWindows()).containsExactly(mHunWindow, mAppWindow)
+                .inOrder();
+        assertThat(mFetchCount).isEqualTo(1);
+
+        // The windows fetched may predate the change, so they're fetched again.
+        mWindowRegistry.copyWindows();
+        assertThat(mFetchCount).isEqualTo(2);
+    }
+}